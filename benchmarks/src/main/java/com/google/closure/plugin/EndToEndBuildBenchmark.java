@@ -0,0 +1,395 @@
+package com.google.closure.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.component.repository.ComponentDependency;
+import org.json.simple.JSONValue;
+import org.sonatype.plexus.build.incremental.DefaultBuildContext;
+
+import com.google.closure.plugin.benchmarks.SyntheticProject;
+import com.google.closure.plugin.common.Cheats;
+import com.google.closure.plugin.plan.Hash;
+import com.google.closure.plugin.proto.ProtoOptions;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+/**
+ * Builds {@link SyntheticProject}s of increasing size with
+ * {@link ClosureGenerateSourcesMojo} and records, for a cold build, a no-op
+ * rebuild and a rebuild after a single file edit, the wall time, the peak
+ * heap usage and the number of output files created, changed or deleted.
+ * <p>
+ * Usage from the repository root after {@code mvn -Pbenchmarks install}:
+ * <pre>
+ * java -Xmx8g -cp benchmarks/target/benchmarks.jar \
+ *   com.google.closure.plugin.EndToEndBuildBenchmark \
+ *   [--protoc=/path/to/protoc] [--out=e2e-results.json] \
+ *   [--workDir=target/e2e] [--parallelism=N] [1000 10000 50000]
+ * </pre>
+ * Protos are only generated when a protoc executable is given since the
+ * mojo cannot download one outside of Maven.
+ * On Java 9 and later, Soy's dependency injector needs
+ * {@code --add-opens java.base/java.lang=ALL-UNNAMED}.
+ * <p>
+ * All builds run in one JVM so only the first cold build pays for class
+ * loading and JIT warm-up.
+ */
+public final class EndToEndBuildBenchmark {
+  private final File workDir;
+  private final Optional<File> protoc;
+  private final File pluginJar;
+  private final int parallelism;
+  private final SystemStreamLog log = new WarningsOnlyLog();
+
+  private EndToEndBuildBenchmark(
+      File workDir, Optional<File> protoc, File pluginJar, int parallelism) {
+    this.workDir = workDir;
+    this.protoc = protoc;
+    this.pluginJar = pluginJar;
+    this.parallelism = parallelism;
+  }
+
+  /** One build's measurements. */
+  static final class Result {
+    final int nFiles;
+    final String phase;
+    final long wallNanos;
+    final long peakHeapBytes;
+    final int outputsTouched;
+
+    Result(
+        int nFiles, String phase, long wallNanos, long peakHeapBytes,
+        int outputsTouched) {
+      this.nFiles = nFiles;
+      this.phase = phase;
+      this.wallNanos = wallNanos;
+      this.peakHeapBytes = peakHeapBytes;
+      this.outputsTouched = outputsTouched;
+    }
+
+    Map<String, Object> toJson() {
+      Map<String, Object> json = Maps.newLinkedHashMap();
+      json.put("files", nFiles);
+      json.put("phase", phase);
+      json.put("wallMillis", TimeUnit.NANOSECONDS.toMillis(wallNanos));
+      json.put("peakHeapBytes", peakHeapBytes);
+      json.put("outputsTouched", outputsTouched);
+      return json;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%6d files  %-16s %9dms %8dMB heap %7d outputs touched",
+          nFiles, phase, TimeUnit.NANOSECONDS.toMillis(wallNanos),
+          peakHeapBytes >> 20, outputsTouched);
+    }
+  }
+
+  List<Result> run(int nFiles) throws IOException, MojoExecutionException {
+    SyntheticProject synth = new SyntheticProject(
+        nFiles, protoc.isPresent(), 0);
+    File baseDir = new File(workDir, "synthetic-" + nFiles);
+    deleteTree(baseDir);
+    synth.writeTo(baseDir);
+
+    List<Result> results = Lists.newArrayList();
+    results.add(build(nFiles, "cold", baseDir));
+    results.add(build(nFiles, "no-op", baseDir));
+    // Edit a file in the middle so that it has dependers and dependees.
+    synth.editJs(baseDir, synth.nJsFiles / 2, 1);
+    results.add(build(nFiles, "single-file-edit", baseDir));
+    return results;
+  }
+
+  private Result build(int nFiles, String phase, File baseDir)
+  throws IOException, MojoExecutionException {
+    File outputDir = new File(baseDir, "target");
+    Map<String, String> before = snapshot(outputDir);
+
+    System.gc();
+    List<MemoryPoolMXBean> heapPools = Lists.newArrayList();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+        pool.resetPeakUsage();
+        heapPools.add(pool);
+      }
+    }
+
+    long t0 = System.nanoTime();
+    makeMojo(baseDir).execute();
+    long wallNanos = System.nanoTime() - t0;
+
+    long peakHeapBytes = 0;
+    for (MemoryPoolMXBean pool : heapPools) {
+      peakHeapBytes += pool.getPeakUsage().getUsed();
+    }
+
+    Map<String, String> after = snapshot(outputDir);
+    int touched = 0;
+    for (Map.Entry<String, String> e : after.entrySet()) {
+      if (!e.getValue().equals(before.get(e.getKey()))) {
+        ++touched;
+      }
+    }
+    for (String path : before.keySet()) {
+      if (!after.containsKey(path)) {
+        ++touched;
+      }
+    }
+
+    Result result = new Result(
+        nFiles, phase, wallNanos, peakHeapBytes, touched);
+    System.out.println(result);
+    return result;
+  }
+
+  /**
+   * Configures a mojo as Maven would for the generated pom with parameters
+   * at their default values.
+   */
+  private ClosureGenerateSourcesMojo makeMojo(File baseDir) {
+    File target = new File(baseDir, "target");
+    File classes = new File(target, "classes");
+
+    MavenProject project = new MavenProject();
+    project.setFile(new File(baseDir, "pom.xml"));
+    project.setGroupId("synth");
+    project.setArtifactId(baseDir.getName());
+    project.setVersion("1.0-SNAPSHOT");
+    project.getBuild().setDirectory(target.getPath());
+    project.getBuild().setOutputDirectory(classes.getPath());
+    project.addCompileSourceRoot(
+        new File(baseDir, "src/main/java").getPath());
+    project.addTestCompileSourceRoot(
+        new File(baseDir, "src/test/java").getPath());
+    project.setDependencyArtifacts(ImmutableSet.<Artifact>of());
+
+    String pluginVersion = pluginJar.getName()
+        .replaceFirst("^closure-maven-plugin-", "")
+        .replaceFirst("[.]jar$", "");
+    Artifact pluginArtifact = new DefaultArtifact(
+        "com.google.closure", "closure-maven-plugin", pluginVersion,
+        "compile", "maven-plugin", null,
+        new DefaultArtifactHandler("maven-plugin"));
+    pluginArtifact.setFile(pluginJar);
+    ComponentDependency protocPlugin = new ComponentDependency();
+    protocPlugin.setGroupId("com.comoyo.maven.plugins");
+    protocPlugin.setArtifactId("protoc-bundled-plugin");
+    protocPlugin.setVersion("1.4.56");
+    PluginDescriptor pluginDescriptor = new PluginDescriptor();
+    pluginDescriptor.setGroupId(pluginArtifact.getGroupId());
+    pluginDescriptor.setArtifactId(pluginArtifact.getArtifactId());
+    pluginDescriptor.setVersion(pluginVersion);
+    pluginDescriptor.setPluginArtifact(pluginArtifact);
+    pluginDescriptor.setArtifacts(ImmutableList.of(pluginArtifact));
+    pluginDescriptor.setDependencies(ImmutableList.of(protocPlugin));
+
+    ClosureGenerateSourcesMojo mojo = new ClosureGenerateSourcesMojo();
+    mojo.setLog(log);
+    Cheats.cheatSet(
+        AbstractClosureMojo.class, mojo,
+        "buildContext", new DefaultBuildContext());
+    mojo.project = project;
+    mojo.pluginDescriptor = pluginDescriptor;
+    mojo.remoteRepositories = ImmutableList.<ArtifactRepository>of();
+    mojo.baseDir = baseDir;
+    mojo.outputDir = target;
+    mojo.outputClassesDir = classes;
+    mojo.closureOutputDirectory = new File(classes, "closure");
+    mojo.defaultCssSource = new File(baseDir, "src/main/css");
+    mojo.jsGenfiles = new File(target, "src/main/js");
+    mojo.jsTestGenfiles = new File(target, "src/test/js");
+    mojo.javaGenfiles = new File(target, "src/main/java");
+    mojo.javaTestGenfiles = new File(target, "src/test/java");
+    mojo.defaultCssOutputPathTemplate = "{reldir}/{basename}{-orient}.css";
+    mojo.defaultCssSourceMapPathTemplate =
+        "{reldir}/source-map{-basename}{-orient}.json";
+    mojo.defaultMainDescriptorFile =
+        new File(target, "src/main/proto/descriptors.pd");
+    mojo.defaultTestDescriptorFile =
+        new File(target, "src/test/proto/descriptors.pd");
+    mojo.parallelism = parallelism;
+    mojo.memoryBudgetBytes = 0;
+    // A shared build cache would let the cold build skip work.
+    mojo.useBuildCache = false;
+    mojo.paranoidHashing = false;
+    mojo.changeDetectionHash = Hash.Algorithm.MURMUR3_128;
+    mojo.genJavaPackageName = "synth";
+    if (protoc.isPresent()) {
+      ProtoOptions proto = new ProtoOptions();
+      proto.protocExec = protoc.get();
+      mojo.proto = proto;
+    }
+    return mojo;
+  }
+
+  /** Relative paths of files under dir to their size and modified time. */
+  private static Map<String, String> snapshot(File dir) {
+    Map<String, String> snapshot = Maps.newHashMap();
+    snapshot(dir, "", snapshot);
+    return snapshot;
+  }
+
+  private static void snapshot(
+      File f, String relPath, Map<String, String> out) {
+    File[] children = f.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        snapshot(child, relPath + "/" + child.getName(), out);
+      }
+    } else if (f.isFile()) {
+      out.put(relPath, f.length() + ":" + f.lastModified());
+    }
+  }
+
+  private static void deleteTree(File f) throws IOException {
+    File[] children = f.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteTree(child);
+      }
+    }
+    if (f.exists() && !f.delete()) {
+      throw new IOException("Failed to delete " + f);
+    }
+  }
+
+  /** Finds the plugin jar built by the sibling module. */
+  private static File findPluginJar() throws IOException {
+    File pluginTarget = new File("plugin/target");
+    File[] jars = pluginTarget.listFiles();
+    if (jars != null) {
+      for (File jar : jars) {
+        String name = jar.getName();
+        if (name.startsWith("closure-maven-plugin-") && name.endsWith(".jar")
+            && !name.endsWith("-sources.jar")
+            && !name.endsWith("-javadoc.jar")) {
+          return jar;
+        }
+      }
+    }
+    throw new IOException(
+        "No plugin jar under " + pluginTarget.getAbsolutePath()
+        + ".  Run mvn package first or pass --pluginJar.");
+  }
+
+  /** Runs the benchmark as described in the class comment. */
+  public static void main(String... argv) throws Exception {
+    File workDir = new File("target/e2e");
+    File out = new File("e2e-results.json");
+    Optional<File> protoc = Optional.absent();
+    File pluginJar = null;
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    List<Integer> scales = Lists.newArrayList();
+    for (String arg : argv) {
+      if (arg.startsWith("--workDir=")) {
+        workDir = new File(arg.substring("--workDir=".length()));
+      } else if (arg.startsWith("--out=")) {
+        out = new File(arg.substring("--out=".length()));
+      } else if (arg.startsWith("--protoc=")) {
+        protoc = Optional.of(new File(arg.substring("--protoc=".length())));
+      } else if (arg.startsWith("--pluginJar=")) {
+        pluginJar = new File(arg.substring("--pluginJar=".length()));
+      } else if (arg.startsWith("--parallelism=")) {
+        parallelism = Integer.parseInt(
+            arg.substring("--parallelism=".length()));
+      } else {
+        scales.add(Integer.parseInt(arg));
+      }
+    }
+    if (scales.isEmpty()) {
+      scales.addAll(ImmutableList.of(1000, 10000, 50000));
+    }
+    if (pluginJar == null) {
+      pluginJar = findPluginJar();
+    }
+
+    EndToEndBuildBenchmark benchmark = new EndToEndBuildBenchmark(
+        workDir, protoc, pluginJar, parallelism);
+    List<Object> json = Lists.newArrayList();
+    for (int nFiles : scales) {
+      for (Result result : benchmark.run(nFiles)) {
+        json.add(result.toJson());
+      }
+    }
+
+    Map<String, Object> report = Maps.newLinkedHashMap();
+    report.put("version", 1);
+    report.put("protos", protoc.isPresent());
+    report.put("parallelism", parallelism);
+    report.put(
+        "maxHeapBytes", Runtime.getRuntime().maxMemory());
+    report.put("results", json);
+    Files.createParentDirs(out.getAbsoluteFile());
+    try (Writer w = Files.asCharSink(out, Charsets.UTF_8)
+            .openBufferedStream()) {
+      JSONValue.writeJSONString(report, w);
+    }
+    System.out.println("Wrote " + out);
+  }
+
+  /** Drops the per-file chatter that would dominate the output. */
+  static final class WarningsOnlyLog extends SystemStreamLog {
+    @Override
+    public boolean isDebugEnabled() {
+      return false;
+    }
+
+    @Override
+    public boolean isInfoEnabled() {
+      return false;
+    }
+
+    @Override
+    public void debug(CharSequence content) {
+      // Dropped
+    }
+
+    @Override
+    public void debug(CharSequence content, Throwable error) {
+      // Dropped
+    }
+
+    @Override
+    public void debug(Throwable error) {
+      // Dropped
+    }
+
+    @Override
+    public void info(CharSequence content) {
+      // Dropped
+    }
+
+    @Override
+    public void info(CharSequence content, Throwable error) {
+      // Dropped
+    }
+
+    @Override
+    public void info(Throwable error) {
+      // Dropped
+    }
+  }
+}
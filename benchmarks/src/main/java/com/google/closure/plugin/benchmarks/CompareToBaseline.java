@@ -0,0 +1,151 @@
+package com.google.closure.plugin.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+/**
+ * Compares JMH results in JSON form against a baseline and exits with a
+ * non-zero status if any benchmark regressed by more than a threshold.
+ * <p>
+ * Usage: {@code CompareToBaseline baseline.json results.json [percent]}
+ * where percent defaults to 10.
+ */
+public final class CompareToBaseline {
+  private CompareToBaseline() {
+    // Not instantiable
+  }
+
+  /** A benchmark score. */
+  static final class Score {
+    final double score;
+    final double error;
+    final String unit;
+    /** True for throughput modes where higher scores are better. */
+    final boolean higherIsBetter;
+
+    Score(double score, double error, String unit, boolean higherIsBetter) {
+      this.score = score;
+      this.error = error;
+      this.unit = unit;
+      this.higherIsBetter = higherIsBetter;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%.3f +/- %.3f %s", score, error, unit);
+    }
+  }
+
+  /**
+   * Reads JMH JSON results into a map from benchmark names and parameters
+   * to scores.
+   */
+  static Map<String, Score> read(File f) throws IOException {
+    Object parsed;
+    try (Reader in = Files.newReader(f, Charsets.UTF_8)) {
+      parsed = new JSONParser().parse(in);
+    } catch (ParseException ex) {
+      throw new IOException("Malformed JMH results in " + f, ex);
+    }
+    if (!(parsed instanceof JSONArray)) {
+      throw new IOException("Expected an array of JMH results in " + f);
+    }
+    Map<String, Score> scores = Maps.newTreeMap();
+    for (Object el : (JSONArray) parsed) {
+      JSONObject result = (JSONObject) el;
+      StringBuilder key = new StringBuilder((String) result.get("benchmark"));
+      Object params = result.get("params");
+      if (params instanceof JSONObject) {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> sortedParams = new TreeMap<>((JSONObject) params);
+        key.append(sortedParams);
+      }
+      String mode = (String) result.get("mode");
+      JSONObject metric = (JSONObject) result.get("primaryMetric");
+      scores.put(
+          key.toString(),
+          new Score(
+              ((Number) metric.get("score")).doubleValue(),
+              toDouble(metric.get("scoreError")),
+              (String) metric.get("scoreUnit"),
+              "thrpt".equals(mode)));
+    }
+    return scores;
+  }
+
+  private static double toDouble(Object o) {
+    // JMH writes NaN as a string when there are too few samples.
+    return o instanceof Number ? ((Number) o).doubleValue() : 0;
+  }
+
+  /**
+   * @return the fractional change in cost from baseline to current,
+   *     positive when current is slower.
+   */
+  static double regression(Score baseline, Score current) {
+    double change = (current.score - baseline.score) / baseline.score;
+    return baseline.higherIsBetter ? -change : change;
+  }
+
+  /** Compares results and reports regressions. */
+  public static void main(String... argv) throws IOException {
+    if (argv.length != 2 && argv.length != 3) {
+      System.err.println(
+          "Usage: CompareToBaseline baseline.json results.json [percent]");
+      System.exit(2);
+      return;
+    }
+    Map<String, Score> baseline = read(new File(argv[0]));
+    Map<String, Score> current = read(new File(argv[1]));
+    double threshold = argv.length == 3
+        ? Double.parseDouble(argv[2]) / 100 : 0.1;
+
+    int nRegressed = 0;
+    for (Map.Entry<String, Score> e : current.entrySet()) {
+      String name = e.getKey();
+      Score now = e.getValue();
+      Score then = baseline.get(name);
+      if (then == null) {
+        System.out.println("NEW       " + name + " " + now);
+        continue;
+      }
+      if (!then.unit.equals(now.unit)) {
+        System.out.println(
+            "SKIPPED   " + name + " units differ: " + then + " vs " + now);
+        continue;
+      }
+      double regression = regression(then, now);
+      String verdict = "OK       ";
+      if (regression > threshold) {
+        verdict = "REGRESSED";
+        ++nRegressed;
+      } else if (regression < -threshold) {
+        verdict = "IMPROVED ";
+      }
+      System.out.println(String.format(
+          "%s %s %s -> %s (%+.1f%%)",
+          verdict, name, then, now, regression * 100));
+    }
+    for (String name : baseline.keySet()) {
+      if (!current.containsKey(name)) {
+        System.out.println("MISSING   " + name);
+      }
+    }
+    if (nRegressed != 0) {
+      System.err.println(nRegressed + " benchmarks regressed");
+      System.exit(1);
+    }
+  }
+}
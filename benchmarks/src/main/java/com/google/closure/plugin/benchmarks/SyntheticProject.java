@@ -0,0 +1,346 @@
+package com.google.closure.plugin.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+
+/**
+ * Generates a project with many closure sources whose dependencies resemble
+ * those of a large code base: most requirements are of nearby files in the
+ * same package, a few are of files anywhere, and some are of the closure
+ * library.
+ * <p>
+ * Files are spread over packages of {@link #FILES_PER_PACKAGE} files each and
+ * every file only depends on files generated before it, so the dependency
+ * graph is acyclic.  Generation is deterministic given the seed.
+ * <p>
+ * Usage: {@code SyntheticProject <directory> <nFiles> [<seed>]}
+ * writes a project with a {@code pom.xml} that can be built with
+ * {@code mvn process-sources}.
+ */
+public final class SyntheticProject {
+  /** The number of files of each kind in a package directory. */
+  public static final int FILES_PER_PACKAGE = 50;
+
+  /** Closure library namespaces that generated JS may require. */
+  private static final ImmutableList<String> CLOSURE_LIBRARY_NAMESPACES =
+      ImmutableList.of(
+          "goog.array", "goog.asserts", "goog.dom", "goog.events",
+          "goog.object", "goog.string");
+
+  /** The number of JS files. */
+  public final int nJsFiles;
+  /** The number of GSS files including entry points. */
+  public final int nCssFiles;
+  /** The number of Soy files. */
+  public final int nSoyFiles;
+  /** The number of proto files, or zero if protoc is not available. */
+  public final int nProtoFiles;
+  private final long seed;
+
+  /**
+   * @param nFiles the total number of source files to generate.
+   * @param withProtos false to generate JS files in place of protos as when
+   *     there is no protoc to compile them.
+   * @param seed seeds the choice of dependencies.
+   */
+  public SyntheticProject(int nFiles, boolean withProtos, long seed) {
+    Preconditions.checkArgument(nFiles >= 10, "nFiles too small");
+    this.nCssFiles = nFiles / 10;
+    this.nSoyFiles = nFiles / 10;
+    this.nProtoFiles = withProtos ? nFiles / 10 : 0;
+    this.nJsFiles = nFiles - nCssFiles - nSoyFiles - nProtoFiles;
+    this.seed = seed;
+  }
+
+  /** The total number of source files. */
+  public int fileCount() {
+    return nJsFiles + nCssFiles + nSoyFiles + nProtoFiles;
+  }
+
+  /** Writes the project files under baseDir. */
+  public void writeTo(File baseDir) throws IOException {
+    Random random = new Random(seed);
+    writePom(baseDir);
+    for (int i = 0; i < nJsFiles; ++i) {
+      write(new File(baseDir, jsPath(i)), jsFile(i, random));
+    }
+    for (int i = 0; i < nCssFiles; ++i) {
+      write(new File(baseDir, cssPath(i)), cssFile(i, random));
+    }
+    for (int i = 0; i < nSoyFiles; ++i) {
+      write(new File(baseDir, soyPath(i)), soyFile(i, random));
+    }
+    for (int i = 0; i < nProtoFiles; ++i) {
+      write(new File(baseDir, protoPath(i)), protoFile(i, random));
+    }
+  }
+
+  /**
+   * Changes a JS file in a way that changes its compiled output but not its
+   * dependencies.
+   *
+   * @param i the index of the file to change.
+   * @param generation distinguishes successive edits.
+   */
+  public void editJs(File baseDir, int i, int generation) throws IOException {
+    File f = new File(baseDir, jsPath(i));
+    Files.append(
+        "\n" + jsNamespace(i) + ".edit" + generation
+        + " = function () { return " + generation + "; };\n",
+        f, Charsets.UTF_8);
+  }
+
+  /** Relative path of the i-th JS file. */
+  public static String jsPath(int i) {
+    return "src/main/js/" + pkg(i) + "/file" + i + ".js";
+  }
+
+  /** Relative path of the i-th GSS file. */
+  public static String cssPath(int i) {
+    return "src/main/css/" + pkg(i) + "/"
+        + (isCssEntryPoint(i) ? pkg(i) + "-main" : "style" + i) + ".css";
+  }
+
+  /** Relative path of the i-th Soy file. */
+  public static String soyPath(int i) {
+    return "src/main/soy/" + pkg(i) + "/Templates" + i + ".soy";
+  }
+
+  /** Relative path of the i-th proto file. */
+  public static String protoPath(int i) {
+    return "src/main/proto/synth/" + pkg(i) + "/m" + i + ".proto";
+  }
+
+  private static String pkg(int i) {
+    return "p" + (i / FILES_PER_PACKAGE);
+  }
+
+  private static String jsNamespace(int i) {
+    return "synth." + pkg(i) + ".file" + i;
+  }
+
+  /**
+   * Picks the indices of earlier files that file i depends upon.
+   * Like real code, most dependencies are close by in the same package.
+   */
+  private static List<Integer> dependencies(
+      int i, int maxDeps, Random random) {
+    Set<Integer> deps = Sets.newTreeSet();
+    if (i == 0) { return Lists.newArrayList(deps); }
+    int packageStart = i - i % FILES_PER_PACKAGE;
+    // Skewed toward small numbers of dependencies.
+    int nDeps = Math.min(i, 1 + (int) Math.floor(
+        maxDeps * random.nextDouble() * random.nextDouble()));
+    while (deps.size() < nDeps) {
+      if (i > packageStart && random.nextInt(10) < 7) {
+        deps.add(packageStart + random.nextInt(i - packageStart));
+      } else {
+        deps.add(random.nextInt(i));
+      }
+    }
+    return Lists.newArrayList(deps);
+  }
+
+  private static String jsFile(int i, Random random) {
+    StringBuilder sb = new StringBuilder();
+    String ns = jsNamespace(i);
+    sb.append("/**\n")
+      .append(" * @fileoverview Synthetic source ").append(i).append(".\n")
+      .append(" */\n")
+      .append("goog.provide('").append(ns).append("');\n\n");
+    List<Integer> deps = dependencies(i, 8, random);
+    List<String> libs = Lists.newArrayList();
+    if (random.nextInt(4) == 0) {
+      libs.add(CLOSURE_LIBRARY_NAMESPACES.get(
+          random.nextInt(CLOSURE_LIBRARY_NAMESPACES.size())));
+    }
+    for (String lib : libs) {
+      sb.append("goog.require('").append(lib).append("');\n");
+    }
+    for (int dep : deps) {
+      sb.append("goog.require('").append(jsNamespace(dep)).append("');\n");
+    }
+    sb.append("\n")
+      .append("/**\n")
+      .append(" * @param {number} x\n")
+      .append(" * @return {number}\n")
+      .append(" */\n")
+      .append(ns).append(".compute = function (x) {\n")
+      .append("  var total = x;\n");
+    for (int dep : deps) {
+      sb.append("  total += ").append(jsNamespace(dep))
+        .append(".compute(x - 1);\n");
+    }
+    sb.append("  return total;\n")
+      .append("};\n\n")
+      .append("/** @const {string} */\n")
+      .append(ns).append(".NAME = '").append(ns).append("';\n");
+    return sb.toString();
+  }
+
+  private static boolean isCssEntryPoint(int i) {
+    return i % FILES_PER_PACKAGE == FILES_PER_PACKAGE - 1;
+  }
+
+  private static String cssName(int i) {
+    return "synth." + pkg(i) + ".style" + i;
+  }
+
+  private static String cssFile(int i, Random random) {
+    StringBuilder sb = new StringBuilder();
+    if (isCssEntryPoint(i)) {
+      // Entry points pull in the rest of the package.
+      sb.append("/* Entry point for package ").append(pkg(i)).append(" */\n");
+      int packageStart = i - i % FILES_PER_PACKAGE;
+      for (int dep = packageStart; dep < i; dep += 5) {
+        sb.append("@require '").append(cssName(dep)).append("';\n");
+      }
+    } else {
+      sb.append("@provide '").append(cssName(i)).append("';\n");
+      for (int dep : dependencies(i, 4, random)) {
+        if (!isCssEntryPoint(dep)) {
+          sb.append("@require '").append(cssName(dep)).append("';\n");
+        }
+      }
+    }
+    sb.append("\n")
+      .append("@def SYNTH_PAD_").append(i).append(" ")
+      .append(i % 16).append("px;\n\n")
+      .append(".synth-").append(pkg(i)).append("-item").append(i)
+      .append(" {\n")
+      .append("  padding: SYNTH_PAD_").append(i).append(";\n")
+      .append("  color: #")
+      .append(String.format("%06x", i * 2654435 & 0xffffff)).append(";\n")
+      .append("}\n");
+    return sb.toString();
+  }
+
+  private static String soyNamespace(int i) {
+    return "synth." + pkg(i) + ".templates" + i;
+  }
+
+  private static String soyFile(int i, Random random) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("{namespace ").append(soyNamespace(i)).append("}\n\n")
+      .append("/**\n")
+      .append(" * Renders synthetic item ").append(i).append(".\n")
+      .append(" */\n")
+      .append("{template .render}\n")
+      .append("  {@param name : string}\n")
+      .append("  <div class=\"synth-item\">\n")
+      .append("    {$name}\n");
+    for (int dep : dependencies(i, 4, random)) {
+      sb.append("    {call ").append(soyNamespace(dep))
+        .append(".render}{param name: $name + '/")
+        .append(dep).append("' /}{/call}\n");
+    }
+    sb.append("  </div>\n")
+      .append("{/template}\n");
+    return sb.toString();
+  }
+
+  private static String protoFile(int i, Random random) {
+    StringBuilder sb = new StringBuilder();
+    List<Integer> deps = dependencies(i, 3, random);
+    sb.append("syntax = \"proto2\";\n\n")
+      .append("package synth.").append(pkg(i)).append(";\n\n");
+    for (int dep : deps) {
+      sb.append("import \"").append(
+          protoPath(dep).substring("src/main/proto/".length()))
+        .append("\";\n");
+    }
+    sb.append("\n")
+      .append("option java_package = \"synth.").append(pkg(i)).append("\";\n")
+      .append("option java_outer_classname = \"M").append(i)
+      .append("Proto\";\n\n")
+      .append("/* Synthetic message ").append(i).append(" */\n")
+      .append("message Msg").append(i).append(" {\n")
+      .append("  optional string name = 1;\n")
+      .append("  repeated int64 ids = 2;\n");
+    int field = 3;
+    for (int dep : deps) {
+      sb.append("  optional synth.").append(pkg(dep)).append(".Msg")
+        .append(dep).append(" ref").append(dep).append(" = ")
+        .append(field++).append(";\n");
+    }
+    sb.append("}\n");
+    return sb.toString();
+  }
+
+  private void writePom(File baseDir) throws IOException {
+    String version = SyntheticProject.class.getPackage()
+        .getImplementationVersion();
+    if (version == null) { version = "1.3.0-SNAPSHOT"; }
+    StringBuilder sb = new StringBuilder();
+    sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+      .append("<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n")
+      .append("  <modelVersion>4.0.0</modelVersion>\n")
+      .append("  <groupId>synth</groupId>\n")
+      .append("  <artifactId>synthetic-").append(fileCount())
+      .append("</artifactId>\n")
+      .append("  <version>1.0-SNAPSHOT</version>\n")
+      .append("  <properties>\n")
+      .append("    <project.build.sourceEncoding>UTF-8")
+      .append("</project.build.sourceEncoding>\n")
+      .append("  </properties>\n")
+      .append("  <build>\n")
+      .append("    <defaultGoal>process-sources</defaultGoal>\n")
+      .append("    <plugins>\n")
+      .append("      <plugin>\n")
+      .append("        <groupId>com.google.closure</groupId>\n")
+      .append("        <artifactId>closure-maven-plugin</artifactId>\n")
+      .append("        <version>").append(version).append("</version>\n")
+      .append("        <executions>\n")
+      .append("          <execution>\n")
+      .append("            <goals>\n")
+      .append("              <goal>generate-closure-sources</goal>\n")
+      .append("            </goals>\n")
+      .append("          </execution>\n")
+      .append("        </executions>\n")
+      .append("      </plugin>\n")
+      .append("    </plugins>\n")
+      .append("  </build>\n");
+    if (nProtoFiles != 0) {
+      sb.append("  <dependencies>\n")
+        .append("    <dependency>\n")
+        .append("      <groupId>com.google.protobuf</groupId>\n")
+        .append("      <artifactId>protobuf-java</artifactId>\n")
+        .append("      <version>3.0.0</version>\n")
+        .append("    </dependency>\n")
+        .append("  </dependencies>\n");
+    }
+    sb.append("</project>\n");
+    write(new File(baseDir, "pom.xml"), sb.toString());
+  }
+
+  private static void write(File f, String content) throws IOException {
+    Files.createParentDirs(f);
+    Files.write(content, f, Charsets.UTF_8);
+  }
+
+  /** Writes a project as described in the class comment. */
+  public static void main(String... argv) throws IOException {
+    if (argv.length < 2 || argv.length > 3) {
+      System.err.println("Usage: SyntheticProject <directory> <nFiles> [seed]");
+      System.exit(2);
+      return;
+    }
+    File baseDir = new File(argv[0]);
+    int nFiles = Integer.parseInt(argv[1]);
+    long seed = argv.length == 3 ? Long.parseLong(argv[2]) : 0;
+    SyntheticProject project = new SyntheticProject(nFiles, true, seed);
+    project.writeTo(baseDir);
+    System.out.println(
+        "Wrote " + project.fileCount() + " sources to " + baseDir);
+  }
+}
@@ -0,0 +1,98 @@
+package com.google.closure.plugin.common;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Lexes large generated protobuf definitions and JavaScript files as the
+ * proto package map and JS dependency extraction do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@SuppressWarnings("javadoc")
+public class CStyleLexerBenchmark {
+
+  @Param({"proto", "js"})
+  public String language;
+
+  /** Approximate size of the lexed content in characters. */
+  @Param({"1000000"})
+  public int size;
+
+  private String content;
+
+  @Setup
+  public void setUp() {
+    StringBuilder sb = new StringBuilder(size + 1024);
+    for (int i = 0; sb.length() < size; ++i) {
+      if ("proto".equals(language)) {
+        appendProto(sb, i);
+      } else {
+        appendJs(sb, i);
+      }
+    }
+    content = sb.toString();
+  }
+
+  private static void appendProto(StringBuilder sb, int i) {
+    sb.append("// Message number ").append(i).append("\n")
+      .append("/** Documents message ").append(i).append(". */\n")
+      .append("message M").append(i).append(" {\n")
+      .append("  optional string name = 1;\n")
+      .append("  repeated int64 ids = 2 [packed = true];\n")
+      .append("  optional double ratio = 3 [default = 0.5e-3];\n")
+      .append("  optional bytes payload = 4 [default = \"\\x00\\\"\"];\n")
+      .append("  optional M").append(i).append(".Inner inner = 0x")
+      .append(Integer.toHexString(i + 5)).append(";\n")
+      .append("  message Inner { optional string s = 1; }\n")
+      .append("}\n\n");
+  }
+
+  private static void appendJs(StringBuilder sb, int i) {
+    sb.append("/**\n * @param {number} x\n * @return {string}\n */\n")
+      .append("goog.provide('ns.f").append(i).append("');\n")
+      .append("goog.require('ns.f").append(i / 2).append("');\n")
+      .append("ns.f").append(i).append(" = function (x) {\n")
+      .append("  // Mixes strings, numbers and punctuation.\n")
+      .append("  var s = 'it\\'s ' + \"x=\\\"\" + x.toFixed(2) + '\"';\n")
+      .append("  return x > 1.5e3 ? s : s + ns.f").append(i / 2)
+      .append("(x * 2);\n")
+      .append("};\n\n");
+  }
+
+  @Benchmark
+  public int lex(Blackhole bh) {
+    int n = 0;
+    for (CStyleLexer.Token token : new CStyleLexer(content)) {
+      bh.consume(token);
+      ++n;
+    }
+    return n;
+  }
+
+  @Benchmark
+  public int lexPreservingDocComments(Blackhole bh) {
+    int n = 0;
+    for (CStyleLexer.Token token : new CStyleLexer(content, true)) {
+      bh.consume(token);
+      ++n;
+    }
+    return n;
+  }
+}
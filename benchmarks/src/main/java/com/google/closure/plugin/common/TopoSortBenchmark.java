@@ -0,0 +1,87 @@
+package com.google.closure.plugin.common;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Sorts graphs shaped like a large source tree where each item provides one
+ * symbol and requires a few items with lower indices.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@SuppressWarnings("javadoc")
+public class TopoSortBenchmark {
+
+  @Param({"10000"})
+  public int nItems;
+
+  /** The number of requirements per item. */
+  @Param({"4"})
+  public int fanOut;
+
+  private ImmutableList<String> items;
+  private Function<String, ImmutableList<String>> getRequires;
+  private Function<String, ImmutableList<String>> getProvides;
+
+  @Setup
+  public void setUp() {
+    ImmutableList.Builder<String> b = ImmutableList.builder();
+    // Items are presented in reverse so that the sort has to do some work.
+    for (int i = nItems; --i >= 0;) {
+      b.add(itemName(i));
+    }
+    items = b.build();
+    final int k = fanOut;
+    getRequires = new Function<String, ImmutableList<String>>() {
+      @Override
+      public ImmutableList<String> apply(String item) {
+        int i = itemIndex(item);
+        ImmutableList.Builder<String> requires = ImmutableList.builder();
+        for (int j = 1; j <= k && i - j * j >= 0; ++j) {
+          requires.add("sym" + (i - j * j));
+        }
+        return requires.build();
+      }
+    };
+    getProvides = new Function<String, ImmutableList<String>>() {
+      @Override
+      public ImmutableList<String> apply(String item) {
+        return ImmutableList.of("sym" + itemIndex(item));
+      }
+    };
+  }
+
+  private static String itemName(int i) {
+    return "item" + i;
+  }
+
+  private static int itemIndex(String item) {
+    return Integer.parseInt(item.substring("item".length()));
+  }
+
+  @Benchmark
+  public ImmutableList<String> sort()
+  throws TopoSort.MissingRequirementException,
+         TopoSort.CyclicRequirementException {
+    return new TopoSort<String, String>(getRequires, getProvides, items)
+        .getSortedItems();
+  }
+}
@@ -0,0 +1,66 @@
+package com.google.closure.plugin.js;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.closure.plugin.common.OptionsUtils;
+import com.google.closure.plugin.js.JsDepInfo.DepInfo;
+import com.google.closure.plugin.plan.Metadata;
+import com.google.closure.plugin.common.Sources.Source;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Groups sources into modules and orders them given precomputed dependency
+ * info.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@SuppressWarnings("javadoc")
+public class ComputeJsDepGraphBenchmark {
+
+  @Param({"1000", "10000"})
+  public int nFiles;
+
+  @Param({"20"})
+  public int nModules;
+
+  private Log log;
+  private JsOptions options;
+  private JsFixtures fixtures;
+  private JsDepInfo depInfo;
+
+  @Setup
+  public void setUp() throws IOException, MojoExecutionException {
+    log = new SystemStreamLog();
+    options = OptionsUtils.prepareOne(new JsOptions());
+    fixtures = new JsFixtures(nFiles, nModules);
+    depInfo = new JsDepInfo(ComputeJsDepInfo.computeDepInfo(
+        log, ImmutableMap.<Source, Metadata<DepInfo>>of(), options,
+        fixtures.loader(), fixtures.sources));
+  }
+
+  @Benchmark
+  public Modules computeDepGraph() throws MojoExecutionException {
+    return ComputeJsDepGraph.computeDepGraph(
+        log, options, fixtures.sources, depInfo);
+  }
+}
@@ -0,0 +1,92 @@
+package com.google.closure.plugin.js;
+
+import java.io.File;
+import java.util.Map;
+
+import com.google.closure.plugin.common.SourceFileProperty;
+import com.google.closure.plugin.common.Sources.Source;
+import com.google.closure.plugin.common.TypedFile;
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteSource;
+
+/**
+ * In-memory closure JavaScript sources spread over several modules where
+ * each file requires a few files that precede it.
+ */
+final class JsFixtures {
+  static final File MAIN_ROOT = new File("/src/main/js");
+  static final File BASE_ROOT = new File("/dep/closure/goog");
+
+  /** Sources in dependency order starting with closure's base.js. */
+  final ImmutableList<Source> sources;
+  /** The content of each source. */
+  final ImmutableMap<File, byte[]> content;
+
+  /**
+   * @param nFiles the number of files apart from base.js.
+   * @param nModules the number of directories that files are spread over.
+   */
+  JsFixtures(int nFiles, int nModules) {
+    ImmutableList.Builder<Source> sourcesBuilder = ImmutableList.builder();
+    ImmutableMap.Builder<File, byte[]> contentBuilder = ImmutableMap.builder();
+
+    Source base = new Source(
+        new File(BASE_ROOT, "base.js"),
+        new TypedFile(BASE_ROOT, SourceFileProperty.LOAD_AS_NEEDED),
+        new File("base.js"));
+    sourcesBuilder.add(base);
+    contentBuilder.put(
+        base.canonicalPath,
+        "/** @fileoverview @provideGoog */".getBytes(Charsets.UTF_8));
+
+    TypedFile mainRoot = new TypedFile(MAIN_ROOT);
+    for (int i = 0; i < nFiles; ++i) {
+      File relPath = new File("m" + (i % nModules), "f" + i + ".js");
+      Source s = new Source(
+          new File(MAIN_ROOT, relPath.getPath()), mainRoot, relPath);
+      sourcesBuilder.add(s);
+      contentBuilder.put(s.canonicalPath, fileContent(i));
+    }
+
+    this.sources = sourcesBuilder.build();
+    this.content = contentBuilder.build();
+  }
+
+  private static byte[] fileContent(int i) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("/**\n")
+      .append(" * @fileoverview Generated file ").append(i).append(".\n")
+      .append(" * Includes non-ASCII \u00e9\u4e2d and \"quoted\" text.\n")
+      .append(" */\n")
+      .append("goog.provide('bench.f").append(i).append("');\n\n");
+    for (int d = 1; d <= 3 && i - d * 7 >= 0; ++d) {
+      sb.append("goog.require('bench.f").append(i - d * 7).append("');\n");
+    }
+    sb.append("\n");
+    for (int j = 0; j < 20; ++j) {
+      sb.append("/** @return {string} */\n")
+        .append("bench.f").append(i).append(".g").append(j)
+        .append(" = function () {\n")
+        .append("  return 'x\\ty' + \"\\\\\" + ").append(j).append(";\n")
+        .append("};\n");
+    }
+    return sb.toString().getBytes(Charsets.UTF_8);
+  }
+
+  /** Loads fixture content instead of reading files. */
+  Function<Source, ByteSource> loader() {
+    final Map<File, byte[]> m = content;
+    return new Function<Source, ByteSource>() {
+      @Override
+      public ByteSource apply(Source s) {
+        byte[] bytes = m.get(s.canonicalPath);
+        Preconditions.checkNotNull(bytes, s.canonicalPath);
+        return ByteSource.wrap(bytes);
+      }
+    };
+  }
+}
@@ -0,0 +1,107 @@
+package com.google.closure.plugin.js;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.json.simple.JSONValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.closure.plugin.common.Sources.Source;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+/**
+ * Parses closure compiler output in the JSON streams format with one
+ * output per module, decoding outputs to temporary files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@SuppressWarnings("javadoc")
+public class JsonStreamOutputHandlerBenchmark {
+
+  @Param({"1000"})
+  public int nFiles;
+
+  @Param({"10"})
+  public int nModules;
+
+  private byte[] compilerOutput;
+  private File tempDir;
+
+  @Setup
+  public void setUp() {
+    JsFixtures fixtures = new JsFixtures(nFiles, nModules);
+    List<StringBuilder> moduleSrcs = Lists.newArrayList();
+    for (int i = 0; i < nModules; ++i) {
+      moduleSrcs.add(new StringBuilder());
+    }
+    int i = 0;
+    for (Source s : fixtures.sources) {
+      moduleSrcs.get(i++ % nModules).append(
+          new String(fixtures.content.get(s.canonicalPath), Charsets.UTF_8));
+    }
+    List<Object> outputs = Lists.newArrayList();
+    for (int m = 0; m < nModules; ++m) {
+      String src = moduleSrcs.get(m).toString();
+      // Roughly one source map segment group per output line.
+      int nLines = src.length() / 40;
+      Map<String, Object> output = Maps.newLinkedHashMap();
+      output.put("path", "m" + m + ".js");
+      output.put("src", src);
+      output.put(
+          "source_map",
+          "{\"version\":3,\"file\":\"m" + m + ".js\",\"mappings\":\""
+          + Strings.repeat("AAAA,CAAC,EAAE;", nLines) + "\"}");
+      outputs.add(output);
+    }
+    compilerOutput = JSONValue.toJSONString(outputs).getBytes(Charsets.UTF_8);
+    tempDir = Files.createTempDir();
+  }
+
+  @TearDown
+  public void tearDown() {
+    if (!tempDir.delete()) {
+      throw new IllegalStateException("Failed to delete " + tempDir);
+    }
+  }
+
+  @Benchmark
+  public int parse() throws IOException {
+    JsonStreamOutputHandler handler = new JsonStreamOutputHandler(
+        new SystemStreamLog(), tempDir);
+    try {
+      try (OutputStream out = handler.openStream()) {
+        out.write(compilerOutput);
+      }
+      if (!handler.getFailures().isEmpty()) {
+        throw new IOException(handler.getFailures().get(0));
+      }
+      return handler.getOutputs().size();
+    } finally {
+      handler.deleteTempFiles();
+    }
+  }
+}
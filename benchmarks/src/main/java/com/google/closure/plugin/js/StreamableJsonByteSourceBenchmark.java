@@ -0,0 +1,72 @@
+package com.google.closure.plugin.js;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.closure.plugin.common.Sources.Source;
+import com.google.common.base.Function;
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Measures how quickly JS sources are encoded as the JSON streams input to
+ * the closure compiler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@SuppressWarnings("javadoc")
+public class StreamableJsonByteSourceBenchmark {
+
+  @Param({"1000"})
+  public int nFiles;
+
+  private StreamableJsonByteSource json;
+
+  @Setup
+  public void setUp() {
+    JsFixtures fixtures = new JsFixtures(nFiles, 10);
+    final Function<Source, ByteSource> loader = fixtures.loader();
+    json = new StreamableJsonByteSource(
+        new SystemStreamLog(), fixtures.sources) {
+      @Override
+      protected ByteSource contentOf(Source s) {
+        return loader.apply(s);
+      }
+    };
+  }
+
+  /** Copies in bulk as the process runner does. */
+  @Benchmark
+  public long copy() throws IOException {
+    return json.copyTo(ByteStreams.nullOutputStream());
+  }
+
+  @Benchmark
+  public long readByteAtATime() throws IOException {
+    long n = 0;
+    try (InputStream in = json.openStream()) {
+      for (int b; (b = in.read()) >= 0;) {
+        n += b;
+      }
+    }
+    return n;
+  }
+}
@@ -0,0 +1,108 @@
+package com.google.closure.plugin.plan;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.closure.plugin.common.Sources.Source;
+import com.google.closure.plugin.common.TypedFile;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+/**
+ * Hashes many source files as change detection does at the start of each
+ * build.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@SuppressWarnings("javadoc")
+public class HashBenchmark {
+
+  @Param({"1000"})
+  public int nFiles;
+
+  @Param({"4096", "65536"})
+  public int fileSize;
+
+  @Param({"SHA512", "MURMUR3_128"})
+  public Hash.Algorithm algorithm;
+
+  private File root;
+  private ImmutableList<Source> sources;
+  private FileStatCache warmCache;
+
+  @Setup
+  public void setUp() throws IOException {
+    root = Files.createTempDir();
+    TypedFile typedRoot = new TypedFile(root);
+    ImmutableList.Builder<Source> b = ImmutableList.builder();
+    byte[] content = new byte[fileSize];
+    for (int i = 0; i < nFiles; ++i) {
+      for (int j = 0; j < content.length; ++j) {
+        content[j] = (byte) ('a' + (i + j) % 26);
+      }
+      File relPath = new File("f" + i + ".js");
+      File f = new File(root, relPath.getPath());
+      Files.write(content, f);
+      b.add(new Source(f.getCanonicalFile(), typedRoot, relPath));
+    }
+    sources = b.build();
+
+    warmCache = new FileStatCache(Optional.<File>absent(), false, algorithm);
+    for (Source s : sources) {
+      warmCache.contentHash(s.canonicalPath);
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    for (Source s : sources) {
+      if (!s.canonicalPath.delete()) {
+        throw new IOException("Failed to delete " + s.canonicalPath);
+      }
+    }
+    if (!root.delete()) {
+      throw new IOException("Failed to delete " + root);
+    }
+  }
+
+  /** Reads and hashes every file. */
+  @Benchmark
+  public Hash hashFileContent() throws IOException {
+    List<Hash> hashes = Lists.newArrayListWithCapacity(sources.size());
+    for (Source s : sources) {
+      hashes.add(Hash.hashFileContent(s.canonicalPath, algorithm));
+    }
+    return Hash.hashAllHashes(hashes);
+  }
+
+  /** Looks up hashes of unchanged files in a stat cache. */
+  @Benchmark
+  public Hash hashUnchangedViaStatCache() throws IOException {
+    List<Hash> hashes = Lists.newArrayListWithCapacity(sources.size());
+    for (Source s : sources) {
+      hashes.add(warmCache.contentHash(s.canonicalPath));
+    }
+    return Hash.hashAllHashes(hashes);
+  }
+}
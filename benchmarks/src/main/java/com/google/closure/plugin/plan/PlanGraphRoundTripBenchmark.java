@@ -0,0 +1,229 @@
+package com.google.closure.plugin.plan;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sonatype.plexus.build.incremental.DefaultBuildContext;
+
+import com.google.closure.plugin.cache.BuildCache;
+import com.google.closure.plugin.common.FileExt;
+import com.google.closure.plugin.common.Sources.Source;
+import com.google.closure.plugin.common.TypedFile;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Stores a plan graph and reads it back as incremental builds do.
+ * Run {@link #main} to compare the size of the stored form with that of
+ * the plain Java serialization that plan graphs used to be stored with.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@SuppressWarnings("javadoc")
+public class PlanGraphRoundTripBenchmark {
+
+  static final String PLANNER_KEY = "bench";
+  static final Hash CONFIG_HASH = Hash.hashString(PLANNER_KEY);
+
+  @Param({"1000"})
+  public int nPipelines;
+
+  /** The number of file paths each node's state vector mentions. */
+  @Param({"50"})
+  public int nPathsPerNode;
+
+  private PlanGraph graph;
+  private byte[] stored;
+
+  static PlanContext makeContext() {
+    return new PlanContext(
+        null, null, new DefaultBuildContext(), new SystemStreamLog(),
+        null, null, ImmutableList.<Artifact>of(), null, null, null, null,
+        1, 0, 0, Optional.<BuildCache>absent(), FileStatCache.paranoid(),
+        SessionCache.unshared());
+  }
+
+  /**
+   * A node whose state vector resembles that of a compile node: a lazily
+   * decoded list of input sources that share roots and path prefixes with
+   * other nodes'.
+   */
+  static final class BenchNode extends PlanGraphNode<BenchStateVector> {
+    final BenchStateVector sv;
+
+    BenchNode(PlanContext context, BenchStateVector sv) {
+      super(context);
+      this.sv = sv;
+    }
+
+    @Override
+    protected void preExecute(Iterable<? extends PlanGraphNode<?>> preceders) {
+      // Never executed.
+    }
+
+    @Override
+    protected void filterUpdates() {
+      // Never executed.
+    }
+
+    @Override
+    protected void process() {
+      // Never executed.
+    }
+
+    @Override
+    protected Iterable<? extends File> changedOutputFiles() {
+      return ImmutableList.of();
+    }
+
+    @Override
+    protected BenchStateVector getStateVector() {
+      return sv;
+    }
+  }
+
+  static final class BenchStateVector implements PlanGraphNode.StateVector {
+    private static final long serialVersionUID = 1L;
+
+    final String name;
+    final Lazy<ImmutableList<Source>> inputs;
+
+    BenchStateVector(String name, ImmutableList<Source> inputs) {
+      this.name = name;
+      this.inputs = Lazy.of(inputs);
+    }
+
+    @Override
+    public PlanGraphNode<?> reconstitute(PlanContext c, JoinNodes joinNodes) {
+      return new BenchNode(c, this);
+    }
+  }
+
+  @Setup
+  public void setUp() throws IOException {
+    graph = new PlanGraph(makeContext());
+    graph.startPlanner(PLANNER_KEY, Optional.of(CONFIG_HASH));
+    PlanContext context = graph.getContext();
+    TypedFile root = new TypedFile(
+        new File("/home/user/project/src/main/js"));
+    for (int i = 0; i < nPipelines; ++i) {
+      ImmutableList.Builder<Source> inputs = ImmutableList.builder();
+      for (int j = 0; j < nPathsPerNode; ++j) {
+        File relativePath = new File(
+            "m" + (i % 20) + "/f" + ((i + j) % nPipelines) + ".js");
+        inputs.add(new Source(
+            new File(root.f, relativePath.getPath()), root, relativePath));
+      }
+      ImmutableList<Source> inputList = inputs.build();
+      graph.getJoinNodes().pipeline()
+          .require(FileExt.JS)
+          .then(new BenchNode(
+              context, new BenchStateVector("deps" + i, inputList)))
+          .then(new BenchNode(
+              context, new BenchStateVector("compile" + i, inputList)))
+          .build();
+    }
+    stored = write(graph);
+  }
+
+  private static byte[] write(PlanGraph g) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      PlanGraphFormat.writeHeader(out);
+      g.writeTo(out);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * The graph's state vectors as plain Java serialization, as plan graphs
+   * were stored before the string table and lazily decoded values.
+   */
+  private static byte[] javaSerialization(PlanGraph g) throws IOException {
+    List<PlanGraphNode.StateVector> stateVectors = Lists.newArrayList();
+    for (PlanGraphNode<?> node : g.storedLayout().keySet()) {
+      stateVectors.add(node.getStateVector());
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(stateVectors);
+    }
+    return bytes.toByteArray();
+  }
+
+  @Benchmark
+  public long writeTo() throws IOException {
+    DataOutputStream out = new DataOutputStream(
+        ByteStreams.nullOutputStream());
+    PlanGraphFormat.writeHeader(out);
+    graph.writeTo(out);
+    return out.size();
+  }
+
+  /** Reads the stored graph and reconstitutes every node. */
+  @Benchmark
+  public PlanGraph readFrom() throws IOException {
+    PlanGraph loaded = new PlanGraph(makeContext());
+    DataInputStream in = new DataInputStream(
+        new ByteArrayInputStream(stored));
+    if (!PlanGraphFormat.readHeader(in)) {
+      throw new IOException("Bad header");
+    }
+    loaded.readFrom(in);
+    if (loaded.startPlanner(PLANNER_KEY, Optional.of(CONFIG_HASH))) {
+      throw new IOException("Stored plan was not reused");
+    }
+    return loaded;
+  }
+
+  /** Reads the stored graph, reconstitutes it and stores it again. */
+  @Benchmark
+  public byte[] roundTrip() throws IOException {
+    return write(readFrom());
+  }
+
+  /** Writes the graph's state vectors with plain Java serialization. */
+  @Benchmark
+  public byte[] writeJavaSerialization() throws IOException {
+    return javaSerialization(graph);
+  }
+
+  /** Prints the sizes of the stored forms for the default parameters. */
+  public static void main(String... argv) throws IOException {
+    PlanGraphRoundTripBenchmark benchmark = new PlanGraphRoundTripBenchmark();
+    benchmark.nPipelines = 1000;
+    benchmark.nPathsPerNode = 50;
+    benchmark.setUp();
+    System.out.println(
+        "Plan graph format: " + benchmark.stored.length + " bytes");
+    System.out.println(
+        "Java serialization: "
+        + javaSerialization(benchmark.graph).length + " bytes");
+  }
+}
@@ -1,20 +1,20 @@
 package com.google.closure.plugin;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.OutputStream;
-import java.io.StringWriter;
+import java.io.Serializable;
 import java.io.Writer;
 import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.repository.ArtifactRepository;
-import org.apache.maven.model.io.DefaultModelWriter;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.descriptor.PluginDescriptor;
@@ -31,17 +31,25 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.css.OutputRenamingMapFormat;
+import com.google.closure.plugin.cache.BuildCache;
+import com.google.closure.plugin.cache.HttpBuildCache;
+import com.google.closure.plugin.cache.LocalBuildCache;
+import com.google.closure.plugin.cache.TieredBuildCache;
 import com.google.closure.plugin.common.Cheats;
 import com.google.closure.plugin.common.StableCssSubstitutionMapProvider;
 import com.google.closure.plugin.common.DefaultProcessRunner;
 import com.google.closure.plugin.common.GenfilesDirs;
 import com.google.closure.plugin.common.SrcfilesDirs;
+import com.google.closure.plugin.common.StructuralHash;
 import com.google.closure.plugin.common.ToolFinder;
+import com.google.closure.plugin.plan.FileStatCache;
 import com.google.closure.plugin.plan.Hash;
 import com.google.closure.plugin.plan.PlanContext;
 import com.google.closure.plugin.plan.PlanGraph;
+import com.google.closure.plugin.plan.PlanGraphJournal;
+import com.google.closure.plugin.plan.SessionCache;
 import com.google.closure.plugin.proto.ProtoFinalOptions;
 import com.google.closure.plugin.soy.SoyOptions;
 import com.google.common.io.Files;
@@ -87,6 +95,13 @@ abstract class AbstractClosureMojo extends AbstractMojo {
   @Parameter(defaultValue="${project}", readonly=true, required=true)
   protected MavenProject project;
 
+  /**
+   * Lets modules in the same reactor build share results like the
+   * dependency info of sources extracted from common dependencies.
+   */
+  @Parameter(defaultValue="${session}", readonly=true, required=true)
+  protected MavenSession session;
+
 
   @Parameter(
       defaultValue="${project.basedir}/src/main/css",
@@ -149,6 +164,125 @@ abstract class AbstractClosureMojo extends AbstractMojo {
       required=true)
   protected File defaultTestDescriptorFile;
 
+  /**
+   * The maximum number of build steps that may run concurrently.
+   * Steps are dispatched as soon as the steps they depend upon have
+   * completed, so independent pipelines like CSS, proto, Soy and JS
+   * compilation can proceed in parallel.
+   * A value of 1 runs steps one at a time.
+   */
+  @Parameter(
+      defaultValue="1",
+      property="closure.parallelism",
+      required=true)
+  protected int parallelism;
+
+  /**
+   * The approximate size in bytes of intermediate state, like parsed
+   * dependency information and Soy file sets, that build steps may hold
+   * for later steps.
+   * When positive, that state is released as soon as the steps that need it
+   * have run, and concurrent steps are throttled while the budget is
+   * exceeded.  Useful in memory-constrained environments.
+   * Zero means no budget.
+   */
+  @Parameter(
+      defaultValue="0",
+      property="closure.memoryBudgetBytes",
+      required=true)
+  protected long memoryBudgetBytes;
+
+  /**
+   * The approximate heap in bytes that one JS compilation needs.
+   * Independent JS compilations, like those for different
+   * {@code <js>} option sets, run concurrently on as many cores as are
+   * available, but no more at once than fit in the maximum heap at this size
+   * each.
+   * Zero means only the number of cores limits concurrent compilations.
+   */
+  @Parameter(
+      defaultValue="1073741824",
+      property="closure.heapPerCompileBytes",
+      required=true)
+  protected long heapPerCompileBytes;
+
+  /**
+   * True to reuse outputs of earlier compilations with identical inputs,
+   * options and compiler versions instead of recompiling.
+   */
+  @Parameter(
+      defaultValue="false",
+      property="closure.useBuildCache",
+      required=true)
+  protected boolean useBuildCache;
+
+  /** The directory that holds the build cache. */
+  @Parameter(
+      defaultValue="${user.home}/.closure-maven-plugin/build-cache",
+      property="closure.buildCacheDirectory",
+      required=true)
+  protected File buildCacheDirectory;
+
+  /**
+   * The size in bytes beyond which least recently used build cache entries
+   * are evicted.
+   */
+  @Parameter(
+      defaultValue="1073741824",
+      property="closure.buildCacheMaxBytes",
+      required=true)
+  protected long buildCacheMaxBytes;
+
+  /**
+   * The base URL of a shared build cache that is consulted when the local
+   * build cache misses.
+   *
+   * @see com.google.closure.plugin.cache.BuildCacheServer
+   */
+  @Parameter(property="closure.remoteBuildCacheUrl")
+  protected URL remoteBuildCacheUrl;
+
+  /**
+   * The time after which a remote build cache request is abandoned and the
+   * bundle compiled locally.
+   */
+  @Parameter(
+      defaultValue="2000",
+      property="closure.remoteBuildCacheTimeoutMillis",
+      required=true)
+  protected int remoteBuildCacheTimeoutMillis;
+
+  /**
+   * False to only read from the remote build cache, for example on developer
+   * machines whose outputs should not be shared.
+   */
+  @Parameter(
+      defaultValue="true",
+      property="closure.remoteBuildCachePush",
+      required=true)
+  protected boolean remoteBuildCachePush;
+
+  /**
+   * True to read and hash every source file instead of trusting that files
+   * whose size, modification time and inode are unchanged since the last
+   * build have the same content.  Recommended for release builds.
+   */
+  @Parameter(
+      defaultValue="false",
+      property="closure.paranoidHashing",
+      required=true)
+  protected boolean paranoidHashing;
+
+  /**
+   * The algorithm used to detect changes to source files.  Build cache keys
+   * always use SHA512.
+   */
+  @Parameter(
+      defaultValue="MURMUR3_128",
+      property="closure.changeDetectionHash",
+      required=true)
+  protected Hash.Algorithm changeDetectionHash;
+
   /** The package name for generated Java classes. */
   @Parameter(
       defaultValue="${project.groupId}",
@@ -156,14 +290,40 @@ abstract class AbstractClosureMojo extends AbstractMojo {
   protected String genJavaPackageName;
 
 
+  // State shared by the phases of a build.  Set by preparePlan.
+  private File cssRenameMapFile;
+  private StableCssSubstitutionMapProvider substitutionMapProvider;
+  private Optional<BuildCache> buildCache = Optional.absent();
+  private FileStatCache statCache;
+  private SessionCache sessionCache;
+  private PlanGraphJournal planGraphJournal;
+
   @Override
   public void execute() throws MojoExecutionException {
+    PlanGraph planGraph = preparePlan(buildContext);
+    executePlan(planGraph);
+    storePlan(planGraph);
+  }
+
+  /** The build context supplied by the Maven or IDE host. */
+  protected final BuildContext getBuildContext() {
+    return buildContext;
+  }
+
+  /**
+   * Builds a plan context, loads the stored plan graph, and
+   * {@linkplain #formulatePlan formulates} the plan.
+   *
+   * @param bc the build context the plan nodes will use to find changes
+   *     and report messages.
+   */
+  protected final PlanGraph preparePlan(BuildContext bc)
+  throws MojoExecutionException {
     Log log = this.getLog();
 
-    File cssRenameMapFile = new File(
+    cssRenameMapFile = new File(
         new File(closureOutputDirectory, "css"), "css-rename-map.json");
     log.info("Reading CSS rename map " + cssRenameMapFile);
-    StableCssSubstitutionMapProvider substitutionMapProvider;
     try {
       Files.createParentDirs(cssRenameMapFile);
       substitutionMapProvider = new StableCssSubstitutionMapProvider(
@@ -190,57 +350,92 @@ abstract class AbstractClosureMojo extends AbstractMojo {
         .add(pluginDescriptor.getPluginArtifact())
         .build();
 
-    Hash projectHash;
-    {
-      try (StringWriter sw = new StringWriter()) {
-        new DefaultModelWriter().write(
-            sw, ImmutableMap.<String, Object>of(), project.getModel());
-        projectHash = Hash.hashString(sw.toString());
-      } catch (IOException ex) {
-        log.warn(ex);
-        projectHash = null;
+    buildCache = Optional.absent();
+    if (useBuildCache) {
+      BuildCache localCache = new LocalBuildCache(
+          buildCacheDirectory, buildCacheMaxBytes);
+      if (remoteBuildCacheUrl != null) {
+        buildCache = Optional.<BuildCache>of(new TieredBuildCache(
+            log, localCache,
+            new HttpBuildCache(
+                remoteBuildCacheUrl, remoteBuildCacheTimeoutMillis,
+                remoteBuildCachePush)));
+      } else {
+        buildCache = Optional.of(localCache);
       }
     }
 
+    statCache = new FileStatCache(
+        Optional.of(new File(outputDir, ".closure-stat-cache.bin")),
+        paranoidHashing, changeDetectionHash);
+    try {
+      statCache.load();
+    } catch (IOException ex) {
+      log.warn("Failed to load file stat cache", ex);
+    }
+
+    // The session is copied for each thread of a multi-threaded build, but
+    // its request is not.
+    sessionCache = session != null
+        ? SessionCache.forSession(session.getRequest())
+        : SessionCache.unshared();
+
     PlanContext context = new PlanContext(
-        DefaultProcessRunner.INSTANCE, pluginDescriptor, buildContext, log,
+        DefaultProcessRunner.INSTANCE, pluginDescriptor, bc, log,
         srcfilesDirs, genfilesDirs, allArtifacts,
         outputDir, outputClassesDir, closureOutputDirectory,
-        substitutionMapProvider);
+        substitutionMapProvider, parallelism, memoryBudgetBytes,
+        heapPerCompileBytes, buildCache, statCache, sessionCache);
 
-    File planGraphFile = new File(
-        context.outputDir, ".closure-plan-graph.ser");
+    planGraphJournal = new PlanGraphJournal(
+        new File(context.outputDir, ".closure-plan-graph.bin"), log);
     PlanGraph planGraph = new PlanGraph(context);
-    boolean buildPlanGraph = true;
-    if (projectHash != null) {
-      try (InputStream pgIn =
-           Files.asByteSource(planGraphFile).openBufferedStream()) {
-        try (ObjectInputStream pgObjIn = new ObjectInputStream(pgIn)) {
-          Hash storedHash = (Hash) pgObjIn.readObject();
-          if (projectHash.equals(storedHash)) {
-            planGraph.readFrom(pgObjIn);
-            buildPlanGraph = false;
-          }
-        } catch (ClassNotFoundException ex) {
-          throw new MojoExecutionException("Failed to load plan graph", ex);
-        }
-      } catch (@SuppressWarnings("unused") FileNotFoundException ex) {
-        // Ok.
-      } catch (IOException ex) {
-        throw new MojoExecutionException("Failed to load plan graph", ex);
-      }
+    try {
+      planGraphJournal.load(planGraph);
+    } catch (IOException ex) {
+      throw new MojoExecutionException("Failed to load plan graph", ex);
     }
+    // Nodes that complete are journaled so that a failed build does not
+    // lose their work.
+    planGraph.setJournal(planGraphJournal);
 
-    if (buildPlanGraph) {
-      formulatePlan(planGraph);
-    } else {
-      initLoadedPlan(planGraph);
-    }
+    // Planners whose configuration is unchanged reuse their stored pipelines.
+    formulatePlan(planGraph);
+
+    return planGraph;
+  }
 
+  /**
+   * Executes a prepared plan and writes out the CSS rename map and the
+   * caches that outlive the build.
+   * May be called repeatedly on the same plan graph.
+   */
+  protected final void executePlan(PlanGraph planGraph)
+  throws MojoExecutionException {
+    Log log = getLog();
+    PlanContext context = planGraph.getContext();
     try {
       planGraph.execute();
     } catch (IOException ex) {
       throw new MojoExecutionException("Closure plan execution failed", ex);
+    } finally {
+      if (buildCache.isPresent()) {
+        log.info("Build cache: " + buildCache.get().getStats());
+        log.debug("Build cache tiers: " + buildCache.get());
+      }
+      log.debug("Session cache: " + sessionCache);
+      try {
+        statCache.save();
+      } catch (IOException ex) {
+        log.warn("Failed to store file stat cache", ex);
+      }
+      File profileFile = new File(
+          context.outputDir, ".closure-plan-profile.json");
+      try {
+        planGraph.getProfile().writeJson(profileFile);
+      } catch (IOException ex) {
+        log.warn("Problem writing build profile " + profileFile, ex);
+      }
     }
 
     log.debug("Writing rename map to " + cssRenameMapFile);
@@ -254,24 +449,60 @@ abstract class AbstractClosureMojo extends AbstractMojo {
     } catch (IOException ex) {
       log.warn("Problem writing CSS rename map", ex);
     }
+  }
 
-
-    try (OutputStream pgOut =
-             Files.asByteSink(planGraphFile).openBufferedStream()) {
-      try (ObjectOutputStream pgObjOut = new ObjectOutputStream(pgOut)) {
-        pgObjOut.writeObject(projectHash);
-        planGraph.writeTo(pgObjOut);
-      }
+  /**
+   * Stores the plan graph so that the next build can be incremental.
+   * Unneeded after a failed build since the nodes that completed were
+   * journaled.
+   */
+  protected final void storePlan(PlanGraph planGraph)
+  throws MojoExecutionException {
+    try {
+      planGraphJournal.compact(planGraph);
     } catch (IOException ex) {
       throw new MojoExecutionException("Failed to store plan graph", ex);
     }
   }
 
+  /**
+   * Adds pipelines to the plan graph.  Each planner should be guarded by
+   * {@link PlanGraph#startPlanner} so that its stored pipelines are reused
+   * when its configuration is unchanged.
+   */
   protected abstract void formulatePlan(PlanGraph planGraph)
   throws MojoExecutionException;
 
-  protected abstract void initLoadedPlan(PlanGraph planGraph)
-  throws MojoExecutionException;
+  /**
+   * A hash of the configuration that a planner consumes.
+   * Besides the given parts, this covers the plugin version and the
+   * project's source and output directories which all planners use.
+   *
+   * @see StructuralHash
+   */
+  protected final Optional<Hash> plannerHash(
+      PlanContext context, Serializable... parts) {
+    List<Serializable> all = Lists.newArrayList();
+    all.add(pluginDescriptor.getId());
+    all.add(context.srcfilesDirs);
+    all.add(Lists.newArrayList(
+        outputDir, outputClassesDir, closureOutputDirectory,
+        javaGenfiles, javaTestGenfiles, jsGenfiles, jsTestGenfiles));
+    all.addAll(Arrays.asList(parts));
+    return Optional.of(StructuralHash.of(all));
+  }
+
+  /**
+   * The IDs of the project's direct dependencies for planners that resolve
+   * artifacts.
+   */
+  protected final ArrayList<String> dependencyIds() {
+    ArrayList<String> ids = Lists.newArrayList();
+    for (Artifact a : project.getDependencyArtifacts()) {
+      ids.add(a.getId());
+    }
+    return ids;
+  }
 
 
   // For protoc support.
@@ -292,21 +523,61 @@ abstract class AbstractClosureMojo extends AbstractMojo {
 
       static final String PROTOC_PLUGIN_GROUP_ID = "com.comoyo.maven.plugins";
       static final String PROTOC_PLUGIN_ARTIFACT_ID = "protoc-bundled-plugin";
+      static final String PROTOBUF_GROUP_ID = "com.google.protobuf";
+      static final String PROTOBUF_JAVA_ARTIFACT_ID = "protobuf-java";
 
+      @SuppressWarnings("synthetic-access")
       @Override
       public void find(
-          Log log, ProtoFinalOptions options, ToolFinder.Sink out) {
-        find(log, options.protobufVersion, options.protocExec, out);
+          final Log log, final ProtoFinalOptions options,
+          ToolFinder.Sink out) {
+        // Finding protoc may download and unpack it, so modules that build
+        // concurrently share one search.  Modules that do not specify a
+        // version get the protoc for their protobuf-java dependency.
+        Optional<String> protobufVersion = options.protobufVersion;
+        if (!protobufVersion.isPresent() && !options.protocExec.isPresent()) {
+          protobufVersion = protobufJavaDependencyVersion();
+        }
+        List<Object> key = Arrays.<Object>asList(
+            PROTOC_PLUGIN_ARTIFACT_ID, protocPluginVersion(),
+            protobufVersion, options.protocExec);
+        try {
+          Optional<File> protoc = sessionCache.tool(
+              key,
+              new Callable<Optional<File>>() {
+                @Override
+                public Optional<File> call() throws MojoExecutionException {
+                  ToolFinder.Sink found = new ToolFinder.Sink();
+                  find(log, options.protobufVersion, options.protocExec,
+                       found);
+                  return found.get();
+                }
+              });
+          if (protoc.isPresent()) {
+            out.set(protoc.get());
+          }
+        } catch (ExecutionException ex) {
+          out.setProblem(ex.getCause());
+        }
       }
 
+      /**
+       * The version of protobuf-java that the protoc plugin derives the
+       * protoc version from when none is specified.
+       */
       @SuppressWarnings("synthetic-access")
-      void find(
-          Log log,
-          Optional<String> protobufVersionOpt,
-          Optional<File> protocExecOpt,
-          Sink out) {
-        ProtocBundledMojo protocBundledMojo = new ProtocBundledMojo();
+      Optional<String> protobufJavaDependencyVersion() {
+        for (Artifact a : project.getArtifacts()) {
+          if (PROTOBUF_GROUP_ID.equals(a.getGroupId())
+              && PROTOBUF_JAVA_ARTIFACT_ID.equals(a.getArtifactId())) {
+            return Optional.of(a.getVersion());
+          }
+        }
+        return Optional.absent();
+      }
 
+      @SuppressWarnings("synthetic-access")
+      String protocPluginVersion() {
         String protocPluginVersion = null;
         for (ComponentDependency d : pluginDescriptor.getDependencies()) {
           if (PROTOC_PLUGIN_GROUP_ID.equals(d.getGroupId())
@@ -314,8 +585,19 @@ abstract class AbstractClosureMojo extends AbstractMojo {
             protocPluginVersion = d.getVersion();
           }
         }
-        Preconditions.checkNotNull(
+        return Preconditions.checkNotNull(
             protocPluginVersion, "protoc-plugin version");
+      }
+
+      @SuppressWarnings("synthetic-access")
+      void find(
+          Log log,
+          Optional<String> protobufVersionOpt,
+          Optional<File> protocExecOpt,
+          Sink out) {
+        ProtocBundledMojo protocBundledMojo = new ProtocBundledMojo();
+
+        String protocPluginVersion = protocPluginVersion();
 
         PluginDescriptor protocPluginDescriptor = new PluginDescriptor();
         protocPluginDescriptor.setGroupId(PROTOC_PLUGIN_GROUP_ID);
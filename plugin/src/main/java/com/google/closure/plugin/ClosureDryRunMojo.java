@@ -0,0 +1,50 @@
+package com.google.closure.plugin;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+
+import com.google.closure.plugin.plan.PlanExplanation;
+import com.google.closure.plugin.plan.PlanGraph;
+
+/**
+ * Explains what {@code generate-closure-sources} would rebuild and why
+ * without compiling anything.
+ * <p>
+ * For each build step, this reports which options and bundles are changed,
+ * unchanged or defunct, the files that triggered the changes, and how long
+ * the step took in earlier builds, which helps diagnose builds that are
+ * less incremental than expected.
+ * The stored plan is not updated, so the next build sees the same changes.
+ */
+@Mojo(
+    name="dry-run",
+    requiresDependencyResolution=ResolutionScope.COMPILE_PLUS_RUNTIME
+)
+public final class ClosureDryRunMojo extends ClosureGenerateSourcesMojo {
+
+  /** Receives the explanation in JSON form. */
+  @Parameter(
+      defaultValue="${project.build.directory}/closure-dry-run.json",
+      property="closure.dryRun.reportFile",
+      required=true)
+  protected File dryRunReportFile;
+
+  @Override
+  public void execute() throws MojoExecutionException {
+    PlanGraph planGraph = preparePlan(getBuildContext());
+    PlanExplanation explanation = planGraph.explain();
+    explanation.log(getLog());
+    try {
+      explanation.writeJson(dryRunReportFile);
+    } catch (IOException ex) {
+      throw new MojoExecutionException(
+          "Failed to write dry run report " + dryRunReportFile, ex);
+    }
+    getLog().info("Wrote dry run report to " + dryRunReportFile);
+  }
+}
@@ -16,6 +16,7 @@ import com.google.closure.plugin.js.JsPlanner;
 import com.google.closure.plugin.plan.JoinNodes;
 import com.google.closure.plugin.plan.PlanContext;
 import com.google.closure.plugin.plan.PlanGraph;
+import com.google.closure.plugin.proto.ProtoFinalOptions;
 import com.google.closure.plugin.proto.ProtoOptions;
 import com.google.closure.plugin.proto.ProtoPlanner;
 import com.google.closure.plugin.soy.SoyOptions;
@@ -33,7 +34,7 @@ import com.google.common.collect.ImmutableList;
     // so it can figure out which protobufVersion to use.
     requiresDependencyResolution=ResolutionScope.COMPILE_PLUS_RUNTIME
 )
-public final class ClosureGenerateSourcesMojo extends AbstractClosureMojo {
+public class ClosureGenerateSourcesMojo extends AbstractClosureMojo {
 
   /**
    * The dependencies from which to extract supplementary source files.
@@ -83,28 +84,58 @@ public final class ClosureGenerateSourcesMojo extends AbstractClosureMojo {
     PlanContext context = planGraph.getContext();
     JoinNodes joinNodes = planGraph.getJoinNodes();
 
-    new ExtractPlanner(context, joinNodes)
-        .plan(extracts != null ? extracts : new Extracts());
-
-    new CssPlanner(context, joinNodes)
-        .defaultCssSource(defaultCssSource)
-        .defaultCssOutputPathTemplate(defaultCssOutputPathTemplate)
-        .defaultCssSourceMapPathTemplate(defaultCssSourceMapPathTemplate)
-        .plan(css.build());
-
+    Extracts extractsOrDefault = extracts != null ? extracts : new Extracts();
+    if (planGraph.startPlanner(
+            "extract",
+            plannerHash(context, extractsOrDefault, dependencyIds()))) {
+      new ExtractPlanner(context, joinNodes)
+          .plan(extractsOrDefault);
+    }
+
+    ImmutableList<CssOptions> cssOptions = css.build();
+    if (planGraph.startPlanner(
+            "css",
+            plannerHash(
+                context, cssOptions, defaultCssSource,
+                defaultCssOutputPathTemplate,
+                defaultCssSourceMapPathTemplate))) {
+      new CssPlanner(context, joinNodes)
+          .defaultCssSource(defaultCssSource)
+          .defaultCssOutputPathTemplate(defaultCssOutputPathTemplate)
+          .defaultCssSourceMapPathTemplate(defaultCssSourceMapPathTemplate)
+          .plan(cssOptions);
+    }
+
+    // Preparing proto options sets up the context even when stored pipelines
+    // are reused.
     ProtoPlanner protoPlanner = makeProtoPlanner(context, joinNodes);
-    protoPlanner.plan(protoPlanner.prepare(proto));
+    ProtoFinalOptions protoOptions = protoPlanner.prepare(proto);
+    if (planGraph.startPlanner(
+            "proto",
+            plannerHash(
+                context, proto, defaultMainDescriptorFile,
+                defaultTestDescriptorFile, dependencyIds()))) {
+      protoPlanner.plan(protoOptions);
+    }
 
     SoyOptions soyOptions = soy != null ? soy : new SoyOptions();
-    new SoyPlanner(context, joinNodes)
-        .plan(soyOptions);
-
-    new JsPlanner(context, joinNodes)
-        .plan(js.build());
-
-    new GenSymbolsPlanner(context, joinNodes)
-        .genJavaPackageName(genJavaPackageName)
-        .plan();
+    if (planGraph.startPlanner("soy", plannerHash(context, soyOptions))) {
+      new SoyPlanner(context, joinNodes)
+          .plan(soyOptions);
+    }
+
+    ImmutableList<JsOptions> jsOptions = js.build();
+    if (planGraph.startPlanner("js", plannerHash(context, jsOptions))) {
+      new JsPlanner(context, joinNodes)
+          .plan(jsOptions);
+    }
+
+    if (planGraph.startPlanner(
+            "genjava", plannerHash(context, genJavaPackageName))) {
+      new GenSymbolsPlanner(context, joinNodes)
+          .genJavaPackageName(genJavaPackageName)
+          .plan();
+    }
 
     // TODO: figure out how to thread externs through.
   }
@@ -119,15 +150,6 @@ public final class ClosureGenerateSourcesMojo extends AbstractClosureMojo {
     this.css.add(options);
   }
 
-  @Override
-  protected void initLoadedPlan(PlanGraph planGraph)
-  throws MojoExecutionException {
-    PlanContext context = planGraph.getContext();
-    JoinNodes joinNodes = planGraph.getJoinNodes();
-
-    makeProtoPlanner(context, joinNodes).prepare(proto);
-  }
-
   private ProtoPlanner makeProtoPlanner(
       PlanContext context, JoinNodes joinNodes) {
   return new ProtoPlanner(context, joinNodes, protocExecutable())
@@ -0,0 +1,122 @@
+package com.google.closure.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+
+import com.google.closure.plugin.common.GenfilesDirs;
+import com.google.closure.plugin.common.SrcfilesDirs;
+import com.google.closure.plugin.plan.PlanContext;
+import com.google.closure.plugin.plan.PlanGraph;
+import com.google.closure.plugin.watch.ChangeBatch;
+import com.google.closure.plugin.watch.SourceWatcher;
+import com.google.closure.plugin.watch.WatchBuildContext;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Builds like {@code generate-closure-sources} and then watches source
+ * directories, rebuilding whenever files change, until interrupted.
+ * <p>
+ * The plan graph stays in memory between builds so each rebuild only
+ * rescans the changed files and avoids the cost of starting Maven and
+ * loading the compilers.
+ * Soy file sets are reused by later builds while their inputs are
+ * unchanged.
+ * Generated source directories are watched too so that changes made there
+ * by anything other than the build are noticed.
+ * The build's own writes are seen by later steps of the same build and are
+ * ignored by the watcher.
+ */
+@Mojo(
+    name="watch",
+    requiresDependencyResolution=ResolutionScope.COMPILE_PLUS_RUNTIME
+)
+public final class ClosureWatchMojo extends ClosureGenerateSourcesMojo {
+
+  /**
+   * How long to wait after a file changes for further changes before
+   * rebuilding.
+   */
+  @Parameter(
+      defaultValue="250",
+      property="closure.watch.debounceMillis",
+      required=true)
+  protected long debounceMillis;
+
+  @Override
+  public void execute() throws MojoExecutionException {
+    Log log = getLog();
+    WatchBuildContext watchContext = new WatchBuildContext(
+        getBuildContext(), baseDir);
+    PlanGraph planGraph = preparePlan(watchContext);
+    PlanContext context = planGraph.getContext();
+
+    try (SourceWatcher watcher = new SourceWatcher()) {
+      // Watch before the first build so that no edits are missed.
+      for (File root : watchedRoots(context)) {
+        watcher.watchTree(root);
+      }
+
+      boolean ok = build(planGraph);
+      log.info("Watching for changes.  Interrupt to stop.");
+      while (true) {
+        ChangeBatch batch = watchContext.withoutBuildWrites(
+            watcher.take(debounceMillis));
+        if (batch.isEmpty()) { continue; }
+        log.info("Rebuilding after changes to " + batch.size() + " files");
+        log.debug("Changes " + batch);
+        // A failed build may have left some nodes' state stale, so the
+        // build after it rescans everything.
+        watchContext.setDelta(
+            ok ? Optional.of(batch) : Optional.<ChangeBatch>absent());
+        ok = build(planGraph);
+        log.info("Watching for changes.  Interrupt to stop.");
+      }
+    } catch (IOException ex) {
+      throw new MojoExecutionException("Failed to watch sources", ex);
+    } catch (@SuppressWarnings("unused") InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      log.info("Stopped watching");
+    }
+  }
+
+  /**
+   * Executes the plan and stores it but, unlike a one-off build, reports
+   * failures without stopping so that the developer can fix them.
+   *
+   * @return true if the build succeeded.
+   */
+  private boolean build(PlanGraph planGraph) {
+    long t0 = System.nanoTime();
+    try {
+      executePlan(planGraph);
+      storePlan(planGraph);
+    } catch (MojoExecutionException ex) {
+      getLog().error("Build failed", ex);
+      return false;
+    }
+    getLog().info(
+        "Build finished in "
+        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0) + "ms");
+    return true;
+  }
+
+  private static ImmutableList<File> watchedRoots(PlanContext context) {
+    SrcfilesDirs src = context.srcfilesDirs;
+    GenfilesDirs gen = context.genfilesDirs;
+    return ImmutableList.<File>builder()
+        .add(src.srcDir)
+        .addAll(src.javaMainRoots)
+        .addAll(src.javaTestRoots)
+        .add(gen.jsGenfiles, gen.jsTestGenfiles)
+        .add(gen.javaGenfiles, gen.javaTestGenfiles)
+        .build();
+  }
+}
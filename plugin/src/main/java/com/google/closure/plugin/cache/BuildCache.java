@@ -0,0 +1,21 @@
+package com.google.closure.plugin.cache;
+
+import java.io.IOException;
+
+import com.google.closure.plugin.plan.Hash;
+import com.google.common.base.Optional;
+
+/**
+ * Stores compiler outputs keyed by a hash of everything that went into
+ * producing them so that identical compilations can be skipped.
+ */
+public interface BuildCache {
+  /** The entry stored under key, if any. */
+  Optional<BuildCacheEntry> get(Hash key) throws IOException;
+
+  /** Stores entry under key replacing any existing entry. */
+  void put(Hash key, BuildCacheEntry entry) throws IOException;
+
+  /** Statistics about lookups since this cache was created. */
+  BuildCacheStats getStats();
+}
@@ -0,0 +1,202 @@
+package com.google.closure.plugin.cache;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+
+/**
+ * The output files produced by compiling one bundle.
+ * <p>
+ * Paths are relative to an output root so that an entry can be restored
+ * into a different workspace or on a different machine, and entries from
+ * a shared cache cannot write outside that root.
+ */
+public final class BuildCacheEntry {
+  private static final int MAGIC = 0x434c4243;  // "CLBC"
+  private static final int VERSION = 3;
+
+  /** The outputs in the order the compiler reported them. */
+  public final ImmutableList<OutputFile> outputs;
+  /**
+   * Name mappings, in the order made, that compiling the bundle added to
+   * state shared with later compilations, like CSS class renamings.
+   */
+  public final ImmutableMap<String, String> mappings;
+
+  /** */
+  public BuildCacheEntry(Iterable<? extends OutputFile> outputs) {
+    this(outputs, ImmutableMap.<String, String>of());
+  }
+
+  /** */
+  public BuildCacheEntry(
+      Iterable<? extends OutputFile> outputs, Map<String, String> mappings) {
+    this.outputs = ImmutableList.copyOf(outputs);
+    this.mappings = ImmutableMap.copyOf(mappings);
+  }
+
+  /** An entry with the same outputs and the given mappings. */
+  public BuildCacheEntry withMappings(Map<String, String> newMappings) {
+    return new BuildCacheEntry(outputs, newMappings);
+  }
+
+  /**
+   * An entry containing the current content of the given files.
+   *
+   * @param root the output root that all files must be under.
+   * @throws IOException if a file is not under root.
+   */
+  public static BuildCacheEntry capture(
+      File root, Iterable<? extends File> files)
+  throws IOException {
+    Path rootPath = root.toPath().toAbsolutePath().normalize();
+    ImmutableList.Builder<OutputFile> outputs = ImmutableList.builder();
+    for (File f : files) {
+      Path path = f.toPath().toAbsolutePath().normalize();
+      if (!path.startsWith(rootPath) || path.equals(rootPath)) {
+        throw new IOException(
+            "Output " + f + " is not under output root " + root);
+      }
+      StringBuilder relativePath = new StringBuilder();
+      for (Path name : rootPath.relativize(path)) {
+        if (relativePath.length() != 0) { relativePath.append('/'); }
+        relativePath.append(name);
+      }
+      if (!isSafeRelativePath(relativePath.toString())) {
+        throw new IOException("Output " + f + " has an unportable path");
+      }
+      outputs.add(new OutputFile(
+          relativePath.toString(), Files.toByteArray(f)));
+    }
+    return new BuildCacheEntry(outputs.build());
+  }
+
+  /** The paths of the output files when restored under root. */
+  public ImmutableList<File> getFiles(File root) {
+    ImmutableList.Builder<File> files = ImmutableList.builder();
+    for (OutputFile output : outputs) {
+      files.add(output.resolve(root));
+    }
+    return files.build();
+  }
+
+  /**
+   * Writes the output files to the file-system.
+   *
+   * @param root the output root to which output paths are relative.
+   * @return the files whose content changed.
+   */
+  public ImmutableList<File> restore(File root) throws IOException {
+    ImmutableList.Builder<File> changed = ImmutableList.builder();
+    for (OutputFile output : outputs) {
+      File f = output.resolve(root);
+      if (f.isFile() && f.length() == output.content.length
+          && Arrays.equals(Files.toByteArray(f), output.content)) {
+        continue;
+      }
+      Files.createParentDirs(f);
+      Files.write(output.content, f);
+      changed.add(f);
+    }
+    return changed.build();
+  }
+
+  /** Writes a form that can be read by {@link #read}. */
+  public void write(OutputStream out) throws IOException {
+    DataOutputStream dataOut = new DataOutputStream(out);
+    dataOut.writeInt(MAGIC);
+    dataOut.writeInt(VERSION);
+    dataOut.writeInt(outputs.size());
+    for (OutputFile output : outputs) {
+      dataOut.writeUTF(output.relativePath);
+      dataOut.writeInt(output.content.length);
+      dataOut.write(output.content);
+    }
+    dataOut.writeInt(mappings.size());
+    for (Map.Entry<String, String> e : mappings.entrySet()) {
+      dataOut.writeUTF(e.getKey());
+      dataOut.writeUTF(e.getValue());
+    }
+    dataOut.flush();
+  }
+
+  /**
+   * Reads an entry written by {@link #write}.
+   *
+   * @throws IOException if the entry is malformed or has a path that is
+   *     absolute or that escapes the output root.
+   */
+  public static BuildCacheEntry read(InputStream in) throws IOException {
+    DataInputStream dataIn = new DataInputStream(in);
+    if (dataIn.readInt() != MAGIC || dataIn.readInt() != VERSION) {
+      throw new IOException("Malformed build cache entry");
+    }
+    int n = dataIn.readInt();
+    ImmutableList.Builder<OutputFile> outputs = ImmutableList.builder();
+    for (int i = 0; i < n; ++i) {
+      String relativePath = dataIn.readUTF();
+      if (!isSafeRelativePath(relativePath)) {
+        throw new IOException(
+            "Build cache entry has unsafe path " + relativePath);
+      }
+      byte[] content = new byte[dataIn.readInt()];
+      dataIn.readFully(content);
+      outputs.add(new OutputFile(relativePath, content));
+    }
+    int nMappings = dataIn.readInt();
+    ImmutableMap.Builder<String, String> mappings = ImmutableMap.builder();
+    for (int i = 0; i < nMappings; ++i) {
+      mappings.put(dataIn.readUTF(), dataIn.readUTF());
+    }
+    return new BuildCacheEntry(outputs.build(), mappings.build());
+  }
+
+  /**
+   * True if path is a non-empty, {@code '/'} separated relative path with
+   * no {@code .} or {@code ..} segments, so that it cannot name a file
+   * outside the directory that it is resolved against.
+   */
+  static boolean isSafeRelativePath(String path) {
+    if (path.isEmpty() || path.indexOf('\\') >= 0
+        || path.indexOf(':') >= 0 || path.indexOf('\0') >= 0) {
+      return false;
+    }
+    for (String segment : path.split("/", -1)) {
+      if (segment.isEmpty() || ".".equals(segment) || "..".equals(segment)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+  /** A file and its content. */
+  public static final class OutputFile {
+    /** The {@code '/'} separated path of the file under the output root. */
+    public final String relativePath;
+    final byte[] content;
+
+    /** */
+    public OutputFile(String relativePath, byte[] content) {
+      Preconditions.checkArgument(
+          isSafeRelativePath(relativePath), relativePath);
+      this.relativePath = relativePath;
+      this.content = content.clone();
+    }
+
+    File resolve(File root) {
+      return new File(root, relativePath.replace('/', File.separatorChar));
+    }
+  }
+}
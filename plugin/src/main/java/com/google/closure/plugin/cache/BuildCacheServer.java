@@ -0,0 +1,133 @@
+package com.google.closure.plugin.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A minimal reference server for {@link HttpBuildCache} that stores each
+ * entry as a file in a local directory.
+ * <p>
+ * It is meant for testing and small teams.  It does no authentication and
+ * no eviction.
+ * <p>
+ * Run it via
+ * {@code java -cp closure-maven-plugin.jar:... }{@link BuildCacheServer}
+ * {@code <directory> <port>}.
+ */
+public final class BuildCacheServer {
+  private static final Pattern KEY = Pattern.compile("^[0-9a-f]{16,256}$");
+
+  private final File directory;
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  /**
+   * @param directory the directory that holds entries.
+   * @param address the address to listen on.  Port 0 picks a free port.
+   */
+  public BuildCacheServer(File directory, InetSocketAddress address)
+  throws IOException {
+    this.directory = directory;
+    java.nio.file.Files.createDirectories(directory.toPath());
+    this.server = HttpServer.create(address, 0);
+    this.executor = Executors.newCachedThreadPool();
+    server.setExecutor(executor);
+    server.createContext("/", new HttpHandler() {
+      @SuppressWarnings("synthetic-access")
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          BuildCacheServer.this.handle(exchange);
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+  }
+
+  /** Starts serving requests on background threads. */
+  public void start() {
+    server.start();
+  }
+
+  /** Stops serving requests. */
+  public void stop() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  /** The address actually bound which is useful when port 0 was requested. */
+  public InetSocketAddress getAddress() {
+    return server.getAddress();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    String path = exchange.getRequestURI().getPath();
+    String key = path.substring(path.lastIndexOf('/') + 1);
+    if (!KEY.matcher(key).matches()) {
+      exchange.sendResponseHeaders(400, -1);
+      return;
+    }
+    File entryFile = new File(directory, key);
+    String method = exchange.getRequestMethod();
+    if ("GET".equals(method)) {
+      if (!entryFile.isFile()) {
+        exchange.sendResponseHeaders(404, -1);
+        return;
+      }
+      exchange.sendResponseHeaders(200, entryFile.length());
+      try (OutputStream out = exchange.getResponseBody()) {
+        Files.copy(entryFile, out);
+      }
+    } else if ("PUT".equals(method)) {
+      File temp = File.createTempFile("put", ".tmp", directory);
+      try {
+        try (InputStream in = exchange.getRequestBody()) {
+          try (OutputStream out = Files.asByteSink(temp).openStream()) {
+            ByteStreams.copy(in, out);
+          }
+        }
+        java.nio.file.Files.move(
+            temp.toPath(), entryFile.toPath(),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        if (temp.exists() && !temp.delete()) {
+          throw new IOException("Failed to delete " + temp);
+        }
+      }
+      exchange.sendResponseHeaders(201, -1);
+    } else {
+      exchange.sendResponseHeaders(405, -1);
+    }
+  }
+
+  /**
+   * Serves the directory given as the first argument on the port given as
+   * the second.
+   */
+  public static void main(String... argv) throws IOException {
+    if (argv.length != 2) {
+      System.err.println("Usage: BuildCacheServer <directory> <port>");
+      System.exit(-1);
+      return;
+    }
+    BuildCacheServer s = new BuildCacheServer(
+        new File(argv[0]), new InetSocketAddress(Integer.parseInt(argv[1])));
+    s.start();
+    System.err.println("Serving " + argv[0] + " on " + s.getAddress());
+  }
+}
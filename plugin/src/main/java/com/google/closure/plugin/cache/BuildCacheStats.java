@@ -0,0 +1,53 @@
+package com.google.closure.plugin.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Counts of build cache operations. */
+public final class BuildCacheStats {
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong stores = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  void recordHit() {
+    hits.incrementAndGet();
+  }
+
+  void recordMiss() {
+    misses.incrementAndGet();
+  }
+
+  void recordStore() {
+    stores.incrementAndGet();
+  }
+
+  void recordEviction() {
+    evictions.incrementAndGet();
+  }
+
+  /** Count of lookups that found an entry. */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /** Count of lookups that did not find an entry. */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /** Count of entries stored. */
+  public long getStores() {
+    return stores.get();
+  }
+
+  /** Count of entries evicted to stay under the size cap. */
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  @Override
+  public String toString() {
+    return getHits() + " hits, " + getMisses() + " misses, "
+        + getStores() + " stores, " + getEvictions() + " evictions";
+  }
+}
@@ -0,0 +1,122 @@
+package com.google.closure.plugin.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import com.google.closure.plugin.plan.Hash;
+import com.google.common.base.Optional;
+import com.google.common.io.ByteStreams;
+
+/**
+ * A build cache backed by an HTTP server that responds to
+ * {@code GET <base>/<hex-key>} with a previously {@code PUT} entry or with
+ * a 404 status when there is none.
+ * <p>
+ * A cache that is slow or unavailable should not slow down the build, so
+ * requests time out quickly and, after the first failure, the cache is
+ * disabled for the rest of the build so that each bundle is compiled
+ * locally without waiting on the network.
+ *
+ * @see BuildCacheServer
+ */
+public final class HttpBuildCache implements BuildCache {
+  private final URL baseUrl;
+  private final int timeoutMillis;
+  private final boolean push;
+  private final BuildCacheStats stats = new BuildCacheStats();
+  private volatile boolean disabled;
+
+  /**
+   * @param baseUrl the URL to which hex keys are appended.
+   * @param timeoutMillis the connect and read timeout for each request.
+   * @param push false to never store entries.
+   */
+  public HttpBuildCache(URL baseUrl, int timeoutMillis, boolean push) {
+    this.baseUrl = baseUrl;
+    this.timeoutMillis = timeoutMillis;
+    this.push = push;
+  }
+
+  private HttpURLConnection open(Hash key) throws IOException {
+    String base = baseUrl.toString();
+    URL url = new URL(
+        base + (base.endsWith("/") ? "" : "/") + key.toHexString());
+    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+    conn.setConnectTimeout(timeoutMillis);
+    conn.setReadTimeout(timeoutMillis);
+    conn.setUseCaches(false);
+    return conn;
+  }
+
+  @Override
+  public Optional<BuildCacheEntry> get(Hash key) throws IOException {
+    if (disabled) {
+      stats.recordMiss();
+      return Optional.absent();
+    }
+    try {
+      HttpURLConnection conn = open(key);
+      try {
+        int status = conn.getResponseCode();
+        if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+          stats.recordMiss();
+          return Optional.absent();
+        }
+        if (status != HttpURLConnection.HTTP_OK) {
+          throw new IOException(
+              "Build cache GET " + conn.getURL() + " returned " + status);
+        }
+        BuildCacheEntry entry;
+        try (InputStream in = conn.getInputStream()) {
+          entry = BuildCacheEntry.read(in);
+        }
+        stats.recordHit();
+        return Optional.of(entry);
+      } finally {
+        conn.disconnect();
+      }
+    } catch (IOException ex) {
+      disabled = true;
+      stats.recordMiss();
+      throw ex;
+    }
+  }
+
+  @Override
+  public void put(Hash key, BuildCacheEntry entry) throws IOException {
+    if (disabled || !push) { return; }
+    try {
+      HttpURLConnection conn = open(key);
+      try {
+        conn.setDoOutput(true);
+        conn.setRequestMethod("PUT");
+        conn.setRequestProperty("Content-Type", "application/octet-stream");
+        try (OutputStream out = conn.getOutputStream()) {
+          entry.write(out);
+        }
+        int status = conn.getResponseCode();
+        if (status / 100 != 2) {
+          throw new IOException(
+              "Build cache PUT " + conn.getURL() + " returned " + status);
+        }
+        try (InputStream in = conn.getInputStream()) {
+          ByteStreams.copy(in, ByteStreams.nullOutputStream());
+        }
+        stats.recordStore();
+      } finally {
+        conn.disconnect();
+      }
+    } catch (IOException ex) {
+      disabled = true;
+      throw ex;
+    }
+  }
+
+  @Override
+  public BuildCacheStats getStats() {
+    return stats;
+  }
+}
@@ -0,0 +1,142 @@
+package com.google.closure.plugin.cache;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import com.google.closure.plugin.plan.Hash;
+import com.google.common.base.Optional;
+import com.google.common.io.Files;
+
+/**
+ * A build cache that stores one file per entry in a local directory and
+ * evicts the least recently used entries when the directory grows beyond a
+ * size cap.
+ * <p>
+ * Entries are written to a temporary file and renamed into place so that
+ * concurrent builds sharing a cache directory never see partial entries.
+ */
+public final class LocalBuildCache implements BuildCache {
+  private static final String ENTRY_SUFFIX = ".entry";
+
+  private final File directory;
+  private final long maxBytes;
+  private final BuildCacheStats stats = new BuildCacheStats();
+  /**
+   * The size of the directory as of the last time it was listed plus the
+   * sizes of entries put since, or -1 if it has not been listed.
+   * Other builds sharing the directory are not counted until it is listed
+   * again, which happens whenever this passes the cap.
+   */
+  private long knownBytes = -1;
+
+  /**
+   * @param directory the directory that holds entries.
+   * @param maxBytes the size beyond which least recently used entries are
+   *     evicted.
+   */
+  public LocalBuildCache(File directory, long maxBytes) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+  }
+
+  private File entryFile(Hash key) {
+    return new File(directory, key.toHexString() + ENTRY_SUFFIX);
+  }
+
+  @Override
+  public Optional<BuildCacheEntry> get(Hash key) throws IOException {
+    File f = entryFile(key);
+    BuildCacheEntry entry;
+    try (InputStream in = Files.asByteSource(f).openBufferedStream()) {
+      entry = BuildCacheEntry.read(in);
+    } catch (@SuppressWarnings("unused") FileNotFoundException ex) {
+      stats.recordMiss();
+      return Optional.absent();
+    }
+    // Recency is tracked via the modified time so that it is shared with
+    // other builds using the same directory.  This fails harmlessly if the
+    // entry was evicted concurrently since we have already read it.
+    @SuppressWarnings("unused")
+    boolean touched = f.setLastModified(System.currentTimeMillis());
+    stats.recordHit();
+    return Optional.of(entry);
+  }
+
+  @Override
+  public void put(Hash key, BuildCacheEntry entry) throws IOException {
+    java.nio.file.Files.createDirectories(directory.toPath());
+    File f = entryFile(key);
+    File temp = File.createTempFile("closure", ".tmp", directory);
+    long bytesAdded;
+    try {
+      try (OutputStream out = Files.asByteSink(temp).openBufferedStream()) {
+        entry.write(out);
+      }
+      bytesAdded = temp.length() - f.length();
+      java.nio.file.Files.move(
+          temp.toPath(), f.toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      if (temp.exists() && !temp.delete()) {
+        throw new IOException("Failed to delete " + temp);
+      }
+    }
+    stats.recordStore();
+    evictIfOverCap(bytesAdded);
+  }
+
+  /**
+   * Lists the directory only when the running total passes the cap so that
+   * puts do not stat every entry.
+   */
+  private synchronized void evictIfOverCap(long bytesAdded) {
+    if (knownBytes >= 0) {
+      knownBytes += bytesAdded;
+      if (knownBytes <= maxBytes) { return; }
+    }
+    File[] entries = directory.listFiles();
+    if (entries == null) { return; }
+    long total = 0;
+    for (File e : entries) {
+      total += e.length();
+    }
+    knownBytes = total;
+    if (total <= maxBytes) { return; }
+    // Snapshot modified times so the sort order is stable even if another
+    // build touches an entry while we sort.
+    final long[] lastModified = new long[entries.length];
+    Integer[] order = new Integer[entries.length];
+    for (int i = 0; i < entries.length; ++i) {
+      lastModified[i] = entries[i].lastModified();
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return Long.compare(lastModified[a], lastModified[b]);
+      }
+    });
+    for (int i = 0; i < order.length && total > maxBytes; ++i) {
+      File e = entries[order[i]];
+      if (!e.getName().endsWith(ENTRY_SUFFIX)) { continue; }
+      long size = e.length();
+      if (e.delete()) {
+        total -= size;
+        stats.recordEviction();
+      }
+    }
+    knownBytes = total;
+  }
+
+  @Override
+  public BuildCacheStats getStats() {
+    return stats;
+  }
+}
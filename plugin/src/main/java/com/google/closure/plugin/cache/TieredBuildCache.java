@@ -0,0 +1,75 @@
+package com.google.closure.plugin.cache;
+
+import java.io.IOException;
+
+import org.apache.maven.plugin.logging.Log;
+
+import com.google.closure.plugin.plan.Hash;
+import com.google.common.base.Optional;
+
+/**
+ * Consults a local cache before a remote one, copying remote hits into the
+ * local cache.
+ * Remote failures are logged and treated as misses so that a slow or
+ * unavailable remote cache falls back to local compilation.
+ */
+public final class TieredBuildCache implements BuildCache {
+  private final Log log;
+  private final BuildCache local;
+  private final BuildCache remote;
+  private final BuildCacheStats stats = new BuildCacheStats();
+
+  /** */
+  public TieredBuildCache(Log log, BuildCache local, BuildCache remote) {
+    this.log = log;
+    this.local = local;
+    this.remote = remote;
+  }
+
+  @Override
+  public Optional<BuildCacheEntry> get(Hash key) throws IOException {
+    Optional<BuildCacheEntry> entry = local.get(key);
+    if (!entry.isPresent()) {
+      try {
+        entry = remote.get(key);
+      } catch (IOException ex) {
+        log.warn("Remote build cache unavailable.  Compiling locally.", ex);
+      }
+      if (entry.isPresent()) {
+        // The remote entry is good whether or not it can be kept locally.
+        try {
+          local.put(key, entry.get());
+        } catch (IOException ex) {
+          log.warn("Failed to copy remote hit into local build cache", ex);
+        }
+      }
+    }
+    if (entry.isPresent()) {
+      stats.recordHit();
+    } else {
+      stats.recordMiss();
+    }
+    return entry;
+  }
+
+  @Override
+  public void put(Hash key, BuildCacheEntry entry) throws IOException {
+    local.put(key, entry);
+    try {
+      remote.put(key, entry);
+    } catch (IOException ex) {
+      log.warn("Failed to store in remote build cache", ex);
+    }
+    stats.recordStore();
+  }
+
+  @Override
+  public BuildCacheStats getStats() {
+    return stats;
+  }
+
+  @Override
+  public String toString() {
+    return "local: " + local.getStats() + "; remote: " + remote.getStats();
+  }
+}
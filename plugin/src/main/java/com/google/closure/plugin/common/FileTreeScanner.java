@@ -0,0 +1,466 @@
+package com.google.closure.plugin.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.AbstractScanner;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+/**
+ * Finds the files under a directory whose paths relative to it match
+ * Ant-style include patterns and no exclude pattern.
+ * <p>
+ * This finds the same files as a plexus {@code DirectoryScanner} that is
+ * case-sensitive, follows symlinks, and uses the default excludes, but
+ * <ul>
+ *   <li>patterns are compiled once per scanner instead of being matched
+ *   against whole paths per file,
+ *   <li>directories under which no file could be included are not walked,
+ *   <li>canonical paths are derived from the canonical path of the
+ *   containing directory so only symlinks need to be resolved against the
+ *   file system.
+ * </ul>
+ * Instances are immutable so may be used to scan several roots concurrently.
+ */
+final class FileTreeScanner {
+  private final ImmutableList<PathPattern> includes;
+  private final ImmutableList<PathPattern> excludes;
+
+  FileTreeScanner(
+      Iterable<? extends String> includes,
+      Iterable<? extends String> excludes) {
+    this.includes = compile(includes);
+    this.excludes = compile(Iterables.concat(
+        excludes, Arrays.asList(AbstractScanner.DEFAULTEXCLUDES)));
+  }
+
+  private static ImmutableList<PathPattern> compile(
+      Iterable<? extends String> patterns) {
+    ImmutableList.Builder<PathPattern> b = ImmutableList.builder();
+    for (String pattern : patterns) {
+      b.add(PathPattern.compile(pattern));
+    }
+    return b.build();
+  }
+
+  /** A file found by a scan. */
+  static final class Found {
+    /** The canonical path to the file. */
+    final File canonicalFile;
+    /** The path from the scanned root to the file. */
+    final String relativePath;
+
+    Found(File canonicalFile, String relativePath) {
+      this.canonicalFile = canonicalFile;
+      this.relativePath = relativePath;
+    }
+  }
+
+  /**
+   * Walks the tree under root.
+   *
+   * @param canonRoot a canonical path to a directory.
+   * @return the matching files in the order the walk found them.
+   */
+  ImmutableList<Found> scan(Log log, File canonRoot) throws IOException {
+    ImmutableList.Builder<Found> found = ImmutableList.builder();
+    new Walk(log, found, ImmutableList.<String>of(), initialState(),
+             ImmutableList.<Path>of())
+        .walk(canonRoot.toPath());
+    return found.build();
+  }
+
+  private long[] initialState() {
+    long[] state = new long[includes.size() + excludes.size()];
+    int i = 0;
+    for (PathPattern p : includes) { state[i++] = p.initialState(); }
+    for (PathPattern p : excludes) { state[i++] = p.initialState(); }
+    return state;
+  }
+
+  /** The state of each pattern after matching one more path segment. */
+  private long[] advance(long[] state, String name) {
+    long[] next = new long[state.length];
+    int i = 0;
+    for (PathPattern p : includes) {
+      next[i] = p.advance(state[i], name);
+      ++i;
+    }
+    for (PathPattern p : excludes) {
+      next[i] = p.advance(state[i], name);
+      ++i;
+    }
+    return next;
+  }
+
+  /** True if a file under a directory in the given state could be found. */
+  private boolean shouldWalk(long[] dirState) {
+    int nIncludes = includes.size();
+    for (int i = 0, n = excludes.size(); i < n; ++i) {
+      if (excludes.get(i).matchesAllBeneath(dirState[nIncludes + i])) {
+        return false;
+      }
+    }
+    for (int i = 0; i < nIncludes; ++i) {
+      if (includes.get(i).couldMatchBeneath(dirState[i])) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** True if a file in a directory in the given state is found. */
+  private boolean isFound(
+      long[] dirState, List<String> dirPath, String name) {
+    String relPath = null;
+    boolean included = false;
+    int nIncludes = includes.size();
+    for (int i = 0; i < nIncludes; ++i) {
+      PathPattern p = includes.get(i);
+      if (p.regex != null) {
+        if (relPath == null) { relPath = relativePath(dirPath, name); }
+        included = p.regex.matcher(relPath).matches();
+      } else {
+        included = p.matches(p.advance(dirState[i], name));
+      }
+      if (included) { break; }
+    }
+    if (!included) { return false; }
+    for (int i = 0, n = excludes.size(); i < n; ++i) {
+      PathPattern p = excludes.get(i);
+      boolean excluded;
+      if (p.regex != null) {
+        if (relPath == null) { relPath = relativePath(dirPath, name); }
+        excluded = p.regex.matcher(relPath).matches();
+      } else {
+        excluded = p.matches(p.advance(dirState[nIncludes + i], name));
+      }
+      if (excluded) { return false; }
+    }
+    return true;
+  }
+
+  private static final Joiner SEPARATOR_JOINER = Joiner.on(File.separatorChar);
+
+  private static String relativePath(List<String> dirPath, String name) {
+    if (dirPath.isEmpty()) { return name; }
+    StringBuilder sb = new StringBuilder();
+    SEPARATOR_JOINER.appendTo(sb, dirPath);
+    return sb.append(File.separatorChar).append(name).toString();
+  }
+
+
+  /**
+   * Walks one directory tree without following symlinks, and starts a
+   * nested walk for each symlink to a directory.
+   */
+  private final class Walk extends SimpleFileVisitor<Path> {
+    final Log log;
+    final ImmutableList.Builder<Found> found;
+    /**
+     * The canonical directories that contain the symlinks followed to reach
+     * the start of this walk.  A symlink to any of their ancestors would
+     * lead to a cycle.
+     */
+    final ImmutableList<Path> linkDirs;
+    /** Path segments from the scanned root to the current directory. */
+    final List<String> dirPath;
+    /** Canonical paths of the current directory and its ancestors. */
+    final Deque<Path> canonDirs = new ArrayDeque<>();
+    /** Pattern states for the current directory and its ancestors. */
+    final Deque<long[]> dirStates = new ArrayDeque<>();
+    /** The state of the start directory. */
+    final long[] startState;
+    /** The canonical path of the start directory. */
+    Path canonStart;
+
+    Walk(
+        Log log, ImmutableList.Builder<Found> found,
+        List<String> startPath, long[] startState,
+        ImmutableList<Path> linkDirs) {
+      this.log = log;
+      this.found = found;
+      this.dirPath = Lists.newArrayList(startPath);
+      this.startState = startState;
+      this.linkDirs = linkDirs;
+    }
+
+    void walk(Path canonDir) throws IOException {
+      this.canonStart = canonDir;
+      Files.walkFileTree(
+          canonDir, EnumSet.noneOf(FileVisitOption.class), Integer.MAX_VALUE,
+          this);
+    }
+
+    @Override
+    public FileVisitResult preVisitDirectory(
+        Path dir, BasicFileAttributes attrs) {
+      if (canonDirs.isEmpty()) {
+        canonDirs.push(canonStart);
+        dirStates.push(startState);
+        return FileVisitResult.CONTINUE;
+      }
+      String name = dir.getFileName().toString();
+      long[] state = advance(dirStates.peek(), name);
+      if (!shouldWalk(state)) {
+        return FileVisitResult.SKIP_SUBTREE;
+      }
+      // A directory reached without following a symlink has a canonical
+      // path that is its parent's plus its name.
+      canonDirs.push(canonDirs.peek().resolve(name));
+      dirStates.push(state);
+      dirPath.add(name);
+      return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult postVisitDirectory(Path dir, IOException ex) {
+      if (ex != null) {
+        log.warn("Failed to scan " + dir, ex);
+      }
+      canonDirs.pop();
+      dirStates.pop();
+      if (!canonDirs.isEmpty()) {
+        dirPath.remove(dirPath.size() - 1);
+      }
+      return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+    throws IOException {
+      if (canonDirs.isEmpty()) {
+        // The start is not a directory.
+        return FileVisitResult.CONTINUE;
+      }
+      String name = file.getFileName().toString();
+      long[] dirState = dirStates.peek();
+      if (attrs.isRegularFile()) {
+        if (isFound(dirState, dirPath, name)) {
+          found.add(new Found(
+              canonDirs.peek().resolve(name).toFile(),
+              relativePath(dirPath, name)));
+        }
+      } else if (attrs.isSymbolicLink()) {
+        visitSymlink(file, name, dirState);
+      }
+      return FileVisitResult.CONTINUE;
+    }
+
+    private void visitSymlink(Path link, String name, long[] dirState)
+    throws IOException {
+      Path target;
+      BasicFileAttributes targetAttrs;
+      try {
+        target = link.toRealPath();
+        targetAttrs = Files.readAttributes(target, BasicFileAttributes.class);
+      } catch (IOException ex) {
+        log.debug("Skipping unresolvable symlink " + link, ex);
+        return;
+      }
+      if (targetAttrs.isRegularFile()) {
+        if (isFound(dirState, dirPath, name)) {
+          found.add(new Found(target.toFile(), relativePath(dirPath, name)));
+        }
+      } else if (targetAttrs.isDirectory()) {
+        long[] state = advance(dirState, name);
+        if (!shouldWalk(state)) { return; }
+        Path canonDir = canonDirs.peek();
+        if (canonDir.startsWith(target)) {
+          log.debug("Skipping symlink to ancestor " + link);
+          return;
+        }
+        for (Path linkDir : linkDirs) {
+          if (linkDir.startsWith(target)) {
+            log.debug("Skipping symlink to ancestor " + link);
+            return;
+          }
+        }
+        List<String> linkPath = Lists.newArrayList(dirPath);
+        linkPath.add(name);
+        new Walk(
+            log, found, linkPath, state,
+            ImmutableList.<Path>builder().addAll(linkDirs).add(canonDir)
+                .build())
+            .walk(target);
+      }
+    }
+
+    @Override
+    public FileVisitResult visitFileFailed(Path file, IOException ex) {
+      log.warn("Failed to scan " + file, ex);
+      return FileVisitResult.CONTINUE;
+    }
+  }
+
+
+  /**
+   * An Ant-style pattern like <code>**<!---->/foo/*.js</code> compiled to
+   * a matcher per path segment, or a {@code %regex[...]} pattern.
+   * <p>
+   * Ant-style patterns are matched a segment at a time.  The state after
+   * matching some segments is a bit set where bit i means that the first
+   * i segment matchers consumed them.
+   */
+  static final class PathPattern {
+    /** Null elements stand for <code>**</code>. */
+    private final SegmentMatcher[] segments;
+    /** Non-null for a regular expression pattern. */
+    final Pattern regex;
+
+    private PathPattern(SegmentMatcher[] segments, Pattern regex) {
+      this.segments = segments;
+      this.regex = regex;
+    }
+
+    private static final String REGEX_PREFIX = "%regex[";
+    private static final String ANT_PREFIX = "%ant[";
+
+    static PathPattern compile(String patternText) {
+      // Normalize as AbstractScanner does.
+      String pattern = patternText.trim();
+      if (pattern.startsWith(REGEX_PREFIX) && pattern.endsWith("]")) {
+        String re = pattern.substring(
+            REGEX_PREFIX.length(), pattern.length() - 1);
+        return new PathPattern(null, Pattern.compile(
+            File.separatorChar == '\\'
+            ? re.replace("/", "\\\\")
+            : re.replace("\\\\", "/")));
+      }
+      if (pattern.startsWith(ANT_PREFIX) && pattern.endsWith("]")) {
+        pattern = pattern.substring(
+            ANT_PREFIX.length(), pattern.length() - 1);
+      }
+      if (pattern.endsWith("/") || pattern.endsWith("\\")) {
+        pattern += "**";
+      }
+      List<SegmentMatcher> segments = Lists.newArrayList();
+      if (pattern.startsWith("/") || pattern.startsWith("\\")) {
+        // Relative paths never start with a separator.
+        segments.add(SegmentMatcher.NONE);
+      }
+      for (String token : pattern.split("[/\\\\]+")) {
+        if (token.isEmpty()) { continue; }
+        segments.add("**".equals(token) ? null : SegmentMatcher.of(token));
+      }
+      if (segments.size() >= Long.SIZE) {
+        throw new IllegalArgumentException(
+            "Too many path segments in " + patternText);
+      }
+      return new PathPattern(
+          segments.toArray(new SegmentMatcher[segments.size()]), null);
+    }
+
+    long initialState() {
+      return regex != null ? 0 : closure(1L);
+    }
+
+    long advance(long state, String name) {
+      if (regex != null) { return 0; }
+      long next = 0;
+      for (int i = 0, n = segments.length; i < n; ++i) {
+        if ((state & (1L << i)) == 0) { continue; }
+        SegmentMatcher m = segments[i];
+        if (m == null) {
+          next |= 1L << i;
+        } else if (m.matches(name)) {
+          next |= 1L << (i + 1);
+        }
+      }
+      return closure(next);
+    }
+
+    /** <code>**</code> may match zero segments. */
+    private long closure(long state) {
+      long closed = state;
+      for (int i = 0, n = segments.length; i < n; ++i) {
+        if ((closed & (1L << i)) != 0 && segments[i] == null) {
+          closed |= 1L << (i + 1);
+        }
+      }
+      return closed;
+    }
+
+    boolean matches(long state) {
+      return (state & (1L << segments.length)) != 0;
+    }
+
+    /** True if a path with the state's prefix and more could match. */
+    boolean couldMatchBeneath(long state) {
+      if (regex != null) { return true; }
+      return (state & ((1L << segments.length) - 1)) != 0;
+    }
+
+    /** True if every path with the state's prefix and more matches. */
+    boolean matchesAllBeneath(long state) {
+      if (regex != null) { return false; }
+      int n = segments.length;
+      return n != 0 && segments[n - 1] == null
+          && (state & (1L << (n - 1))) != 0;
+    }
+  }
+
+
+  /** Matches a single path segment. */
+  abstract static class SegmentMatcher {
+    abstract boolean matches(String name);
+
+    static final SegmentMatcher NONE = new SegmentMatcher() {
+      @Override
+      boolean matches(String name) {
+        return false;
+      }
+    };
+
+    static SegmentMatcher of(String token) {
+      if (token.indexOf('*') < 0 && token.indexOf('?') < 0) {
+        final String literal = token;
+        return new SegmentMatcher() {
+          @Override
+          boolean matches(String name) {
+            return literal.equals(name);
+          }
+        };
+      }
+      StringBuilder re = new StringBuilder();
+      int literalStart = 0;
+      for (int i = 0, n = token.length(); i < n; ++i) {
+        char ch = token.charAt(i);
+        if (ch == '*' || ch == '?') {
+          if (literalStart < i) {
+            re.append(Pattern.quote(token.substring(literalStart, i)));
+          }
+          re.append(ch == '*' ? ".*" : ".");
+          literalStart = i + 1;
+        }
+      }
+      if (literalStart < token.length()) {
+        re.append(Pattern.quote(token.substring(literalStart)));
+      }
+      final Pattern p = Pattern.compile(re.toString(), Pattern.DOTALL);
+      return new SegmentMatcher() {
+        @Override
+        boolean matches(String name) {
+          return p.matcher(name).matches();
+        }
+      };
+    }
+  }
+}
@@ -1,11 +1,14 @@
 package com.google.closure.plugin.common;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.Collection;
 
+import com.google.closure.plugin.plan.Hash;
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
@@ -27,6 +30,14 @@ implements Cloneable, Serializable, StructurallyComparable, Identifiable {
 
   boolean wasIdImplied;
 
+  /**
+   * Set by {@link OptionsUtils#prepare} after which the options are not
+   * mutated, so their structural hash may be cached.
+   */
+  transient boolean prepared;
+
+  private transient Hash structuralHash;
+
   /**
    * An ID that must be unique among a bundle of instances of the same kind used
    * in a compilation.
@@ -46,6 +57,29 @@ implements Cloneable, Serializable, StructurallyComparable, Identifiable {
     return this.wasIdImplied;
   }
 
+  /**
+   * A {@link StructuralHash} of this instance's fields.
+   * This is computed once per instance when it has been
+   * {@linkplain OptionsUtils#prepare prepared}.
+   */
+  public final Hash structuralHash() {
+    Hash h = structuralHash;
+    if (h == null) {
+      h = StructuralHash.of(this);
+      if (prepared) {
+        structuralHash = h;
+      }
+    }
+    return h;
+  }
+
+  /** Options are only persisted after they have been prepared. */
+  private void readObject(ObjectInputStream in)
+  throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    prepared = true;
+  }
+
   /**
    * Called after plexus configurations to create defaults for fields that were
    * not supplied by the plexus configurator.
@@ -76,13 +110,20 @@ implements Cloneable, Serializable, StructurallyComparable, Identifiable {
       Class<? extends Options> cl = getClass();
       Constructor<? extends Options> ctor = cl.getConstructor();
       Options clone = cl.cast(ctor.newInstance());
-      for (Field f : cl.getDeclaredFields()) {
-        if (Modifier.isStatic(f.getModifiers())) { continue; }
-        Class<?> ct = f.getType();
-        if (Collection.class.isAssignableFrom(ct)) {
-          copyAllInto(f, clone, this);
-        } else {
-          f.set(clone, f.get(this));
+      // Fields inherited from SourceOptions and the like are copied too.
+      for (Class<?> c = cl; c != Object.class; c = c.getSuperclass()) {
+        for (Field f : c.getDeclaredFields()) {
+          int mods = f.getModifiers();
+          if (Modifier.isStatic(mods) || Modifier.isTransient(mods)) {
+            continue;
+          }
+          Class<?> ct = f.getType();
+          if (Collection.class.isAssignableFrom(ct)) {
+            copyAllInto(f, clone, this);
+          } else {
+            f.setAccessible(true);
+            f.set(clone, f.get(this));
+          }
         }
       }
       return clone;
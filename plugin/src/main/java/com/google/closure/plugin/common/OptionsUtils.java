@@ -184,6 +184,10 @@ public final class OptionsUtils {
       prepareSubOptions(subs, o);
     }
 
+    for (OPTIONS o : optionSetList) {
+      o.prepared = true;
+    }
+
     return optionSetList;
   }
 
@@ -2,18 +2,24 @@ package com.google.closure.plugin.common;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.Serializable;
 import java.net.URISyntaxException;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.maven.plugin.logging.Log;
-import org.codehaus.plexus.util.DirectoryScanner;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.io.Files;
 
 /** A group of source files split into test and production files. */
 public final class Sources implements Serializable {
@@ -45,36 +51,81 @@ public final class Sources implements Serializable {
    */
   public static Sources scan(
       Log log, DirectoryScannerSpec spec) throws IOException {
-    String[] includesArray = spec.includes.toArray(new String[0]);
-    String[] excludesArray = spec.excludes.toArray(new String[0]);
+    return scan(log, spec, 1);
+  }
 
-    Map<File, Source> found = Maps.newLinkedHashMap();
+  /**
+   * Scans the file-trees under the specified directories for files matching
+   * the specified patterns, walking up to parallelism roots at a time.
+   * <p>
+   * The result is the same, and in the same order, as for a serial scan.
+   *
+   * @param parallelism the maximum number of worker threads.
+   *     At most 1 means scan on the calling thread.
+   */
+  public static Sources scan(
+      final Log log, DirectoryScannerSpec spec, int parallelism)
+  throws IOException {
+    final FileTreeScanner scanner = new FileTreeScanner(
+        spec.includes, spec.excludes);
+
+    List<TypedFile> canonRoots = Lists.newArrayList();
     for (TypedFile root : spec.roots) {
       if (!root.f.exists()) {
         log.debug("Skipping scan of non-extant root directory " + root.f);
         continue;
       }
+      canonRoots.add(new TypedFile(root.f.getCanonicalFile(), root.ps));
+    }
 
-      File canonRoot = root.f.getCanonicalFile();
-      TypedFile typedCanonRoot = new TypedFile(canonRoot, root.ps);
-
-      DirectoryScanner scanner = new DirectoryScanner();
-      scanner.setBasedir(canonRoot);
-      scanner.setIncludes(includesArray);
-      scanner.setExcludes(excludesArray);
-      scanner.addDefaultExcludes();
-      scanner.setCaseSensitive(true);  // WTF MacOS
-      scanner.setFollowSymlinks(true);
-
-      scanner.scan();
-
-      for (String relPath : scanner.getIncludedFiles()) {
-        relPath = Files.simplifyPath(relPath);
-
-        File file = new File(
-            FilenameUtils.concat(canonRoot.getPath(), relPath));
+    int n = canonRoots.size();
+    List<ImmutableList<FileTreeScanner.Found>> foundPerRoot =
+        Lists.newArrayListWithCapacity(n);
+    int nWorkers = Math.min(parallelism, n);
+    if (nWorkers <= 1) {
+      for (TypedFile root : canonRoots) {
+        foundPerRoot.add(scanner.scan(log, root.f));
+      }
+    } else {
+      ForkJoinPool pool = new ForkJoinPool(nWorkers);
+      try {
+        List<Future<ImmutableList<FileTreeScanner.Found>>> futures =
+            Lists.newArrayListWithCapacity(n);
+        for (final TypedFile root : canonRoots) {
+          futures.add(pool.submit(
+              new Callable<ImmutableList<FileTreeScanner.Found>>() {
+                @Override
+                public ImmutableList<FileTreeScanner.Found> call()
+                throws IOException {
+                  return scanner.scan(log, root.f);
+                }
+              }));
+        }
+        // Wait in root order so that the first failure in root order is
+        // reported regardless of scheduling.
+        for (int i = 0; i < n; ++i) {
+          try {
+            foundPerRoot.add(futures.get(i).get());
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(ex.getMessage());
+          } catch (ExecutionException ex) {
+            Throwables.propagateIfPossible(
+                ex.getCause(), IOException.class);
+            throw new IOException(
+                "Failed to scan " + canonRoots.get(i).f, ex.getCause());
+          }
+        }
+      } finally {
+        pool.shutdownNow();
+      }
+    }
 
-        File canonFile = file.getCanonicalFile();
+    Map<File, Source> found = Maps.newLinkedHashMap();
+    for (int i = 0; i < n; ++i) {
+      TypedFile typedCanonRoot = canonRoots.get(i);
+      for (FileTreeScanner.Found f : foundPerRoot.get(i)) {
+        File canonFile = f.canonicalFile;
         TypedFile sourceRoot = typedCanonRoot;
 
         Source prev = found.get(canonFile);
@@ -93,7 +144,7 @@ public final class Sources implements Serializable {
           sourceRoot = new TypedFile(sourceRoot.f, combinedProps);
         }
 
-        File relFile = new File(relPath);
+        File relFile = new File(f.relativePath);
 
         Source source = new Source(canonFile, sourceRoot, relFile);
         found.put(canonFile, source);
@@ -0,0 +1,264 @@
+package com.google.closure.plugin.common;
+
+import java.io.File;
+import java.io.NotSerializableException;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.closure.plugin.plan.Hash;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.PrimitiveSink;
+
+/**
+ * Hashes option bundles by walking their fields reflectively, as
+ * {@link OptionsUtils} does to find {@link Asplodable} fields, instead of by
+ * serializing them.
+ * <p>
+ * Fields are visited in name order and static and transient fields are
+ * skipped, so the hash does not depend on declaration order or
+ * {@code serialVersionUID}s.
+ * Sets and maps hash the same regardless of iteration order.
+ * Classes outside this plugin are not walked: they are hashed via their
+ * serialized form or, failing that, their string form.
+ */
+public final class StructuralHash {
+  private StructuralHash() {}
+
+  /** A structural hash of o. */
+  public static Hash of(Object o) {
+    return Hash.hashObject(o, FUNNEL);
+  }
+
+  /**
+   * A structural hash of o that hashes files by their
+   * {@linkplain Hash#portablePath portable paths}.
+   */
+  public static Hash ofPortable(
+      Object o, final ImmutableList<File> baseDirs) {
+    return Hash.hashObject(o, new Funnel<Object>() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      public void funnel(Object from, PrimitiveSink into) {
+        put(from, into, Sets.<Object>newIdentityHashSet(), baseDirs);
+      }
+    });
+  }
+
+  /**
+   * The {@linkplain Options#structuralHash cached} hash when o is an
+   * {@link Options} instance, or a structural hash of o otherwise.
+   */
+  public static Hash ofOptions(Object o) {
+    return o instanceof Options ? ((Options) o).structuralHash() : of(o);
+  }
+
+  private static final String PLUGIN_PACKAGE_PREFIX =
+      StructuralHash.class.getPackage().getName()
+      .replaceFirst("[.]common$", ".");
+
+  private static final Map<Class<?>, ImmutableList<Field>> FIELDS =
+      new ConcurrentHashMap<>();
+
+  private static final Comparator<Field> BY_NAME = new Comparator<Field>() {
+    @Override
+    public int compare(Field a, Field b) {
+      int delta = a.getName().compareTo(b.getName());
+      if (delta == 0) {
+        delta = a.getDeclaringClass().getName().compareTo(
+            b.getDeclaringClass().getName());
+      }
+      return delta;
+    }
+  };
+
+  private static final Comparator<Hash> BY_HEX = new Comparator<Hash>() {
+    @Override
+    public int compare(Hash a, Hash b) {
+      return a.toHexString().compareTo(b.toHexString());
+    }
+  };
+
+  private static final Funnel<Object> FUNNEL = new Funnel<Object>() {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public void funnel(Object from, PrimitiveSink into) {
+      put(from, into, Sets.<Object>newIdentityHashSet(),
+          ImmutableList.<File>of());
+    }
+  };
+
+  static ImmutableList<Field> fieldsOf(Class<?> cl) {
+    ImmutableList<Field> fields = FIELDS.get(cl);
+    if (fields == null) {
+      List<Field> all = Lists.newArrayList();
+      for (Class<?> c = cl; c != null && c != Object.class;
+           c = c.getSuperclass()) {
+        for (Field f : c.getDeclaredFields()) {
+          int mods = f.getModifiers();
+          if (Modifier.isStatic(mods) || Modifier.isTransient(mods)
+              || f.isSynthetic()) {
+            continue;
+          }
+          f.setAccessible(true);
+          all.add(f);
+        }
+      }
+      Collections.sort(all, BY_NAME);
+      fields = ImmutableList.copyOf(all);
+      FIELDS.put(cl, fields);
+    }
+    return fields;
+  }
+
+  private static void putString(String s, PrimitiveSink into) {
+    into.putInt(s.length());
+    into.putString(s, Charsets.UTF_8);
+  }
+
+  private static void put(
+      Object o, PrimitiveSink into, Set<Object> onStack,
+      ImmutableList<File> baseDirs) {
+    if (o == null) {
+      into.putByte((byte) 0);
+    } else if (o instanceof Boolean) {
+      into.putByte((byte) 'Z').putBoolean((Boolean) o);
+    } else if (o instanceof Number) {
+      into.putByte((byte) 'N');
+      putString(o.getClass().getName(), into);
+      putString(o.toString(), into);
+    } else if (o instanceof Character) {
+      into.putByte((byte) 'C').putChar((Character) o);
+    } else if (o instanceof CharSequence) {
+      into.putByte((byte) 'S');
+      putString(o.toString(), into);
+    } else if (o instanceof Enum<?>) {
+      into.putByte((byte) 'E');
+      putString(((Enum<?>) o).getDeclaringClass().getName(), into);
+      putString(((Enum<?>) o).name(), into);
+    } else if (o instanceof Class<?>) {
+      into.putByte((byte) 'K');
+      putString(((Class<?>) o).getName(), into);
+    } else if (o instanceof File) {
+      into.putByte((byte) 'F');
+      putString(Hash.portablePath((File) o, baseDirs), into);
+    } else if (o instanceof Hash) {
+      into.putByte((byte) 'H');
+      byte[] bytes = ((Hash) o).getBytes();
+      into.putInt(bytes.length).putBytes(bytes);
+    } else if (!onStack.add(o)) {
+      // Cycle
+      into.putByte((byte) 'Y');
+    } else {
+      try {
+        putComposite(o, into, onStack, baseDirs);
+      } finally {
+        onStack.remove(o);
+      }
+    }
+  }
+
+  private static void putComposite(
+      Object o, PrimitiveSink into, Set<Object> onStack,
+      ImmutableList<File> baseDirs) {
+    Class<?> cl = o.getClass();
+    if (o instanceof Optional<?>) {
+      Optional<?> opt = (Optional<?>) o;
+      into.putByte((byte) 'O').putBoolean(opt.isPresent());
+      if (opt.isPresent()) {
+        put(opt.get(), into, onStack, baseDirs);
+      }
+    } else if (o instanceof Set<?>) {
+      into.putByte((byte) 's');
+      putUnordered((Set<?>) o, into, onStack, baseDirs);
+    } else if (o instanceof Map<?, ?>) {
+      into.putByte((byte) 'M');
+      List<List<?>> entries = Lists.newArrayList();
+      for (Map.Entry<?, ?> e : ((Map<?, ?>) o).entrySet()) {
+        entries.add(Lists.newArrayList(e.getKey(), e.getValue()));
+      }
+      putUnordered(entries, into, onStack, baseDirs);
+    } else if (o instanceof Iterable<?>) {
+      into.putByte((byte) 'L');
+      int n = 0;
+      for (Object el : (Iterable<?>) o) {
+        put(el, into, onStack, baseDirs);
+        ++n;
+      }
+      into.putInt(n);
+    } else if (cl.isArray()) {
+      into.putByte((byte) 'A');
+      int n = Array.getLength(o);
+      into.putInt(n);
+      for (int i = 0; i < n; ++i) {
+        put(Array.get(o, i), into, onStack, baseDirs);
+      }
+    } else if (cl.getName().startsWith(PLUGIN_PACKAGE_PREFIX)) {
+      into.putByte((byte) 'R');
+      putString(cl.getName(), into);
+      for (Field f : fieldsOf(cl)) {
+        Object value;
+        try {
+          value = f.get(o);
+        } catch (IllegalAccessException ex) {
+          throw (AssertionError)
+              new AssertionError("setAccessible").initCause(ex);
+        }
+        putString(f.getName(), into);
+        put(value, into, onStack, baseDirs);
+      }
+    } else {
+      putString(cl.getName(), into);
+      if (o instanceof Serializable) {
+        try {
+          into.putByte((byte) 'J');
+          byte[] bytes = Hash.hashSerializable(
+              (Serializable) o, baseDirs).getBytes();
+          into.putBytes(bytes);
+          return;
+        } catch (@SuppressWarnings("unused") NotSerializableException ex) {
+          // Fall through to the string form.
+        }
+      }
+      into.putByte((byte) 'T');
+      putString(o.toString(), into);
+    }
+  }
+
+  private static void putUnordered(
+      Collection<?> elements, PrimitiveSink into, Set<Object> onStack,
+      final ImmutableList<File> baseDirs) {
+    List<Hash> hashes = Lists.newArrayListWithCapacity(elements.size());
+    for (final Object el : elements) {
+      final Set<Object> elOnStack = onStack;
+      hashes.add(Hash.hashObject(el, new Funnel<Object>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void funnel(Object from, PrimitiveSink elInto) {
+          put(from, elInto, elOnStack, baseDirs);
+        }
+      }));
+    }
+    Collections.sort(hashes, BY_HEX);
+    into.putInt(hashes.size());
+    for (Hash h : hashes) {
+      into.putBytes(h.getBytes());
+    }
+  }
+}
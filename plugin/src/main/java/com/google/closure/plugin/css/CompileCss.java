@@ -2,20 +2,35 @@ package com.google.closure.plugin.css;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Map;
 
 import org.apache.maven.plugin.MojoExecutionException;
 
 import com.google.closure.plugin.plan.BundlingPlanGraphNode.OptionsAndBundles;
 import com.google.closure.plugin.plan.CompilePlanGraphNode;
+import com.google.closure.plugin.plan.Hash;
 import com.google.closure.plugin.plan.JoinNodes;
+import com.google.closure.plugin.plan.NodeExplanation;
 import com.google.closure.plugin.plan.PlanContext;
 import com.google.closure.plugin.plan.PlanGraphNode;
 import com.google.closure.plugin.plan.Update;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.css.RecordingSubstitutionMap;
+import com.google.common.io.Files;
 
 final class CompileCss
 extends CompilePlanGraphNode<CssOptions, CssBundle> {
 
+  /**
+   * The class renamings that compiling each bundle added to the shared
+   * substitution map, so they can be stored in the build cache.
+   */
+  private final Map<CssBundle, ImmutableMap<String, String>> addedMappings =
+      Maps.newHashMap();
+
   CompileCss(PlanContext context) {
     super(context);
   }
@@ -31,9 +46,92 @@ extends CompilePlanGraphNode<CssOptions, CssBundle> {
 
     for (OptionsAndBundles<CssOptions, CssBundle> ob : u.allExtant()) {
       for (CssBundle b : ob.bundles) {
-        processOneBundle(ob.optionsAndInputs.options, b);
+        restoreOrProcessOneBundle(ob.optionsAndInputs.options, b);
+      }
+    }
+  }
+
+  /**
+   * Restores the bundle's outputs from the build cache or compiles it and
+   * stores the outputs there.
+   */
+  void restoreOrProcessOneBundle(CssOptions options, CssBundle b)
+  throws IOException, MojoExecutionException {
+    if (!restoreFromBuildCache(options, b)) {
+      Map<String, String> before = currentMappings();
+      processOneBundle(options, b);
+      ImmutableMap.Builder<String, String> added = ImmutableMap.builder();
+      for (Map.Entry<String, String> e : currentMappings().entrySet()) {
+        if (!before.containsKey(e.getKey())) {
+          added.put(e);
+        }
+      }
+      addedMappings.put(b, added.build());
+      storeInBuildCache(b);
+    }
+  }
+
+  private Map<String, String> currentMappings() {
+    return context.substitutionMapProvider != null
+        ? context.substitutionMapProvider.get().getMappings()
+        : ImmutableMap.<String, String>of();
+  }
+
+  /**
+   * The names that compiling a bundle assigns depend on those already
+   * assigned, so the key includes the current renamings.
+   */
+  @Override
+  protected Optional<Hash> buildCacheKey(CssOptions options, CssBundle b)
+  throws IOException {
+    Optional<Hash> key = super.buildCacheKey(options, b);
+    if (!key.isPresent()) { return key; }
+    ImmutableList.Builder<Hash> parts = ImmutableList.builder();
+    parts.add(key.get());
+    for (Map.Entry<String, String> e : currentMappings().entrySet()) {
+      parts.add(Hash.hashString(e.getKey()));
+      parts.add(Hash.hashString(e.getValue()));
+    }
+    return Optional.of(Hash.hashAllHashes(parts.build()));
+  }
+
+  /**
+   * Renames the cached bundle's classes so that the rename map matches the
+   * restored CSS.
+   */
+  @Override
+  protected boolean replayMappings(
+      CssBundle b, ImmutableMap<String, String> mappings) {
+    if (mappings.isEmpty()) { return true; }
+    if (context.substitutionMapProvider == null) { return false; }
+    RecordingSubstitutionMap substitutionMap =
+        context.substitutionMapProvider.get();
+    for (Map.Entry<String, String> e : mappings.entrySet()) {
+      if (!e.getValue().equals(substitutionMap.get(e.getKey()))) {
+        context.log.debug(
+            "Cached renaming of " + e.getKey() + " to " + e.getValue()
+            + " could not be replayed");
+        return false;
       }
     }
+    return true;
+  }
+
+  @Override
+  protected ImmutableMap<String, String> mappingsAdded(CssBundle b) {
+    ImmutableMap<String, String> added = addedMappings.remove(b);
+    return added != null ? added : ImmutableMap.<String, String>of();
+  }
+
+  /** All extant bundles are compiled, not just changed ones. */
+  @Override
+  protected void explainUpdates(NodeExplanation explanation) {
+    super.explainUpdates(explanation);
+    if (optionsAndBundles.isPresent()
+        && !optionsAndBundles.get().unchanged.isEmpty()) {
+      explanation.addTrigger(
+          "unchanged bundles are recompiled unless in the build cache");
+    }
   }
 
   void processOneBundle(CssOptions options, CssBundle bundle)
@@ -44,13 +142,29 @@ extends CompilePlanGraphNode<CssOptions, CssBundle> {
 
     boolean ok;
     try {
-      ok = new CssCompilerWrapper()
-          .cssOptions(options)
-          .inputs(bundle.inputs)
-          .outputFile(cssFile)
-          .sourceMapFile(sourceMapFile)
-          .substitutionMapProvider(context.substitutionMapProvider)
-          .compileCss(context.buildContext, context.log);
+      // The compiler writes temporary files which only replace the outputs
+      // when their content differs.
+      File cssTemp = tempFileNextTo(cssFile);
+      File sourceMapTemp = tempFileNextTo(sourceMapFile);
+      try {
+        ok = new CssCompilerWrapper()
+            .cssOptions(options)
+            .inputs(bundle.inputs)
+            .outputFile(cssTemp)
+            .sourceMapFile(sourceMapTemp)
+            .substitutionMapProvider(context.substitutionMapProvider)
+            .compileCss(context.buildContext, context.log);
+        if (ok) {
+          moveOutput(cssTemp, cssFile);
+          moveOutput(sourceMapTemp, sourceMapFile);
+        }
+      } finally {
+        for (File temp : new File[] { cssTemp, sourceMapTemp }) {
+          if (temp.exists() && !temp.delete()) {
+            context.log.warn("Failed to delete " + temp);
+          }
+        }
+      }
     } catch (IOException ex) {
       context.log.error(ex);
       ok = false;
@@ -60,11 +174,15 @@ extends CompilePlanGraphNode<CssOptions, CssBundle> {
           "Failed to compile CSS " + bundle.entryPoint.relativePath);
     }
 
-    this.changedFiles.add(cssFile);
-    this.changedFiles.add(sourceMapFile);
     this.bundleToOutputs.put(bundle, ImmutableList.of(cssFile, sourceMapFile));
   }
 
+  private static File tempFileNextTo(File f) throws IOException {
+    Files.createParentDirs(f);
+    return File.createTempFile(
+        "." + f.getName() + "-", ".tmp", f.getParentFile());
+  }
+
 
   @Override
   protected SV getStateVector() {
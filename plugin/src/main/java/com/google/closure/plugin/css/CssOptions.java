@@ -420,7 +420,7 @@ public final class CssOptions extends SourceOptions {
     @Override
     public int hashCode() {
       final int prime = 31;
-      int result = super.hashCode();
+      int result = 1;
       result = prime * result + ((css == null) ? 0 : css.hashCode());
       result = prime * result + ((sourceMap == null) ? 0 : sourceMap.hashCode());
       return result;
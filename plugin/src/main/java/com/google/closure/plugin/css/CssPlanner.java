@@ -1,13 +1,16 @@
 package com.google.closure.plugin.css;
 
 import java.io.File;
+import java.util.List;
 
 import org.apache.maven.plugin.MojoExecutionException;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.closure.plugin.common.FileExt;
 import com.google.closure.plugin.common.OptionsUtils;
 import com.google.closure.plugin.common.SourceOptions.SourceRootBuilder;
@@ -50,34 +53,42 @@ public final class CssPlanner {
     return this;
   }
 
-  private ImmutableList<CssOptions> optionSets(
+  @VisibleForTesting
+  ImmutableList<CssOptions> optionSets(
       Iterable<? extends CssOptions> options)
   throws MojoExecutionException {
+    // Defaults are applied before preparing since prepared options are not
+    // mutated so that their structural hashes may be cached.
+    List<CssOptions> withDefaults = Lists.newArrayList();
+    for (CssOptions o : options) {
+      withDefaults.add(applyDefaults(o));
+    }
     // Multiple the options out so that there is at most one output
     // orientation and vendor per option.
-    ImmutableList<CssOptions> cssOptionSets = OptionsUtils.prepare(
+    return OptionsUtils.prepare(
         new Supplier<CssOptions>() {
           @Override
           public CssOptions get() {
-            return new CssOptions();
+            return applyDefaults(new CssOptions());
           }
         },
-        options);
-    for (CssOptions o : cssOptionSets) {
-      if (o.source == null || o.source.length == 0) {
-        o.source = new SourceRootBuilder[] {
-          new SourceRootBuilder(),
-        };
-        o.source[0].set(this.defaultCssSource);
-      }
-      if (Strings.isNullOrEmpty(o.output)) {
-        o.output = this.defaultCssOutputPathTemplate;
-      }
-      if (Strings.isNullOrEmpty(o.sourceMapFile)) {
-        o.sourceMapFile = this.defaultCssSourceMapPathTemplate;
-      }
+        withDefaults);
+  }
+
+  private CssOptions applyDefaults(CssOptions o) {
+    if (o.source == null || o.source.length == 0) {
+      o.source = new SourceRootBuilder[] {
+        new SourceRootBuilder(),
+      };
+      o.source[0].set(this.defaultCssSource);
+    }
+    if (Strings.isNullOrEmpty(o.output)) {
+      o.output = this.defaultCssOutputPathTemplate;
+    }
+    if (Strings.isNullOrEmpty(o.sourceMapFile)) {
+      o.sourceMapFile = this.defaultCssSourceMapPathTemplate;
     }
-    return cssOptionSets;
+    return o;
   }
 
   /** Builds an entry point to the CSS build chain. */
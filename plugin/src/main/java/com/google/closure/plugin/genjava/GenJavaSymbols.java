@@ -65,7 +65,7 @@ final class GenJavaSymbols extends PlanGraphNode<GenJavaSymbols.SV> {
     ImmutableSet.Builder<Source> changed = ImmutableSet.builder();
     ImmutableSet.Builder<Source> defunct = ImmutableSet.builder();
 
-    if (sourceUpdate.isPresent() && bc.isIncremental()) {
+    if (sourceUpdate.isPresent() && bc.isIncremental() && !isDirty()) {
       Set<Source> unchangedSet = Sets.newLinkedHashSet();
       unchangedSet.addAll(sourceUpdate.get().allExtant());
       for (TypedFile root : outputFileSpec.roots) {
@@ -80,7 +80,8 @@ final class GenJavaSymbols extends PlanGraphNode<GenJavaSymbols.SV> {
       }
       unchanged.addAll(unchangedSet);
     } else {
-      changed.addAll(Sources.scan(context.log, outputFileSpec).sources);
+      changed.addAll(Sources.scan(
+          context.log, outputFileSpec, context.parallelism).sources);
     }
 
     this.sourceUpdate = Optional.of(new Update<>(
@@ -98,7 +99,7 @@ final class GenJavaSymbols extends PlanGraphNode<GenJavaSymbols.SV> {
   protected void process() throws IOException, MojoExecutionException {
     this.outputFiles.clear();
 
-    if (context.buildContext.isIncremental()
+    if (context.buildContext.isIncremental() && !isDirty()
         && !sourceUpdate.get().hasChanges()) {
       return;
     }
@@ -0,0 +1,124 @@
+package com.google.closure.plugin.js;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.plugin.logging.Log;
+import org.sonatype.plexus.build.incremental.BuildContext;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.javascript.jscomp.BasicErrorManager;
+import com.google.javascript.jscomp.CheckLevel;
+import com.google.javascript.jscomp.JSError;
+import com.google.javascript.jscomp.LightweightMessageFormatter;
+import com.google.javascript.jscomp.MessageFormatter;
+import com.google.javascript.jscomp.SourceExcerptProvider;
+
+/**
+ * Logs closure compiler errors and adds them to a build context as messages
+ * against the source files that they were reported in.
+ * <p>
+ * Unlike {@link BuildContextMessageParser}, this receives structured errors
+ * so does not need to recover file names and positions from text.
+ * <p>
+ * Diagnostics are held until {@link #reportDiagnostics} so that those of
+ * concurrent compilations can be reported in a deterministic order.
+ */
+final class BuildContextJSErrorManager extends BasicErrorManager {
+  private final Log log;
+  private final BuildContext buildContext;
+  /** Maps source names given to the compiler to the files they came from. */
+  private final ImmutableMap<String, File> sourceNameToFile;
+  private MessageFormatter formatter;
+  /** Formatted diagnostics in the order the compiler printed them. */
+  private final List<Diagnostic> diagnostics = Lists.newArrayList();
+
+  BuildContextJSErrorManager(
+      Log log, BuildContext buildContext,
+      Map<String, File> sourceNameToFile) {
+    this.log = log;
+    this.buildContext = buildContext;
+    this.sourceNameToFile = ImmutableMap.copyOf(sourceNameToFile);
+  }
+
+  /** Must be called before any report is generated. */
+  void setSourceExcerptProvider(SourceExcerptProvider provider) {
+    this.formatter = new LightweightMessageFormatter(provider);
+  }
+
+  @Override
+  public synchronized void println(CheckLevel level, JSError error) {
+    File file = error.sourceName != null
+        ? sourceNameToFile.get(error.sourceName)
+        : null;
+    // Positions are copied out since errors refer to the AST.
+    diagnostics.add(new Diagnostic(
+        level, error.format(level, formatter), file,
+        Math.max(0, error.getLineNumber()),
+        // Build context columns are 1-based.
+        error.getCharno() >= 0 ? error.getCharno() + 1 : 0,
+        error.description));
+  }
+
+  @Override
+  protected synchronized void printSummary() {
+    int nErrors = getErrorCount();
+    int nWarnings = getWarningCount();
+    if (nErrors + nWarnings != 0) {
+      diagnostics.add(new Diagnostic(
+          null,
+          "jscomp: " + nErrors + " error(s), " + nWarnings + " warning(s)",
+          null, 0, 0, null));
+    }
+  }
+
+  /**
+   * Logs the diagnostics printed so far and adds those against sources to
+   * the build context.
+   */
+  synchronized void reportDiagnostics() {
+    for (Diagnostic d : diagnostics) {
+      if (d.level == null) {
+        log.info(d.text);
+        continue;
+      }
+      int severity;
+      if (d.level == CheckLevel.ERROR) {
+        log.error(d.text);
+        severity = BuildContext.SEVERITY_ERROR;
+      } else {
+        log.warn(d.text);
+        severity = BuildContext.SEVERITY_WARNING;
+      }
+      if (d.file != null) {
+        buildContext.addMessage(
+            d.file, d.line, d.col, d.description, severity, null);
+      }
+    }
+    diagnostics.clear();
+  }
+
+  private static final class Diagnostic {
+    /** Null for a summary. */
+    final CheckLevel level;
+    final String text;
+    /** The source file if known. */
+    final File file;
+    final int line;
+    final int col;
+    final String description;
+
+    Diagnostic(
+        CheckLevel level, String text, File file, int line, int col,
+        String description) {
+      this.level = level;
+      this.text = text;
+      this.file = file;
+      this.line = line;
+      this.col = col;
+      this.description = description;
+    }
+  }
+}
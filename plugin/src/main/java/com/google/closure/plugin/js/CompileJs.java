@@ -3,20 +3,32 @@ package com.google.closure.plugin.js;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.PrintStream;
+import java.nio.charset.Charset;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.logging.Log;
 import org.json.simple.JSONArray;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.io.ByteSource;
-import com.google.common.io.Files;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.closure.plugin.common.Sources.Source;
 import com.google.closure.plugin.plan.BundlingPlanGraphNode.OptionsAndBundles;
 import com.google.closure.plugin.plan.CompilePlanGraphNode;
@@ -28,6 +40,9 @@ import com.google.javascript.jscomp.CommandLineRunner;
 
 final class CompileJs extends CompilePlanGraphNode<JsOptions, Modules> {
 
+  /** Appended to a module output's path to get its source map's path. */
+  static final String SOURCE_MAP_SUFFIX = "-source-map.json";
+
   public CompileJs(PlanContext context) {
     super(context);
   }
@@ -38,20 +53,72 @@ final class CompileJs extends CompilePlanGraphNode<JsOptions, Modules> {
     this.processDefunctBundles(optionsAndBundles);
     Update<OptionsAndBundles<JsOptions, Modules>> u =
         this.optionsAndBundles.get();
+    List<Job> jobs = Lists.newArrayList();
     for (OptionsAndBundles<JsOptions, Modules> ob : u.changed) {
-      processOne(ob.optionsAndInputs.options, ob.bundles.get(0));
+      JsOptions options = ob.optionsAndInputs.options;
+      Modules modules = ob.bundles.get(0);
+      if (!restoreFromBuildCache(options, modules)) {
+        Optional<Job> job = prepare(
+            options, modules, options.needsCommandLineRunner());
+        if (job.isPresent()) {
+          jobs.add(job.get());
+        }
+      }
     }
+    compileAll(jobs);
+  }
+
+  @Override
+  protected ImmutableList<File> getOptionFiles(JsOptions options) {
+    return options.getFlagFiles();
   }
 
-  protected void processOne(JsOptions options, Modules modules)
+  /**
+   * @param viaCommandLine true to run {@link CommandLineRunner} over JSON
+   *     streams instead of calling the compiler directly.
+   *     Both produce the same outputs, so this also allows testing parity.
+   */
+  @VisibleForTesting
+  void processOne(JsOptions options, Modules modules, boolean viaCommandLine)
   throws IOException, MojoExecutionException {
+    Optional<Job> job = prepare(options, modules, viaCommandLine);
+    if (job.isPresent()) {
+      compileAll(ImmutableList.of(job.get()));
+    }
+  }
+
+  /** A bundle to compile. */
+  private static final class Job {
+    final JsOptions options;
+    final Modules modules;
+    final ImmutableList<String> argv;
+    final ImmutableList<Source> jsSources;
+    final File jsOutputDir;
+    final boolean viaCommandLine;
+
+    Job(
+        JsOptions options, Modules modules, ImmutableList<String> argv,
+        ImmutableList<Source> jsSources, File jsOutputDir,
+        boolean viaCommandLine) {
+      this.options = options;
+      this.modules = modules;
+      this.argv = argv;
+      this.jsSources = jsSources;
+      this.jsOutputDir = jsOutputDir;
+      this.viaCommandLine = viaCommandLine;
+    }
+  }
+
+  private Optional<Job> prepare(
+      JsOptions options, Modules modules, boolean viaCommandLine)
+  throws IOException {
     final Log log = context.log;
     File jsOutputDir = new File(context.closureOutputDirectory, "js");
     java.nio.file.Files.createDirectories(jsOutputDir.toPath());
 
     if (modules.modules.isEmpty()) {
       log.info("Skipping JS compilation -- zero modules");
-      return;
+      return Optional.absent();
     }
 
     ImmutableList.Builder<String> argvBuilder = ImmutableList.builder();
@@ -61,19 +128,201 @@ final class CompileJs extends CompilePlanGraphNode<JsOptions, Modules> {
         .add(jsOutputDir.getPath() + File.separator);
 
     argvBuilder.add("--create_renaming_reports");
-    argvBuilder.add("--create_source_map").add("%outname%-source-map.json");
+    argvBuilder.add("--create_source_map").add(
+        "%outname%" + SOURCE_MAP_SUFFIX);
 
     ImmutableList.Builder<Source> jsSourcesBuilder = ImmutableList.builder();
 
     modules.addClosureCompilerFlags(argvBuilder, jsSourcesBuilder);
-    // Tell the compiler that we're going to be passing inputs via the JSON
-    // streaming API so that we can control the path associated with the
-    // source file.
-    // Closure Compiler compares the path to whitelists when doing conformance
-    // checking, so we want to use paths relative to search roots.
-    argvBuilder.add("--json_streams").add("BOTH");
-
-    final ImmutableList<String> argv = argvBuilder.build();
+
+    ImmutableList<Source> jsSources = jsSourcesBuilder.build();
+    for (Source jsSource : jsSources) {
+      context.buildContext.removeMessages(jsSource.canonicalPath);
+    }
+
+    if (viaCommandLine) {
+      // Tell the compiler that we're going to be passing inputs via the JSON
+      // streaming API so that we can control the path associated with the
+      // source file.
+      // Closure Compiler compares the path to whitelists when doing
+      // conformance checking, so we want to use paths relative to search
+      // roots.
+      argvBuilder.add("--json_streams").add("BOTH");
+    }
+    return Optional.of(new Job(
+        options, modules, argvBuilder.build(), jsSources, jsOutputDir,
+        viaCommandLine));
+  }
+
+  /**
+   * Compiles bundles, running direct compilations concurrently when there
+   * are several, but writing outputs and reporting diagnostics in bundle
+   * order so that the results do not depend on which finished first.
+   * <p>
+   * Stops at the first bundle in order that fails to compile.
+   * Command line compilations run serially as they are committed since they
+   * stream outputs and diagnostics as they go.
+   * Direct compilations spool their outputs to temporary files, so those
+   * that finish ahead of their turn do not hold their outputs in memory.
+   */
+  private void compileAll(List<Job> jobs)
+  throws IOException, MojoExecutionException {
+    int nDirect = 0;
+    for (Job job : jobs) {
+      if (!job.viaCommandLine) { ++nDirect; }
+    }
+    int nWorkers = Math.min(nDirect, maxConcurrentCompilations());
+    ForkJoinPool pool = nWorkers > 1 ? new ForkJoinPool(nWorkers) : null;
+    List<Future<DirectCompilation>> futures = Lists.newArrayList();
+    // Set when an earlier bundle failed so compilations that have not
+    // started yet are skipped.
+    final AtomicBoolean abandoned = new AtomicBoolean();
+    try {
+      for (final Job job : jobs) {
+        Future<DirectCompilation> future = null;
+        if (pool != null && !job.viaCommandLine) {
+          future = pool.submit(new Callable<DirectCompilation>() {
+            @Override
+            public DirectCompilation call()
+            throws IOException, MojoExecutionException {
+              return abandoned.get() ? null : compileDirectly(job);
+            }
+          });
+        }
+        futures.add(future);
+      }
+
+      for (int i = 0, n = jobs.size(); i < n; ++i) {
+        Job job = jobs.get(i);
+        Future<DirectCompilation> future = futures.get(i);
+        if (job.viaCommandLine) {
+          compileViaCommandLine(job);
+        } else {
+          DirectCompilation compilation = future != null
+              ? await(future)
+              : compileDirectly(job);
+          futures.set(i, null);
+          writeOutputs(job, compilation);
+        }
+        storeInBuildCache(job.modules);
+      }
+    } finally {
+      if (pool != null) {
+        abandoned.set(true);
+        pool.shutdown();
+        awaitTermination(pool);
+        discard(futures);
+      }
+    }
+  }
+
+  /**
+   * Waits for compilations in progress to finish so that none outlive the
+   * build or leave their spooled outputs behind.
+   */
+  private static void awaitTermination(ForkJoinPool pool) {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        if (pool.awaitTermination(1, TimeUnit.MINUTES)) { break; }
+      } catch (@SuppressWarnings("unused") InterruptedException ex) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Deletes the spooled outputs of compilations that were not committed
+   * because an earlier bundle failed.
+   * The pool must have terminated so that all the futures are done.
+   */
+  private void discard(List<Future<DirectCompilation>> futures) {
+    for (Future<DirectCompilation> future : futures) {
+      if (future == null) { continue; }
+      DirectCompilation compilation;
+      try {
+        compilation = Uninterruptibles.getUninterruptibly(future);
+      } catch (ExecutionException ex) {
+        context.log.debug("Discarded compilation failed", ex.getCause());
+        continue;
+      }
+      if (compilation != null) {
+        compilation.deleteTempFiles(context.log);
+      }
+    }
+  }
+
+  /**
+   * As many compilations as there are cores but no more than fit in the
+   * maximum heap at {@link PlanContext#heapPerCompileBytes} each.
+   * Only compilations in progress count since finished ones have spooled
+   * their outputs to disk.
+   */
+  private int maxConcurrentCompilations() {
+    Runtime runtime = Runtime.getRuntime();
+    long n = runtime.availableProcessors();
+    if (context.heapPerCompileBytes > 0) {
+      n = Math.min(n, runtime.maxMemory() / context.heapPerCompileBytes);
+    }
+    return (int) Math.max(1, n);
+  }
+
+  private static DirectCompilation await(Future<DirectCompilation> future)
+  throws IOException, MojoExecutionException {
+    try {
+      return future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(ex.getMessage());
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      Throwables.propagateIfInstanceOf(cause, IOException.class);
+      Throwables.propagateIfInstanceOf(cause, MojoExecutionException.class);
+      throw Throwables.propagate(cause);
+    }
+  }
+
+  private DirectCompilation compileDirectly(Job job)
+  throws IOException, MojoExecutionException {
+    if (context.log.isDebugEnabled()) {
+      context.log.debug(
+          "Compiling JS with flags: " + JSONArray.toJSONString(job.argv));
+    }
+    Charset inputCharset = job.options.charset != null
+        ? Charset.forName(job.options.charset) : Charsets.UTF_8;
+    return DirectCompilation.compile(
+        context.log, context.buildContext, job.argv, job.modules,
+        inputCharset, job.jsOutputDir.getPath() + File.separator);
+  }
+
+  private void writeOutputs(Job job, DirectCompilation compilation)
+  throws IOException, MojoExecutionException {
+    try {
+      compilation.reportDiagnostics(context.log);
+      if (!compilation.success) {
+        throw new MojoExecutionException("JS compilation failed");
+      }
+      ImmutableList.Builder<File> outputFiles = ImmutableList.builder();
+      for (Map.Entry<File, File> e : compilation.moduleOutputs.entrySet()) {
+        moveCompilerOutput(e.getValue(), e.getKey(), outputFiles);
+      }
+      for (Map.Entry<File, File> e
+           : compilation.renamingReports.entrySet()) {
+        moveOutput(e.getValue(), e.getKey());
+      }
+      this.bundleToOutputs.put(job.modules, outputFiles.build());
+    } finally {
+      compilation.deleteTempFiles(context.log);
+    }
+  }
+
+  private void compileViaCommandLine(Job job)
+  throws MojoExecutionException {
+    final Log log = context.log;
+    final ImmutableList<String> argv = job.argv;
     if (log.isDebugEnabled()) {
       log.debug("Executing JSCompiler: " + JSONArray.toJSONString(argv));
     }
@@ -81,19 +330,15 @@ final class CompileJs extends CompilePlanGraphNode<JsOptions, Modules> {
     // Intercept stdout as a JSON stream of outputs and put the outputs in the
     // right place while building the bundle outputs list.
     JsonStreamOutputHandler stdoutReceiver = new JsonStreamOutputHandler(
-        log);
+        log, job.jsOutputDir);
 
     // Intercept stderr and map it to BuildContext messages.
     BuildContextMessageParser stderrReceiver = new BuildContextMessageParser(
         context.log, context.buildContext);
 
-    List<Source> jsSources = jsSourcesBuilder.build();
-    for (Source jsSource : jsSources) {
-      context.buildContext.removeMessages(jsSource.canonicalPath);
-    }
-
     try {
-      ByteSource streamableJson = new StreamableJsonByteSource(log, jsSources);
+      ByteSource streamableJson = new StreamableJsonByteSource(
+          log, job.jsSources);
       // TODO: See if Soy or Proto produce SourceMaps under some flag
       // configuration and forward them through.
 
@@ -145,7 +390,11 @@ final class CompileJs extends CompilePlanGraphNode<JsOptions, Modules> {
           stderrReceiver);
 
     } catch (IOException ex) {
+      stdoutReceiver.deleteTempFiles();
       throw new MojoExecutionException("JS compilation failed", ex);
+    } catch (MojoExecutionException ex) {
+      stdoutReceiver.deleteTempFiles();
+      throw ex;
     }
 
     try {
@@ -155,20 +404,23 @@ final class CompileJs extends CompilePlanGraphNode<JsOptions, Modules> {
           "JS compilation interrupted waiting to receive streamed outputs", ex);
     }
     ImmutableList.Builder<File> outputFiles = ImmutableList.builder();
-    for (JsonStreamOutputHandler.FileContents output
-         : stdoutReceiver.getOutputs()) {
-      File outputFile = new File(output.path);
-      try {
-        Files.createParentDirs(outputFile);
-        Files.write(output.contents, outputFile, Charsets.UTF_8);
-      } catch (IOException ex) {
-        throw new MojoExecutionException(
-            "Error writing Closure Compiler output " + output.path, ex);
+    try {
+      for (JsonStreamOutputHandler.Output output
+           : stdoutReceiver.getOutputs()) {
+        File outputFile = new File(output.path);
+        moveCompilerOutput(output.src, outputFile, outputFiles);
+        if (output.sourceMap.isPresent()) {
+          moveCompilerOutput(
+              output.sourceMap.get(),
+              new File(output.path + SOURCE_MAP_SUFFIX),
+              outputFiles);
+        }
       }
-      outputFiles.add(outputFile);
+    } finally {
+      stdoutReceiver.deleteTempFiles();
     }
 
-    this.bundleToOutputs.put(modules, outputFiles.build());
+    this.bundleToOutputs.put(job.modules, outputFiles.build());
     List<MojoExecutionException> errors = stdoutReceiver.getFailures();
     if (!errors.isEmpty()) {
       int n = errors.size();
@@ -180,6 +432,18 @@ final class CompileJs extends CompilePlanGraphNode<JsOptions, Modules> {
     }
   }
 
+  private void moveCompilerOutput(
+      File from, File outputFile, ImmutableList.Builder<File> outputFiles)
+  throws MojoExecutionException {
+    try {
+      moveOutput(from, outputFile);
+    } catch (IOException ex) {
+      throw new MojoExecutionException(
+          "Error writing Closure Compiler output " + outputFile, ex);
+    }
+    outputFiles.add(outputFile);
+  }
+
   @Override
   protected SV getStateVector() {
     return new SV(this);
@@ -11,6 +11,7 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -22,11 +23,13 @@ import com.google.closure.plugin.js.JsDepInfo.DepInfo;
 import com.google.closure.plugin.plan.SourceMetadataMapBuilder;
 import com.google.closure.plugin.plan.SourceMetadataMapBuilder.Extractor;
 import com.google.closure.plugin.plan.BundlingPlanGraphNode;
+import com.google.closure.plugin.plan.FileStatCache;
 import com.google.closure.plugin.plan.JoinNodes;
 import com.google.closure.plugin.plan.Metadata;
 import com.google.closure.plugin.plan.OptionPlanGraphNode.OptionsAndInputs;
 import com.google.closure.plugin.plan.PlanContext;
 import com.google.closure.plugin.plan.PlanGraphNode;
+import com.google.closure.plugin.plan.SessionCache;
 import com.google.common.io.ByteSource;
 import com.google.javascript.jscomp.Compiler;
 import com.google.javascript.jscomp.CompilerInput;
@@ -65,6 +68,9 @@ extends BundlingPlanGraphNode<JsOptions, JsDepInfo> {
       newDepInfo = computeDepInfo(
           context.log, oldDepInfoMap, options,
           SourceMetadataMapBuilder.REAL_FILE_LOADER,
+          Optional.of(context.statCache),
+          Optional.of(context.sessionCache),
+          context.parallelism,
           sources);
     } catch (IOException ex) {
       throw new MojoExecutionException("Failed to extract dependency info", ex);
@@ -81,64 +87,127 @@ extends BundlingPlanGraphNode<JsOptions, JsDepInfo> {
       Function<Source, ByteSource> loader,
       Iterable<? extends Source> sources)
   throws IOException {
-    final Compiler parsingCompiler = new Compiler(
-        new MavenLogJSErrorManager(log));
-    parsingCompiler.initOptions(options.toCompilerOptions());
+    return computeDepInfo(
+        log, oldDepInfoMap, options, loader, Optional.<FileStatCache>absent(),
+        Optional.<SessionCache>absent(), 1, sources);
+  }
 
+  /**
+   * @param sessionCache shares dependency info for identical content, like
+   *     closure library sources, with other modules in the same build.
+   * @param parallelism the maximum number of sources parsed concurrently.
+   *     Each worker gets its own parsing compiler.
+   */
+  static ImmutableMap<Source, Metadata<DepInfo>> computeDepInfo(
+      final Log log,
+      ImmutableMap<Source, Metadata<DepInfo>> oldDepInfoMap,
+      final JsOptions options,
+      Function<Source, ByteSource> loader,
+      Optional<FileStatCache> statCache,
+      final Optional<SessionCache> sessionCache,
+      int parallelism,
+      Iterable<? extends Source> sources)
+  throws IOException {
     return SourceMetadataMapBuilder.updateFromSources(
         oldDepInfoMap,
         loader,
-        new Extractor<DepInfo>() {
+        statCache,
+        new Supplier<Extractor<DepInfo>>() {
           @Override
-          public DepInfo extractMetadata(Source source, byte[] content)
-          throws IOException {
-            String code = new String(content, Charsets.UTF_8);
-
-            SourceFile sourceFile = new SourceFile.Builder()
-                .withCharset(Charsets.UTF_8)
-                .withOriginalPath(source.relativePath.getPath())
-                .buildFromCode(source.canonicalPath.getPath(), code);
-
-            CompilerInput inp = new CompilerInput(sourceFile);
-            inp.setCompiler(parsingCompiler);
-
-            Collection<String> provides = inp.getProvides();
-            Collection<String> requires = inp.getRequires();
-
-            if (provides.isEmpty() && requires.isEmpty()) {
-              // closure/goog/base.js provides basic definitions for things like
-              // goog.require and goog.provide.
-              // Anything that calls a goog.* method implicitly requires goog.
-
-              // closure/goog/base.js gets around this by using the special
-              // "@provideGoog" annotation.
-
-              // That seems to be specially handled by JSCompiler but not via
-              // the CompilerInput API.
-              CStyleLexer lexer = new CStyleLexer(
-                  sourceFile.getCode(),
-                  true /* Need doc comments. */);
-              for (CStyleLexer.Token headerToken : lexer) {
-                if (headerToken.type != CStyleLexer.TokenType.DOC_COMMENT) {
-                  break;
-                }
-                if (headerToken.containsText("@provideGoog")) {
-                  provides = ImmutableSet.of("goog");
-                  break;
-                }
-              }
-            }
-
-            return new DepInfo(
-                inp.isModule(),
-                inp.getName(),
-                googNamespaces(provides),
-                googNamespaces(requires));
+          public Extractor<DepInfo> get() {
+            return new DepInfoExtractor(log, options, sessionCache);
           }
         },
+        parallelism,
         sources);
   }
 
+  /** Not thread-safe since it reuses a parsing compiler. */
+  private static final class DepInfoExtractor implements Extractor<DepInfo> {
+    private final Compiler parsingCompiler;
+    private final Optional<SessionCache> sessionCache;
+    /** Distinguishes dep info from sources parsed under other options. */
+    private final String sessionCacheKind;
+
+    DepInfoExtractor(
+        Log log, JsOptions options, Optional<SessionCache> sessionCache) {
+      parsingCompiler = new Compiler(new MavenLogJSErrorManager(log));
+      parsingCompiler.initOptions(options.toCompilerOptions());
+      this.sessionCache = sessionCache;
+      this.sessionCacheKind = "js-dep-info:" + options.languageIn;
+    }
+
+    @Override
+    public DepInfo extractMetadata(Source source, byte[] content)
+    throws IOException {
+      if (!sessionCache.isPresent()) {
+        return parse(source, content);
+      }
+      // The input name is the source path, so another module's dep info for
+      // the same content is only reusable once renamed.
+      SessionCache.ContentKey key = SessionCache.contentKey(
+          sessionCacheKind, content);
+      Optional<DepInfo> shared = sessionCache.get().getMetadata(
+          key, DepInfo.class);
+      if (shared.isPresent()) {
+        DepInfo d = shared.get();
+        return new DepInfo(
+            false, source.canonicalPath.getPath(), d.provides, d.requires);
+      }
+      DepInfo d = parse(source, content);
+      // Module names are derived from paths.
+      if (!d.isModule) {
+        sessionCache.get().putMetadata(key, d);
+      }
+      return d;
+    }
+
+    private DepInfo parse(Source source, byte[] content) throws IOException {
+      String code = new String(content, Charsets.UTF_8);
+
+      SourceFile sourceFile = new SourceFile.Builder()
+          .withCharset(Charsets.UTF_8)
+          .withOriginalPath(source.relativePath.getPath())
+          .buildFromCode(source.canonicalPath.getPath(), code);
+
+      CompilerInput inp = new CompilerInput(sourceFile);
+      inp.setCompiler(parsingCompiler);
+
+      Collection<String> provides = inp.getProvides();
+      Collection<String> requires = inp.getRequires();
+
+      if (provides.isEmpty() && requires.isEmpty()) {
+        // closure/goog/base.js provides basic definitions for things like
+        // goog.require and goog.provide.
+        // Anything that calls a goog.* method implicitly requires goog.
+
+        // closure/goog/base.js gets around this by using the special
+        // "@provideGoog" annotation.
+
+        // That seems to be specially handled by JSCompiler but not via
+        // the CompilerInput API.
+        CStyleLexer lexer = new CStyleLexer(
+            sourceFile.getCode(),
+            true /* Need doc comments. */);
+        for (CStyleLexer.Token headerToken : lexer) {
+          if (headerToken.type != CStyleLexer.TokenType.DOC_COMMENT) {
+            break;
+          }
+          if (headerToken.containsText("@provideGoog")) {
+            provides = ImmutableSet.of("goog");
+            break;
+          }
+        }
+      }
+
+      return new DepInfo(
+          inp.isModule(),
+          inp.getName(),
+          googNamespaces(provides),
+          googNamespaces(requires));
+    }
+  }
+
   private static final Function<String, Identifier.GoogNamespace> TO_GOOG_NS =
       new Function<String, Identifier.GoogNamespace>() {
 
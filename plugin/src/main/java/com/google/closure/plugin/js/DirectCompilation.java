@@ -0,0 +1,285 @@
+package com.google.closure.plugin.js;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.sonatype.plexus.build.incremental.BuildContext;
+
+import com.google.closure.plugin.common.Sources.Source;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import com.google.javascript.jscomp.CommandLineRunner;
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerOptions;
+import com.google.javascript.jscomp.JSModule;
+import com.google.javascript.jscomp.Result;
+import com.google.javascript.jscomp.SourceFile;
+import com.google.javascript.jscomp.SourceMap;
+
+/**
+ * Compiles modules by calling {@link Compiler#compileModules} directly
+ * instead of streaming sources to {@link CommandLineRunner} as JSON and
+ * parsing its outputs back out of JSON.
+ * <p>
+ * {@link JsOptions#toCompilerOptions} only does enough to parse, so the
+ * compiler options are derived from the same flags that would be passed to
+ * the command line runner, by the runner's own flag handling.
+ * <p>
+ * Compilation neither writes output files nor logs, so that compilations
+ * can run concurrently and have their outputs moved into place and
+ * diagnostics reported in a deterministic order afterwards.
+ * Outputs are spooled to temporary files as soon as a compilation finishes
+ * so that only compilations in progress hold their outputs in memory.
+ */
+final class DirectCompilation {
+  /** True if compilation succeeded. */
+  final boolean success;
+  /**
+   * Each module's output file and its source map file, in module order,
+   * mapped to temporary files with their content.
+   */
+  final ImmutableMap<File, File> moduleOutputs;
+  /**
+   * Renaming reports which, like the command line runner, we write beside
+   * the module outputs but do not report as outputs, mapped to temporary
+   * files with their content.
+   */
+  final ImmutableMap<File, File> renamingReports;
+  /** Warnings about the inputs that are logged with the diagnostics. */
+  private final ImmutableList<String> inputWarnings;
+  private final String summary;
+  private final BuildContextJSErrorManager errorManager;
+
+  private DirectCompilation(
+      boolean success,
+      ImmutableMap<File, File> moduleOutputs,
+      ImmutableMap<File, File> renamingReports,
+      ImmutableList<String> inputWarnings,
+      String summary,
+      BuildContextJSErrorManager errorManager) {
+    this.success = success;
+    this.moduleOutputs = moduleOutputs;
+    this.renamingReports = renamingReports;
+    this.inputWarnings = inputWarnings;
+    this.summary = summary;
+    this.errorManager = errorManager;
+  }
+
+  /**
+   * @param argv flags for {@link CommandLineRunner} that describe the
+   *     compilation, excluding any that specify inputs.
+   * @param inputCharset the encoding of module sources.
+   * @param outputPathPrefix the prefix of module output paths, like the
+   *     command line runner's {@code --module_output_path_prefix}.
+   */
+  static DirectCompilation compile(
+      Log log, BuildContext buildContext, ImmutableList<String> argv,
+      Modules modules, Charset inputCharset, String outputPathPrefix)
+  throws IOException, MojoExecutionException {
+    OptionsFromFlags flags = OptionsFromFlags.create(log, argv);
+    CompilerOptions options = flags.getOptions();
+    List<SourceFile> externs = flags.getExterns(options);
+
+    // Closure Compiler compares the source name to whitelists when doing
+    // conformance checking, so use paths relative to search roots as
+    // the JSON streams do.
+    Map<String, File> sourceNameToFile = Maps.newLinkedHashMap();
+    Map<String, JSModule> nameToJsModule = Maps.newHashMap();
+    ImmutableList.Builder<String> inputWarnings = ImmutableList.builder();
+    ImmutableList.Builder<JSModule> jsModules = ImmutableList.builder();
+    for (Modules.Module module : modules.modules) {
+      JSModule jsModule = new JSModule(module.name);
+      for (String dep : module.deps) {
+        jsModule.addDependency(nameToJsModule.get(dep));
+      }
+      for (Source source : module.sources) {
+        String relPath = source.relativePath.getPath();
+        String sourceName = relPath;
+        for (int ctr = 0; sourceNameToFile.containsKey(sourceName); ++ctr) {
+          sourceName = relPath + "#" + ctr;
+        }
+        if (!relPath.equals(sourceName)) {
+          inputWarnings.add(
+              "Source " + source.canonicalPath
+              + " has the same relative path as "
+              + sourceNameToFile.get(relPath));
+        }
+        sourceNameToFile.put(sourceName, source.canonicalPath);
+        jsModule.add(SourceFile.fromCode(
+            sourceName,
+            Files.asCharSource(source.canonicalPath, inputCharset).read()));
+      }
+      nameToJsModule.put(module.name, jsModule);
+      jsModules.add(jsModule);
+    }
+
+    BuildContextJSErrorManager errorManager = new BuildContextJSErrorManager(
+        log, buildContext, sourceNameToFile);
+    Compiler compiler = ExternsCache.newCompiler(errorManager);
+    errorManager.setSourceExcerptProvider(compiler);
+
+    ImmutableList<JSModule> jsModuleList = jsModules.build();
+    long t0 = System.nanoTime();
+    Result result = compiler.compileModules(externs, jsModuleList, options);
+    long dtMillis = (System.nanoTime() - t0) / 1000000 /* ns / ms */;
+    String summary = "jscomp compiled " + jsModuleList.size() + " modules"
+        + (result.success ? "" : " with errors")
+        + " after " + dtMillis + " ms";
+
+    Map<File, File> moduleOutputs = Maps.newLinkedHashMap();
+    Map<File, File> renamingReports = Maps.newLinkedHashMap();
+    boolean spooled = false;
+    try {
+      if (result.success) {
+        SourceMap sourceMap = compiler.getSourceMap();
+        for (JSModule jsModule : jsModuleList) {
+          if (sourceMap != null) {
+            sourceMap.reset();
+          }
+          String outputPath = outputPathPrefix + jsModule.getName() + ".js";
+          // Like the command line runner, end output with a line feed.
+          spool(
+              new File(outputPath),
+              (compiler.toSource(jsModule) + "\n").getBytes(Charsets.UTF_8),
+              moduleOutputs);
+          if (sourceMap != null) {
+            StringBuilder sourceMapJson = new StringBuilder();
+            sourceMap.appendTo(sourceMapJson, outputPath);
+            spool(
+                new File(outputPath + CompileJs.SOURCE_MAP_SUFFIX),
+                sourceMapJson.toString().getBytes(Charsets.UTF_8),
+                moduleOutputs);
+          }
+        }
+        if (result.variableMap != null) {
+          spool(
+              new File(outputPathPrefix + "_vars_map.out"),
+              result.variableMap.toBytes(), renamingReports);
+        }
+        if (result.propertyMap != null) {
+          spool(
+              new File(outputPathPrefix + "_props_map.out"),
+              result.propertyMap.toBytes(), renamingReports);
+        }
+      }
+      spooled = true;
+    } finally {
+      if (!spooled) {
+        deleteTempFiles(log, moduleOutputs.values());
+        deleteTempFiles(log, renamingReports.values());
+      }
+    }
+    return new DirectCompilation(
+        result.success, ImmutableMap.copyOf(moduleOutputs),
+        ImmutableMap.copyOf(renamingReports),
+        inputWarnings.build(), summary, errorManager);
+  }
+
+  /**
+   * Writes content to a temporary file beside outputFile and adds it to
+   * tempFiles.
+   */
+  private static void spool(
+      File outputFile, byte[] content, Map<File, File> tempFiles)
+  throws IOException {
+    Files.createParentDirs(outputFile);
+    File temp = File.createTempFile(
+        "." + outputFile.getName() + "-", ".tmp", outputFile.getParentFile());
+    tempFiles.put(outputFile, temp);
+    Files.write(content, temp);
+  }
+
+  /**
+   * Deletes any temporary output files that have not been moved into place.
+   */
+  void deleteTempFiles(Log log) {
+    deleteTempFiles(log, moduleOutputs.values());
+    deleteTempFiles(log, renamingReports.values());
+  }
+
+  private static void deleteTempFiles(Log log, Iterable<File> tempFiles) {
+    for (File f : tempFiles) {
+      if (f.exists() && !f.delete()) {
+        log.warn("Failed to delete " + f);
+      }
+    }
+  }
+
+  /**
+   * Logs warnings about inputs and the compiler's diagnostics, and adds the
+   * latter to the build context.
+   */
+  void reportDiagnostics(Log log) {
+    for (String inputWarning : inputWarnings) {
+      log.warn(inputWarning);
+    }
+    errorManager.reportDiagnostics();
+    if (success) {
+      log.info(summary);
+    } else {
+      log.error(summary);
+    }
+  }
+
+  /**
+   * Subclasses the command line runner to get at the options and externs
+   * that it derives from flags without running it.
+   */
+  private static final class OptionsFromFlags extends CommandLineRunner {
+    private OptionsFromFlags(String[] argv, PrintStream out, PrintStream err) {
+      super(argv, new ByteArrayInputStream(new byte[0]), out, err);
+    }
+
+    static OptionsFromFlags create(Log log, ImmutableList<String> argv)
+    throws MojoExecutionException {
+      ByteArrayOutputStream messages = new ByteArrayOutputStream();
+      PrintStream messageStream;
+      try {
+        messageStream = new PrintStream(messages, true, "UTF-8");
+      } catch (UnsupportedEncodingException ex) {
+        throw (AssertionError) new AssertionError("UTF-8").initCause(ex);
+      }
+      OptionsFromFlags flags = new OptionsFromFlags(
+          argv.toArray(new String[0]), messageStream, messageStream);
+      messageStream.flush();
+      String messageText = new String(
+          messages.toByteArray(), Charsets.UTF_8).trim();
+      if (flags.hasErrors() || !flags.shouldRunCompiler()) {
+        if (!messageText.isEmpty()) {
+          log.error(messageText);
+        }
+        throw new MojoExecutionException("Bad JS compiler flags");
+      }
+      if (!messageText.isEmpty()) {
+        log.info("jscomp: " + messageText);
+      }
+      return flags;
+    }
+
+    CompilerOptions getOptions() throws IOException, MojoExecutionException {
+      try {
+        CompilerOptions options = createOptions();
+        setRunOptions(options);
+        return options;
+      } catch (FlagUsageException ex) {
+        throw new MojoExecutionException("Bad JS compiler flags", ex);
+      }
+    }
+
+    List<SourceFile> getExterns(CompilerOptions options) throws IOException {
+      return createExterns(options);
+    }
+  }
+}
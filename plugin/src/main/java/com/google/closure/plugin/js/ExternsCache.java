@@ -0,0 +1,227 @@
+package com.google.closure.plugin.js;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+import java.util.Set;
+
+import com.google.closure.plugin.common.Cheats;
+import com.google.closure.plugin.plan.Hash;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.javascript.jscomp.AbstractCompiler;
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerInput;
+import com.google.javascript.jscomp.CompilerOptions;
+import com.google.javascript.jscomp.ErrorManager;
+import com.google.javascript.jscomp.JSModule;
+import com.google.javascript.jscomp.JsAst;
+import com.google.javascript.jscomp.SourceAst;
+import com.google.javascript.jscomp.SourceFile;
+import com.google.javascript.rhino.InputId;
+import com.google.javascript.rhino.Node;
+
+/**
+ * Parsed externs shared by all the compilations in a JVM so that successive
+ * compilations, like those of a long-lived watch session, need not reparse
+ * the default externs and any {@code --externs} files.
+ * <p>
+ * Compiler passes modify the ASTs they are given, so the cache holds ASTs
+ * as parsed and each compilation gets its own copy.
+ */
+final class ExternsCache {
+  /** Bounds the number of distinct externs files kept parsed. */
+  private static final long MAX_ENTRIES = 1 << 10;
+
+  /** Soft values so that parsed externs yield to memory pressure. */
+  private static final Cache<Key, Node> PARSED = CacheBuilder.newBuilder()
+      .maximumSize(MAX_ENTRIES)
+      .softValues()
+      .recordStats()
+      .build();
+
+  private ExternsCache() {
+    // Static API.
+  }
+
+  /** A compiler that reuses cached externs ASTs where it can. */
+  static Compiler newCompiler(ErrorManager errorManager) {
+    return new CachingCompiler(errorManager);
+  }
+
+  /** Counts of compilations' requests for parsed externs. */
+  @VisibleForTesting
+  static CacheStats stats() {
+    return PARSED.stats();
+  }
+
+
+  /**
+   * Replaces the externs inputs that the compiler would parse itself with
+   * ones that consult the cache.
+   */
+  private static final class CachingCompiler extends Compiler {
+    CachingCompiler(ErrorManager errorManager) {
+      super(errorManager);
+    }
+
+    @Override
+    public <T extends SourceFile> void initModules(
+        List<T> externs, List<JSModule> modules, CompilerOptions options) {
+      super.initModules(externs, modules, options);
+      // Comments are collected as a side effect of parsing when detailed
+      // source info is preserved, so those parses cannot be skipped.
+      if (hasErrors()
+          || Cheats.cheatGet(
+              CompilerOptions.class, options, Boolean.class,
+              "preserveDetailedSourceInfo")) {
+        return;
+      }
+      ImmutableList<Object> parserConfig = parserConfig(options);
+      List<CompilerInput> cachingInputs = Lists.newArrayList();
+      for (SourceFile extern : externs) {
+        cachingInputs.add(
+            new CompilerInput(new CachedAst(extern, parserConfig), true));
+      }
+      Cheats.cheatSet(Compiler.class, this, "externs", cachingInputs);
+      try {
+        Cheats.cheatCall(
+            Void.TYPE, Compiler.class, this, "initInputsByIdMap");
+      } catch (InvocationTargetException ex) {
+        throw Throwables.propagate(ex.getCause());
+      }
+    }
+
+    /** The options that the compiler's externs parser configuration uses. */
+    private static ImmutableList<Object> parserConfig(
+        CompilerOptions options) {
+      Set<?> extraAnnotationNames = Cheats.cheatGet(
+          CompilerOptions.class, options, Set.class, "extraAnnotationNames");
+      return ImmutableList.<Object>of(
+          options.getLanguageIn(),
+          options.isParseJsDocDocumentation(),
+          extraAnnotationNames != null
+          ? ImmutableSet.copyOf(extraAnnotationNames)
+          : ImmutableSet.of());
+    }
+  }
+
+
+  /**
+   * An externs AST that is copied from the cache if an identical file was
+   * parsed with the same configuration, and otherwise parsed and cached.
+   */
+  private static final class CachedAst implements SourceAst {
+    private static final long serialVersionUID = 1L;
+
+    private SourceFile sourceFile;
+    private final InputId inputId;
+    private final ImmutableList<Object> parserConfig;
+    private transient Node root;
+
+    CachedAst(SourceFile sourceFile, ImmutableList<Object> parserConfig) {
+      this.sourceFile = sourceFile;
+      this.inputId = new InputId(sourceFile.getName());
+      this.parserConfig = parserConfig;
+    }
+
+    @Override
+    public Node getAstRoot(AbstractCompiler compiler) {
+      if (root == null) {
+        root = parse(compiler);
+      }
+      return root;
+    }
+
+    private Node parse(AbstractCompiler compiler) {
+      Key key;
+      try {
+        key = new Key(
+            sourceFile.getName(), Hash.hashString(sourceFile.getCode()),
+            parserConfig);
+      } catch (IOException ex) {
+        // Let the parser report the failure to read.
+        return new JsAst(sourceFile).getAstRoot(compiler);
+      }
+      Node parsed = PARSED.getIfPresent(key);
+      if (parsed != null) {
+        Node copy = parsed.cloneTree(true);
+        copy.setInputId(inputId);
+        return copy;
+      }
+      ErrorManager errorManager = compiler.getErrorManager();
+      int nReportsBefore = errorManager.getErrorCount()
+          + errorManager.getWarningCount();
+      Node ast = new JsAst(sourceFile).getAstRoot(compiler);
+      int nReportsAfter = errorManager.getErrorCount()
+          + errorManager.getWarningCount();
+      // Only clean parses are cached so that a copy reports nothing less
+      // than parsing would have.
+      if (nReportsAfter == nReportsBefore) {
+        PARSED.put(key, ast.cloneTree(true));
+      }
+      return ast;
+    }
+
+    @Override
+    public void clearAst() {
+      root = null;
+      sourceFile.clearCachedSource();
+    }
+
+    @Override
+    public InputId getInputId() {
+      return inputId;
+    }
+
+    @Override
+    public SourceFile getSourceFile() {
+      return sourceFile;
+    }
+
+    @Override
+    public void setSourceFile(SourceFile file) {
+      Preconditions.checkState(sourceFile.getName().equals(file.getName()));
+      this.sourceFile = file;
+    }
+  }
+
+
+  /** Identifies an externs file's content and how it is parsed. */
+  private static final class Key {
+    final String sourceName;
+    final Hash contentHash;
+    final ImmutableList<Object> parserConfig;
+
+    Key(String sourceName, Hash contentHash,
+        ImmutableList<Object> parserConfig) {
+      this.sourceName = sourceName;
+      this.contentHash = contentHash;
+      this.parserConfig = parserConfig;
+    }
+
+    @Override
+    public int hashCode() {
+      return (sourceName.hashCode() * 31 + contentHash.hashCode()) * 31
+          + parserConfig.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key that = (Key) o;
+      return sourceName.equals(that.sourceName)
+          && contentHash.equals(that.contentHash)
+          && parserConfig.equals(that.parserConfig);
+    }
+  }
+}
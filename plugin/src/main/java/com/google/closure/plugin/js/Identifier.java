@@ -3,12 +3,13 @@ package com.google.closure.plugin.js;
 import java.io.Serializable;
 import java.util.Map;
 
+import com.google.closure.plugin.plan.PlanGraphFormat;
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Maps;
 
 abstract class Identifier
-implements Comparable<Identifier>, Serializable {
+implements Comparable<Identifier>, Serializable, PlanGraphFormat.Internable {
   private static final long serialVersionUID = -5072636170709799520L;
 
   final String text;
@@ -25,6 +26,11 @@ implements Comparable<Identifier>, Serializable {
     this.text = Preconditions.checkNotNull(text);
   }
 
+  @Override
+  public final String getInternForm() {
+    return text;
+  }
+
   @Override
   public final boolean equals(Object o) {
     return o != null && o.getClass() == getClass() && text.equals(((Identifier) o).text);
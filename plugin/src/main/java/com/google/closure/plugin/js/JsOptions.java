@@ -1,5 +1,6 @@
 package com.google.closure.plugin.js;
 
+import java.io.File;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
@@ -409,6 +410,38 @@ public final class JsOptions extends SourceOptions {
     }
   }
 
+  /**
+   * True if these options use flags that {@link CommandLineRunner} acts on
+   * itself, as when wrapping outputs or writing manifests, so that they
+   * would be ignored by a direct compilation.
+   */
+  boolean needsCommandLineRunner() {
+    return outputWrapper != null || outputWrapperFile != null
+        || !moduleWrapper.isEmpty()
+        || outputManifest != null || outputModuleDependencies != null
+        || Boolean.TRUE.equals(checksOnly) || Boolean.TRUE.equals(version);
+  }
+
+  /**
+   * Files named by flags that the compiler reads, such as the flag file and
+   * the translations file.
+   */
+  ImmutableList<File> getFlagFiles() {
+    ImmutableList.Builder<File> files = ImmutableList.builder();
+    for (String path : new String[] {
+          flagFile, translationsFile, warningsWhitelistFile,
+          outputWrapperFile, instrumentationFile,
+        }) {
+      if (path != null) {
+        files.add(new File(path));
+      }
+    }
+    for (String path : conformanceConfigs) {
+      files.add(new File(path));
+    }
+    return files.build();
+  }
+
   /** Does just enough to enable parsing of source files. */
   public CompilerOptions toCompilerOptions() {
     CompilerOptions compilerOptions = new CompilerOptions();
@@ -1,39 +1,55 @@
 package com.google.closure.plugin.js;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Collections;
 import java.util.List;
 
-import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.logging.Log;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.io.ByteSink;
+import com.google.common.io.ByteStreams;
 
 /**
  * Receives JSON output as per the json_streams format and writes files while
  * updating the bundles list of output files.
+ * <p>
+ * Output is parsed as it arrives.  The content of each output's
+ * {@code "src"} and {@code "source_map"} properties is decoded straight into
+ * a temporary file so that memory use does not depend on the size of the
+ * compiled output.  The compiler emits {@code "path"} after {@code "src"},
+ * so the temporary files are created in a directory chosen up front, from
+ * which they can be moved into place.
  */
 final class JsonStreamOutputHandler extends ByteSink {
 
   private int countOpen = 0;
   final Log log;
+  private final File tempDir;
   private final List<MojoExecutionException> failures =
       Collections.synchronizedList(
           Lists.<MojoExecutionException>newArrayList());
-  private final List<FileContents> outputs = Collections.synchronizedList(
-      Lists.<FileContents>newArrayList());
+  private final List<Output> outputs = Collections.synchronizedList(
+      Lists.<Output>newArrayList());
 
-  JsonStreamOutputHandler(Log log) {
+  /**
+   * @param tempDir a directory on the same file system as the outputs in
+   *     which to create temporary files.
+   */
+  JsonStreamOutputHandler(Log log, File tempDir) {
     this.log = log;
+    this.tempDir = tempDir;
   }
 
   void waitUntilAllClosed() throws InterruptedException {
@@ -51,97 +67,436 @@ final class JsonStreamOutputHandler extends ByteSink {
     }
   }
 
-  ImmutableList<FileContents> getOutputs() {
+  ImmutableList<Output> getOutputs() {
     synchronized (outputs) {
       return ImmutableList.copyOf(outputs);
     }
   }
 
-  void processBytes(byte[] bytes) {
-    String json = new String(bytes, Charsets.UTF_8);
-    Object parsed;
-    try {
-      parsed = new JSONParser().parse(json);
-    } catch (org.json.simple.parser.ParseException ex) {
-      failures.add(new MojoExecutionException(
-          "Failed to parse output of closure compiler: " + json, ex));
-      return;
-    }
-    if (!(parsed instanceof JSONArray)) {
-      failures.add(new MojoExecutionException(
-          "Expected JSON streams array: " + json));
-      return;
-    }
-    JSONArray outputArray = (JSONArray) parsed;
-    int index = -1;
-    for (Object el : outputArray) {
-      ++index;
-      if (!(el instanceof JSONObject)) {
-        failures.add(new MojoExecutionException(
-            "Expected JSON streams array " + index + " : " + json));
-        continue;
-      }
-      JSONObject output = (JSONObject) el;
-      String path, fileContents;
-      try {
-        path = (String) output.get("path");
-        fileContents = (String) output.get("src");
-      } catch (ClassCastException ex) {
-        failures.add(new MojoExecutionException(
-            "Malformed JSON streams output " + index + " : " + json, ex));
-        continue;
+  /** Deletes any temporary files that have not been moved into place. */
+  void deleteTempFiles() {
+    for (Output output : getOutputs()) {
+      deleteTempFile(output.src);
+      if (output.sourceMap.isPresent()) {
+        deleteTempFile(output.sourceMap.get());
       }
-      outputs.add(new FileContents(path, fileContents));
+    }
+  }
+
+  private void deleteTempFile(File f) {
+    if (f.exists() && !f.delete()) {
+      log.warn("Failed to delete " + f);
     }
   }
 
   @Override
   public OutputStream openStream() throws IOException {
     synchronized (this) { ++countOpen; }
+    return new ParsingStream();
+  }
+
+
+  /** Where the parser is in the JSON streams array. */
+  private enum State {
+    BEFORE_ARRAY,
+    BEFORE_FIRST_OBJECT,
+    BEFORE_OBJECT,
+    AFTER_OBJECT,
+    BEFORE_FIRST_KEY,
+    BEFORE_KEY,
+    AFTER_KEY,
+    BEFORE_VALUE,
+    AFTER_VALUE,
+    IN_STRING,
+    IN_STRING_AFTER_BACKSLASH,
+    IN_UNICODE_ESCAPE,
+    AFTER_ARRAY,
+    FAILED,
+  }
 
-    return new ByteArrayOutputStream() {
-      boolean closed = false;
-
-      @SuppressWarnings("synthetic-access")
-      @Override
-      public void close() throws IOException {
-        super.close();
-        processBytes(this.toByteArray());
-        synchronized (JsonStreamOutputHandler.this) {
-          if (!closed) {
-            --countOpen;
-            closed = true;
+  private static final int STRING_BUFFER_SIZE = 1 << 16;
+
+  /**
+   * Parses the JSON streams array incrementally.
+   */
+  @SuppressWarnings("synthetic-access")
+  private final class ParsingStream extends OutputStream {
+    private State state = State.BEFORE_ARRAY;
+    /** The state to return to after a string ends. */
+    private State afterString;
+    /** The count of bytes received. */
+    private long position;
+    /** The index of the current output in the array. */
+    private int index = -1;
+    private boolean closed;
+
+    /** Receives the decoded content of the current string. */
+    private OutputStream sink;
+    /** Accumulates keys and short values. */
+    private final ByteArrayOutputStream shortString =
+        new ByteArrayOutputStream();
+    /** The value of the unicode escape being decoded. */
+    private int escapeValue;
+    /** The count of hex digits of the unicode escape seen so far. */
+    private int escapeDigits;
+    /** A high surrogate that needs a low surrogate to be encoded. */
+    private int pendingHighSurrogate = -1;
+
+    /** The key whose value is being decoded. */
+    private String key;
+    /** The temporary file that sink writes, if any. */
+    private File sinkFile;
+    private String path;
+    private File src;
+    private File sourceMap;
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      Preconditions.checkPositionIndexes(off, off + len, b.length);
+      try {
+        int i = off;
+        int end = off + len;
+        while (i < end && state != State.FAILED) {
+          if (state == State.IN_STRING && pendingHighSurrogate < 0) {
+            // Copy runs of bytes that need no decoding in bulk.
+            int runEnd = i;
+            while (runEnd < end && b[runEnd] != '"' && b[runEnd] != '\\') {
+              ++runEnd;
+            }
+            if (runEnd != i) {
+              sink.write(b, i, runEnd - i);
+              position += runEnd - i;
+              i = runEnd;
+              continue;
+            }
           }
-          if (countOpen == 0) {
-            JsonStreamOutputHandler.this.notifyAll();
+          consume(b[i++]);
+          ++position;
+        }
+      } catch (IOException ex) {
+        fail(new MojoExecutionException(
+            "Failed to write output of closure compiler", ex));
+      } catch (ParseException ex) {
+        fail(new MojoExecutionException(
+            "Failed to parse output of closure compiler", ex));
+      }
+    }
+
+    private void consume(byte b) throws IOException, ParseException {
+      switch (state) {
+        case BEFORE_ARRAY:
+          if (!isSpace(b)) {
+            expect(b, '[');
+            state = State.BEFORE_FIRST_OBJECT;
+          }
+          return;
+        case BEFORE_FIRST_OBJECT:
+          if (b == ']') {
+            state = State.AFTER_ARRAY;
+          } else {
+            startObject(b);
+          }
+          return;
+        case BEFORE_OBJECT:
+          startObject(b);
+          return;
+        case AFTER_OBJECT:
+          if (b == ',') {
+            state = State.BEFORE_OBJECT;
+          } else if (b == ']') {
+            state = State.AFTER_ARRAY;
+          } else if (!isSpace(b)) {
+            throw unexpected(b);
+          }
+          return;
+        case BEFORE_FIRST_KEY:
+          if (b == '}') {
+            endObject();
+          } else {
+            startKey(b);
+          }
+          return;
+        case BEFORE_KEY:
+          startKey(b);
+          return;
+        case AFTER_KEY:
+          if (!isSpace(b)) {
+            expect(b, ':');
+            key = decodeShortString();
+            state = State.BEFORE_VALUE;
+          }
+          return;
+        case BEFORE_VALUE:
+          if (!isSpace(b)) {
+            expect(b, '"');
+            startValue();
+          }
+          return;
+        case AFTER_VALUE:
+          if (b == ',') {
+            state = State.BEFORE_KEY;
+          } else if (b == '}') {
+            endObject();
+          } else if (!isSpace(b)) {
+            throw unexpected(b);
+          }
+          return;
+        case IN_STRING:
+          if (pendingHighSurrogate >= 0) {
+            if (b == '\\') {
+              state = State.IN_STRING_AFTER_BACKSLASH;
+              return;
+            }
+            // Unpaired, encoded as String.getBytes does.
+            pendingHighSurrogate = -1;
+            sink.write('?');
+          }
+          if (b == '"') {
+            endString();
+          } else if (b == '\\') {
+            state = State.IN_STRING_AFTER_BACKSLASH;
+          } else {
+            sink.write(b);
+          }
+          return;
+        case IN_STRING_AFTER_BACKSLASH:
+          if (b == 'u') {
+            escapeValue = 0;
+            escapeDigits = 0;
+            state = State.IN_UNICODE_ESCAPE;
+            return;
           }
+          char decoded;
+          switch (b) {
+            case '"': case '\\': case '/': decoded = (char) b; break;
+            case 'b': decoded = '\b'; break;
+            case 'f': decoded = '\f'; break;
+            case 'n': decoded = '\n'; break;
+            case 'r': decoded = '\r'; break;
+            case 't': decoded = '\t'; break;
+            default: throw unexpected(b);
+          }
+          writeCodeUnit(decoded);
+          state = State.IN_STRING;
+          return;
+        case IN_UNICODE_ESCAPE:
+          int digit = Character.digit(b, 16);
+          if (digit < 0) { throw unexpected(b); }
+          escapeValue = (escapeValue << 4) | digit;
+          if (++escapeDigits == 4) {
+            writeCodeUnit((char) escapeValue);
+            state = State.IN_STRING;
+          }
+          return;
+        case AFTER_ARRAY:
+          if (!isSpace(b)) { throw unexpected(b); }
+          return;
+        case FAILED:
+          return;
+      }
+      throw new AssertionError(state);
+    }
+
+    private void startObject(byte b) throws ParseException {
+      if (!isSpace(b)) {
+        expect(b, '{');
+        ++index;
+        state = State.BEFORE_FIRST_KEY;
+      }
+    }
+
+    private void startKey(byte b) throws ParseException {
+      if (!isSpace(b)) {
+        expect(b, '"');
+        startString(shortString, State.AFTER_KEY);
+      }
+    }
+
+    private void startString(OutputStream stringSink, State next) {
+      this.sink = stringSink;
+      this.afterString = next;
+      this.state = State.IN_STRING;
+    }
+
+    private void startValue() throws IOException {
+      File f;
+      switch (key) {
+        case "src":
+          discard(src);
+          src = f = newTempFile();
+          break;
+        case "source_map":
+          discard(sourceMap);
+          sourceMap = f = newTempFile();
+          break;
+        case "path":
+          startString(shortString, State.AFTER_VALUE);
+          return;
+        default:
+          startString(ByteStreams.nullOutputStream(), State.AFTER_VALUE);
+          return;
+      }
+      sinkFile = f;
+      startString(
+          new BufferedOutputStream(
+              new FileOutputStream(sinkFile), STRING_BUFFER_SIZE),
+          State.AFTER_VALUE);
+    }
+
+    private File newTempFile() throws IOException {
+      return File.createTempFile(".jscomp-", ".tmp", tempDir);
+    }
+
+    private void endString() throws IOException {
+      state = afterString;
+      if (sinkFile != null) {
+        sink.close();
+        sinkFile = null;
+      } else if (state == State.AFTER_VALUE && "path".equals(key)) {
+        path = decodeShortString();
+      }
+      sink = null;
+    }
+
+    private String decodeShortString() {
+      String s = new String(shortString.toByteArray(), Charsets.UTF_8);
+      shortString.reset();
+      return s;
+    }
+
+    /** Encodes a UTF-16 code unit from an escape sequence as UTF-8. */
+    private void writeCodeUnit(char ch) throws IOException {
+      int cp = ch;
+      if (pendingHighSurrogate >= 0) {
+        int high = pendingHighSurrogate;
+        pendingHighSurrogate = -1;
+        if (Character.isLowSurrogate(ch)) {
+          cp = Character.toCodePoint((char) high, ch);
+        } else {
+          // Unpaired, encoded as String.getBytes does.
+          sink.write('?');
         }
       }
-    };
-  }
+      if (cp == ch && Character.isHighSurrogate(ch)) {
+        pendingHighSurrogate = ch;
+        return;
+      }
+      if (cp == ch && Character.isLowSurrogate(ch)) {
+        sink.write('?');
+      } else if (cp < 0x80) {
+        sink.write(cp);
+      } else if (cp < 0x800) {
+        sink.write(0xc0 | (cp >>> 6));
+        sink.write(0x80 | (cp & 0x3f));
+      } else if (cp < 0x10000) {
+        sink.write(0xe0 | (cp >>> 12));
+        sink.write(0x80 | ((cp >>> 6) & 0x3f));
+        sink.write(0x80 | (cp & 0x3f));
+      } else {
+        sink.write(0xf0 | (cp >>> 18));
+        sink.write(0x80 | ((cp >>> 12) & 0x3f));
+        sink.write(0x80 | ((cp >>> 6) & 0x3f));
+        sink.write(0x80 | (cp & 0x3f));
+      }
+    }
 
-  static final class FileContents {
-    final String path;
-    final String contents;
+    private void endObject() {
+      state = State.AFTER_OBJECT;
+      if (path == null || src == null) {
+        failures.add(new MojoExecutionException(
+            "Malformed JSON streams output " + index
+            + " lacks path or src"));
+        discard(src);
+        discard(sourceMap);
+      } else {
+        outputs.add(new Output(path, src, Optional.fromNullable(sourceMap)));
+      }
+      path = null;
+      src = null;
+      sourceMap = null;
+    }
 
-    FileContents(String path, String contents) {
-      this.path = Preconditions.checkNotNull(path);
-      this.contents = Preconditions.checkNotNull(contents);
+    private void expect(byte b, char ch) throws ParseException {
+      if (b != ch) { throw unexpected(b); }
     }
 
-    @Override
-    public int hashCode() {
-      return path.hashCode() + 31 * contents.hashCode();
+    private ParseException unexpected(byte b) {
+      return new ParseException(
+          (int) Math.min(position, Integer.MAX_VALUE),
+          ParseException.ERROR_UNEXPECTED_CHAR,
+          Character.valueOf((char) (b & 0xff)));
+    }
+
+    private void fail(MojoExecutionException ex) {
+      failures.add(ex);
+      state = State.FAILED;
+      if (sinkFile != null) {
+        try {
+          sink.close();
+        } catch (IOException closeEx) {
+          log.warn("Failed to close " + sinkFile, closeEx);
+        }
+        sinkFile = null;
+      }
+      sink = null;
+      discard(src);
+      discard(sourceMap);
+      src = sourceMap = null;
+    }
+
+    private void discard(File f) {
+      if (f != null) {
+        deleteTempFile(f);
+      }
     }
 
     @Override
-    public boolean equals(Object obj) {
-      if (obj instanceof FileContents) {
-        FileContents that = (FileContents) obj;
-        return this.path.equals(that.path)
-            && this.contents.equals(that.contents);
+    public void close() {
+      if (closed) { return; }
+      closed = true;
+      if (state != State.AFTER_ARRAY && state != State.FAILED) {
+        fail(new MojoExecutionException(
+            "Failed to parse output of closure compiler",
+            new ParseException(
+                (int) Math.min(position, Integer.MAX_VALUE),
+                ParseException.ERROR_UNEXPECTED_EXCEPTION,
+                "end of output")));
+      }
+      synchronized (JsonStreamOutputHandler.this) {
+        --countOpen;
+        JsonStreamOutputHandler.this.notifyAll();
       }
-      return false;
+    }
+  }
+
+  private static boolean isSpace(byte b) {
+    return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+  }
+
+
+  /** A file output by the compiler whose content is in temporary files. */
+  static final class Output {
+    /** The path to which the compiler would have written the file. */
+    final String path;
+    /** A temporary file containing the file content. */
+    final File src;
+    /** A temporary file containing the file's source map, if any. */
+    final Optional<File> sourceMap;
+
+    Output(String path, File src, Optional<File> sourceMap) {
+      this.path = Preconditions.checkNotNull(path);
+      this.src = Preconditions.checkNotNull(src);
+      this.sourceMap = Preconditions.checkNotNull(sourceMap);
+    }
+
+    @Override
+    public String toString() {
+      return "{Output " + path + "}";
     }
   }
 }
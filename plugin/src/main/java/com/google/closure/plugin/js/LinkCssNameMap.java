@@ -39,7 +39,7 @@ final class LinkCssNameMap extends PlanGraphNode<LinkCssNameMap.SV> {
 
   @Override
   protected void filterUpdates() throws IOException, MojoExecutionException {
-    changed = !context.buildContext.isIncremental()
+    changed = !context.buildContext.isIncremental() || isDirty()
         || context.buildContext.hasDelta(getJsRenameMap());
   }
 
@@ -46,156 +46,322 @@ class StreamableJsonByteSource extends ByteSource {
     DONE,
   }
 
+  /** Bytes that stand for themselves in JSON string content. */
+  private static final byte LITERAL = 0;
+  /** Marks the UTF-8 lead byte shared by U+2028 and U+2029. */
+  private static final byte LINE_SEPARATOR_LEAD = 1;
+  /** Marks bytes that are escaped as a backslash, u and 4 hex digits. */
+  private static final byte HEX_ESCAPE = 'u';
+
+  /**
+   * For each byte of UTF-8 content, {@link #LITERAL}, a marker, or the
+   * character that follows a backslash in its JSON escape sequence.
+   */
+  private static final byte[] ESCAPES = new byte[256];
+  static {
+    for (int i = 0; i < 0x20; ++i) {
+      ESCAPES[i] = HEX_ESCAPE;
+    }
+    ESCAPES['\b'] = 'b';
+    ESCAPES['\f'] = 'f';
+    ESCAPES['\n'] = 'n';
+    ESCAPES['\r'] = 'r';
+    ESCAPES['\t'] = 't';
+    ESCAPES['"'] = '"';
+    ESCAPES['\\'] = '\\';
+    // JSON allows U+2028 and U+2029 in strings but JavaScript does not.
+    ESCAPES[0xE2] = LINE_SEPARATOR_LEAD;
+  }
+
+  private static final byte[] HEX_DIGITS =
+      "0123456789abcdef".getBytes(Charsets.US_ASCII);
+
+  /** Size of the buffer through which source content is read. */
+  private static final int CONTENT_BUFFER_SIZE = 8192;
+
   @Override
   public InputStream openStream() throws IOException {
-    return new InputStream() {
-      /** Buffer for bytes we need to produce */
-      private byte[] buf = new byte[1024];
-      /** The position in buf of the next byte to produce if < limit. */
-      private int pos;
-      /** The position after the last byte in buf that still needs to be
-       * produced or == pos if none.
-       */
-      private int limit;
-
-      /**
-       * True iff we have written a source, so need a comma before the next.
-       */
-      private boolean wroteOne = false;
-      /**
-       * Sources that have not yet been emitted.
-       */
-      private final Iterator<Source> remaining = sources.iterator();
-      /** How much of the current source have we emitted? */
-      private StreamableJsonByteSource.Stage stage = Stage.DONE;
-      /**
-       * The current source or null if not in the middle of a source
-       * object.
-       */
-      private Source current = null;
-
-      /**
-       * A stream to drain as string content.
-       */
-      private InputStream reading = null;
-      /**
-       * The set of source file names used so we can disambiguate on the fly.
-       */
-      private Map<String, Source> byRelName = Maps.newHashMap();
-      /**
-       * True if we have finished all sources and pushed the closing suffix.
-       */
-      private boolean finished;
-
-      {
-        push("[");
+    return new JsonStream();
+  }
+
+  /**
+   * Produces JSON a buffer at a time.
+   * Source content is read into one buffer that is reused for all sources,
+   * and escaped into the reader's buffer, copying runs of bytes that need
+   * no escaping in bulk.
+   */
+  private final class JsonStream extends InputStream {
+    /** Buffer for bytes we need to produce before any others. */
+    private final byte[] buf = new byte[64];
+    /** The position in buf of the next byte to produce if < limit. */
+    private int pos;
+    /** The position after the last byte in buf that still needs to be
+     * produced or == pos if none.
+     */
+    private int limit;
+
+    /** Content of the string being produced that has yet to be escaped. */
+    private final byte[] contentBuf = new byte[CONTENT_BUFFER_SIZE];
+    /** The position in contentBuf of the next byte to escape. */
+    private int contentPos;
+    /** The position after the last byte read into contentBuf. */
+    private int contentLimit;
+    /** True if all of reading has been read into contentBuf. */
+    private boolean contentEnded;
+    /**
+     * True if escaping stopped because a character that might need escaping
+     * straddles the end of contentBuf.
+     */
+    private boolean contentStarved;
+    /** Holds an escape sequence that is produced. */
+    private final byte[] escapeBuf = new byte[6];
+    /** Used by the single-byte read. */
+    private final byte[] oneByte = new byte[1];
+
+    /**
+     * True iff we have written a source, so need a comma before the next.
+     */
+    private boolean wroteOne = false;
+    /**
+     * Sources that have not yet been emitted.
+     */
+    private final Iterator<Source> remaining = sources.iterator();
+    /** How much of the current source have we emitted? */
+    private StreamableJsonByteSource.Stage stage = Stage.DONE;
+    /**
+     * The current source or null if not in the middle of a source
+     * object.
+     */
+    private Source current = null;
+
+    /**
+     * A stream to drain as string content.
+     */
+    private InputStream reading = null;
+    /**
+     * The set of source file names used so we can disambiguate on the fly.
+     */
+    private final Map<String, Source> byRelName = Maps.newHashMap();
+    /**
+     * True if we have finished all sources and pushed the closing suffix.
+     */
+    private boolean finished;
+
+    JsonStream() {
+      push("[");
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (pos < limit) {
+        return buf[pos++] & 0xff;
       }
+      return read(oneByte, 0, 1) < 0 ? -1 : oneByte[0] & 0xff;
+    }
 
-      @Override
-      public int read() throws IOException {
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      Preconditions.checkPositionIndexes(off, off + len, b.length);
+      if (len == 0) { return 0; }
+      int n = 0;
+      while (n < len) {
         if (pos < limit) {
           // If we have buffered content, drain that first.
-          return buf[pos++];
+          int nCopied = Math.min(limit - pos, len - n);
+          System.arraycopy(buf, pos, b, off + n, nCopied);
+          pos += nCopied;
+          n += nCopied;
+          continue;
         }
         pos = limit = 0;
         if (finished) {
-          return -1;
+          break;
         }
         if (reading != null) {
-          // Escape the stream as JSON string content.
-          int r = reading.read();
-          if (r < 0) {
-            reading.close();
-            reading = null;
-          } else {
-            int esc = -1;
-            switch (r) {
-              case '\n': esc = 'n'; break;
-              case '\r': esc = 'r'; break;
-              case '\\': case '"': esc = r; break;
-            }
-            if (esc == -1) {
-              return (byte) r;
-            } else {
-              limit = 1;
-              buf[0] = (byte) esc;
-              return (byte) '\\';
+          if (contentPos == contentLimit || contentStarved) {
+            if (!readContent()) {
+              reading.close();
+              reading = null;
+              continue;
             }
           }
+          n += escape(b, off + n, len - n);
+          continue;
         }
-        Preconditions.checkState(reading == null);
-        switch (stage) {
-          case BEFORE_PATH:
-            Preconditions.checkNotNull(current);
-            stage = Stage.BEFORE_CONTENT;
-            push(",\"src\":\"");
-            // Assume UTF-8.
-            reading = contentOf(current).openBufferedStream();
-            return (byte) '"';  // Close string containing path.
-          case BEFORE_CONTENT:
-            Preconditions.checkNotNull(current);
-            stage = Stage.DONE;
-            this.wroteOne = true;
-            push("}");
-            current = null;
-            // TODO: Do we need source map on input?
-            return (byte) '"';  // Close string containing content.
-          case DONE:
-            Preconditions.checkState(current == null);
-            if (remaining.hasNext()) {
-              stage = Stage.BEFORE_PATH;
-              current = Preconditions.checkNotNull(remaining.next());
-              char nextChar = '{';
-              if (this.wroteOne) {
-                nextChar = ',';
-                push("{");
-              }
-              push("\"path\":\"");
-
-              // Closure compiler requires that source paths uniquely identify
-              // the compilation unit, so disambiguate.
-              String relPath = current.relativePath.getPath();
-              String uniquePath = relPath;
-              for (int ctr = 0; byRelName.containsKey(uniquePath); ++ctr) {
-                uniquePath = relPath + "#" + ctr;
-              }
-              if (!relPath.equals(uniquePath)) {
-                log.warn(
-                    "Source " + current.canonicalPath
-                    + " has the same relative path as "
-                    + byRelName.get(relPath));
-              }
-              byRelName.put(uniquePath, current);
-
-              this.reading = new ByteArrayInputStream(
-                  uniquePath.getBytes(Charsets.UTF_8));
-              return (byte) nextChar;
-            } else {
-              finished = true;
-              return (byte) ']';  // Close the list
-            }
-        }
-        throw new AssertionError(stage);
+        advance();
       }
+      return n == 0 ? -1 : n;
+    }
 
-      void push(String s) {
-        for (int i = 0, n = s.length(); i < n; ++i) {
-          char ch = s.charAt(i);
-          Preconditions.checkState(ch < 0x80);  // UTF-8/ASCII compatible
-          buf[limit++] = (byte) ch;
+    /**
+     * Reads more of reading into contentBuf after any unescaped content.
+     *
+     * @return false if there is no more content to escape.
+     */
+    private boolean readContent() throws IOException {
+      contentStarved = false;
+      int nLeft = contentLimit - contentPos;
+      System.arraycopy(contentBuf, contentPos, contentBuf, 0, nLeft);
+      contentPos = 0;
+      contentLimit = nLeft;
+      if (!contentEnded) {
+        int nRead = reading.read(
+            contentBuf, nLeft, contentBuf.length - nLeft);
+        if (nRead < 0) {
+          contentEnded = true;
+        } else {
+          contentLimit += nRead;
         }
       }
+      if (contentLimit == 0 && contentEnded) {
+        contentEnded = false;
+        return false;
+      }
+      return true;
+    }
 
-      @Override
-      public void close() throws IOException {
-        this.pos = limit = 0;
-        this.finished = true;
-        if (reading != null) {
-          reading.close();
-          reading = null;
+    /**
+     * Escapes content from contentBuf into b as JSON string content.
+     * An escape sequence that does not fit in b is finished in buf.
+     *
+     * @return the count of bytes written to b.
+     */
+    private int escape(byte[] b, int off, int len) {
+      byte[] in = contentBuf;
+      int i = contentPos;
+      int end = contentLimit;
+      int o = off;
+      int outEnd = off + len;
+      while (i < end && o < outEnd) {
+        // Copy the longest run of bytes that need no escaping.
+        int runEnd = i;
+        int runLimit = Math.min(end, i + (outEnd - o));
+        while (runEnd < runLimit && ESCAPES[in[runEnd] & 0xff] == LITERAL) {
+          ++runEnd;
         }
+        if (runEnd != i) {
+          System.arraycopy(in, i, b, o, runEnd - i);
+          o += runEnd - i;
+          i = runEnd;
+          continue;
+        }
+
+        int c = in[i] & 0xff;
+        byte esc = ESCAPES[c];
+        int nConsumed = 1;
+        if (esc == LINE_SEPARATOR_LEAD) {
+          if (i + 2 >= end && !contentEnded) {
+            contentStarved = true;
+            break;
+          }
+          if (i + 2 < end && in[i + 1] == (byte) 0x80
+              && (in[i + 2] == (byte) 0xA8 || in[i + 2] == (byte) 0xA9)) {
+            c = in[i + 2] == (byte) 0xA8 ? 0x2028 : 0x2029;
+            esc = HEX_ESCAPE;
+            nConsumed = 3;
+          } else {
+            b[o++] = in[i++];
+            continue;
+          }
+        }
+
+        escapeBuf[0] = '\\';
+        escapeBuf[1] = esc;
+        int escLen = 2;
+        if (esc == HEX_ESCAPE) {
+          escapeBuf[2] = HEX_DIGITS[(c >>> 12) & 0xf];
+          escapeBuf[3] = HEX_DIGITS[(c >>> 8) & 0xf];
+          escapeBuf[4] = HEX_DIGITS[(c >>> 4) & 0xf];
+          escapeBuf[5] = HEX_DIGITS[c & 0xf];
+          escLen = 6;
+        }
+        i += nConsumed;
+        int nFit = Math.min(escLen, outEnd - o);
+        System.arraycopy(escapeBuf, 0, b, o, nFit);
+        o += nFit;
+        if (nFit < escLen) {
+          System.arraycopy(escapeBuf, nFit, buf, limit, escLen - nFit);
+          limit += escLen - nFit;
+          break;
+        }
+      }
+      contentPos = i;
+      return o - off;
+    }
+
+    /** Pushes the JSON between string contents. */
+    private void advance() throws IOException {
+      Preconditions.checkState(reading == null);
+      switch (stage) {
+        case BEFORE_PATH:
+          Preconditions.checkNotNull(current);
+          stage = Stage.BEFORE_CONTENT;
+          // Close string containing path.
+          push("\",\"src\":\"");
+          // Assume UTF-8.  Unbuffered since read in bulk into contentBuf.
+          reading = contentOf(current).openStream();
+          return;
+        case BEFORE_CONTENT:
+          Preconditions.checkNotNull(current);
+          stage = Stage.DONE;
+          this.wroteOne = true;
+          // Close string containing content.
+          push("\"}");
+          current = null;
+          // TODO: Do we need source map on input?
+          return;
+        case DONE:
+          Preconditions.checkState(current == null);
+          if (remaining.hasNext()) {
+            stage = Stage.BEFORE_PATH;
+            current = Preconditions.checkNotNull(remaining.next());
+            push(this.wroteOne ? ",{" : "{");
+            push("\"path\":\"");
+
+            // Closure compiler requires that source paths uniquely identify
+            // the compilation unit, so disambiguate.
+            String relPath = current.relativePath.getPath();
+            String uniquePath = relPath;
+            for (int ctr = 0; byRelName.containsKey(uniquePath); ++ctr) {
+              uniquePath = relPath + "#" + ctr;
+            }
+            if (!relPath.equals(uniquePath)) {
+              log.warn(
+                  "Source " + current.canonicalPath
+                  + " has the same relative path as "
+                  + byRelName.get(relPath));
+            }
+            byRelName.put(uniquePath, current);
+
+            this.reading = new ByteArrayInputStream(
+                uniquePath.getBytes(Charsets.UTF_8));
+          } else {
+            finished = true;
+            push("]");  // Close the list
+          }
+          return;
+      }
+      throw new AssertionError(stage);
+    }
+
+    void push(String s) {
+      for (int i = 0, n = s.length(); i < n; ++i) {
+        char ch = s.charAt(i);
+        Preconditions.checkState(ch < 0x80);  // UTF-8/ASCII compatible
+        buf[limit++] = (byte) ch;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.pos = limit = 0;
+      this.contentPos = contentLimit = 0;
+      this.finished = true;
+      if (reading != null) {
+        reading.close();
+        reading = null;
       }
-    };
+    }
   }
 
   /**
@@ -30,10 +30,10 @@ public abstract class BundlingPlanGraphNode<
 extends PlanGraphNode<BundleStateVector<O, B>> {
   /** Input from predecessor. */
   protected
-  Optional<Update<OptionsAndInputs<O>>> optionsUpdate = Optional.absent();
+  Lazy<Optional<Update<OptionsAndInputs<O>>>> optionsUpdate = Lazy.absent();
   /** The output for the compile stage. */
-  protected Optional<Update<OptionsAndBundles<O, B>>> optionsAndBundles =
-      Optional.absent();
+  protected Lazy<Optional<Update<OptionsAndBundles<O, B>>>> optionsAndBundles =
+      Lazy.absent();
 
   protected BundlingPlanGraphNode(PlanContext context) {
     super(context);
@@ -45,12 +45,12 @@ extends PlanGraphNode<BundleStateVector<O, B>> {
    */
   @Override
   protected void preExecute(Iterable<? extends PlanGraphNode<?>> preceders) {
-    this.optionsUpdate = Optional.absent();
+    this.optionsUpdate = Lazy.absent();
     for (PlanGraphNode<?> p : preceders) {
       if (p instanceof OptionPlanGraphNode<?>) {
         @SuppressWarnings("unchecked")  // Optimistic but unsound.  TODO
         OptionPlanGraphNode<O> optionsNode = (OptionPlanGraphNode<O>) p;
-        this.optionsUpdate = optionsNode.getUpdates();
+        this.optionsUpdate = Lazy.of(optionsNode.getUpdates());
       }
     }
   }
@@ -60,15 +60,19 @@ extends PlanGraphNode<BundleStateVector<O, B>> {
    */
   @Override
   protected void filterUpdates() throws IOException, MojoExecutionException {
-    Preconditions.checkState(optionsUpdate.isPresent());
+    Preconditions.checkState(optionsUpdate.get().isPresent());
 
     BuildContext buildContext = context.buildContext;
     boolean isIncremental = buildContext.isIncremental();
 
     Map<OptionsAndInputs<O>, OptionsAndBundles<O, B>> previous =
         Maps.newLinkedHashMap();
-    if (isIncremental && optionsAndBundles.isPresent()) {
-      for (OptionsAndBundles<O, B> ob : optionsAndBundles.get().allExtant()) {
+    Optional<Update<OptionsAndBundles<O, B>>> previousBundles =
+        isIncremental
+        ? optionsAndBundles.get()
+        : Optional.<Update<OptionsAndBundles<O, B>>>absent();
+    if (previousBundles.isPresent()) {
+      for (OptionsAndBundles<O, B> ob : previousBundles.get().allExtant()) {
         previous.put(ob.optionsAndInputs, ob);
       }
     }
@@ -80,7 +84,10 @@ extends PlanGraphNode<BundleStateVector<O, B>> {
     ImmutableList.Builder<OptionsAndBundles<O, B>> defunct =
         ImmutableList.builder();
 
-    Update<OptionsAndInputs<O>> u = this.optionsUpdate.get();
+    Update<OptionsAndInputs<O>> u = this.optionsUpdate.get().get();
+    if (isDirty()) {
+      u = u.allAsChanged();
+    }
     for (OptionsAndInputs<O> oi : u.changed) {
       OptionsAndBundles<O, B> old = previous.remove(oi);
       Optional<ImmutableList<B>> oldBundles =
@@ -102,11 +109,11 @@ extends PlanGraphNode<BundleStateVector<O, B>> {
 
     defunct.addAll(previous.values());
 
-    this.optionsAndBundles = Optional.of(new Update<>(
+    this.optionsAndBundles = Lazy.of(Optional.of(new Update<>(
         unchanged.build(),
         changed.build(),
         defunct.build()
-        ));
+        )));
   }
 
   /**
@@ -131,19 +138,38 @@ extends PlanGraphNode<BundleStateVector<O, B>> {
     return ImmutableList.of();
   }
 
+  /** Records the bundles derived from changed inputs. */
+  @Override
+  protected void recordWorkload(NodeProfile profile) {
+    Optional<Update<OptionsAndBundles<O, B>>> obs = optionsAndBundles.get();
+    if (obs.isPresent()) {
+      for (OptionsAndBundles<O, B> ob : obs.get().changed) {
+        profile.addBundles(ob.bundles.size());
+      }
+    }
+  }
+
+  @Override
+  protected void explainUpdates(NodeExplanation explanation) {
+    Optional<Update<OptionsAndBundles<O, B>>> obs = optionsAndBundles.get();
+    if (obs.isPresent()) {
+      explanation.addUpdate("bundles", obs.get());
+    }
+  }
+
   /**
    * The output bundles associated with the options from which they were
    * derived.
    */
   public Optional<Update<OptionsAndBundles<O, B>>> getOptionsAndBundles() {
-    return this.optionsAndBundles;
+    return this.optionsAndBundles.get();
   }
 
   /**
    * The options and inputs from this node's predecessor.
    */
   public Optional<Update<OptionsAndInputs<O>>> optionsAndInputs() {
-    return this.optionsUpdate;
+    return this.optionsUpdate.get();
   }
 
   /**
@@ -164,9 +190,10 @@ extends PlanGraphNode<BundleStateVector<O, B>> {
   implements PlanGraphNode.StateVector {
     private static final long serialVersionUID = 1L;
 
-    protected final Optional<Update<OptionsAndInputs<O>>> optionsUpdate;
+    protected final Lazy<Optional<Update<OptionsAndInputs<O>>>> optionsUpdate;
 
-    protected final Optional<Update<OptionsAndBundles<O, B>>> optionsAndBundles;
+    protected final
+    Lazy<Optional<Update<OptionsAndBundles<O, B>>>> optionsAndBundles;
 
     protected BundleStateVector(BundlingPlanGraphNode<O, B> node) {
       this.optionsUpdate = node.optionsUpdate;
@@ -2,13 +2,23 @@ package com.google.closure.plugin.plan;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.NotSerializableException;
 import java.io.Serializable;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
+
+import com.google.closure.plugin.cache.BuildCacheEntry;
 import com.google.closure.plugin.common.StructurallyComparable;
 import com.google.closure.plugin.common.Identifiable;
+import com.google.closure.plugin.common.Sources.Source;
+import com.google.closure.plugin.common.StructuralHash;
 import com.google.closure.plugin.plan.BundlingPlanGraphNode.OptionsAndBundles;
+import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
@@ -35,6 +45,8 @@ extends PlanGraphNode<CompilePlanGraphNode.CompileStateVector<O, B>> {
   protected final Map<B, ImmutableList<File>> bundleToOutputs =
       Maps.newLinkedHashMap();
   protected final List<File> changedFiles = Lists.newArrayList();
+  /** Keys computed for bundles that missed in the build cache. */
+  private final Map<B, Hash> pendingCacheKeys = Maps.newHashMap();
 
   protected CompilePlanGraphNode(PlanContext context) {
     super(context);
@@ -53,6 +65,10 @@ extends PlanGraphNode<CompilePlanGraphNode.CompileStateVector<O, B>> {
       }
     }
     Preconditions.checkState(optionsAndBundles.isPresent());
+    if (isDirty()) {
+      this.optionsAndBundles = Optional.of(
+          optionsAndBundles.get().allAsChanged());
+    }
   }
 
   /**
@@ -73,6 +89,192 @@ extends PlanGraphNode<CompilePlanGraphNode.CompileStateVector<O, B>> {
   }
 
 
+  /** Records the inputs to changed bundles and the files written. */
+  @Override
+  protected void recordWorkload(NodeProfile profile) {
+    if (optionsAndBundles.isPresent()) {
+      for (OptionsAndBundles<O, B> ob : optionsAndBundles.get().changed) {
+        profile.addBundles(ob.bundles.size());
+        for (B b : ob.bundles) {
+          profile.addInputs(b.getInputs());
+        }
+      }
+    }
+    profile.addOutputs(changedFiles);
+  }
+
+
+  @Override
+  protected void explainUpdates(NodeExplanation explanation) {
+    if (optionsAndBundles.isPresent()) {
+      explanation.addUpdate("bundles", optionsAndBundles.get());
+    }
+  }
+
+
+  /**
+   * Restores a bundle's outputs from the build cache if they were previously
+   * produced from the same compiler, options, and inputs.
+   * A subclass should call this before compiling a bundle, and call
+   * {@link #storeInBuildCache} after successfully compiling it.
+   *
+   * @return true if the bundle's outputs were restored, and
+   *     {@link #bundleToOutputs} and {@link #changedFiles} updated.
+   */
+  protected boolean restoreFromBuildCache(O options, B bundle)
+  throws IOException {
+    if (!context.buildCache.isPresent() || context.outputDir == null) {
+      return false;
+    }
+    Optional<Hash> key = buildCacheKey(options, bundle);
+    if (!key.isPresent()) { return false; }
+    Optional<BuildCacheEntry> entry;
+    try {
+      entry = context.buildCache.get().get(key.get());
+    } catch (IOException ex) {
+      context.log.warn("Failed to read from build cache", ex);
+      entry = Optional.absent();
+    }
+    if (!entry.isPresent() || !replayMappings(bundle, entry.get().mappings)) {
+      pendingCacheKeys.put(bundle, key.get());
+      return false;
+    }
+    context.log.debug("Restored outputs of " + this + " from build cache");
+    ImmutableList<File> files = entry.get().getFiles(context.outputDir);
+    changedFiles.addAll(entry.get().restore(context.outputDir));
+    ImmutableList<File> oldFiles = bundleToOutputs.put(bundle, files);
+    if (oldFiles != null) {
+      for (File f : oldFiles) {
+        if (!files.contains(f)) {
+          deleteIfExists(f);
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Stores the outputs of a freshly compiled bundle in the build cache.
+   * This does nothing unless a preceding {@link #restoreFromBuildCache} call
+   * missed.
+   */
+  protected void storeInBuildCache(B bundle) {
+    Hash key = pendingCacheKeys.remove(bundle);
+    ImmutableList<File> outputs = bundleToOutputs.get(bundle);
+    if (key == null || outputs == null) { return; }
+    try {
+      context.buildCache.get().put(
+          key,
+          BuildCacheEntry.capture(context.outputDir, outputs)
+          .withMappings(mappingsAdded(bundle)));
+    } catch (IOException ex) {
+      context.log.warn("Failed to write to build cache", ex);
+    }
+  }
+
+  /**
+   * Called before a bundle's outputs are restored from the build cache to
+   * replay the mappings that compiling it added to state shared with other
+   * compilations.
+   * This default implementation handles nodes that share no such state.
+   *
+   * @return false if the mappings could not be replayed, in which case the
+   *     bundle is compiled instead.
+   */
+  protected boolean replayMappings(
+      B bundle, ImmutableMap<String, String> mappings) {
+    return mappings.isEmpty();
+  }
+
+  /**
+   * The mappings that compiling a bundle added to state shared with other
+   * compilations, in the order they were added, to store in the build cache
+   * alongside its outputs.
+   */
+  protected ImmutableMap<String, String> mappingsAdded(B bundle) {
+    return ImmutableMap.of();
+  }
+
+  /**
+   * A hash of everything that might affect the outputs of compiling the
+   * given bundle, or absent if the bundle cannot be hashed.
+   * Files under the output and project directories are hashed by their
+   * {@linkplain Hash#portablePath portable paths} so that builds of the same
+   * project in different workspaces share entries.
+   */
+  protected Optional<Hash> buildCacheKey(O options, B bundle)
+  throws IOException {
+    ImmutableList<File> baseDirs = buildCacheBaseDirs();
+    ImmutableList.Builder<Hash> parts = ImmutableList.builder();
+    parts.add(Hash.hashString(getClass().getName()));
+    parts.add(Hash.hashString(getToolVersion(options)));
+    parts.add(StructuralHash.ofPortable(options, baseDirs));
+    try {
+      parts.add(Hash.hashSerializable(bundle, baseDirs));
+    } catch (@SuppressWarnings("unused") NotSerializableException ex) {
+      return Optional.absent();
+    }
+    for (Source input : bundle.getInputs()) {
+      parts.add(Hash.hashString(
+          Hash.portablePath(input.canonicalPath, baseDirs)));
+      parts.add(context.statCache.contentHash(
+          input.canonicalPath, Hash.Algorithm.SHA512));
+    }
+    for (File f : getOptionFiles(options)) {
+      File canonFile = f.getCanonicalFile();
+      // Let the compiler report the missing file.
+      if (!canonFile.isFile()) { return Optional.absent(); }
+      parts.add(Hash.hashString(Hash.portablePath(canonFile, baseDirs)));
+      parts.add(context.statCache.contentHash(
+          canonFile, Hash.Algorithm.SHA512));
+    }
+    return Optional.of(Hash.hashAllHashes(parts.build()));
+  }
+
+  /**
+   * Files named by the options whose content affects the outputs.
+   * The options only contain their paths, so the build cache key hashes
+   * their content separately.
+   * This default implementation returns none.
+   */
+  protected ImmutableList<File> getOptionFiles(O options) {
+    return ImmutableList.of();
+  }
+
+  /**
+   * The output directory followed by the project directory when known.
+   * The output directory is usually under the project directory so is
+   * checked first.
+   */
+  private ImmutableList<File> buildCacheBaseDirs() {
+    ImmutableList.Builder<File> baseDirs = ImmutableList.builder();
+    baseDirs.add(context.outputDir);
+    if (context.srcfilesDirs != null) {
+      baseDirs.add(context.srcfilesDirs.srcDir.getParentFile());
+    }
+    return baseDirs.build();
+  }
+
+  /**
+   * Identifies the version of the compiler so that cached outputs are not
+   * reused across compiler upgrades.
+   * This default implementation uses the versions of the plugin and its
+   * dependencies which bundle the Java-based compilers.
+   */
+  protected String getToolVersion(O options) throws IOException {
+    PluginDescriptor pluginDescriptor = context.pluginDescriptor;
+    if (pluginDescriptor == null) { return ""; }
+    StringBuilder sb = new StringBuilder(pluginDescriptor.getId());
+    List<Artifact> artifacts = pluginDescriptor.getArtifacts();
+    if (artifacts != null) {
+      for (Artifact a : artifacts) {
+        sb.append('\n').append(a.getId());
+      }
+    }
+    return sb.toString();
+  }
+
+
   protected void processDefunctBundles(
       Optional<Update<OptionsAndBundles<O, B>>> obs) {
     if (obs.isPresent()) {
@@ -104,6 +306,109 @@ extends PlanGraphNode<CompilePlanGraphNode.CompileStateVector<O, B>> {
   }
 
 
+  /**
+   * Writes content to an output file unless the file already has that
+   * content.
+   * Leaving identical outputs untouched keeps the build context, IDEs and
+   * file watchers from rebuilding things that depend on them.
+   * Changed files are replaced atomically so that a reader never sees a
+   * partially written output, and are added to {@link #changedFiles}.
+   *
+   * @return true if the file changed.
+   */
+  protected boolean writeOutput(File outputFile, byte[] content)
+  throws IOException {
+    Hash.Algorithm algorithm = context.statCache.getChangeDetectionAlgorithm();
+    Hash contentHash = Hash.hashBytes(algorithm, content);
+    if (hasContent(outputFile, content.length, contentHash, algorithm)) {
+      return false;
+    }
+    Files.createParentDirs(outputFile);
+    File temp = File.createTempFile(
+        "." + outputFile.getName() + "-", ".tmp", outputFile.getParentFile());
+    try {
+      Files.write(content, temp);
+      replaceAtomically(temp, outputFile);
+    } finally {
+      if (temp.exists() && !temp.delete()) {
+        context.log.warn("Failed to delete " + temp);
+      }
+    }
+    outputWritten(outputFile, contentHash, algorithm);
+    return true;
+  }
+
+  /**
+   * Writes UTF-8 encoded content to an output file unless the file already
+   * has that content.
+   *
+   * @return true if the file changed.
+   * @see #writeOutput(File, byte[])
+   */
+  protected boolean writeOutput(File outputFile, String content)
+  throws IOException {
+    return writeOutput(outputFile, content.getBytes(Charsets.UTF_8));
+  }
+
+  /**
+   * Moves a file written by a tool over an output file unless the output
+   * already has the same content, in which case the tool's file is deleted.
+   *
+   * @return true if the output changed.
+   * @see #writeOutput(File, byte[])
+   */
+  protected boolean moveOutput(File from, File outputFile)
+  throws IOException {
+    Hash.Algorithm algorithm = context.statCache.getChangeDetectionAlgorithm();
+    Hash contentHash = Hash.hashFileContent(from, algorithm);
+    if (hasContent(outputFile, from.length(), contentHash, algorithm)) {
+      if (!from.delete()) {
+        context.log.warn("Failed to delete " + from);
+      }
+      return false;
+    }
+    Files.createParentDirs(outputFile);
+    replaceAtomically(from, outputFile);
+    outputWritten(outputFile, contentHash, algorithm);
+    return true;
+  }
+
+  private boolean hasContent(
+      File outputFile, long length, Hash contentHash,
+      Hash.Algorithm algorithm)
+  throws IOException {
+    // Comparing lengths first avoids reading most changed files.
+    return outputFile.isFile() && outputFile.length() == length
+        && context.statCache.contentHash(
+            outputFile.getCanonicalFile(), algorithm)
+           .equals(contentHash);
+  }
+
+  private void outputWritten(
+      File outputFile, Hash contentHash, Hash.Algorithm algorithm)
+  throws IOException {
+    // Later builds and nodes need not reread the output to hash it.
+    File canonFile = outputFile.getCanonicalFile();
+    context.statCache.put(
+        canonFile, FileStatCache.Stat.of(canonFile), algorithm, contentHash);
+    changedFiles.add(outputFile);
+  }
+
+  private static void replaceAtomically(File from, File to)
+  throws IOException {
+    try {
+      java.nio.file.Files.move(
+          from.toPath(), to.toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (@SuppressWarnings("unused") AtomicMoveNotSupportedException ex) {
+      // from is on a different file system.
+      java.nio.file.Files.move(
+          from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+
   /**
    * Copy files from one directory root to another.
    * Typically this is used to allow building files to a temp directory and,
@@ -111,6 +416,7 @@ extends PlanGraphNode<CompilePlanGraphNode.CompileStateVector<O, B>> {
    * <p>
    * In addition to manipulating the file system, this updates
    * {@link #changedFiles} list.
+   * Files whose content is unchanged are left alone.
    *
    * @param from file or directory tree to copy from.
    * @param to file or directory tree to copy to.
@@ -130,10 +436,7 @@ extends PlanGraphNode<CompilePlanGraphNode.CompileStateVector<O, B>> {
         }
       }
     } else {
-      if (!(to.exists() && Files.equal(from, to))) {
-        java.nio.file.Files.move(from.toPath(), to.toPath());
-        changedFiles.add(to);
-      }
+      moveOutput(from, to);
       out.add(to);
     }
   }
@@ -0,0 +1,287 @@
+package com.google.closure.plugin.plan;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+/**
+ * Maps canonical file paths to the hash of their content so that files whose
+ * size, modification time, and file key (the inode where available) are
+ * unchanged need not be read and digested on every build.
+ * <p>
+ * In paranoid mode, which is meant for release builds, lookups always miss
+ * so every file is read and hashed, but the hashes are still recorded.
+ * <p>
+ * Content may be hashed with more than one {@link Hash.Algorithm}: a fast one
+ * for change detection and {@link Hash.Algorithm#SHA512} for build cache keys.
+ */
+public final class FileStatCache {
+  private static final int MAGIC = 0x434c5343;  // "CLSC"
+  private static final int VERSION = 2;
+
+  /**
+   * A file modified this close to when it was hashed might have been
+   * modified again within the file-system's timestamp granularity, so its
+   * stat cannot be trusted.
+   */
+  private static final long RACY_MILLIS = 2000;
+
+  private final Optional<File> file;
+  private final boolean paranoid;
+  private final Hash.Algorithm changeDetection;
+  private final Map<File, Entry> entries = new ConcurrentHashMap<>();
+
+  /**
+   * @param file where the cache is persisted, or absent for an in-memory
+   *     cache.
+   * @param paranoid true to always hash file content.
+   * @param changeDetection the algorithm used by default which need not be
+   *     cryptographic.
+   */
+  public FileStatCache(
+      Optional<File> file, boolean paranoid, Hash.Algorithm changeDetection) {
+    this.file = file;
+    this.paranoid = paranoid;
+    this.changeDetection = changeDetection;
+  }
+
+  /** A cache that always hashes file content and never persists. */
+  public static FileStatCache paranoid() {
+    return new FileStatCache(
+        Optional.<File>absent(), true, Hash.Algorithm.SHA512);
+  }
+
+  /** The algorithm used when none is specified. */
+  public Hash.Algorithm getChangeDetectionAlgorithm() {
+    return changeDetection;
+  }
+
+  /** The file attributes that are compared to decide whether to rehash. */
+  public static final class Stat {
+    final long size;
+    final long mtimeNanos;
+    final String fileKey;
+
+    Stat(long size, long mtimeNanos, String fileKey) {
+      this.size = size;
+      this.mtimeNanos = mtimeNanos;
+      this.fileKey = fileKey;
+    }
+
+    /** Reads the attributes of f. */
+    public static Stat of(File f) throws IOException {
+      BasicFileAttributes attrs = java.nio.file.Files.readAttributes(
+          f.toPath(), BasicFileAttributes.class);
+      Object fileKey = attrs.fileKey();
+      return new Stat(
+          attrs.size(),
+          attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+          fileKey != null ? fileKey.toString() : "");
+    }
+
+    boolean sameAs(Stat that) {
+      return this.size == that.size && this.mtimeNanos == that.mtimeNanos
+          && this.fileKey.equals(that.fileKey);
+    }
+  }
+
+  private static final class Entry {
+    final Stat stat;
+    final long hashedAtMillis;
+    /** Content hashes indexed by algorithm ordinal. */
+    final Hash[] contentHashes;
+
+    Entry(Stat stat, long hashedAtMillis, Hash[] contentHashes) {
+      this.stat = stat;
+      this.hashedAtMillis = hashedAtMillis;
+      this.contentHashes = contentHashes;
+    }
+
+    boolean isRacy() {
+      return TimeUnit.NANOSECONDS.toMillis(stat.mtimeNanos) + RACY_MILLIS
+          >= hashedAtMillis;
+    }
+  }
+
+  /**
+   * The change detection hash of the content of the canonical file f if its
+   * stat matches the stat recorded when it was last hashed.
+   */
+  public Optional<Hash> getIfUnchanged(File f, Stat stat) {
+    return getIfUnchanged(f, stat, changeDetection);
+  }
+
+  /**
+   * The hash of the content of the canonical file f if its stat matches
+   * the stat recorded when it was last hashed with algorithm.
+   */
+  public Optional<Hash> getIfUnchanged(
+      File f, Stat stat, Hash.Algorithm algorithm) {
+    if (!paranoid) {
+      Entry e = entries.get(f);
+      if (e != null && !e.isRacy() && e.stat.sameAs(stat)) {
+        return Optional.fromNullable(e.contentHashes[algorithm.ordinal()]);
+      }
+    }
+    return Optional.absent();
+  }
+
+  /**
+   * Records the change detection hash of f's content.
+   *
+   * @param stat f's stat from before its content was read so that a change
+   *     during reading is caught next time.
+   */
+  public void put(File f, Stat stat, Hash contentHash) {
+    put(f, stat, changeDetection, contentHash);
+  }
+
+  /**
+   * Records the hash of f's content.
+   *
+   * @param stat f's stat from before its content was read so that a change
+   *     during reading is caught next time.
+   */
+  public void put(
+      File f, Stat stat, Hash.Algorithm algorithm, Hash contentHash) {
+    long hashedAtMillis = System.currentTimeMillis();
+    Hash[] contentHashes = new Hash[Hash.Algorithm.values().length];
+    Entry old = entries.get(f);
+    if (old != null && old.stat.sameAs(stat)) {
+      // Keep hashes computed with other algorithms.
+      System.arraycopy(
+          old.contentHashes, 0, contentHashes, 0, contentHashes.length);
+      hashedAtMillis = Math.min(hashedAtMillis, old.hashedAtMillis);
+    }
+    contentHashes[algorithm.ordinal()] = contentHash;
+    entries.put(f, new Entry(stat, hashedAtMillis, contentHashes));
+  }
+
+  /**
+   * The change detection hash of the content of the canonical file f,
+   * reading f only if its stat has changed.
+   */
+  public Hash contentHash(File f) throws IOException {
+    return contentHash(f, changeDetection);
+  }
+
+  /**
+   * The hash of the content of the canonical file f,
+   * reading f only if its stat has changed.
+   *
+   * @see Hash#hashFileContent
+   */
+  public Hash contentHash(File f, Hash.Algorithm algorithm)
+  throws IOException {
+    Stat stat = Stat.of(f);
+    Optional<Hash> cached = getIfUnchanged(f, stat, algorithm);
+    if (cached.isPresent()) {
+      return cached.get();
+    }
+    Hash h = Hash.hashFileContent(f, algorithm);
+    put(f, stat, algorithm, h);
+    return h;
+  }
+
+  /**
+   * Loads entries from the persisted form, if any.
+   * A truncated or incompatible cache is treated as empty.
+   */
+  public void load() throws IOException {
+    if (!file.isPresent()) { return; }
+    try (InputStream in =
+             Files.asByteSource(file.get()).openBufferedStream()) {
+      DataInputStream din = new DataInputStream(in);
+      if (din.readInt() != MAGIC || din.readInt() != VERSION) {
+        return;
+      }
+      for (int i = 0, n = din.readInt(); i < n; ++i) {
+        File f = new File(din.readUTF());
+        Stat stat = new Stat(din.readLong(), din.readLong(), din.readUTF());
+        long hashedAtMillis = din.readLong();
+        Hash.Algorithm[] algorithms = Hash.Algorithm.values();
+        Hash[] contentHashes = new Hash[algorithms.length];
+        for (int j = 0, nHashes = din.readByte(); j < nHashes; ++j) {
+          int ordinal = din.readByte();
+          Hash h = new Hash(PlanGraphFormat.readBytes(din));
+          if (0 <= ordinal && ordinal < algorithms.length) {
+            contentHashes[ordinal] = h;
+          }
+        }
+        entries.put(f, new Entry(stat, hashedAtMillis, contentHashes));
+      }
+    } catch (@SuppressWarnings("unused") FileNotFoundException ex) {
+      // First build.
+    } catch (@SuppressWarnings("unused") EOFException ex) {
+      entries.clear();
+    }
+  }
+
+  /**
+   * Persists entries for files that still exist.
+   */
+  public void save() throws IOException {
+    if (!file.isPresent()) { return; }
+    File out = file.get();
+    Files.createParentDirs(out);
+    File temp = File.createTempFile(
+        out.getName(), ".tmp", out.getParentFile());
+    try {
+      try (OutputStream os = Files.asByteSink(temp).openBufferedStream()) {
+        DataOutputStream dout = new DataOutputStream(os);
+        dout.writeInt(MAGIC);
+        dout.writeInt(VERSION);
+        Map<File, Entry> live = Maps.newLinkedHashMap();
+        for (Map.Entry<File, Entry> e : entries.entrySet()) {
+          if (e.getKey().exists()) {
+            live.put(e.getKey(), e.getValue());
+          }
+        }
+        dout.writeInt(live.size());
+        for (Map.Entry<File, Entry> e : live.entrySet()) {
+          Entry entry = e.getValue();
+          dout.writeUTF(e.getKey().getPath());
+          dout.writeLong(entry.stat.size);
+          dout.writeLong(entry.stat.mtimeNanos);
+          dout.writeUTF(entry.stat.fileKey);
+          dout.writeLong(entry.hashedAtMillis);
+          int nHashes = 0;
+          for (Hash h : entry.contentHashes) {
+            if (h != null) { ++nHashes; }
+          }
+          dout.writeByte(nHashes);
+          for (int j = 0; j < entry.contentHashes.length; ++j) {
+            if (entry.contentHashes[j] != null) {
+              dout.writeByte(j);
+              PlanGraphFormat.writeBytes(
+                  dout, entry.contentHashes[j].getBytes());
+            }
+          }
+        }
+        dout.flush();
+      }
+      java.nio.file.Files.move(
+          temp.toPath(), out.toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      if (temp.exists() && !temp.delete()) {
+        throw new IOException("Failed to delete " + temp);
+      }
+    }
+  }
+}
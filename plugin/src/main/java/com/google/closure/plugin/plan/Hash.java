@@ -1,19 +1,32 @@
 package com.google.closure.plugin.plan;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.NotSerializableException;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.List;
 
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.closure.plugin.common.Options;
 import com.google.closure.plugin.common.Sources.Source;
-import com.google.common.io.Files;
+import com.google.closure.plugin.common.StructuralHash;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
 
 /**
  * Wraps a byte[] from a hashing function.
@@ -49,9 +62,12 @@ public final class Hash implements Serializable {
 
   @Override
   public String toString() {
-    StringBuilder sb = new StringBuilder(
-        TO_STRING_PREFIX.length() + bytes.length * 2);
-    sb.append(TO_STRING_PREFIX);
+    return TO_STRING_PREFIX + toHexString();
+  }
+
+  /** The hash bytes as hex digits suitable for use in file names. */
+  public String toHexString() {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
     for (byte b : bytes) {
       sb.append(hexDigits.charAt(b & 0xf));
       sb.append(hexDigits.charAt((b & 0xf0) >>> 4));
@@ -85,33 +101,95 @@ public final class Hash implements Serializable {
 
   @Override
   public int hashCode() {
-    return (bytes[0] & 0xff)
-        | ((bytes[1] & 0xff) << 8)
-        | ((bytes[2] & 0xff) << 8)
-        | ((bytes[3] & 0xff) << 8);
+    int hc = 0;
+    for (int i = 0, n = Math.min(4, bytes.length); i < n; ++i) {
+      hc |= (bytes[i] & 0xff) << (8 * i);
+    }
+    return hc;
+  }
+
+  /** Hashing algorithms. */
+  public enum Algorithm {
+    /** Cryptographic so suitable for keys of shared caches. */
+    SHA512(Hashing.sha512()),
+    /**
+     * Much faster but not cryptographic, so only suitable for detecting
+     * changes to files.
+     */
+    MURMUR3_128(Hashing.murmur3_128()),
+    ;
+
+    final HashFunction fn;
+
+    Algorithm(HashFunction fn) {
+      this.fn = fn;
+    }
   }
 
-  /** Constructs a hash for the serial form ignoring any transient fields. */
+  /**
+   * Constructs a hash for the serial form ignoring any transient fields.
+   * The serial form is digested as it is produced instead of being buffered.
+   */
   public static Hash hashSerializable(Serializable ser)
   throws NotSerializableException {
-    byte[] bytes;
-    try (ByteArrayOutputStream bout = new ByteArrayOutputStream()) {
-      ObjectOutputStream oout = new ObjectOutputStream(bout);
+    return hashSerializable(ser, ImmutableList.<File>of());
+  }
+
+  /**
+   * Like {@link #hashSerializable(Serializable)} but files are hashed by
+   * their {@linkplain #portablePath portable paths} so that the hash does
+   * not depend on where the base directories are.
+   */
+  public static Hash hashSerializable(
+      Serializable ser, ImmutableList<File> baseDirs)
+  throws NotSerializableException {
+    MessageDigest md = newDigest();
+    try (ObjectOutputStream oout = new PortableObjectOutputStream(
+             new DigestOutputStream(ByteStreams.nullOutputStream(), md),
+             baseDirs)) {
       oout.writeObject(ser);
-      bytes = bout.toByteArray();
     } catch (NotSerializableException ex) {
       throw ex;
     } catch (IOException ex) {
       throw (AssertionError) new AssertionError(
-          "IOException writing to in-memory buffer")
+          "IOException writing to null stream")
           .initCause(ex);
     }
-
-    MessageDigest md = newDigest();
-    md.update(bytes);
     return new Hash(md.digest());
   }
 
+  /**
+   * The path of f relative to the first of baseDirs that contains it,
+   * prefixed with that base directory's index, or f's path if none does.
+   * Portable paths of files in a project are the same wherever the project
+   * is checked out.
+   */
+  public static String portablePath(File f, List<? extends File> baseDirs) {
+    if (!baseDirs.isEmpty()) {
+      Path p = f.toPath().toAbsolutePath().normalize();
+      for (int i = 0, n = baseDirs.size(); i < n; ++i) {
+        Path base = baseDirs.get(i).toPath().toAbsolutePath().normalize();
+        if (p.startsWith(base)) {
+          StringBuilder sb = new StringBuilder();
+          sb.append('$').append(i);
+          for (Path name : base.relativize(p)) {
+            sb.append('/').append(name);
+          }
+          return sb.toString();
+        }
+      }
+    }
+    return f.getPath();
+  }
+
+  /**
+   * A hash of the parts of obj that funnel puts which, unlike
+   * {@link #hashSerializable}, does not need to walk the whole object graph.
+   */
+  public static <T> Hash hashObject(T obj, Funnel<? super T> funnel) {
+    return new Hash(Algorithm.SHA512.fn.hashObject(obj, funnel).asBytes());
+  }
+
   /**
    * A hash that depends upon the file and current contents.
    * <p>
@@ -124,26 +202,19 @@ public final class Hash implements Serializable {
    * All release candidates should be built from clean.
    */
   public static Hash hash(Source source) throws IOException {
-    File file = source.canonicalPath;
-    long length = file.length();
-    if (length < 0 || length > Integer.MAX_VALUE) {
-      throw new IOException(
-          "File is too large for in-memory caching and hashing without caching"
-          + " or flocking can lead to race conditions");
-    }
-    int ilength = (int) length;
-    assert ilength >= 0;
-
-    // The length is used as a hint so no race condition here.
-    ByteArrayOutputStream byteBuf = new ByteArrayOutputStream(ilength);
-    Files.copy(file, byteBuf);
-
-    byte[] bytes = byteBuf.toByteArray();
-    byteBuf.reset();  // release internal buffer for GC
+    return hash(source, FileStatCache.paranoid());
+  }
 
+  /**
+   * Like {@link #hash(Source)} but avoids reading the file when its stat
+   * is unchanged since it was last hashed.
+   */
+  public static Hash hash(Source source, FileStatCache statCache)
+  throws IOException {
+    File file = source.canonicalPath;
     MessageDigest md = newDigest();
     md.update(file.getCanonicalPath().getBytes(Charsets.UTF_8));
-    md.update(bytes);
+    md.update(statCache.contentHash(file, Algorithm.SHA512).bytes);
     return new Hash(md.digest());
   }
 
@@ -209,12 +280,63 @@ public final class Hash implements Serializable {
     return new Hash(md.digest());
   }
 
+  /**
+   * A hash of the given bytes using the given algorithm.
+   * {@link Algorithm#SHA512} hashes match {@link #hashBytes(byte[])}.
+   */
+  public static Hash hashBytes(Algorithm algorithm, byte[] bytes) {
+    return new Hash(algorithm.fn.hashBytes(bytes).asBytes());
+  }
+
+  /** The size of the buffer used to feed file content to a hasher. */
+  private static final int CHUNK_SIZE = 1 << 16;
+  /**
+   * Per-thread read buffers so that hashing many files does not allocate a
+   * chunk per file.
+   * Files are read instead of memory mapped since mappings are only
+   * released when their buffers are collected, and their content would be
+   * copied into a heap chunk to feed the hasher anyway.
+   */
+  private static final ThreadLocal<ByteBuffer> CHUNK =
+      new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+          return ByteBuffer.allocate(CHUNK_SIZE);
+        }
+      };
+
+  /**
+   * A hash of the content of f which is streamed in chunks so that neither
+   * large files nor files over 2GB need to be in memory all at once.
+   * {@link Algorithm#SHA512} hashes match {@link #hashBytes(byte[])} of the
+   * content.
+   */
+  public static Hash hashFileContent(File f, Algorithm algorithm)
+  throws IOException {
+    Hasher hasher = algorithm.fn.newHasher();
+    ByteBuffer buf = CHUNK.get();
+    buf.clear();
+    try (FileChannel channel = FileChannel.open(
+             f.toPath(), StandardOpenOption.READ)) {
+      while (channel.read(buf) >= 0) {
+        hasher.putBytes(buf.array(), 0, buf.position());
+        buf.clear();
+      }
+    }
+    return new Hash(hasher.hash().asBytes());
+  }
+
   /**
    * True iff the two inputs hash to the same value.
+   * Options are compared by their {@linkplain Options#structuralHash
+   * structural hash}.
    */
   public static <S extends Serializable>
   boolean same(S a, S b) {
     if (a == b) { return true; }
+    if (a instanceof Options && b instanceof Options) {
+      return StructuralHash.ofOptions(a).equals(StructuralHash.ofOptions(b));
+    }
     Hash ah, bh;
     try {
       ah = Hash.hashSerializable(a);
@@ -237,4 +359,24 @@ public final class Hash implements Serializable {
     }
     return md;
   }
-}
\ No newline at end of file
+
+
+  /** Writes files as their portable paths. */
+  private static final class PortableObjectOutputStream
+  extends ObjectOutputStream {
+    private final ImmutableList<File> baseDirs;
+
+    PortableObjectOutputStream(
+        OutputStream out, ImmutableList<File> baseDirs)
+    throws IOException {
+      super(out);
+      this.baseDirs = baseDirs;
+      enableReplaceObject(!baseDirs.isEmpty());
+    }
+
+    @Override
+    protected Object replaceObject(Object obj) {
+      return obj instanceof File ? portablePath((File) obj, baseDirs) : obj;
+    }
+  }
+}
@@ -58,8 +58,13 @@ public final class JoinNodes {
   Map<ImmutableSortedSet<FileExt>, JoinPlanGraphNode> joinNodesByExtensionSet =
       Maps.newLinkedHashMap();
 
+  /** All pipelines in the order they were built. */
   private final List<PipelineConstraint> pipelineConstraints =
       Lists.newArrayList();
+  /** The number of pipelines that have been linked into the graph. */
+  private int nRealized;
+  /** Identifies the planner that owns pipelines as they are built. */
+  private String plannerKey = "";
 
   /**
    * The followers of producers of the given file extensions.
@@ -150,16 +155,41 @@ public final class JoinNodes {
    */
   public ImmutableList<PlanGraphNode<?>> realizePipelineConstraints() {
     ImmutableList.Builder<PlanGraphNode<?>> newRoots = ImmutableList.builder();
-    for (PipelineConstraint pc : this.pipelineConstraints) {
+    for (PipelineConstraint pc : this.pipelineConstraints.subList(
+             nRealized, pipelineConstraints.size())) {
       Optional<ImmutableList<PlanGraphNode<?>>> newRoot = pc.realize();
       if (newRoot.isPresent()) {
         newRoots.addAll(newRoot.get());
       }
     }
-    this.pipelineConstraints.clear();
+    this.nRealized = pipelineConstraints.size();
     return newRoots.build();
   }
 
+  /**
+   * Sets the key of the planner that owns pipelines subsequently built.
+   * Pipelines are stored with their planner's key so that a planner's
+   * pipelines can be rebuilt when only its configuration changed.
+   */
+  void setPlannerKey(String newPlannerKey) {
+    this.plannerKey = Preconditions.checkNotNull(newPlannerKey);
+  }
+
+  /** All pipelines built so far. */
+  ImmutableList<PipelineConstraint> getPipelines() {
+    return ImmutableList.copyOf(pipelineConstraints);
+  }
+
+  /** Adds a pipeline read from a stored plan graph. */
+  void addPipeline(
+      String pipelinePlannerKey,
+      Iterable<? extends FileExt> prerequisites,
+      Iterable<? extends ImmutableList<PlanGraphNode<?>>> nodes,
+      Iterable<? extends FileExt> postrequisites) {
+    pipelineConstraints.add(new PipelineConstraint(
+        pipelinePlannerKey, prerequisites, nodes, postrequisites));
+  }
+
 
   /**
    * A node that joins loosely coupled (in the software dependency sense)
@@ -225,14 +255,21 @@ public final class JoinNodes {
   }
 
   final class PipelineConstraint {
+    final String plannerKey;
+    final ImmutableSortedSet<FileExt> prerequisites;
     final Optional<JoinPlanGraphNode> preReqNode;
     final ImmutableList<ImmutableList<PlanGraphNode<?>>> layers;
+    final ImmutableSortedSet<FileExt> postrequisites;
     final Optional<JoinPlanGraphNode> postReqNode;
 
     PipelineConstraint(
+        String plannerKey,
         Iterable<? extends FileExt> prerequisites,
         Iterable<? extends ImmutableList<PlanGraphNode<?>>> nodes,
         Iterable<? extends FileExt> postrequisites) {
+      this.plannerKey = plannerKey;
+      this.prerequisites = ImmutableSortedSet.copyOf(prerequisites);
+      this.postrequisites = ImmutableSortedSet.copyOf(postrequisites);
       this.preReqNode = Iterables.isEmpty(prerequisites)
           ? Optional.<JoinPlanGraphNode>absent()
           : Optional.of(
@@ -348,6 +385,7 @@ public final class JoinNodes {
     @SuppressWarnings("synthetic-access")
     public void build() {
       JoinNodes.this.pipelineConstraints.add(new PipelineConstraint(
+          plannerKey,
           requires.build(),
           pipeline.build(),
           provides.build()));
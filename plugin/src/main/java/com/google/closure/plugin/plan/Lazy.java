@@ -0,0 +1,78 @@
+package com.google.closure.plugin.plan;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+
+/**
+ * A state vector value that, when loaded from a persisted plan graph, is not
+ * decoded until first needed.
+ * <p>
+ * Nodes whose inputs are unchanged, or whose previous state is ignored
+ * because the build is not incremental, never pay to decode it.
+ */
+public final class Lazy<T extends Serializable> implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private T value;
+  /** Non-null until decoded. */
+  private transient PlanGraphFormat.EncodedValue encoded;
+
+  private Lazy(T value, PlanGraphFormat.EncodedValue encoded) {
+    this.value = value;
+    this.encoded = encoded;
+  }
+
+  /** An already available value. */
+  public static <T extends Serializable> Lazy<T> of(T value) {
+    return new Lazy<>(Preconditions.checkNotNull(value), null);
+  }
+
+  /** An available absent value. */
+  public static <T> Lazy<Optional<T>> absent() {
+    return of(Optional.<T>absent());
+  }
+
+  static Lazy<?> fromEncoded(PlanGraphFormat.EncodedValue encoded) {
+    return new Lazy<>(null, Preconditions.checkNotNull(encoded));
+  }
+
+  /** The value, decoding it if necessary. */
+  public synchronized T get() {
+    if (encoded != null) {
+      Object decoded;
+      try {
+        decoded = encoded.decode();
+      } catch (IOException ex) {
+        throw new IllegalStateException("Failed to decode plan graph", ex);
+      }
+      @SuppressWarnings("unchecked")  // Encoded from a Lazy<T>.
+      T decodedValue = (T) decoded;
+      this.value = decodedValue;
+      this.encoded = null;
+    }
+    return value;
+  }
+
+  /**
+   * Replaces the value with its encoded form so that the decoded value can
+   * be collected.  It will be decoded again if needed.
+   */
+  synchronized void spill(PlanGraphFormat.EncodedValue encodedValue) {
+    this.encoded = Preconditions.checkNotNull(encodedValue);
+    this.value = null;
+  }
+
+  /** The encoded form if the value has not been decoded. */
+  synchronized Optional<PlanGraphFormat.EncodedValue> getEncoded() {
+    return Optional.fromNullable(encoded);
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    get();
+    out.defaultWriteObject();
+  }
+}
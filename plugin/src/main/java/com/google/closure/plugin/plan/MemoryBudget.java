@@ -0,0 +1,159 @@
+package com.google.closure.plugin.plan;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.maven.plugin.logging.Log;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Tracks the approximate size of the intermediate state that executed nodes
+ * retain for their followers and, once all of a node's followers have
+ * executed, releases that state.
+ * <p>
+ * A released node drops any caches it keeps and its {@link Lazy} values are
+ * spilled into the compact form used to store the plan graph so that the
+ * decoded objects can be collected.  Spilled values are decoded again if a
+ * later node or the next incremental build needs them, and are copied
+ * without decoding when the plan graph is stored.
+ * <p>
+ * The size of a node's state is approximated by the length of its encoded
+ * state vector.  Decoded objects use several times that, but the estimate
+ * suffices to compare nodes and to tell when the budget is exceeded.
+ */
+final class MemoryBudget {
+  private final Log log;
+  private final long budgetBytes;
+  private final PlanGraphFormat.StringTable table;
+
+  /**
+   * Guarded by this.  Count of followers that have not executed for each
+   * node that has not been released.
+   */
+  private final IdentityHashMap<PlanGraphNode<?>, Integer> pendingFollowers =
+      Maps.newIdentityHashMap();
+  /** Guarded by this.  Estimated size of state retained by each node. */
+  private final IdentityHashMap<PlanGraphNode<?>, Long> retainedBytes =
+      Maps.newIdentityHashMap();
+  /** Guarded by this. */
+  private long totalRetainedBytes;
+  /** Guarded by this. */
+  private long peakRetainedBytes;
+
+  /**
+   * @param table the string table against which state is spilled.
+   * @param executionOrder the nodes that will be executed.
+   */
+  MemoryBudget(
+      Log log, long budgetBytes, PlanGraphFormat.StringTable table,
+      Iterable<? extends PlanGraphNode<?>> executionOrder) {
+    this.log = log;
+    this.budgetBytes = budgetBytes;
+    this.table = table;
+    Set<PlanGraphNode<?>> toExecute = Sets.newIdentityHashSet();
+    for (PlanGraphNode<?> node : executionOrder) {
+      toExecute.add(node);
+    }
+    for (PlanGraphNode<?> node : toExecute) {
+      int count = 0;
+      for (PlanGraphNode<?> follower : node.getFollowerList()) {
+        // Nodes involved in cycles never execute.
+        if (toExecute.contains(follower)) {
+          ++count;
+        }
+      }
+      pendingFollowers.put(node, count);
+    }
+  }
+
+  /** True if executed nodes retain more state than the budget allows. */
+  synchronized boolean isOverBudget() {
+    return totalRetainedBytes > budgetBytes;
+  }
+
+  /** The most state retained at once by executed nodes. */
+  synchronized long getPeakRetainedBytes() {
+    return peakRetainedBytes;
+  }
+
+  /**
+   * Called after a node executes to account for the state it retains and to
+   * release any preceders that it was the last follower of.
+   */
+  void executed(
+      PlanGraphNode<?> node, Iterable<? extends PlanGraphNode<?>> preceders,
+      NodeProfile profile) {
+    long size = encodedSize(node, false);
+    List<PlanGraphNode<?>> consumed = Lists.newArrayList();
+    synchronized (this) {
+      retainedBytes.put(node, size);
+      totalRetainedBytes += size;
+      peakRetainedBytes = Math.max(peakRetainedBytes, totalRetainedBytes);
+      profile.recordRetained(size, totalRetainedBytes);
+      for (PlanGraphNode<?> preceder : preceders) {
+        if (followerExecuted(preceder)) {
+          consumed.add(preceder);
+        }
+      }
+      // Nodes without followers can be released immediately.
+      Integer pending = pendingFollowers.get(node);
+      if (pending != null && pending == 0) {
+        pendingFollowers.remove(node);
+        consumed.add(node);
+      }
+    }
+    for (PlanGraphNode<?> c : consumed) {
+      release(c);
+    }
+  }
+
+  /**
+   * Must be called while holding this's lock.
+   * @return true if node has no more followers to execute.
+   */
+  private boolean followerExecuted(PlanGraphNode<?> node) {
+    Integer pending = pendingFollowers.get(node);
+    if (pending == null) { return false; }
+    if (pending > 1) {
+      pendingFollowers.put(node, pending - 1);
+      return false;
+    }
+    pendingFollowers.remove(node);
+    return true;
+  }
+
+  private void release(PlanGraphNode<?> node) {
+    log.debug("Releasing intermediate state of " + node);
+    node.releaseIntermediates();
+    encodedSize(node, true);
+    synchronized (this) {
+      Long size = retainedBytes.remove(node);
+      if (size != null) {
+        totalRetainedBytes -= size;
+      }
+    }
+  }
+
+  /**
+   * The length of the node's encoded state vector.
+   *
+   * @param spill true to spill the node's lazy values.
+   */
+  private long encodedSize(PlanGraphNode<?> node, boolean spill) {
+    // Encoders are cheap and not thread-safe, so each call gets its own
+    // while the string table is shared.
+    PlanGraphFormat.Encoder encoder = new PlanGraphFormat.Encoder(
+        table, false, spill);
+    try {
+      return encoder.encode(node.getStateVector()).bytes.length;
+    } catch (IOException ex) {
+      log.debug("Cannot estimate state retained by " + node, ex);
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,133 @@
+package com.google.closure.plugin.plan;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.closure.plugin.common.Identifiable;
+import com.google.closure.plugin.plan.BundlingPlanGraphNode.OptionsAndBundles;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * What one plan graph node would process during a build and why, as found
+ * by a {@linkplain PlanGraph#explain dry run}.
+ */
+public final class NodeExplanation {
+  /** Identifies the node within the explanation. */
+  public final String nodeName;
+  /** Expected time to execute the node, or -1 if unknown. */
+  final long estimatedNanos;
+  private final List<Map<String, Object>> updates = Lists.newArrayList();
+  private final List<String> triggers = Lists.newArrayList();
+  private String failure;
+
+  NodeExplanation(String nodeName, long estimatedNanos) {
+    this.nodeName = nodeName;
+    this.estimatedNanos = estimatedNanos;
+  }
+
+  /**
+   * Records how the node partitioned its inputs.
+   *
+   * @param label describes the kind of items, like "options" or "bundles".
+   */
+  public void addUpdate(String label, Update<?> update) {
+    Map<String, Object> json = Maps.newLinkedHashMap();
+    json.put("label", label);
+    json.put("changed", describeAll(update.changed));
+    json.put("unchanged", describeAll(update.unchanged));
+    json.put("defunct", describeAll(update.defunct));
+    updates.add(json);
+  }
+
+  /**
+   * Records a reason that the node would process inputs, like a file that
+   * changed since the last build.
+   */
+  public void addTrigger(String trigger) {
+    triggers.add(trigger);
+  }
+
+  void setFailure(Throwable th) {
+    this.failure = th.toString();
+  }
+
+  /** True if the node would process or clean up after some items. */
+  public boolean wouldProcess() {
+    for (Map<String, Object> u : updates) {
+      if (!((List<?>) u.get("changed")).isEmpty()
+          || !((List<?>) u.get("defunct")).isEmpty()) {
+        return true;
+      }
+    }
+    return !triggers.isEmpty();
+  }
+
+  /** A one line summary for the build log. */
+  String summary() {
+    StringBuilder sb = new StringBuilder(nodeName);
+    for (Map<String, Object> u : updates) {
+      sb.append(" ").append(u.get("label")).append(":")
+          .append(" changed=").append(((List<?>) u.get("changed")).size())
+          .append(" unchanged=").append(((List<?>) u.get("unchanged")).size())
+          .append(" defunct=").append(((List<?>) u.get("defunct")).size());
+    }
+    if (estimatedNanos >= 0) {
+      sb.append(" est=")
+          .append(TimeUnit.NANOSECONDS.toMillis(estimatedNanos)).append("ms");
+    }
+    if (!triggers.isEmpty()) {
+      sb.append(" because ").append(Joiner.on("; ").join(triggers));
+    }
+    if (failure != null) {
+      sb.append(" failed: ").append(failure);
+    }
+    return sb.toString();
+  }
+
+  Map<String, Object> toJson() {
+    Map<String, Object> json = Maps.newLinkedHashMap();
+    json.put("node", nodeName);
+    json.put("wouldProcess", wouldProcess());
+    json.put(
+        "estimatedMicros",
+        estimatedNanos >= 0
+        ? TimeUnit.NANOSECONDS.toMicros(estimatedNanos) : -1L);
+    json.put("updates", updates);
+    json.put("triggers", triggers);
+    if (failure != null) {
+      json.put("failure", failure);
+    }
+    return json;
+  }
+
+  private static List<String> describeAll(
+      ImmutableList<? extends Serializable> items) {
+    List<String> descriptions = Lists.newArrayList();
+    for (Object item : items) {
+      descriptions.add(describe(item));
+    }
+    return descriptions;
+  }
+
+  private static String describe(Object item) {
+    if (item instanceof OptionsAndBundles<?, ?>) {
+      OptionsAndBundles<?, ?> ob = (OptionsAndBundles<?, ?>) item;
+      return ob.optionsAndInputs.getId()
+          + " (" + ob.bundles.size() + " bundles)";
+    }
+    if (item instanceof OptionPlanGraphNode.OptionsAndInputs<?>) {
+      OptionPlanGraphNode.OptionsAndInputs<?> oi =
+          (OptionPlanGraphNode.OptionsAndInputs<?>) item;
+      return oi.getId() + " (" + oi.sources.size() + " sources)";
+    }
+    if (item instanceof Identifiable) {
+      return ((Identifiable) item).getId();
+    }
+    return String.valueOf(item);
+  }
+}
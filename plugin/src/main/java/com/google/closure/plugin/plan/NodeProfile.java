@@ -0,0 +1,103 @@
+package com.google.closure.plugin.plan;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.closure.plugin.common.Sources.Source;
+import com.google.common.collect.Maps;
+
+/**
+ * Timings and workload for one plan graph node during one build.
+ */
+public final class NodeProfile {
+  /** Identifies the node within the profile. */
+  public final String nodeName;
+  long preExecuteNanos;
+  long filterUpdatesNanos;
+  long processNanos;
+  /** True once the node processed its inputs without failing. */
+  boolean completed;
+  private int inputCount;
+  private int bundleCount;
+  private int changedOutputCount;
+  /**
+   * The size of the inputs to changed bundles, whether they were compiled or
+   * restored from a build cache, not the bytes that the node actually read.
+   */
+  private long inputBytes;
+  private long bytesWritten;
+  private long retainedBytes;
+  private long peakRetainedBytes;
+
+  NodeProfile(String nodeName) {
+    this.nodeName = nodeName;
+  }
+
+  /** Time spent in all lifecycle phases. */
+  public long totalNanos() {
+    return preExecuteNanos + filterUpdatesNanos + processNanos;
+  }
+
+  /** Records that the node's changed bundles have the given inputs. */
+  public void addInputs(Iterable<? extends Source> inputs) {
+    for (Source input : inputs) {
+      ++inputCount;
+      inputBytes += input.canonicalPath.length();
+    }
+  }
+
+  /** Records that the node produced or consumed the given count of bundles. */
+  public void addBundles(int count) {
+    bundleCount += count;
+  }
+
+  /** Records that the node wrote the given files. */
+  public void addOutputs(Iterable<? extends File> outputs) {
+    for (File output : outputs) {
+      ++changedOutputCount;
+      // Deleted outputs are changed but contribute no bytes.
+      bytesWritten += output.length();
+    }
+  }
+
+  /**
+   * Records the estimated size of the intermediate state that the node
+   * retains for its followers, and of that retained by all executed nodes
+   * once it finished.
+   */
+  void recordRetained(long bytes, long totalBytes) {
+    this.retainedBytes = bytes;
+    this.peakRetainedBytes = totalBytes;
+  }
+
+  /**
+   * The estimated size of the state retained by all executed nodes
+   * once this node finished, or zero if not tracked.
+   */
+  public long peakRetainedBytes() {
+    return peakRetainedBytes;
+  }
+
+  Map<String, Object> toJson() {
+    Map<String, Object> json = Maps.newLinkedHashMap();
+    json.put("node", nodeName);
+    json.put("preExecuteMicros", micros(preExecuteNanos));
+    json.put("filterUpdatesMicros", micros(filterUpdatesNanos));
+    json.put("processMicros", micros(processNanos));
+    json.put("totalMicros", micros(totalNanos()));
+    json.put("completed", completed);
+    json.put("inputs", inputCount);
+    json.put("bundles", bundleCount);
+    json.put("changedOutputs", changedOutputCount);
+    json.put("inputBytes", inputBytes);
+    json.put("bytesWritten", bytesWritten);
+    json.put("retainedBytes", retainedBytes);
+    json.put("peakRetainedBytes", peakRetainedBytes);
+    return json;
+  }
+
+  private static long micros(long nanos) {
+    return TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+}
@@ -16,6 +16,7 @@ import com.google.closure.plugin.common.Options;
 import com.google.closure.plugin.common.SourceOptions;
 import com.google.closure.plugin.common.Sources;
 import com.google.closure.plugin.common.Sources.Source;
+import com.google.closure.plugin.common.StructuralHash;
 import com.google.closure.plugin.common.StructurallyComparable;
 import com.google.closure.plugin.common.TypedFile;
 import com.google.common.base.Optional;
@@ -41,7 +42,10 @@ O extends Serializable & StructurallyComparable & Identifiable>
 extends PlanGraphNode<OptionPlanGraphNode.OptionStateVector<O>> {
 
   private final List<O> optionSets = Lists.newArrayList();
-  private Optional<Update<OptionsAndInputs<O>>> updates = Optional.absent();
+  private Lazy<Optional<Update<OptionsAndInputs<O>>>> updates =
+      Lazy.absent();
+  /** Why the last {@link #filterUpdates} found changes. */
+  private final List<String> updateTriggers = Lists.newArrayList();
 
   protected OptionPlanGraphNode(PlanContext context) {
     super(context);
@@ -69,7 +73,7 @@ extends PlanGraphNode<OptionPlanGraphNode.OptionStateVector<O>> {
    * These are considered changed when the input file set has changes.
    */
   public Optional<Update<OptionsAndInputs<O>>> getUpdates() {
-    return updates;
+    return updates.get();
   }
 
   /** Does nothing by default since preceders are typically just join nodes. */
@@ -104,21 +108,33 @@ extends PlanGraphNode<OptionPlanGraphNode.OptionStateVector<O>> {
     ImmutableList.Builder<OptionsAndInputs<O>> defunct =
         ImmutableList.builder();
 
-    Map<O, OptionsAndInputs<O>> optionsToInputs = Maps.newLinkedHashMap();
-    boolean isIncremental = context.buildContext.isIncremental();
-    if (isIncremental && this.updates.isPresent()) {
+    // Keyed by structural hash which is cached for prepared options.
+    Map<Hash, OptionsAndInputs<O>> optionsToInputs = Maps.newLinkedHashMap();
+    // A dirty node may have missed file-system changes so rescans.
+    boolean isIncremental =
+        context.buildContext.isIncremental() && !isDirty();
+    updateTriggers.clear();
+    if (!context.buildContext.isIncremental()) {
+      updateTriggers.add("the build is not incremental");
+    }
+    Optional<Update<OptionsAndInputs<O>>> previous =
+        isIncremental
+        ? this.updates.get()
+        : Optional.<Update<OptionsAndInputs<O>>>absent();
+    if (previous.isPresent()) {
       for (OptionsAndInputs<O> old : (
           ImmutableList.<OptionsAndInputs<O>>builder()
-          .addAll(updates.get().unchanged)
-          .addAll(updates.get().changed)
+          .addAll(previous.get().unchanged)
+          .addAll(previous.get().changed)
           .build())) {
-        optionsToInputs.put(old.options, old);
+        optionsToInputs.put(StructuralHash.ofOptions(old.options), old);
       }
     }
 
     for (O options : this.optionSets) {
       DirectoryScannerSpec spec = getScannerSpecForOptions(options);
-      OptionsAndInputs<O> old = optionsToInputs.remove(options);
+      OptionsAndInputs<O> old = optionsToInputs.remove(
+          StructuralHash.ofOptions(options));
       boolean specChanged = false;
       if (old != null) {  // Implies incremental
         BuildContext buildContext = context.buildContext;
@@ -127,21 +143,28 @@ extends PlanGraphNode<OptionPlanGraphNode.OptionStateVector<O>> {
               buildContext.newScanner(root.f, false), root.ps);
           if (!changedFiles.isEmpty()) {
             specChanged = true;
+            addTriggers(options, "changed", changedFiles);
           }
           if (!specChanged) {
             ImmutableList<Source> deletedFiles = spec.scan(
                 buildContext.newDeleteScanner(root.f), root.ps);
             if (!deletedFiles.isEmpty()) {
               specChanged = true;
+              addTriggers(options, "deleted", deletedFiles);
             }
           }
           if (specChanged) { break; }
         }
       } else {
         specChanged = true;  // conservatively
+        if (isIncremental) {
+          updateTriggers.add(
+              options.getId() + " options are new or changed");
+        }
       }
       if (specChanged) {
-        Sources sources = Sources.scan(context.log, spec);
+        Sources sources = Sources.scan(
+            context.log, spec, context.parallelism);
         changed.add(new OptionsAndInputs<>(options, sources.sources));
       } else {
         unchanged.add(Preconditions.checkNotNull(old));
@@ -150,10 +173,29 @@ extends PlanGraphNode<OptionPlanGraphNode.OptionStateVector<O>> {
 
     defunct.addAll(optionsToInputs.values());
 
-    this.updates = Optional.of(new Update<>(
+    this.updates = Lazy.of(Optional.of(new Update<>(
         unchanged.build(),
         changed.build(),
-        defunct.build()));
+        defunct.build())));
+  }
+
+  private void addTriggers(
+      O options, String verb, Iterable<? extends Source> files) {
+    for (Source file : files) {
+      updateTriggers.add(
+          options.getId() + " " + verb + " " + file.canonicalPath);
+    }
+  }
+
+  @Override
+  protected void explainUpdates(NodeExplanation explanation) {
+    Optional<Update<OptionsAndInputs<O>>> u = updates.get();
+    if (u.isPresent()) {
+      explanation.addUpdate("options", u.get());
+    }
+    for (String trigger : updateTriggers) {
+      explanation.addTrigger(trigger);
+    }
   }
 
   /**
@@ -164,6 +206,17 @@ extends PlanGraphNode<OptionPlanGraphNode.OptionStateVector<O>> {
     return ImmutableList.of();
   }
 
+  /** Records the sources found for changed options. */
+  @Override
+  protected void recordWorkload(NodeProfile profile) {
+    Optional<Update<OptionsAndInputs<O>>> u = updates.get();
+    if (u.isPresent()) {
+      for (OptionsAndInputs<O> oi : u.get().changed) {
+        profile.addInputs(oi.sources);
+      }
+    }
+  }
+
   /**
    * A state vector that contains one or more sets of options.
    */
@@ -177,7 +230,7 @@ extends PlanGraphNode<OptionPlanGraphNode.OptionStateVector<O>> {
     /** The option sets that are fanned-out to followers. */
     final ImmutableList<O> optionSets;
 
-    final Optional<Update<OptionsAndInputs<O>>> updates;
+    final Lazy<Optional<Update<OptionsAndInputs<O>>>> updates;
 
     protected OptionStateVector(OptionPlanGraphNode<O> node) {
       this.optionSets = ImmutableList.copyOf(node.optionSets);
@@ -204,6 +257,9 @@ extends PlanGraphNode<OptionPlanGraphNode.OptionStateVector<O>> {
     /** Sources for the compile specified by options. */
     public final ImmutableList<Source> sources;
 
+    /** Cached since options and sources are not mutated once bundled. */
+    private transient int hashCode;
+
     OptionsAndInputs(O options, Iterable<? extends Source> sources) {
       this.options = options;
       this.sources = ImmutableList.copyOf(sources);
@@ -216,11 +272,16 @@ extends PlanGraphNode<OptionPlanGraphNode.OptionStateVector<O>> {
 
     @Override
     public int hashCode() {
-      final int prime = 31;
-      int result = 1;
-      result = prime * result + ((options == null) ? 0 : options.hashCode());
-      result = prime * result + ((sources == null) ? 0 : sources.hashCode());
-      return result;
+      int h = hashCode;
+      if (h == 0) {
+        final int prime = 31;
+        h = 1;
+        h = prime * h + ((options == null)
+            ? 0 : StructuralHash.ofOptions(options).hashCode());
+        h = prime * h + ((sources == null) ? 0 : sources.hashCode());
+        hashCode = h;
+      }
+      return h;
     }
 
     @Override
@@ -235,11 +296,15 @@ extends PlanGraphNode<OptionPlanGraphNode.OptionStateVector<O>> {
         return false;
       }
       OptionsAndInputs<?> other = (OptionsAndInputs<?>) obj;
+      if (hashCode() != other.hashCode()) {
+        return false;
+      }
       if (options == null) {
         if (other.options != null) {
           return false;
         }
-      } else if (!options.equals(other.options)) {
+      } else if (!StructuralHash.ofOptions(options).equals(
+                     StructuralHash.ofOptions(other.options))) {
         return false;
       }
       if (sources == null) {
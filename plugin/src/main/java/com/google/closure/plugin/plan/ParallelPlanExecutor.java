@@ -0,0 +1,257 @@
+package com.google.closure.plugin.plan;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Executes plan graph nodes on a work-stealing pool, dispatching each node as
+ * soon as all of its preceders have completed and a worker is free.
+ * When more nodes are ready than there are workers, those on the longest
+ * remaining path, as estimated from earlier builds, go first.
+ * When executed nodes retain more state than a {@link MemoryBudget} allows,
+ * nodes are dispatched one at a time until enough state has been released.
+ * <p>
+ * Changed output files are reported in the same order that a serial execution
+ * would report them, so the build context sees a deterministic sequence of
+ * refreshes regardless of thread scheduling.
+ * <p>
+ * A failure in one branch does not prevent independent branches from running
+ * to completion; followers of a failed node are skipped, and all failures are
+ * reported once no more nodes can run.
+ */
+final class ParallelPlanExecutor {
+  private final PlanContext context;
+  private final PlanGraph.ReverseAdjacencyMap reverse;
+  /** A topological order used to index nodes and order outputs. */
+  private final ImmutableList<PlanGraphNode<?>> executionOrder;
+  private final IdentityHashMap<PlanGraphNode<?>, Integer> nodeToIndex;
+  private final PlanProfile profile;
+  private final Optional<MemoryBudget> memoryBudget;
+  private final Optional<PlanGraphJournal> journal;
+  private final ForkJoinPool pool;
+
+  /** Guarded by this.  Count of preceders that have not completed. */
+  private final int[] unsatCount;
+  /** Guarded by this.  True for nodes downstream of a failure. */
+  private final boolean[] blocked;
+  /** Guarded by this.  Changed outputs of nodes that completed normally. */
+  private final List<List<File>> changedOutputsByIndex;
+  /** Guarded by this.  The failure, if any, of each node. */
+  private final Throwable[] failures;
+  /** Guarded by this.  The count of nodes that have not completed. */
+  private int nRemaining;
+  /** Guarded by this.  Indices of nodes waiting for a free worker. */
+  private final PriorityQueue<Integer> ready;
+  /** Guarded by this.  The count of nodes dispatched to the pool. */
+  private int nRunning;
+  private final int maxRunning;
+
+  ParallelPlanExecutor(
+      PlanContext context, PlanGraph.ReverseAdjacencyMap reverse,
+      ImmutableList<PlanGraphNode<?>> executionOrder,
+      Map<PlanGraphNode<?>, Long> remainingPathNanos,
+      PlanProfile profile, Optional<MemoryBudget> memoryBudget,
+      Optional<PlanGraphJournal> journal) {
+    this.context = context;
+    this.profile = profile;
+    this.memoryBudget = memoryBudget;
+    this.journal = journal;
+    this.reverse = reverse;
+    this.executionOrder = executionOrder;
+    int n = executionOrder.size();
+    this.nodeToIndex = Maps.newIdentityHashMap();
+    for (int i = 0; i < n; ++i) {
+      nodeToIndex.put(executionOrder.get(i), i);
+    }
+    this.unsatCount = new int[n];
+    for (PlanGraphNode<?> node : executionOrder) {
+      for (PlanGraphNode<?> follower : node.getFollowerList()) {
+        Integer followerIndex = nodeToIndex.get(follower);
+        // Nodes involved in cycles never make it into the execution order.
+        if (followerIndex != null) {
+          ++unsatCount[followerIndex];
+        }
+      }
+    }
+    this.blocked = new boolean[n];
+    this.changedOutputsByIndex = Lists.newArrayList();
+    for (int i = 0; i < n; ++i) {
+      changedOutputsByIndex.add(null);
+    }
+    this.failures = new Throwable[n];
+    this.nRemaining = n;
+    final long[] priority = new long[n];
+    for (int i = 0; i < n; ++i) {
+      Long nanos = remainingPathNanos.get(executionOrder.get(i));
+      priority[i] = nanos != null ? nanos : 0L;
+    }
+    this.ready = new PriorityQueue<>(
+        Math.max(1, n),
+        new Comparator<Integer>() {
+          @Override
+          public int compare(Integer a, Integer b) {
+            int ai = a, bi = b;
+            if (priority[ai] != priority[bi]) {
+              return priority[ai] > priority[bi] ? -1 : 1;
+            }
+            return Integer.compare(ai, bi);
+          }
+        });
+    this.maxRunning = Math.max(1, context.parallelism);
+    this.pool = new ForkJoinPool(maxRunning);
+  }
+
+  /**
+   * Executes all nodes, blocking until no more can make progress.
+   *
+   * @param changedOutputs receives changed output files in execution order.
+   *     This happens even when execution fails so that the build context
+   *     does not lose track of changes made before the failure.
+   */
+  void execute(Collection<? super File> changedOutputs)
+  throws IOException, MojoExecutionException {
+    try {
+      synchronized (this) {
+        for (int i = 0, n = executionOrder.size(); i < n; ++i) {
+          if (unsatCount[i] == 0) {
+            ready.add(i);
+          }
+        }
+        dispatchReady();
+        while (nRemaining != 0) {
+          this.wait();
+        }
+      }
+    } catch (InterruptedException ex) {
+      throw new MojoExecutionException("Plan execution interrupted", ex);
+    } finally {
+      pool.shutdownNow();
+      synchronized (this) {
+        for (List<File> changed : changedOutputsByIndex) {
+          if (changed != null) {
+            changedOutputs.addAll(changed);
+          }
+        }
+      }
+    }
+    rethrowFailures();
+  }
+
+  /**
+   * Dispatches ready nodes while there are free workers and, if there is a
+   * memory budget, while it is not exceeded.
+   * Must be called while holding this's lock.
+   */
+  private void dispatchReady() {
+    while (nRunning < maxRunning && !ready.isEmpty()) {
+      // Running one node at a time guarantees progress.
+      if (nRunning != 0 && memoryBudget.isPresent()
+          && memoryBudget.get().isOverBudget()) {
+        break;
+      }
+      final int next = ready.poll();
+      ++nRunning;
+      pool.execute(new Runnable() {
+        @SuppressWarnings("synthetic-access")
+        @Override
+        public void run() {
+          runNode(next);
+        }
+      });
+    }
+  }
+
+  private void runNode(int index) {
+    PlanGraphNode<?> node = executionOrder.get(index);
+    List<File> changed = Lists.newArrayList();
+    Throwable failure = null;
+    try {
+      PlanGraph.executeNode(
+          context, node, reverse.getPreceders(node), profile, memoryBudget,
+          journal, changed);
+    } catch (Throwable th) {  // Reported once all branches complete.
+      failure = th;
+    }
+    synchronized (this) {
+      --nRunning;
+      completed(index, failure == null ? changed : null, failure);
+      dispatchReady();
+    }
+  }
+
+  private synchronized void completed(
+      int index, List<File> changed, Throwable failure) {
+    PlanGraphNode<?> node = executionOrder.get(index);
+    changedOutputsByIndex.set(index, changed);
+    failures[index] = failure;
+    boolean blockFollowers = failure != null || blocked[index];
+    for (PlanGraphNode<?> follower : node.getFollowerList()) {
+      Integer followerIndex = nodeToIndex.get(follower);
+      if (followerIndex == null) { continue; }
+      int fi = followerIndex;
+      if (blockFollowers) {
+        blocked[fi] = true;
+      }
+      Preconditions.checkState(unsatCount[fi] > 0);
+      if (--unsatCount[fi] == 0) {
+        if (blocked[fi]) {
+          context.log.debug(
+              "Skipping " + follower + " since a preceding step failed");
+          completed(fi, null, null);
+        } else {
+          ready.add(fi);
+        }
+      }
+    }
+    --nRemaining;
+    if (nRemaining == 0) {
+      this.notifyAll();
+    }
+  }
+
+  private void rethrowFailures() throws IOException, MojoExecutionException {
+    Throwable first = null;
+    for (int i = 0, n = failures.length; i < n; ++i) {
+      Throwable failure;
+      synchronized (this) {
+        failure = failures[i];
+      }
+      if (failure == null) { continue; }
+      if (first == null) {
+        first = failure;
+      } else {
+        context.log.error(
+            "Build step " + executionOrder.get(i) + " also failed", failure);
+        first.addSuppressed(failure);
+      }
+    }
+    if (first == null) {
+      return;
+    }
+    if (first instanceof IOException) {
+      throw (IOException) first;
+    } else if (first instanceof MojoExecutionException) {
+      throw (MojoExecutionException) first;
+    } else if (first instanceof RuntimeException) {
+      throw (RuntimeException) first;
+    } else if (first instanceof Error) {
+      throw (Error) first;
+    }
+    throw new MojoExecutionException("Closure plan execution failed", first);
+  }
+}
@@ -7,12 +7,14 @@ import org.apache.maven.plugin.descriptor.PluginDescriptor;
 import org.apache.maven.plugin.logging.Log;
 import org.sonatype.plexus.build.incremental.BuildContext;
 
+import com.google.closure.plugin.cache.BuildCache;
 import com.google.closure.plugin.common.FileExt;
 import com.google.closure.plugin.common.GenfilesDirs;
 import com.google.closure.plugin.common.ProcessRunner;
 import com.google.closure.plugin.common.SrcfilesDirs;
 import com.google.closure.plugin.common.StableCssSubstitutionMapProvider;
 import com.google.closure.plugin.proto.ProtoIO;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 
 /** Common context that might change from build to build. */
@@ -21,7 +23,10 @@ public final class PlanContext {
   public final ProcessRunner processRunner;
   /** Describes the build plugin which bundles critical dependencies. */
   public final PluginDescriptor pluginDescriptor;
-  /** Determines which files need to be rebuilt. */
+  /**
+   * Determines which files need to be rebuilt.
+   * Calls are serialized when nodes may execute concurrently.
+   */
   public final BuildContext buildContext;
   /** Sink for informational messages. */
   public final Log log;
@@ -39,6 +44,33 @@ public final class PlanContext {
   public final File closureOutputDirectory;
   /** The common CSS identifier substitution map provider. */
   public final StableCssSubstitutionMapProvider substitutionMapProvider;
+  /**
+   * The maximum number of plan graph nodes that may execute concurrently.
+   * One or less means nodes execute one at a time on the calling thread.
+   */
+  public final int parallelism;
+  /**
+   * The approximate size in bytes of the intermediate state that executed
+   * nodes may retain for their followers before execution is throttled.
+   * When positive, state is released as soon as all followers of a node have
+   * executed.  Zero or less means state is neither tracked nor released.
+   */
+  public final long memoryBudgetBytes;
+  /**
+   * The approximate heap in bytes needed by one JS compilation.
+   * Independent JS compilations run concurrently, but no more than fit in
+   * the maximum heap at this size each.  Zero or less means only the number
+   * of cores limits concurrent compilations.
+   */
+  public final long heapPerCompileBytes;
+  /** Stores compiler outputs so identical compilations can be skipped. */
+  public final Optional<BuildCache> buildCache;
+  /** Avoids rereading files whose stat has not changed since last hashed. */
+  public final FileStatCache statCache;
+  /**
+   * Results shared with the other modules built in the same Maven session.
+   */
+  public final SessionCache sessionCache;
   /**
    * Communicates location of protoc output files
    * to generated proto message consumers.
@@ -57,10 +89,18 @@ public final class PlanContext {
       File outputDir,
       File projectBuildOutputDirectory,
       File closureOutputDirectory,
-      StableCssSubstitutionMapProvider substitutionMapProvider) {
+      StableCssSubstitutionMapProvider substitutionMapProvider,
+      int parallelism,
+      long memoryBudgetBytes,
+      long heapPerCompileBytes,
+      Optional<BuildCache> buildCache,
+      FileStatCache statCache,
+      SessionCache sessionCache) {
     this.processRunner = processRunner;
     this.pluginDescriptor = pluginDescriptor;
-    this.buildContext = buildContext;
+    this.buildContext = parallelism > 1
+        ? new SynchronizedBuildContext(buildContext)
+        : buildContext;
     this.log = log;
     this.srcfilesDirs = srcfilesDirs;
     this.genfilesDirs = genfilesDirs;
@@ -69,6 +109,12 @@ public final class PlanContext {
     this.projectBuildOutputDirectory = projectBuildOutputDirectory;
     this.closureOutputDirectory = closureOutputDirectory;
     this.substitutionMapProvider = substitutionMapProvider;
+    this.parallelism = parallelism;
+    this.memoryBudgetBytes = memoryBudgetBytes;
+    this.heapPerCompileBytes = heapPerCompileBytes;
+    this.buildCache = buildCache;
+    this.statCache = statCache;
+    this.sessionCache = sessionCache;
   }
 
   /** The output directory for files with the given extension. */
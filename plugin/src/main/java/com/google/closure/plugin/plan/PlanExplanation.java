@@ -0,0 +1,85 @@
+package com.google.closure.plugin.plan;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.logging.Log;
+import org.json.simple.JSONValue;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+/**
+ * Explains what a build would do and why, so that builds which are less
+ * incremental than expected can be diagnosed.
+ */
+public final class PlanExplanation {
+  /** For each planner, why it was replanned or that its plan was reused. */
+  public final ImmutableMap<String, String> planners;
+  /** Explanations for nodes in execution order. */
+  public final ImmutableList<NodeExplanation> nodes;
+
+  PlanExplanation(
+      Map<String, String> planners, Iterable<NodeExplanation> nodes) {
+    this.planners = ImmutableMap.copyOf(planners);
+    this.nodes = ImmutableList.copyOf(nodes);
+  }
+
+  /** The expected time to execute the nodes that would process inputs. */
+  public long estimatedNanos() {
+    long total = 0;
+    for (NodeExplanation node : nodes) {
+      if (node.wouldProcess() && node.estimatedNanos > 0) {
+        total += node.estimatedNanos;
+      }
+    }
+    return total;
+  }
+
+  /** Logs a summary with one line per planner and per node. */
+  public void log(Log log) {
+    for (Map.Entry<String, String> e : planners.entrySet()) {
+      log.info("Planner " + e.getKey() + ": " + e.getValue());
+    }
+    int nWouldProcess = 0;
+    for (NodeExplanation node : nodes) {
+      if (node.wouldProcess()) {
+        ++nWouldProcess;
+        log.info("Would process " + node.summary());
+      } else {
+        log.debug("Up-to-date " + node.summary());
+      }
+    }
+    log.info(
+        nWouldProcess + " of " + nodes.size() + " build steps would run"
+        + " taking about "
+        + TimeUnit.NANOSECONDS.toMillis(estimatedNanos()) + "ms");
+  }
+
+  /** Writes the explanation as JSON. */
+  public void writeJson(File out) throws IOException {
+    List<Object> nodeJson = Lists.newArrayList();
+    for (NodeExplanation node : nodes) {
+      nodeJson.add(node.toJson());
+    }
+    Map<String, Object> json = Maps.newLinkedHashMap();
+    json.put("version", 1);
+    json.put("planners", planners);
+    json.put(
+        "estimatedMicros", TimeUnit.NANOSECONDS.toMicros(estimatedNanos()));
+    json.put("nodes", nodeJson);
+    Files.createParentDirs(out);
+    try (Writer w = Files.asCharSink(out, Charsets.UTF_8)
+            .openBufferedStream()) {
+      JSONValue.writeJSONString(json, w);
+    }
+  }
+}
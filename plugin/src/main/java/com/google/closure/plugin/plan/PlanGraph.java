@@ -1,24 +1,31 @@
 package com.google.closure.plugin.plan;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
 import java.io.Writer;
-import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Deque;
 import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.maven.plugin.MojoExecutionException;
 
+import com.google.closure.plugin.common.FileExt;
 import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -35,6 +42,50 @@ public final class PlanGraph {
   final JoinNodes joinNodes;
   final PlanContext context;
   final Set<PlanGraphNode<?>> roots = Sets.newIdentityHashSet();
+  final PlanProfile profile = new PlanProfile();
+  /**
+   * The string table read with the graph or against which node state was
+   * spilled, if any.
+   */
+  private PlanGraphFormat.StringTable stringTable;
+  /** Configuration hashes of planners that have been started. */
+  private final Map<String, Optional<Hash>> plannerHashes =
+      Maps.newLinkedHashMap();
+  /** Why each started planner was replanned or that its plan was reused. */
+  private final Map<String, String> plannerOutcomes = Maps.newLinkedHashMap();
+  /** Pipelines read with the graph that have not yet been reused. */
+  private final Map<String, StoredPlanner> storedPlanners =
+      Maps.newLinkedHashMap();
+  /** State vectors of nodes read with the graph. */
+  private byte[][] encodedStoredNodes;
+  /**
+   * Nodes reconstituted from {@link #encodedStoredNodes}, or the nodes last
+   * written, by their index in the stored form.
+   */
+  private PlanGraphNode<?>[] storedNodes;
+  /**
+   * Durations read with the graph by stored node index, or -1 where
+   * unknown.
+   */
+  private long[] storedNodeNanos;
+  /**
+   * Whether each stored node was {@linkplain PlanGraphNode#isDirty dirty}
+   * by stored node index.
+   */
+  private boolean[] storedNodeDirty;
+  /**
+   * How long nodes took in earlier builds, smoothed across builds.
+   * Used to start nodes on the longest remaining path first.
+   */
+  private final IdentityHashMap<PlanGraphNode<?>, Long> observedNanos =
+      Maps.newIdentityHashMap();
+  /**
+   * Identifies the stored form last read or written so that a journal of
+   * changes to it is not applied to any other.
+   */
+  private long generation;
+  /** Records the state of nodes as they complete, if any. */
+  private Optional<PlanGraphJournal> journal = Optional.absent();
 
   /**
    * @param context must have a blank join nodes.
@@ -49,76 +100,396 @@ public final class PlanGraph {
     return context;
   }
 
+  /** Timings for nodes executed by {@link #execute}. */
+  public PlanProfile getProfile() {
+    return profile;
+  }
+
   /** The join nodes for this graph's nodes. */
   public JoinNodes getJoinNodes() {
     return joinNodes;
   }
 
   /**
-   * Reads state-vectors and reconstitutes them.
+   * Sets the journal that {@link #execute} appends the state of each node
+   * to as it completes, so that a failed build does not lose the work of
+   * nodes that succeeded.
    */
-  public void readFrom(ObjectInputStream in)
-  throws IOException {
-    Object read;
+  public void setJournal(PlanGraphJournal journal) {
+    this.journal = Optional.of(journal);
+  }
+
+  /**
+   * Called before a planner adds its pipelines to this graph.
+   *
+   * @param plannerKey identifies the planner.
+   * @param configHash a hash of the options and artifacts that the planner
+   *     consumes, or absent if they could not be hashed in which case the
+   *     planner's pipelines are neither reused nor stored.
+   * @return true if the planner needs to add its pipelines, or false if
+   *     pipelines {@linkplain #readFrom read} from a stored graph that were
+   *     planned with the same configuration have been added instead.
+   */
+  public boolean startPlanner(String plannerKey, Optional<Hash> configHash) {
+    Preconditions.checkState(
+        !plannerHashes.containsKey(plannerKey), plannerKey);
+    plannerHashes.put(plannerKey, configHash);
+    joinNodes.setPlannerKey(plannerKey);
+
+    StoredPlanner stored = storedPlanners.remove(plannerKey);
+    if (stored == null) {
+      plannerOutcomes.put(plannerKey, "replanned: no stored plan");
+      return true;
+    }
+    if (!configHash.isPresent()) {
+      plannerOutcomes.put(
+          plannerKey, "replanned: configuration could not be hashed");
+      return true;
+    }
+    if (!stored.configHash.equals(configHash.get())) {
+      context.log.info(
+          "Configuration for " + plannerKey + " changed.  Replanning.");
+      plannerOutcomes.put(
+          plannerKey,
+          "replanned: configuration hash changed from " + stored.configHash
+          + " to " + configHash.get());
+      return true;
+    }
+    List<ImmutableList<ImmutableList<PlanGraphNode<?>>>> layersPerPipeline =
+        Lists.newArrayList();
     try {
-      read = in.readObject();
-    } catch (ClassNotFoundException ex) {
-      throw new IOException("Failed to deserialize plan graph", ex);
-    }
-    @SuppressWarnings("unchecked")  // We walk the list so will find any faults.
-    ImmutableList<SerialNode> serialNodes = (ImmutableList<SerialNode>) read;
-    int n = serialNodes.size();
-    PlanGraphNode<?>[] unpacked = new PlanGraphNode<?>[n];
-    for (int i = 0; i < n; ++i) {
-      SerialNode sn = serialNodes.get(i);
-      unpacked[i] = sn.sv.reconstitute(context, joinNodes);
-    }
-    // Double check that all the non-root nodes have an incoming edge.
-    int[] nIncoming = new int[n];
-    // Now that we've created the nodes, link them.
-    for (int i = 0; i < n; ++i) {
-      SerialNode sn = serialNodes.get(i);
-      PlanGraphNode<?> pn = unpacked[i];
-      for (int followerIndex : sn.followers) {
-        // Cycles could happen here.
-        pn.addFollower(unpacked[followerIndex]);
-        ++nIncoming[followerIndex];
-      }
-    }
-    // Make sure roots are recognized as such.
-    for (int i = 0; i < n; ++i) {
-      SerialNode sn = serialNodes.get(i);
-      PlanGraphNode<?> pn = unpacked[i];
-      if (sn.isRoot) {
-        this.roots.add(pn);
-      } else if (nIncoming[i] == 0 && !isEffectiveRoot(pn)) {
-        throw new IllegalStateException(
-            pn + " has no incoming edges and is not a root");
+      for (StoredPipeline p : stored.pipelines) {
+        ImmutableList.Builder<ImmutableList<PlanGraphNode<?>>> layers =
+            ImmutableList.builder();
+        for (int[] layer : p.layers) {
+          ImmutableList.Builder<PlanGraphNode<?>> nodes =
+              ImmutableList.builder();
+          for (int nodeIndex : layer) {
+            nodes.add(storedNode(nodeIndex));
+          }
+          layers.add(nodes.build());
+        }
+        layersPerPipeline.add(layers.build());
+      }
+    } catch (IOException ex) {
+      context.log.warn(
+          "Failed to reconstitute stored plan for " + plannerKey, ex);
+      plannerOutcomes.put(
+          plannerKey, "replanned: failed to reconstitute stored plan");
+      return true;
+    }
+    for (int i = 0, n = stored.pipelines.size(); i < n; ++i) {
+      StoredPipeline p = stored.pipelines.get(i);
+      joinNodes.addPipeline(
+          plannerKey, p.prerequisites, layersPerPipeline.get(i),
+          p.postrequisites);
+    }
+    context.log.debug("Reusing stored plan for " + plannerKey);
+    plannerOutcomes.put(plannerKey, "reused stored plan");
+    return false;
+  }
+
+  private PlanGraphNode<?> storedNode(int index) throws IOException {
+    PlanGraphNode<?> node = storedNodes[index];
+    if (node == null) {
+      PlanGraphNode.StateVector sv;
+      try (ObjectInputStream svIn = new PlanGraphFormat.DecodingStream(
+               new ByteArrayInputStream(encodedStoredNodes[index]),
+               stringTable)) {
+        sv = (PlanGraphNode.StateVector) svIn.readObject();
+      } catch (ClassNotFoundException | ClassCastException ex) {
+        throw new IOException("Failed to deserialize plan graph", ex);
+      }
+      node = storedNodes[index] = sv.reconstitute(context, joinNodes);
+      node.dirty = storedNodeDirty[index];
+      if (storedNodeNanos[index] >= 0) {
+        observedNanos.put(node, storedNodeNanos[index]);
+      }
+    }
+    return node;
+  }
+
+  /**
+   * Reads each planner's configuration hash and pipelines.
+   * A planner's nodes are only reconstituted when
+   * {@link #startPlanner} finds that its configuration is unchanged.
+   *
+   * @param in positioned after the header.
+   * @see PlanGraphFormat#readHeader
+   */
+  public void readFrom(DataInput in)
+  throws IOException {
+    long storedGeneration = in.readLong();
+    PlanGraphFormat.StringTable table = PlanGraphFormat.StringTable.read(in);
+    int nNodes = in.readInt();
+    byte[][] encoded = new byte[nNodes][];
+    long[] nodeNanos = new long[nNodes];
+    boolean[] nodeDirty = new boolean[nNodes];
+    for (int i = 0; i < nNodes; ++i) {
+      encoded[i] = PlanGraphFormat.readBytes(in);
+      nodeNanos[i] = in.readLong();
+      nodeDirty[i] = in.readBoolean();
+    }
+    Map<String, StoredPlanner> planners = Maps.newLinkedHashMap();
+    for (int i = 0, nPlanners = in.readInt(); i < nPlanners; ++i) {
+      String plannerKey = in.readUTF();
+      Hash configHash = new Hash(PlanGraphFormat.readBytes(in));
+      ImmutableList.Builder<StoredPipeline> pipelines =
+          ImmutableList.builder();
+      for (int j = 0, nPipelines = in.readInt(); j < nPipelines; ++j) {
+        ImmutableSortedSet<FileExt> prerequisites = readExtensions(in);
+        int[][] layers = new int[in.readInt()][];
+        for (int k = 0; k < layers.length; ++k) {
+          layers[k] = new int[in.readInt()];
+          for (int m = 0; m < layers[k].length; ++m) {
+            int nodeIndex = in.readInt();
+            if (nodeIndex < 0 || nodeIndex >= nNodes) {
+              throw new IOException("Bad node index " + nodeIndex);
+            }
+            layers[k][m] = nodeIndex;
+          }
+        }
+        ImmutableSortedSet<FileExt> postrequisites = readExtensions(in);
+        pipelines.add(
+            new StoredPipeline(prerequisites, layers, postrequisites));
       }
+      planners.put(
+          plannerKey, new StoredPlanner(configHash, pipelines.build()));
     }
+    this.generation = storedGeneration;
+    this.stringTable = table;
+    this.encodedStoredNodes = encoded;
+    this.storedNodes = new PlanGraphNode<?>[nNodes];
+    this.storedNodeNanos = nodeNanos;
+    this.storedNodeDirty = nodeDirty;
+    this.storedPlanners.clear();
+    this.storedPlanners.putAll(planners);
   }
 
   /**
-   * Writes the graph to out.  The written form is independent of the
-   * {@link PlanContext}.
+   * Writes the pipelines of planners that were {@linkplain #startPlanner
+   * started} with a configuration hash to out.
+   * The written form is independent of the {@link PlanContext}.
    *
+   * @param out positioned after the header.
    * @see #readFrom
+   * @see PlanGraphFormat#writeHeader
+   */
+  public void writeTo(DataOutput out) throws IOException {
+    writeTo(
+        out,
+        ImmutableMap.<PlanGraphNode<?>, PlanGraphFormat.EncodedValue>of());
+  }
+
+  /**
+   * @param preEncoded state vectors of nodes that were encoded since they
+   *     last changed, as by a journal, which are reused when they were
+   *     encoded against the string table that is written.
    */
-  public void writeTo(ObjectOutputStream out) throws IOException {
-    IdentityHashMap<PlanGraphNode<?>, Integer> nodeToIndex = findAllNodes();
-    SerialNode[] serialNodes = new SerialNode[nodeToIndex.size()];
+  void writeTo(
+      DataOutput out,
+      Map<PlanGraphNode<?>, PlanGraphFormat.EncodedValue> preEncoded)
+  throws IOException {
+    List<JoinNodes.PipelineConstraint> pipelines = storedPipelines();
+    IdentityHashMap<PlanGraphNode<?>, Integer> nodeToIndex = storedLayout();
+    PlanGraphNode<?>[] nodes = new PlanGraphNode<?>[nodeToIndex.size()];
     for (Map.Entry<PlanGraphNode<?>, Integer> e : nodeToIndex.entrySet()) {
-      PlanGraphNode<?> node = e.getKey();
-      ImmutableList<PlanGraphNode<?>> followers = node.getFollowerList();
-      int[] followerIndices = new int[followers.size()];
-      for (int i = followerIndices.length; --i >= 0;) {
-        followerIndices[i] = nodeToIndex.get(followers.get(i));
+      nodes[e.getValue()] = e.getKey();
+    }
+
+    // Values that were never decoded since they were read are copied over
+    // as-is when they share a string table.
+    PlanGraphFormat.Encoder encoder = new PlanGraphFormat.Encoder(
+        stringTable != null ? stringTable : new PlanGraphFormat.StringTable(),
+        false);
+    byte[][] encodedStateVectors = encodeStateVectors(
+        nodes, encoder, preEncoded);
+    if (encoder.shouldCompact()) {
+      encoder = new PlanGraphFormat.Encoder(
+          new PlanGraphFormat.StringTable(), true);
+      encodedStateVectors = encodeStateVectors(
+          nodes, encoder,
+          ImmutableMap.<PlanGraphNode<?>, PlanGraphFormat.EncodedValue>of());
+    }
+
+    // A journal started against what was last read or written must not be
+    // applied to this.
+    long newGeneration = ThreadLocalRandom.current().nextLong();
+    out.writeLong(newGeneration);
+    encoder.table.write(out);
+    out.writeInt(nodes.length);
+    for (int i = 0; i < nodes.length; ++i) {
+      PlanGraphFormat.writeBytes(out, encodedStateVectors[i]);
+      Long nanos = observedNanos.get(nodes[i]);
+      out.writeLong(nanos != null ? nanos : -1L);
+      out.writeBoolean(nodes[i].dirty);
+    }
+
+    int nPlanners = 0;
+    for (Optional<Hash> configHash : plannerHashes.values()) {
+      if (configHash.isPresent()) { ++nPlanners; }
+    }
+    out.writeInt(nPlanners);
+    for (Map.Entry<String, Optional<Hash>> e : plannerHashes.entrySet()) {
+      if (!e.getValue().isPresent()) { continue; }
+      String plannerKey = e.getKey();
+      List<JoinNodes.PipelineConstraint> plannerPipelines =
+          Lists.newArrayList();
+      for (JoinNodes.PipelineConstraint pc : pipelines) {
+        if (plannerKey.equals(pc.plannerKey)) {
+          plannerPipelines.add(pc);
+        }
+      }
+      out.writeUTF(plannerKey);
+      PlanGraphFormat.writeBytes(out, e.getValue().get().getBytes());
+      out.writeInt(plannerPipelines.size());
+      for (JoinNodes.PipelineConstraint pc : plannerPipelines) {
+        writeExtensions(out, pc.prerequisites);
+        out.writeInt(pc.layers.size());
+        for (ImmutableList<PlanGraphNode<?>> layer : pc.layers) {
+          out.writeInt(layer.size());
+          for (PlanGraphNode<?> node : layer) {
+            out.writeInt(nodeToIndex.get(node));
+          }
+        }
+        writeExtensions(out, pc.postrequisites);
+      }
+    }
+    // Later journal entries extend the table that was written and refer to
+    // nodes by their index in it.
+    this.generation = newGeneration;
+    this.stringTable = encoder.table;
+    this.storedNodes = nodes;
+    this.encodedStoredNodes = new byte[nodes.length][];
+  }
+
+  /** Pipelines of planners whose configuration could be hashed. */
+  private List<JoinNodes.PipelineConstraint> storedPipelines() {
+    List<JoinNodes.PipelineConstraint> pipelines = Lists.newArrayList();
+    for (JoinNodes.PipelineConstraint pc : joinNodes.getPipelines()) {
+      Optional<Hash> configHash = plannerHashes.get(pc.plannerKey);
+      if (configHash != null && configHash.isPresent()) {
+        pipelines.add(pc);
+      }
+    }
+    return pipelines;
+  }
+
+  /**
+   * Maps the nodes that {@link #writeTo} stores to their indices in the
+   * stored form.
+   */
+  IdentityHashMap<PlanGraphNode<?>, Integer> storedLayout() {
+    IdentityHashMap<PlanGraphNode<?>, Integer> nodeToIndex =
+        Maps.newIdentityHashMap();
+    for (JoinNodes.PipelineConstraint pc : storedPipelines()) {
+      for (ImmutableList<PlanGraphNode<?>> layer : pc.layers) {
+        for (PlanGraphNode<?> node : layer) {
+          if (!nodeToIndex.containsKey(node)) {
+            nodeToIndex.put(node, nodeToIndex.size());
+          }
+        }
       }
-      serialNodes[e.getValue()] =
-          new SerialNode(
-              node.getStateVector(), followerIndices, roots.contains(node));
     }
-    out.writeObject(ImmutableList.copyOf(serialNodes));
+    return nodeToIndex;
+  }
+
+  /**
+   * True if layout puts exactly the nodes that were reconstituted from the
+   * stored form at the indices they were read from, so that the stored form
+   * need not be rewritten before journaling changes to it.
+   */
+  boolean isStoredLayout(Map<PlanGraphNode<?>, Integer> layout) {
+    if (storedNodes == null || storedNodes.length != layout.size()) {
+      return false;
+    }
+    for (int i = 0; i < storedNodes.length; ++i) {
+      Integer index = layout.get(storedNodes[i]);
+      if (index == null || index != i) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Identifies the stored form last read or written. */
+  long getGeneration() {
+    return generation;
+  }
+
+  /**
+   * The string table that the stored form was read or written with and
+   * that journal entries extend.
+   */
+  PlanGraphFormat.StringTable getStringTable() {
+    if (stringTable == null) {
+      stringTable = new PlanGraphFormat.StringTable();
+    }
+    return stringTable;
+  }
+
+  /**
+   * Replaces the stored state vector of a node that has not yet been
+   * reconstituted with one from a journal.
+   */
+  void replayStoredNode(int index, byte[] encodedStateVector)
+  throws IOException {
+    if (encodedStoredNodes == null
+        || index < 0 || index >= encodedStoredNodes.length) {
+      throw new IOException("Bad node index " + index);
+    }
+    Preconditions.checkState(storedNodes[index] == null);
+    encodedStoredNodes[index] = encodedStateVector;
+    storedNodeDirty[index] = false;
+  }
+
+  /**
+   * Marks a node that has not yet been reconstituted as
+   * {@linkplain PlanGraphNode#isDirty dirty} per a journal.
+   */
+  void replayDirtyNode(int index) throws IOException {
+    if (encodedStoredNodes == null
+        || index < 0 || index >= encodedStoredNodes.length) {
+      throw new IOException("Bad node index " + index);
+    }
+    Preconditions.checkState(storedNodes[index] == null);
+    storedNodeDirty[index] = true;
+  }
+
+  private static void writeExtensions(
+      DataOutput out, ImmutableSortedSet<FileExt> extensions)
+  throws IOException {
+    out.writeInt(extensions.size());
+    for (FileExt ext : extensions) {
+      out.writeUTF(ext.extension);
+    }
+  }
+
+  private static ImmutableSortedSet<FileExt> readExtensions(DataInput in)
+  throws IOException {
+    ImmutableSortedSet.Builder<FileExt> extensions =
+        ImmutableSortedSet.naturalOrder();
+    for (int i = 0, n = in.readInt(); i < n; ++i) {
+      extensions.add(FileExt.valueOf(in.readUTF()));
+    }
+    return extensions.build();
+  }
+
+  private static byte[][] encodeStateVectors(
+      PlanGraphNode<?>[] nodes, PlanGraphFormat.Encoder encoder,
+      Map<PlanGraphNode<?>, PlanGraphFormat.EncodedValue> preEncoded)
+  throws IOException {
+    byte[][] encoded = new byte[nodes.length][];
+    for (int i = 0; i < nodes.length; ++i) {
+      PlanGraphFormat.EncodedValue pre = preEncoded.get(nodes[i]);
+      if (pre != null && pre.table == encoder.table) {
+        encoder.reuse(pre);
+        encoded[i] = pre.bytes;
+      } else {
+        encoded[i] = encoder.encode(nodes[i].getStateVector()).bytes;
+      }
+    }
+    return encoded;
   }
 
 
@@ -148,6 +519,7 @@ public final class PlanGraph {
    */
   public void execute() throws IOException, MojoExecutionException {
     this.roots.addAll(joinNodes.realizePipelineConstraints());
+    profile.clear();
 
     ReverseAdjacencyMap reverse = new ReverseAdjacencyMap();
     ImmutableList<PlanGraphNode<?>> executionOrder =
@@ -161,33 +533,85 @@ public final class PlanGraph {
       }
     }
 
-    String dotOutput = System.getProperty("closure.plugin.dotout");
-    if (dotOutput != null) {
-      dumpDotGraph(
-          reverse.adj, Files.asCharSink(new File(dotOutput), Charsets.UTF_8));
+    if (journal.isPresent()) {
+      // May store the graph first, which replaces the string table.
+      journal.get().begin(this);
     }
 
-    if (context.log.isDebugEnabled()) {
-      if (requireNoCycles()) {
-        throw new MojoExecutionException("Graph cycle detected");
+    Optional<MemoryBudget> memoryBudget = Optional.absent();
+    if (context.memoryBudgetBytes > 0) {
+      // Spilling against the table that will be written lets stored values
+      // be copied without decoding.
+      if (stringTable == null) {
+        stringTable = new PlanGraphFormat.StringTable();
       }
+      memoryBudget = Optional.of(new MemoryBudget(
+          context.log, context.memoryBudgetBytes, stringTable,
+          executionOrder));
     }
 
+    for (PlanGraphNode<?> node : executionOrder) {
+      node.executed = false;
+    }
     Set<File> changedOutputs = Sets.newLinkedHashSet();
+    boolean completed = false;
     try {
-      for (PlanGraphNode<?> next : executionOrder) {
-        context.log.debug("Executing " + next);
-
-        next.preExecute(reverse.getPreceders(next));
-        next.filterUpdates();
-        // TODO: we need to systematically remove messages from files that are
-        // about to be processed.
-        next.process();
-        for (File changed : next.changedOutputFiles()) {
-          changedOutputs.add(changed);
+      if (context.log.isDebugEnabled()) {
+        if (requireNoCycles()) {
+          throw new MojoExecutionException("Graph cycle detected");
         }
       }
+
+      if (context.parallelism > 1) {
+        new ParallelPlanExecutor(
+            context, reverse, executionOrder, reverse.remainingPathNanos,
+            profile, memoryBudget, journal)
+            .execute(changedOutputs);
+      } else {
+        for (PlanGraphNode<?> next : executionOrder) {
+          executeNode(
+              context, next, reverse.getPreceders(next), profile,
+              memoryBudget, journal, changedOutputs);
+        }
+      }
+      completed = true;
     } finally {
+      if (!completed) {
+        // Preceders of nodes that did not complete may have moved on, so
+        // those nodes must not trust them to report what changed.
+        List<PlanGraphNode<?>> unfinished = Lists.newArrayList();
+        for (PlanGraphNode<?> node : executionOrder) {
+          if (!node.executed) {
+            node.dirty = true;
+            unfinished.add(node);
+          }
+        }
+        if (journal.isPresent()) {
+          journal.get().nodesDirty(unfinished);
+        }
+      }
+      if (journal.isPresent()) {
+        journal.get().close();
+      }
+      if (memoryBudget.isPresent()) {
+        long peak = memoryBudget.get().getPeakRetainedBytes();
+        if (peak > context.memoryBudgetBytes) {
+          context.log.info(
+              "Intermediate state peaked at about " + peak
+              + " bytes which exceeds the memory budget");
+        } else {
+          context.log.debug(
+              "Intermediate state peaked at about " + peak + " bytes");
+        }
+      }
+      recordObservedTimes(executionOrder);
+      // The dot graph is written after execution so that it can be coloured
+      // by the time each node took.
+      String dotOutput = System.getProperty("closure.plugin.dotout");
+      if (dotOutput != null) {
+        dumpDotGraph(
+            reverse.adj, Files.asCharSink(new File(dotOutput), Charsets.UTF_8));
+      }
       // Do this even on abnormal execution so that the IDE does not lose track
       // of changes that happened before a build failed suddenly.
       for (File changed : changedOutputs) {
@@ -196,31 +620,193 @@ public final class PlanGraph {
     }
   }
 
-  Iterable<PlanGraphNode<?>> effectiveRoots() {
-    return Iterables.concat(roots, joinNodes.allJoinNodes());
+  /**
+   * Runs only the steps that decide what needs to be rebuilt, without
+   * processing any inputs, and explains what an {@link #execute} would do.
+   * <p>
+   * Nodes are left in a state that should not be {@linkplain #writeTo
+   * stored}.  Since no outputs are produced, nodes whose inputs are
+   * generated by earlier nodes are explained in terms of the inputs
+   * generated by the last build.
+   */
+  public PlanExplanation explain() {
+    this.roots.addAll(joinNodes.realizePipelineConstraints());
+
+    ReverseAdjacencyMap reverse = new ReverseAdjacencyMap();
+    ImmutableList<PlanGraphNode<?>> executionOrder =
+        reverse.computeExecutionOrder();
+    Map<Class<?>, long[]> totalAndCountByClass = observedTotalsByClass();
+
+    List<NodeExplanation> explanations = Lists.newArrayList();
+    for (PlanGraphNode<?> node : executionOrder) {
+      NodeExplanation explanation = new NodeExplanation(
+          nodeName(node), estimatedNanos(node, totalAndCountByClass));
+      try {
+        node.preExecute(reverse.getPreceders(node));
+        node.filterUpdates();
+        node.explainUpdates(explanation);
+        if (node.dirty) {
+          explanation.addTrigger(
+              "an earlier build stopped before this step completed");
+        }
+      } catch (IOException | MojoExecutionException | RuntimeException ex) {
+        // Explain as much as possible.  Followers will likely fail too.
+        context.log.debug("Failed to explain " + node, ex);
+        explanation.setFailure(ex);
+      }
+      explanations.add(explanation);
+    }
+    return new PlanExplanation(plannerOutcomes, explanations);
   }
 
-  boolean isEffectiveRoot(PlanGraphNode<?> node) {
-    // Spuriously true iff node is a join node from another JoinNodes instance.
-    return node instanceof JoinNodes.JoinPlanGraphNode || roots.contains(node);
+  /**
+   * Folds the times nodes took in this build into the times observed in
+   * earlier builds.
+   * An average is used since the work done varies between full and
+   * incremental builds.
+   */
+  private void recordObservedTimes(Iterable<PlanGraphNode<?>> executed) {
+    for (PlanGraphNode<?> node : executed) {
+      Optional<NodeProfile> p = profile.get(node);
+      if (!p.isPresent()) { continue; }
+      long nanos = p.get().totalNanos();
+      Long old = observedNanos.get(node);
+      observedNanos.put(node, old != null ? (old + nanos) / 2 : nanos);
+    }
   }
 
+  /**
+   * The expected time in nanoseconds to execute each node and the nodes
+   * that must follow it, ignoring parallelism.
+   * Nodes for which there are no earlier timings are assumed to take as long
+   * as other nodes of the same class.
+   */
+  IdentityHashMap<PlanGraphNode<?>, Long> remainingPathNanos(
+      Iterable<? extends PlanGraphNode<?>> nodes) {
+    Map<Class<?>, long[]> totalAndCountByClass = observedTotalsByClass();
+    IdentityHashMap<PlanGraphNode<?>, Long> remaining =
+        Maps.newIdentityHashMap();
+    Set<PlanGraphNode<?>> onStack = Sets.newIdentityHashSet();
+    for (PlanGraphNode<?> node : nodes) {
+      remainingPathNanos(node, totalAndCountByClass, remaining, onStack);
+    }
+    return remaining;
+  }
 
+  private long remainingPathNanos(
+      PlanGraphNode<?> node, Map<Class<?>, long[]> totalAndCountByClass,
+      IdentityHashMap<PlanGraphNode<?>, Long> remaining,
+      Set<PlanGraphNode<?>> onStack) {
+    Long known = remaining.get(node);
+    if (known != null) { return known; }
+    if (!onStack.add(node)) { return 0; }  // Cycle
+    long maxFollower = 0;
+    for (PlanGraphNode<?> follower : node.getFollowerList()) {
+      maxFollower = Math.max(
+          maxFollower,
+          remainingPathNanos(
+              follower, totalAndCountByClass, remaining, onStack));
+    }
+    onStack.remove(node);
+    long own = Math.max(0, estimatedNanos(node, totalAndCountByClass));
+    long total = own + maxFollower;
+    remaining.put(node, total);
+    return total;
+  }
 
-  static final class SerialNode implements Serializable {
-    private static final long serialVersionUID = 1L;
+  /** The total and count of observed times of nodes by class. */
+  private Map<Class<?>, long[]> observedTotalsByClass() {
+    Map<Class<?>, long[]> totalAndCountByClass = Maps.newHashMap();
+    for (Map.Entry<PlanGraphNode<?>, Long> e : observedNanos.entrySet()) {
+      Class<?> cl = e.getKey().getClass();
+      long[] totalAndCount = totalAndCountByClass.get(cl);
+      if (totalAndCount == null) {
+        totalAndCountByClass.put(cl, totalAndCount = new long[2]);
+      }
+      totalAndCount[0] += e.getValue();
+      totalAndCount[1] += 1;
+    }
+    return totalAndCountByClass;
+  }
 
-    final PlanGraphNode.StateVector sv;
-    final int[] followers;
-    final boolean isRoot;
+  /**
+   * The time the node took in earlier builds or, failing that, the mean
+   * time of nodes of the same class, or -1 if there are no such timings.
+   */
+  private long estimatedNanos(
+      PlanGraphNode<?> node, Map<Class<?>, long[]> totalAndCountByClass) {
+    Long own = observedNanos.get(node);
+    if (own != null) { return own; }
+    long[] totalAndCount = totalAndCountByClass.get(node.getClass());
+    return totalAndCount != null ? totalAndCount[0] / totalAndCount[1] : -1L;
+  }
 
-    SerialNode(PlanGraphNode.StateVector sv, int[] followers, boolean isRoot) {
-      this.sv = sv;
-      this.followers = followers.clone();
-      this.isRoot = isRoot;
+  /**
+   * Runs a single node's lifecycle methods.
+   *
+   * @param profile receives the time spent in each lifecycle method.
+   * @param memoryBudget if present, is told when the node has executed so
+   *     that it can release the state of nodes that are no longer needed.
+   * @param changedOutputs receives the node's changed output files once it
+   *     has successfully processed its inputs.
+   */
+  static void executeNode(
+      PlanContext context, PlanGraphNode<?> next,
+      Iterable<? extends PlanGraphNode<?>> preceders,
+      PlanProfile profile,
+      Optional<MemoryBudget> memoryBudget,
+      Optional<PlanGraphJournal> journal,
+      Collection<? super File> changedOutputs)
+  throws IOException, MojoExecutionException {
+    context.log.debug("Executing " + next);
+    NodeProfile nodeProfile = profile.start(next, nodeName(next));
+
+    // Phases record their time even if they fail so that the profile of a
+    // failed build shows where the time went.
+    long t0 = System.nanoTime();
+    try {
+      next.preExecute(preceders);
+    } finally {
+      nodeProfile.preExecuteNanos = System.nanoTime() - t0;
+    }
+    long t1 = System.nanoTime();
+    try {
+      next.filterUpdates();
+    } finally {
+      nodeProfile.filterUpdatesNanos = System.nanoTime() - t1;
+    }
+    long t2 = System.nanoTime();
+    try {
+      // TODO: we need to systematically remove messages from files that are
+      // about to be processed.
+      next.process();
+    } finally {
+      nodeProfile.processNanos = System.nanoTime() - t2;
+    }
+    nodeProfile.completed = true;
+    next.recordWorkload(nodeProfile);
+    for (File changed : next.changedOutputFiles()) {
+      changedOutputs.add(changed);
+    }
+    if (context.buildContext instanceof StepOutputsListener) {
+      ((StepOutputsListener) context.buildContext).stepOutputsChanged(
+          next.changedOutputFiles());
+    }
+    next.dirty = false;
+    next.executed = true;
+    if (journal.isPresent()) {
+      journal.get().nodeExecuted(next);
+    }
+    if (memoryBudget.isPresent()) {
+      memoryBudget.get().executed(next, preceders, nodeProfile);
     }
   }
 
+  Iterable<PlanGraphNode<?>> effectiveRoots() {
+    return Iterables.concat(roots, joinNodes.allJoinNodes());
+  }
+
+
 
   /**
    * Adjacency relationships between nodes that maps nodes to the nodes that
@@ -236,6 +822,9 @@ public final class PlanGraph {
     final IdentityHashMap<PlanGraphNode<?>, List<PlanGraphNode<?>>> adj =
         Maps.newIdentityHashMap();
 
+    /** Set by {@link #computeExecutionOrder}. */
+    IdentityHashMap<PlanGraphNode<?>, Long> remainingPathNanos;
+
     ReverseAdjacencyMap() {
       Set<PlanGraphNode<?>> traversed =
           Sets.<PlanGraphNode<?>>newIdentityHashSet();
@@ -314,23 +903,33 @@ public final class PlanGraph {
       // schedule a ready one, and then decrement the unsat count for its
       // followers.
       // This handles branching and joining properly.
+      // Of the ready nodes, the one on the longest remaining path goes first
+      // so that the critical path starts as early as possible.  Ties are
+      // broken in the order nodes became ready.
+      remainingPathNanos = PlanGraph.this.remainingPathNanos(
+          Arrays.asList(indexToNode));
       int[] unsatCount = precederCount.clone();
       ImmutableList.Builder<PlanGraphNode<?>> execOrder = ImmutableList.builder();
-      Deque<PlanGraphNode<?>> ready = new ArrayDeque<>();
+      PriorityQueue<ReadyNode> ready = new PriorityQueue<>();
+      int readySeq = 0;
       for (int i = 0; i < n; ++i) {
         if (unsatCount[i] == 0) {
-          ready.add(indexToNode[i]);
+          ready.add(new ReadyNode(
+              indexToNode[i], remainingPathNanos.get(indexToNode[i]),
+              readySeq++));
         }
       }
 
-      for (PlanGraphNode<?> next; (next = ready.poll()) != null;) {
+      for (ReadyNode r; (r = ready.poll()) != null;) {
+        PlanGraphNode<?> next = r.node;
         execOrder.add(next);
         for (PlanGraphNode<?> follower : next.getFollowerList()) {
           int followerIndex = nodeToIndex.get(follower);
           Preconditions.checkState(unsatCount[followerIndex] > 0);
           --unsatCount[followerIndex];
           if (0 == unsatCount[followerIndex]) {
-            ready.add(follower);
+            ready.add(new ReadyNode(
+                follower, remainingPathNanos.get(follower), readySeq++));
           }
         }
       }
@@ -391,6 +990,7 @@ public final class PlanGraph {
       for (Map.Entry<PlanGraphNode<?>, List<PlanGraphNode<?>>> e
            : adj.entrySet()) {
         PlanGraphNode<?> n = e.getKey();
+        writeHeat(n, out);
         List<PlanGraphNode<?>> preceders = e.getValue();
         String name = dotName(n);
         if (preceders.isEmpty()) {
@@ -429,8 +1029,73 @@ public final class PlanGraph {
     }
   }
 
+  /**
+   * Fills the node with a colour between pale yellow and red based on how
+   * long it took relative to the slowest node.
+   */
+  private void writeHeat(PlanGraphNode<?> n, Writer out) throws IOException {
+    Optional<NodeProfile> np = profile.get(n);
+    if (!np.isPresent()) { return; }
+    double heat = profile.heat(n);
+    out.write(String.format(
+        "  %s [style=filled, fillcolor=\"%.3f %.3f 1.000\","
+        + " label=\"%s\\n%d ms\"];\n",
+        dotName(n), (1 - heat) / 6, 0.2 + 0.8 * heat, n,
+        TimeUnit.NANOSECONDS.toMillis(np.get().totalNanos())));
+  }
+
+  /** A name that identifies the node in debugging output. */
+  static String nodeName(PlanGraphNode<?> n) {
+    return n + "@" + Integer.toHexString(System.identityHashCode(n));
+  }
+
   private static String dotName(PlanGraphNode<?> n) {
-    return "\"" + n + "@" + Integer.toHexString(System.identityHashCode(n))
-        + "\"";
+    return "\"" + nodeName(n) + "\"";
+  }
+
+
+  private static final class ReadyNode implements Comparable<ReadyNode> {
+    final PlanGraphNode<?> node;
+    final long remainingPathNanos;
+    final int readySeq;
+
+    ReadyNode(PlanGraphNode<?> node, long remainingPathNanos, int readySeq) {
+      this.node = node;
+      this.remainingPathNanos = remainingPathNanos;
+      this.readySeq = readySeq;
+    }
+
+    @Override
+    public int compareTo(ReadyNode that) {
+      if (this.remainingPathNanos != that.remainingPathNanos) {
+        return this.remainingPathNanos > that.remainingPathNanos ? -1 : 1;
+      }
+      return Integer.compare(this.readySeq, that.readySeq);
+    }
+  }
+
+  private static final class StoredPlanner {
+    final Hash configHash;
+    final ImmutableList<StoredPipeline> pipelines;
+
+    StoredPlanner(Hash configHash, ImmutableList<StoredPipeline> pipelines) {
+      this.configHash = configHash;
+      this.pipelines = pipelines;
+    }
+  }
+
+  private static final class StoredPipeline {
+    final ImmutableSortedSet<FileExt> prerequisites;
+    /** Indices into the stored nodes by layer. */
+    final int[][] layers;
+    final ImmutableSortedSet<FileExt> postrequisites;
+
+    StoredPipeline(
+        ImmutableSortedSet<FileExt> prerequisites, int[][] layers,
+        ImmutableSortedSet<FileExt> postrequisites) {
+      this.prerequisites = prerequisites;
+      this.layers = layers;
+      this.postrequisites = postrequisites;
+    }
   }
 }
@@ -0,0 +1,515 @@
+package com.google.closure.plugin.plan;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.closure.plugin.common.SourceFileProperty;
+import com.google.closure.plugin.common.Sources.Source;
+import com.google.closure.plugin.common.TypedFile;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * The binary encoding of a persisted plan graph.
+ * <p>
+ * The file starts with a magic number and a schema version.  A generation
+ * number that identifies the content follows, then a string table, then each
+ * node's state vector, and then for each planner, the hash of its
+ * configuration and its pipelines which refer to nodes by index.
+ * <p>
+ * State vectors are encoded using Java serialization, except that
+ * {@link File}s, {@link Source}s and {@link Internable}s are replaced with
+ * indices into the string table, and each {@link Lazy} value is encoded as a
+ * separate length-prefixed blob which is not decoded until needed.
+ * Sources are by far the most numerous values, so they get a dedicated
+ * encoding instead of serializing their files and properties as objects.
+ * Since every blob is a separate serialization stream, each class's
+ * descriptor, with its serial version UID and fields, is written once as a
+ * string table entry which blobs refer to by index.  Decoding uses the
+ * written fields, so a class can gain or lose fields as it would with plain
+ * Java serialization.
+ */
+public final class PlanGraphFormat {
+  private PlanGraphFormat() {
+    // Static API
+  }
+
+  private static final int MAGIC = 0x434c5047;  // "CLPG"
+
+  /**
+   * Bump this whenever the encoding or any state vector changes in a way
+   * that would cause previously written plan graphs to decode incorrectly.
+   */
+  static final int SCHEMA_VERSION = 8;
+
+  /**
+   * A value that is completely described by a string so can be stored as a
+   * string table entry.  Implementations must have a constructor that takes
+   * the {@link #getInternForm intern form}.
+   */
+  public interface Internable extends Serializable {
+    /** The string that is passed to the constructor to recreate this. */
+    String getInternForm();
+  }
+
+  /** Writes the file header. */
+  public static void writeHeader(DataOutput out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(SCHEMA_VERSION);
+  }
+
+  /**
+   * Reads the file header.
+   *
+   * @return false if the input was written by an incompatible version of
+   *     this plugin.
+   */
+  public static boolean readHeader(DataInput in) throws IOException {
+    return in.readInt() == MAGIC && in.readInt() == SCHEMA_VERSION;
+  }
+
+
+  /** Maps strings to small integers. */
+  static final class StringTable {
+    private final List<String> strings = Lists.newArrayList();
+    private final Map<String, Integer> indices = Maps.newHashMap();
+    /** Class descriptors decoded from entries, by index. */
+    private final Map<Integer, ObjectStreamClass> descriptors =
+        Maps.newHashMap();
+
+    synchronized int intern(String s) {
+      Integer index = indices.get(s);
+      if (index == null) {
+        index = strings.size();
+        strings.add(s);
+        indices.put(s, index);
+      }
+      return index;
+    }
+
+    synchronized String get(int index) {
+      return strings.get(index);
+    }
+
+    /**
+     * The class descriptor encoded in the given entry by
+     * {@link #encodeClassDescriptor}.
+     */
+    synchronized ObjectStreamClass getClassDescriptor(int index)
+    throws IOException, ClassNotFoundException {
+      ObjectStreamClass desc = descriptors.get(index);
+      if (desc == null) {
+        byte[] bytes = strings.get(index).getBytes(Charsets.ISO_8859_1);
+        try (ObjectInputStream in = new ClassDescriptorStream(
+                 new ByteArrayInputStream(bytes))) {
+          desc = (ObjectStreamClass) in.readObject();
+        }
+        descriptors.put(index, desc);
+      }
+      return desc;
+    }
+
+    synchronized int size() {
+      return strings.size();
+    }
+
+    synchronized void write(DataOutput out) throws IOException {
+      out.writeInt(strings.size());
+      for (String s : strings) {
+        writeBytes(out, s.getBytes(Charsets.UTF_8));
+      }
+    }
+
+    static StringTable read(DataInput in) throws IOException {
+      StringTable table = new StringTable();
+      for (int i = 0, n = in.readInt(); i < n; ++i) {
+        table.intern(new String(readBytes(in), Charsets.UTF_8));
+      }
+      return table;
+    }
+  }
+
+
+  /** Class descriptors encoded as strings by {@link #encodeClassDescriptor}. */
+  private static final ClassValue<String> CLASS_DESCRIPTORS =
+      new ClassValue<String>() {
+        @Override
+        protected String computeValue(Class<?> cl) {
+          return encodeClassDescriptor(ObjectStreamClass.lookupAny(cl));
+        }
+      };
+
+  /**
+   * Serializes a class descriptor with its fields and superclasses, and
+   * maps each byte to a char so that it can be a string table entry.
+   */
+  static String encodeClassDescriptor(ObjectStreamClass desc) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(desc);
+    } catch (IOException ex) {
+      throw (AssertionError) new AssertionError().initCause(ex);
+    }
+    return new String(bytes.toByteArray(), Charsets.ISO_8859_1);
+  }
+
+  /** Reads a class descriptor encoded by {@link #encodeClassDescriptor}. */
+  private static final class ClassDescriptorStream extends ObjectInputStream {
+    ClassDescriptorStream(InputStream in) throws IOException {
+      super(in);
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc)
+    throws ClassNotFoundException {
+      return Class.forName(
+          desc.getName(), false, PlanGraphFormat.class.getClassLoader());
+    }
+  }
+
+
+  static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  static byte[] readBytes(DataInput in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  /** Writes a non-negative int in 7-bit groups, least significant first. */
+  static void writeVarInt(DataOutput out, int n) throws IOException {
+    Preconditions.checkArgument(n >= 0);
+    int rest = n;
+    while ((rest & ~0x7f) != 0) {
+      out.writeByte((rest & 0x7f) | 0x80);
+      rest >>>= 7;
+    }
+    out.writeByte(rest);
+  }
+
+  static int readVarInt(DataInput in) throws IOException {
+    int n = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      byte b = in.readByte();
+      n |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return n;
+      }
+    }
+    throw new IOException("Malformed variable length int");
+  }
+
+
+  /**
+   * A blob encoded against a string table.  This is what a {@link Lazy} is
+   * replaced with when written.
+   */
+  static final class EncodedValue implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** Not final so that they can be read by {@link #readObject}. */
+    byte[] bytes;
+    /** The string table entries used by bytes. */
+    BitSet stringsUsed;
+    transient StringTable table;
+
+    EncodedValue(byte[] bytes, BitSet stringsUsed, StringTable table) {
+      this.bytes = bytes;
+      this.stringsUsed = stringsUsed;
+      this.table = table;
+    }
+
+    /**
+     * Writes the strings used as deltas between successive indices instead
+     * of as a bit set which would be as large as the string table.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+      out.writeInt(bytes.length);
+      out.write(bytes);
+      out.writeInt(stringsUsed.cardinality());
+      for (int i = stringsUsed.nextSetBit(0), last = -1; i >= 0;
+           last = i, i = stringsUsed.nextSetBit(i + 1)) {
+        writeVarInt(out, i - last);
+      }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException {
+      bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      stringsUsed = new BitSet();
+      for (int i = 0, n = in.readInt(), index = -1; i < n; ++i) {
+        index += readVarInt(in);
+        stringsUsed.set(index);
+      }
+    }
+
+    Object decode() throws IOException {
+      try (ObjectInputStream in = new DecodingStream(
+               new ByteArrayInputStream(bytes), table)) {
+        return in.readObject();
+      } catch (ClassNotFoundException ex) {
+        throw new IOException("Failed to decode plan graph", ex);
+      }
+    }
+  }
+
+
+  /**
+   * Encodes values against a string table, tracking which entries are used
+   * so that the table can be compacted when it accumulates many entries that
+   * are no longer referenced.
+   */
+  static final class Encoder {
+    final StringTable table;
+    /** True to decode and re-encode lazy values instead of copying blobs. */
+    private final boolean reencodeAll;
+    /** True to replace decoded lazy values with their encoded form. */
+    private final boolean spill;
+    private final BitSet stringsUsed = new BitSet();
+
+    Encoder(StringTable table, boolean reencodeAll) {
+      this(table, reencodeAll, false);
+    }
+
+    Encoder(StringTable table, boolean reencodeAll, boolean spill) {
+      this.table = table;
+      this.reencodeAll = reencodeAll;
+      this.spill = spill;
+    }
+
+    EncodedValue encode(Object value) throws IOException {
+      BitSet used = new BitSet();
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (ObjectOutputStream out = new EncodingStream(bytes, this, used)) {
+        out.writeObject(value);
+      }
+      stringsUsed.or(used);
+      return new EncodedValue(bytes.toByteArray(), used, table);
+    }
+
+    /**
+     * Accounts for a value encoded against the same table by another
+     * encoder.
+     */
+    void reuse(EncodedValue encoded) {
+      Preconditions.checkArgument(encoded.table == table);
+      stringsUsed.or(encoded.stringsUsed);
+    }
+
+    /**
+     * True if less than half the string table is used by values encoded so
+     * far.
+     */
+    boolean shouldCompact() {
+      return stringsUsed.cardinality() * 2 < table.size();
+    }
+  }
+
+
+  private static final class StringRef implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** Index of the class name or -1 for a File. */
+    final int typeIndex;
+    final int valueIndex;
+
+    StringRef(int typeIndex, int valueIndex) {
+      this.typeIndex = typeIndex;
+      this.valueIndex = valueIndex;
+    }
+  }
+
+
+  /** A source as string table indices. */
+  private static final class SourceRef implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final int canonicalPathIndex;
+    final int rootIndex;
+    /** Bits indexed by {@link SourceFileProperty#ordinal}. */
+    final int rootProperties;
+    final int relativePathIndex;
+
+    SourceRef(
+        int canonicalPathIndex, int rootIndex, int rootProperties,
+        int relativePathIndex) {
+      this.canonicalPathIndex = canonicalPathIndex;
+      this.rootIndex = rootIndex;
+      this.rootProperties = rootProperties;
+      this.relativePathIndex = relativePathIndex;
+    }
+  }
+
+
+  private static final class EncodingStream extends ObjectOutputStream {
+    private final Encoder encoder;
+    private final BitSet used;
+
+    EncodingStream(OutputStream out, Encoder encoder, BitSet used)
+    throws IOException {
+      super(out);
+      this.encoder = encoder;
+      this.used = used;
+      enableReplaceObject(true);
+    }
+
+    private int intern(String s) {
+      int index = encoder.table.intern(s);
+      used.set(index);
+      return index;
+    }
+
+    @Override
+    protected void writeClassDescriptor(ObjectStreamClass desc)
+    throws IOException {
+      writeInt(intern(CLASS_DESCRIPTORS.get(desc.forClass())));
+    }
+
+    @Override
+    protected Object replaceObject(Object obj) throws IOException {
+      if (obj instanceof File) {
+        return new StringRef(-1, intern(((File) obj).getPath()));
+      }
+      if (obj instanceof Source) {
+        Source source = (Source) obj;
+        int rootProperties = 0;
+        for (SourceFileProperty p : source.root.ps) {
+          rootProperties |= 1 << p.ordinal();
+        }
+        return new SourceRef(
+            intern(source.canonicalPath.getPath()),
+            intern(source.root.f.getPath()),
+            rootProperties,
+            intern(source.relativePath.getPath()));
+      }
+      if (obj instanceof Internable) {
+        return new StringRef(
+            intern(obj.getClass().getName()),
+            intern(((Internable) obj).getInternForm()));
+      }
+      if (obj instanceof Lazy) {
+        Lazy<?> lazy = (Lazy<?>) obj;
+        Optional<EncodedValue> encoded = lazy.getEncoded();
+        if (encoded.isPresent() && encoded.get().table == encoder.table
+            && !encoder.reencodeAll) {
+          // Reuse the blob without decoding it.
+          used.or(encoded.get().stringsUsed);
+          return encoded.get();
+        }
+        EncodedValue reencoded = encoder.encode(lazy.get());
+        used.or(reencoded.stringsUsed);
+        if (encoder.spill) {
+          lazy.spill(reencoded);
+        }
+        return reencoded;
+      }
+      return obj;
+    }
+  }
+
+
+  static final class DecodingStream extends ObjectInputStream {
+    private final StringTable table;
+    /** Roots by index and properties so that sources share them. */
+    private final Map<Long, TypedFile> roots = Maps.newHashMap();
+
+    DecodingStream(InputStream in, StringTable table) throws IOException {
+      super(in);
+      this.table = table;
+      enableResolveObject(true);
+    }
+
+    @Override
+    protected ObjectStreamClass readClassDescriptor()
+    throws IOException, ClassNotFoundException {
+      // Reading the descriptor checks the serial version UID.
+      return table.getClassDescriptor(readInt());
+    }
+
+    @Override
+    protected Object resolveObject(Object obj) throws IOException {
+      if (obj instanceof StringRef) {
+        StringRef ref = (StringRef) obj;
+        String value = table.get(ref.valueIndex);
+        if (ref.typeIndex < 0) {
+          return new File(value);
+        }
+        return newInternable(table.get(ref.typeIndex), value);
+      }
+      if (obj instanceof SourceRef) {
+        SourceRef ref = (SourceRef) obj;
+        Long rootKey = (((long) ref.rootIndex) << 32) | ref.rootProperties;
+        TypedFile root = roots.get(rootKey);
+        if (root == null) {
+          EnumSet<SourceFileProperty> ps =
+              EnumSet.noneOf(SourceFileProperty.class);
+          for (SourceFileProperty p : SourceFileProperty.values()) {
+            if ((ref.rootProperties & (1 << p.ordinal())) != 0) {
+              ps.add(p);
+            }
+          }
+          root = new TypedFile(new File(table.get(ref.rootIndex)), ps);
+          roots.put(rootKey, root);
+        }
+        return new Source(
+            new File(table.get(ref.canonicalPathIndex)), root,
+            new File(table.get(ref.relativePathIndex)));
+      }
+      if (obj instanceof EncodedValue) {
+        EncodedValue encoded = (EncodedValue) obj;
+        encoded.table = table;
+        return Lazy.fromEncoded(encoded);
+      }
+      return obj;
+    }
+  }
+
+
+  private static final Map<String, Constructor<?>> INTERNABLE_CTORS =
+      new ConcurrentHashMap<>();
+
+  private static Object newInternable(String className, String internForm)
+  throws IOException {
+    try {
+      Constructor<?> ctor = INTERNABLE_CTORS.get(className);
+      if (ctor == null) {
+        Class<?> cl = Class.forName(
+            className, true, PlanGraphFormat.class.getClassLoader());
+        if (!Internable.class.isAssignableFrom(cl)) {
+          throw new IOException(className + " is not internable");
+        }
+        ctor = cl.getDeclaredConstructor(String.class);
+        ctor.setAccessible(true);
+        INTERNABLE_CTORS.put(className, ctor);
+      }
+      return ctor.newInstance(internForm);
+    } catch (ClassNotFoundException | NoSuchMethodException
+             | InstantiationException | IllegalAccessException
+             | InvocationTargetException ex) {
+      throw new IOException("Failed to decode " + className, ex);
+    }
+  }
+}
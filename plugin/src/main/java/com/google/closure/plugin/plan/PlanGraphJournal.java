@@ -0,0 +1,435 @@
+package com.google.closure.plugin.plan;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.apache.maven.plugin.logging.Log;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+/**
+ * Stores a plan graph so that the work of nodes that completed is not lost
+ * when a build fails or is killed.
+ * <p>
+ * The plan graph file is only ever replaced atomically with a complete,
+ * synced file.  While a plan executes, the state vector of each node that
+ * completes is appended to a journal file beside it and synced.
+ * When the plan graph is next loaded, the journal is replayed over it, so
+ * the next build resumes from the last node that completed.
+ * If the build fails, the nodes that did not complete are journaled as
+ * {@linkplain PlanGraphNode#isDirty dirty} so that the next build does not
+ * trust preceders that completed to report what those nodes have yet to
+ * process.
+ * <p>
+ * Each journal record is checksummed so a record that was torn by a crash
+ * ends the journal instead of corrupting it.  The journal names the
+ * {@linkplain PlanGraph#getGeneration generation} of the plan graph file
+ * that it extends, and is ignored if that file has since been replaced.
+ * <p>
+ * Compaction, which happens when a build stores its plan graph, writes the
+ * whole graph to a new file and removes the journal.
+ */
+public final class PlanGraphJournal {
+  private static final int MAGIC = 0x434c504a;  // "CLPJ"
+
+  private final File file;
+  private final File journalFile;
+  private final Log log;
+
+  /** Guarded by this.  Open while a plan executes. */
+  private FileChannel channel;
+  /** Guarded by this.  Indices of nodes in the stored form. */
+  private IdentityHashMap<PlanGraphNode<?>, Integer> layout;
+  /** Guarded by this.  The table that journaled strings extend. */
+  private PlanGraphFormat.StringTable table;
+  /** Guarded by this.  The count of strings in the file or journal. */
+  private int nStringsStored;
+  /** Guarded by this.  The length of the journal up to its last record. */
+  private long journalLength;
+  /**
+   * Guarded by this.  Journaled state vectors which compaction reuses
+   * instead of encoding again.
+   */
+  private final
+  IdentityHashMap<PlanGraphNode<?>, PlanGraphFormat.EncodedValue> journaled =
+      Maps.newIdentityHashMap();
+
+  /**
+   * @param file the plan graph file.  The journal is a sibling.
+   */
+  public PlanGraphJournal(File file, Log log) {
+    this.file = file;
+    this.journalFile = new File(
+        file.getParentFile(), file.getName() + ".journal");
+    this.log = log;
+  }
+
+  /**
+   * Reads the stored plan graph, if any, and replays any journal of nodes
+   * that completed after it was stored.
+   *
+   * @return false if there was no stored plan graph written by a
+   *     compatible version of this plugin.
+   */
+  public synchronized boolean load(PlanGraph graph) throws IOException {
+    try (InputStream in = Files.asByteSource(file).openBufferedStream()) {
+      DataInputStream dataIn = new DataInputStream(in);
+      if (!PlanGraphFormat.readHeader(dataIn)) {
+        return false;
+      }
+      graph.readFrom(dataIn);
+    } catch (@SuppressWarnings("unused") FileNotFoundException ex) {
+      return false;
+    }
+    table = graph.getStringTable();
+    nStringsStored = table.size();
+    journalLength = 0;
+    int nReplayed;
+    try {
+      nReplayed = replay(graph);
+    } catch (IOException ex) {
+      // The stored graph is still usable, and the journal is truncated to
+      // its last good record before it is next appended to.
+      log.warn("Failed to replay plan graph journal " + journalFile, ex);
+      return true;
+    }
+    if (nReplayed != 0) {
+      log.info(
+          "Resuming from " + nReplayed
+          + " build steps that completed in an unfinished build");
+    }
+    return true;
+  }
+
+  private int replay(PlanGraph graph) throws IOException {
+    byte[] bytes;
+    try {
+      bytes = Files.toByteArray(journalFile);
+    } catch (@SuppressWarnings("unused") FileNotFoundException ex) {
+      return 0;
+    }
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+    try {
+      if (!PlanGraphFormat.readHeader(in) || in.readInt() != MAGIC
+          || in.readLong() != graph.getGeneration()) {
+        // Journals a file that was replaced or is incompatible.
+        return 0;
+      }
+    } catch (@SuppressWarnings("unused") EOFException ex) {
+      return 0;
+    }
+    journalLength = bytes.length - in.available();
+
+    int nReplayed = 0;
+    while (true) {
+      byte[] record;
+      try {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+          break;  // Torn
+        }
+        record = new byte[length];
+        in.readFully(record);
+        if (in.readLong() != checksum(record)) {
+          break;  // Torn
+        }
+      } catch (@SuppressWarnings("unused") EOFException ex) {
+        break;  // Torn
+      }
+      DataInputStream recordIn = new DataInputStream(
+          new ByteArrayInputStream(record));
+      int firstString = recordIn.readInt();
+      int nStrings = recordIn.readInt();
+      if (firstString != table.size()) {
+        throw new IOException("Journal string table out of sequence");
+      }
+      for (int i = 0; i < nStrings; ++i) {
+        table.intern(new String(
+            PlanGraphFormat.readBytes(recordIn), Charsets.UTF_8));
+      }
+      // A node index and its state vector, or a count of dirty nodes and
+      // their indices.
+      int n = recordIn.readInt();
+      if (recordIn.readBoolean()) {
+        graph.replayStoredNode(n, PlanGraphFormat.readBytes(recordIn));
+      } else {
+        for (int i = 0; i < n; ++i) {
+          graph.replayDirtyNode(recordIn.readInt());
+        }
+      }
+      nStringsStored = table.size();
+      journalLength = bytes.length - in.available();
+      ++nReplayed;
+    }
+    return nReplayed;
+  }
+
+  /**
+   * Called before a plan executes to start journaling.
+   * If the nodes that will be stored are not those in the stored form, as
+   * when a planner was replanned, the graph is stored first so that journal
+   * records can refer to nodes by index.
+   * <p>
+   * Problems are logged and disable journaling since the build can proceed
+   * without it.
+   */
+  synchronized void begin(PlanGraph graph) {
+    close();
+    journaled.clear();
+    try {
+      IdentityHashMap<PlanGraphNode<?>, Integer> nodes = graph.storedLayout();
+      if (table != graph.getStringTable() || !graph.isStoredLayout(nodes)) {
+        store(graph);
+        nodes = graph.storedLayout();
+      }
+      this.layout = nodes;
+      this.table = graph.getStringTable();
+      FileChannel ch = FileChannel.open(
+          journalFile.toPath(),
+          StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      try {
+        if (journalLength == 0 || ch.size() < journalLength) {
+          ByteArrayOutputStream header = new ByteArrayOutputStream();
+          DataOutputStream headerOut = new DataOutputStream(header);
+          PlanGraphFormat.writeHeader(headerOut);
+          headerOut.writeInt(MAGIC);
+          headerOut.writeLong(graph.getGeneration());
+          ch.truncate(0);
+          write(ch, header.toByteArray());
+          journalLength = ch.position();
+        } else {
+          // Drop any torn record.
+          ch.truncate(journalLength);
+          ch.position(journalLength);
+        }
+        ch.force(false);
+      } catch (IOException ex) {
+        ch.close();
+        throw ex;
+      }
+      this.channel = ch;
+    } catch (IOException ex) {
+      log.warn("Failed to start plan graph journal " + journalFile, ex);
+      close();
+    }
+  }
+
+  /**
+   * Durably records the state of a node that completed successfully.
+   * Problems are logged and disable journaling.
+   */
+  void nodeExecuted(PlanGraphNode<?> node) {
+    int index;
+    PlanGraphFormat.StringTable t;
+    synchronized (this) {
+      if (channel == null) { return; }
+      Integer indexObj = layout.get(node);
+      if (indexObj == null) { return; }  // Not stored.
+      index = indexObj;
+      t = table;
+    }
+    // Encode outside the lock so that concurrently completing nodes only
+    // contend for the write.
+    PlanGraphFormat.EncodedValue encoded;
+    ByteArrayOutputStream body;
+    try {
+      encoded = new PlanGraphFormat.Encoder(t, false)
+          .encode(node.getStateVector());
+      body = new ByteArrayOutputStream(encoded.bytes.length + 16);
+      DataOutputStream bodyOut = new DataOutputStream(body);
+      bodyOut.writeInt(index);
+      bodyOut.writeBoolean(true);
+      PlanGraphFormat.writeBytes(bodyOut, encoded.bytes);
+    } catch (IOException ex) {
+      log.warn("Failed to journal " + node, ex);
+      close();
+      return;
+    }
+    synchronized (this) {
+      if (append(node, t, body.toByteArray())) {
+        journaled.put(node, encoded);
+      }
+    }
+  }
+
+  /**
+   * Durably records that nodes did not complete so must process all their
+   * inputs when next executed.  Problems are logged and disable journaling.
+   */
+  synchronized void nodesDirty(Iterable<? extends PlanGraphNode<?>> nodes) {
+    if (channel == null) { return; }
+    List<Integer> indices = Lists.newArrayList();
+    for (PlanGraphNode<?> node : nodes) {
+      Integer index = layout.get(node);
+      if (index != null) {
+        indices.add(index);
+      }
+    }
+    if (indices.isEmpty()) { return; }
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    DataOutputStream bodyOut = new DataOutputStream(body);
+    try {
+      bodyOut.writeInt(indices.size());
+      bodyOut.writeBoolean(false);
+      for (int index : indices) {
+        bodyOut.writeInt(index);
+      }
+    } catch (IOException ex) {
+      throw (AssertionError) new AssertionError().initCause(ex);
+    }
+    append("dirty nodes", table, body.toByteArray());
+  }
+
+  /**
+   * Appends a record of the strings interned since the last record followed
+   * by body.
+   *
+   * @param what describes the record in log messages.
+   * @return true if the record was durably appended.
+   */
+  private synchronized boolean append(
+      Object what, PlanGraphFormat.StringTable t, byte[] body) {
+    if (channel == null || table != t) { return false; }
+    try {
+      // Strings interned while encoding this or concurrently completing
+      // nodes are recorded in order.
+      int nStrings = table.size();
+      ByteArrayOutputStream record = new ByteArrayOutputStream(
+          body.length + 64);
+      DataOutputStream recordOut = new DataOutputStream(record);
+      recordOut.writeInt(nStringsStored);
+      recordOut.writeInt(nStrings - nStringsStored);
+      for (int i = nStringsStored; i < nStrings; ++i) {
+        PlanGraphFormat.writeBytes(
+            recordOut, table.get(i).getBytes(Charsets.UTF_8));
+      }
+      recordOut.write(body);
+      byte[] recordBytes = record.toByteArray();
+
+      ByteArrayOutputStream framed = new ByteArrayOutputStream(
+          recordBytes.length + 12);
+      DataOutputStream framedOut = new DataOutputStream(framed);
+      framedOut.writeInt(recordBytes.length);
+      framedOut.write(recordBytes);
+      framedOut.writeLong(checksum(recordBytes));
+      write(channel, framed.toByteArray());
+      channel.force(false);
+
+      nStringsStored = nStrings;
+      journalLength = channel.position();
+      return true;
+    } catch (IOException ex) {
+      log.warn("Failed to journal " + what + " to " + journalFile, ex);
+      close();
+      return false;
+    }
+  }
+
+  /**
+   * Atomically replaces the stored plan graph with the whole graph and
+   * removes the journal.
+   */
+  public synchronized void compact(PlanGraph graph) throws IOException {
+    close();
+    store(graph);
+    layout = null;
+  }
+
+  /** Stops journaling. */
+  synchronized void close() {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException ex) {
+        log.warn("Failed to close plan graph journal " + journalFile, ex);
+      }
+      channel = null;
+    }
+  }
+
+  private void store(PlanGraph graph) throws IOException {
+    Files.createParentDirs(file);
+    File temp = File.createTempFile(
+        file.getName(), ".tmp", file.getParentFile());
+    try {
+      try (FileChannel ch = FileChannel.open(
+               temp.toPath(), StandardOpenOption.WRITE)) {
+        OutputStream out = Channels.newOutputStream(ch);
+        DataOutputStream dataOut = new DataOutputStream(
+            new BufferedOutputStream(out));
+        PlanGraphFormat.writeHeader(dataOut);
+        graph.writeTo(dataOut, journaled);
+        dataOut.flush();
+        ch.force(true);
+      }
+      try {
+        java.nio.file.Files.move(
+            temp.toPath(), file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (@SuppressWarnings("unused")
+               AtomicMoveNotSupportedException ex) {
+        java.nio.file.Files.move(
+            temp.toPath(), file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      if (temp.exists() && !temp.delete()) {
+        log.warn("Failed to delete " + temp);
+      }
+    }
+    // The journal names the generation it extends so is ignored from now
+    // on even if it cannot be deleted.
+    if (journalFile.exists() && !journalFile.delete()) {
+      log.warn("Failed to delete " + journalFile);
+    }
+    journaled.clear();
+    table = graph.getStringTable();
+    nStringsStored = table.size();
+    journalLength = 0;
+  }
+
+  private static void write(FileChannel ch, byte[] bytes) throws IOException {
+    ByteBuffer buf = ByteBuffer.wrap(bytes);
+    while (buf.hasRemaining()) {
+      ch.write(buf);
+    }
+  }
+
+  private static long checksum(byte[] bytes) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes, 0, bytes.length);
+    return crc.getValue();
+  }
+
+  /** For tests. */
+  File getJournalFile() {
+    return journalFile;
+  }
+
+  @Override
+  public String toString() {
+    return "{PlanGraphJournal " + file + "}";
+  }
+}
@@ -38,6 +38,17 @@ public abstract class PlanGraphNode<V extends PlanGraphNode.StateVector> {
 
   private final List<PlanGraphNode<?>> followers = Lists.newArrayList();
 
+  /**
+   * True if a build stopped after this node's preceders completed but
+   * before this node did.  Set by the plan graph.
+   */
+  boolean dirty;
+  /**
+   * True once this node completes during the current execution.
+   * Set by the plan graph.
+   */
+  boolean executed;
+
   protected PlanGraphNode(PlanContext context) {
     this.context = context;
   }
@@ -89,6 +100,44 @@ public abstract class PlanGraphNode<V extends PlanGraphNode.StateVector> {
 
   protected abstract V getStateVector();
 
+  /**
+   * True if an earlier build stopped after this node's preceders completed
+   * but before this node did, so inputs that they no longer report as
+   * changed, or file-system changes that they saw, may not have been
+   * processed.  A dirty node should process all its inputs.
+   */
+  protected final boolean isDirty() {
+    return dirty;
+  }
+
+  /**
+   * Called after processing to describe the work done so that it can be
+   * profiled.  By default, records nothing.
+   */
+  protected void recordWorkload(NodeProfile profile) {
+    // nop
+  }
+
+  /**
+   * Called after {@link #filterUpdates} during a
+   * {@linkplain PlanGraph#explain dry run} to describe what {@link #process}
+   * would do and why.  By default, describes nothing.
+   */
+  protected void explainUpdates(NodeExplanation explanation) {
+    // nop
+  }
+
+  /**
+   * Called, when the plan graph executes with a
+   * {@linkplain PlanContext#memoryBudgetBytes memory budget}, once all
+   * followers have executed so that the node can drop caches that are not
+   * part of its state vector.
+   * By default, does nothing.
+   */
+  protected void releaseIntermediates() {
+    // nop
+  }
+
 
   @Override
   public String toString() {
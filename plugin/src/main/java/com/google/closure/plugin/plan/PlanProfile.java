@@ -0,0 +1,87 @@
+package com.google.closure.plugin.plan;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONValue;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+/**
+ * Collects a {@link NodeProfile} for each plan graph node executed during a
+ * build so that slow pipelines can be identified.
+ */
+public final class PlanProfile {
+  private final IdentityHashMap<PlanGraphNode<?>, NodeProfile> profiles =
+      Maps.newIdentityHashMap();
+  /** Nodes in the order they started executing. */
+  private final List<PlanGraphNode<?>> order = Lists.newArrayList();
+
+  /** Forgets all profiles so that a new build can be profiled. */
+  synchronized void clear() {
+    profiles.clear();
+    order.clear();
+  }
+
+  /** A fresh profile for the given node. */
+  synchronized NodeProfile start(PlanGraphNode<?> node, String nodeName) {
+    NodeProfile profile = new NodeProfile(nodeName);
+    if (profiles.put(node, profile) == null) {
+      order.add(node);
+    }
+    return profile;
+  }
+
+  /** The profile for the given node if it executed. */
+  public synchronized Optional<NodeProfile> get(PlanGraphNode<?> node) {
+    return Optional.fromNullable(profiles.get(node));
+  }
+
+  /**
+   * A number in [0, 1] that is 1 for the node that took longest and
+   * proportionally less for nodes that took less time.
+   */
+  public synchronized double heat(PlanGraphNode<?> node) {
+    NodeProfile profile = profiles.get(node);
+    if (profile == null) { return 0; }
+    long max = 0;
+    for (NodeProfile p : profiles.values()) {
+      max = Math.max(max, p.totalNanos());
+    }
+    return max != 0 ? ((double) profile.totalNanos()) / max : 0;
+  }
+
+  /** Writes the profile as JSON. */
+  public void writeJson(File out) throws IOException {
+    List<Object> nodes = Lists.newArrayList();
+    long totalNanos = 0;
+    long peakRetainedBytes = 0;
+    synchronized (this) {
+      for (PlanGraphNode<?> node : order) {
+        NodeProfile profile = profiles.get(node);
+        nodes.add(profile.toJson());
+        totalNanos += profile.totalNanos();
+        peakRetainedBytes = Math.max(
+            peakRetainedBytes, profile.peakRetainedBytes());
+      }
+    }
+    Map<String, Object> json = Maps.newLinkedHashMap();
+    json.put("version", 2);
+    json.put("totalMicros", TimeUnit.NANOSECONDS.toMicros(totalNanos));
+    json.put("peakRetainedBytes", peakRetainedBytes);
+    json.put("nodes", nodes);
+    try (Writer w = Files.asCharSink(out, Charsets.UTF_8)
+            .openBufferedStream()) {
+      JSONValue.writeJSONString(json, w);
+    }
+  }
+}
@@ -25,8 +25,8 @@ public abstract class RebundlingPlanGraphNode<
   C extends BundlingPlanGraphNode.Bundle>
 extends BundlingPlanGraphNode<O, C> {
 
-  protected Optional<Update<OptionsAndBundles<O, B>>> inputBundles =
-      Optional.absent();
+  protected Lazy<Optional<Update<OptionsAndBundles<O, B>>>> inputBundles =
+      Lazy.absent();
 
   private Map<OptionsAndInputs<O>, OptionsAndBundles<O, B>> memoTable;
 
@@ -52,12 +52,14 @@ extends BundlingPlanGraphNode<O, C> {
 
   @Override
   protected void preExecute(Iterable<? extends PlanGraphNode<?>> preceders) {
-    this.inputBundles = Optional.absent();
-    this.optionsUpdate = Optional.absent();
+    this.inputBundles = Lazy.absent();
+    this.optionsUpdate = Lazy.absent();
+    // Indexes the previous build's input bundles otherwise.
+    this.memoTable = null;
     for (PlanGraphNode<?> p : preceders) {
       if (p instanceof BundlingPlanGraphNode<?, ?>) {
-        Preconditions.checkState(!inputBundles.isPresent());
-        Preconditions.checkState(!optionsUpdate.isPresent());
+        Preconditions.checkState(!inputBundles.get().isPresent());
+        Preconditions.checkState(!optionsUpdate.get().isPresent());
 
         @SuppressWarnings("unchecked")  // TODO: unsound
         BundlingPlanGraphNode<O, B> bn = (BundlingPlanGraphNode<O, B>) p;
@@ -65,8 +67,14 @@ extends BundlingPlanGraphNode<O, C> {
         this.inputBundles = bn.optionsAndBundles;
       }
     }
-    Preconditions.checkState(inputBundles.isPresent());
-    Preconditions.checkState(optionsUpdate.isPresent());
+    Preconditions.checkState(inputBundles.get().isPresent());
+    Preconditions.checkState(optionsUpdate.get().isPresent());
+  }
+
+  /** Drops the index of input bundles which is rebuilt when needed. */
+  @Override
+  protected void releaseIntermediates() {
+    memoTable = null;
   }
 
   private
@@ -75,7 +83,7 @@ extends BundlingPlanGraphNode<O, C> {
       ImmutableMap.Builder<
           OptionsAndInputs<O>, OptionsAndBundles<O, B>> b =
           ImmutableMap.builder();
-      Update<OptionsAndBundles<O, B>> u = this.inputBundles.get();
+      Update<OptionsAndBundles<O, B>> u = this.inputBundles.get().get();
       for (OptionsAndBundles<O, B> ob : u.all()) {
         b.put(ob.optionsAndInputs, ob);
       }
@@ -98,8 +106,8 @@ extends BundlingPlanGraphNode<O, C> {
 
     private static final long serialVersionUID = 1L;
 
-    private Optional<Update<OptionsAndBundles<O, B>>> inputBundles =
-        Optional.absent();
+    private Lazy<Optional<Update<OptionsAndBundles<O, B>>>> inputBundles =
+        Lazy.absent();
 
     protected RebundleStateVector(RebundlingPlanGraphNode<O, B, C> node) {
       super(node);
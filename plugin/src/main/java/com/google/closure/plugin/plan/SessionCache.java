@@ -0,0 +1,183 @@
+package com.google.closure.plugin.plan;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import com.google.closure.plugin.common.Sources.Source;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * Results that are shared by all executions of the plugin's goals in one
+ * Maven session, so that the modules of a reactor build that depend on the
+ * same artifacts need not each recompute them.
+ * <p>
+ * Only immutable results that depend on nothing but their keys are shared:
+ * metadata keyed by file content, and the locations of tools.
+ * Instances are thread-safe since modules may build concurrently under
+ * {@code mvn -T}.
+ */
+public final class SessionCache {
+  /**
+   * Bounds the number of shared metadata entries so that a long session
+   * does not retain metadata for every file it has ever seen.
+   */
+  private static final long MAX_METADATA_ENTRIES = 1 << 18;
+
+  /**
+   * Maven loads a plugin's classes once per session, so static state is
+   * shared by the session's mojo executions.  Weak keys let a session's
+   * caches be collected along with it when the class loader is reused by
+   * an embedding host.
+   */
+  private static final LoadingCache<Object, SessionCache> BY_SESSION =
+      CacheBuilder.newBuilder()
+      .weakKeys()
+      .build(new CacheLoader<Object, SessionCache>() {
+        @Override
+        public SessionCache load(Object sessionKey) {
+          return new SessionCache();
+        }
+      });
+
+  private final Cache<ContentKey, Serializable> metadata =
+      CacheBuilder.newBuilder()
+      .maximumSize(MAX_METADATA_ENTRIES)
+      .recordStats()
+      .build();
+
+  private final Cache<Object, Optional<File>> tools =
+      CacheBuilder.newBuilder().build();
+
+  private SessionCache() {
+    // Use a factory.
+  }
+
+  /**
+   * The cache shared by all executions that present the same session key.
+   *
+   * @param sessionKey compared by identity.  Should be an object that is
+   *     shared by all threads of a multi-threaded build, like the session's
+   *     execution request, since the session itself is copied per thread.
+   */
+  public static SessionCache forSession(Object sessionKey) {
+    return BY_SESSION.getUnchecked(Preconditions.checkNotNull(sessionKey));
+  }
+
+  /** A cache that is not shared with any other execution. */
+  public static SessionCache unshared() {
+    return new SessionCache();
+  }
+
+  /**
+   * Identifies metadata derived from file content alone.
+   *
+   * @param kind distinguishes different kinds of metadata and any options
+   *     that affect how it is derived.
+   */
+  public static ContentKey contentKey(String kind, byte[] content) {
+    return new ContentKey(
+        kind, Hash.hashBytes(Hash.Algorithm.MURMUR3_128, content));
+  }
+
+  /** Metadata previously stored for the key, if any. */
+  public <T extends Serializable>
+  Optional<T> getMetadata(ContentKey key, Class<T> type) {
+    Serializable md = metadata.getIfPresent(key);
+    return md != null ? Optional.of(type.cast(md)) : Optional.<T>absent();
+  }
+
+  /** Makes metadata available to other executions. */
+  public void putMetadata(ContentKey key, Serializable md) {
+    metadata.put(key, Preconditions.checkNotNull(md));
+  }
+
+  /**
+   * Wraps an extractor whose output depends only on file content so that
+   * content seen by any execution in the session is only extracted once.
+   * <p>
+   * The result is thread-safe if extractor is.
+   *
+   * @param kind must only be used with extractors of the same type.
+   */
+  public <T extends Serializable> SourceMetadataMapBuilder.Extractor<T>
+  sharing(
+      final String kind,
+      final SourceMetadataMapBuilder.Extractor<T> extractor) {
+    return new SourceMetadataMapBuilder.Extractor<T>() {
+      @SuppressWarnings("synthetic-access")
+      @Override
+      public T extractMetadata(Source s, byte[] content) throws IOException {
+        ContentKey key = contentKey(kind, content);
+        Serializable md = metadata.getIfPresent(key);
+        if (md != null) {
+          @SuppressWarnings("unchecked")  // Each kind has one type.
+          T shared = (T) md;
+          return shared;
+        }
+        T extracted = extractor.extractMetadata(s, content);
+        if (extracted != null) {
+          putMetadata(key, extracted);
+        }
+        return extracted;
+      }
+    };
+  }
+
+  /**
+   * The location of a tool, found at most once per key per session.
+   * Concurrent requests for the same key wait for the first to finish.
+   * Failures are not cached so a later request will search again.
+   *
+   * @param key all the inputs to finder that affect where the tool is found.
+   * @throws ExecutionException wrapping any failure of finder.
+   */
+  public Optional<File> tool(Object key, Callable<Optional<File>> finder)
+  throws ExecutionException {
+    return tools.get(key, finder);
+  }
+
+  @Override
+  public String toString() {
+    return "{SessionCache metadata " + metadata.stats()
+        + ", tools " + tools.asMap().keySet() + "}";
+  }
+
+
+  /** Identifies metadata derived from file content alone. */
+  public static final class ContentKey {
+    final String kind;
+    final Hash contentHash;
+
+    ContentKey(String kind, Hash contentHash) {
+      this.kind = Preconditions.checkNotNull(kind);
+      this.contentHash = Preconditions.checkNotNull(contentHash);
+    }
+
+    @Override
+    public int hashCode() {
+      return kind.hashCode() * 31 + contentHash.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof ContentKey)) {
+        return false;
+      }
+      ContentKey that = (ContentKey) o;
+      return kind.equals(that.kind) && contentHash.equals(that.contentHash);
+    }
+
+    @Override
+    public String toString() {
+      return kind + ":" + contentHash;
+    }
+  }
+}
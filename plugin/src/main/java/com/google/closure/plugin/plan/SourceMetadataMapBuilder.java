@@ -2,13 +2,24 @@ package com.google.closure.plugin.plan;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.Serializable;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
 import com.google.closure.plugin.common.Sources.Source;
 import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
@@ -57,28 +68,161 @@ public final class SourceMetadataMapBuilder {
       Extractor<T> extractor,
       Iterable<? extends Source> sources)
   throws IOException {
+    return updateFromSources(
+        previous, loader, Optional.<FileStatCache>absent(), extractor,
+        sources);
+  }
+
+  /**
+   * Extracts metadata from files reusing old metadata when file hashes match.
+   *
+   * @param statCache consulted so that files whose stat is unchanged need
+   *     not be read.  Only meaningful when loader reads
+   *     {@link Source#canonicalPath}.
+   */
+  public static <T extends Serializable>
+  ImmutableMap<Source, Metadata<T>> updateFromSources(
+      Map<? extends Source, ? extends Metadata<T>> previous,
+      Function<Source, ByteSource> loader,
+      Optional<FileStatCache> statCache,
+      Extractor<T> extractor,
+      Iterable<? extends Source> sources)
+  throws IOException {
+    return updateFromSources(
+        previous, loader, statCache, Suppliers.ofInstance(extractor), 1,
+        sources);
+  }
+
+  /**
+   * Extracts metadata from files reusing old metadata when file hashes match,
+   * loading, hashing and extracting from up to parallelism files at a time.
+   * <p>
+   * The result is the same, and in the same order, as for a serial update.
+   *
+   * @param statCache consulted so that files whose stat is unchanged need
+   *     not be read.  Only meaningful when loader reads
+   *     {@link Source#canonicalPath}.
+   * @param extractorPerWorker called at most once per worker thread so that
+   *     extractors that are not thread-safe, for example because they reuse a
+   *     parser, need not be shared.  Thread-safe extractors may be supplied
+   *     via {@link Suppliers#ofInstance}.
+   * @param parallelism the maximum number of worker threads.
+   *     At most 1 means extract on the calling thread.
+   */
+  public static <T extends Serializable>
+  ImmutableMap<Source, Metadata<T>> updateFromSources(
+      final Map<? extends Source, ? extends Metadata<T>> previous,
+      final Function<Source, ByteSource> loader,
+      final Optional<FileStatCache> statCache,
+      final Supplier<? extends Extractor<T>> extractorPerWorker,
+      int parallelism,
+      Iterable<? extends Source> sources)
+  throws IOException {
+    ImmutableList<Source> sourceList = ImmutableList.copyOf(sources);
     ImmutableMap.Builder<Source, Metadata<T>> b = ImmutableSortedMap.orderedBy(
         CompareByCanonicalFile.INSTANCE);
-    for (Source s : sources) {
-      Source mapKey = s;
-      byte[] content;
-      try (InputStream in = loader.apply(s).openStream()) {
-        content = ByteStreams.toByteArray(in);
+
+    int nWorkers = Math.min(parallelism, sourceList.size());
+    if (nWorkers <= 1) {
+      Extractor<T> extractor = extractorPerWorker.get();
+      for (Source s : sourceList) {
+        b.put(s, updateOne(previous, loader, statCache, extractor, s));
       }
-      Hash h = Hash.hashBytes(content);
-      Metadata<T> oldMetadata = previous.get(mapKey);
-      Metadata<T> newMetadata;
-      if (oldMetadata != null && h.equals(oldMetadata.hash)) {
-        newMetadata = oldMetadata;
-      } else {
-        T md = extractor.extractMetadata(s, content);
-        newMetadata = new Metadata<>(h, md);
+      return b.build();
+    }
+
+    // Per call so that extractors do not outlive the pool.
+    final ThreadLocal<Extractor<T>> extractors =
+        new ThreadLocal<Extractor<T>>() {
+          @Override
+          protected Extractor<T> initialValue() {
+            return extractorPerWorker.get();
+          }
+        };
+    int n = sourceList.size();
+    // Failures are recorded rather than thrown so that the first failure in
+    // source order is reported regardless of scheduling.
+    final Object[] results = new Object[n];
+    ForkJoinPool pool = new ForkJoinPool(nWorkers);
+    try {
+      List<Future<?>> futures = Lists.newArrayListWithCapacity(n);
+      for (int i = 0; i < n; ++i) {
+        final int index = i;
+        final Source s = sourceList.get(i);
+        futures.add(pool.submit(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              results[index] = updateOne(
+                  previous, loader, statCache, extractors.get(), s);
+            } catch (IOException ex) {
+              results[index] = ex;
+            }
+          }
+        }));
       }
-      b.put(mapKey, newMetadata);
+      for (int i = 0; i < n; ++i) {
+        try {
+          futures.get(i).get();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException(ex.getMessage());
+        } catch (ExecutionException ex) {
+          Throwables.propagateIfPossible(ex.getCause());
+          throw new IOException(
+              "Failed to extract metadata from " + sourceList.get(i),
+              ex.getCause());
+        }
+        Object result = results[i];
+        if (result instanceof IOException) {
+          throw (IOException) result;
+        }
+        @SuppressWarnings("unchecked")  // Only updateOne results are stored.
+        Metadata<T> md = (Metadata<T>) result;
+        b.put(sourceList.get(i), md);
+      }
+    } finally {
+      pool.shutdownNow();
     }
     return b.build();
   }
 
+  private static <T extends Serializable> Metadata<T> updateOne(
+      Map<? extends Source, ? extends Metadata<T>> previous,
+      Function<Source, ByteSource> loader,
+      Optional<FileStatCache> statCache,
+      Extractor<T> extractor,
+      Source s)
+  throws IOException {
+    Metadata<T> oldMetadata = previous.get(s);
+    FileStatCache.Stat stat = null;
+    if (statCache.isPresent()) {
+      stat = FileStatCache.Stat.of(s.canonicalPath);
+      Optional<Hash> unchanged = statCache.get().getIfUnchanged(
+          s.canonicalPath, stat);
+      if (oldMetadata != null && unchanged.isPresent()
+          && unchanged.get().equals(oldMetadata.hash)) {
+        return oldMetadata;
+      }
+    }
+    byte[] content;
+    try (InputStream in = loader.apply(s).openStream()) {
+      content = ByteStreams.toByteArray(in);
+    }
+    Hash h = statCache.isPresent()
+        ? Hash.hashBytes(
+            statCache.get().getChangeDetectionAlgorithm(), content)
+        : Hash.hashBytes(content);
+    if (stat != null) {
+      statCache.get().put(s.canonicalPath, stat, h);
+    }
+    if (oldMetadata != null && h.equals(oldMetadata.hash)) {
+      return oldMetadata;
+    }
+    T md = extractor.extractMetadata(s, content);
+    return new Metadata<>(h, md);
+  }
+
   /**
    * A pure function from a file path and content to metadata.
    */
@@ -0,0 +1,20 @@
+package com.google.closure.plugin.plan;
+
+import java.io.File;
+
+import org.sonatype.plexus.build.incremental.BuildContext;
+
+/**
+ * A build context that is told about each step's changed outputs as soon as
+ * the step completes.
+ * <p>
+ * The build still {@linkplain BuildContext#refresh refreshes} all changed
+ * outputs in execution order once the plan has executed.  Steps start only
+ * after the steps that precede them complete, so a step sees the outputs of
+ * its preceders; whether it sees those of concurrent steps depends on
+ * timing.
+ */
+public interface StepOutputsListener extends BuildContext {
+  /** Called with the changed outputs of a step that completed normally. */
+  void stepOutputsChanged(Iterable<? extends File> changedOutputs);
+}
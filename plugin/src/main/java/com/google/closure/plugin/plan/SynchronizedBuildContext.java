@@ -0,0 +1,120 @@
+package com.google.closure.plugin.plan;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.codehaus.plexus.util.Scanner;
+import org.sonatype.plexus.build.incremental.BuildContext;
+
+/**
+ * Serializes calls to a build context that plan graph nodes share when
+ * they execute concurrently, since build contexts need not be thread-safe.
+ * <p>
+ * Scanners and output streams that the build context creates are used by
+ * one node each, so they are not wrapped.
+ */
+final class SynchronizedBuildContext implements StepOutputsListener {
+  private final BuildContext delegate;
+
+  SynchronizedBuildContext(BuildContext delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public synchronized void stepOutputsChanged(
+      Iterable<? extends File> changedOutputs) {
+    if (delegate instanceof StepOutputsListener) {
+      ((StepOutputsListener) delegate).stepOutputsChanged(changedOutputs);
+    }
+  }
+
+  @Override
+  public synchronized boolean hasDelta(String relpath) {
+    return delegate.hasDelta(relpath);
+  }
+
+  @Override
+  public synchronized boolean hasDelta(File file) {
+    return delegate.hasDelta(file);
+  }
+
+  @Override
+  public synchronized boolean hasDelta(
+      @SuppressWarnings("rawtypes") List relpaths) {
+    return delegate.hasDelta(relpaths);
+  }
+
+  @Override
+  public synchronized void refresh(File file) {
+    delegate.refresh(file);
+  }
+
+  @Override
+  public synchronized OutputStream newFileOutputStream(File file)
+  throws IOException {
+    return delegate.newFileOutputStream(file);
+  }
+
+  @Override
+  public synchronized Scanner newScanner(File basedir) {
+    return delegate.newScanner(basedir);
+  }
+
+  @Override
+  public synchronized Scanner newDeleteScanner(File basedir) {
+    return delegate.newDeleteScanner(basedir);
+  }
+
+  @Override
+  public synchronized Scanner newScanner(File basedir, boolean ignoreDelta) {
+    return delegate.newScanner(basedir, ignoreDelta);
+  }
+
+  @Override
+  public synchronized boolean isIncremental() {
+    return delegate.isIncremental();
+  }
+
+  @Override
+  public synchronized void setValue(String key, Object value) {
+    delegate.setValue(key, value);
+  }
+
+  @Override
+  public synchronized Object getValue(String key) {
+    return delegate.getValue(key);
+  }
+
+  @Override
+  @Deprecated
+  public synchronized void addWarning(
+      File file, int line, int column, String message, Throwable cause) {
+    delegate.addWarning(file, line, column, message, cause);
+  }
+
+  @Override
+  @Deprecated
+  public synchronized void addError(
+      File file, int line, int column, String message, Throwable cause) {
+    delegate.addError(file, line, column, message, cause);
+  }
+
+  @Override
+  public synchronized void addMessage(
+      File file, int line, int column, String message, int severity,
+      Throwable cause) {
+    delegate.addMessage(file, line, column, message, severity, cause);
+  }
+
+  @Override
+  public synchronized void removeMessages(File file) {
+    delegate.removeMessages(file);
+  }
+
+  @Override
+  public synchronized boolean isUptodate(File target, File source) {
+    return delegate.isUptodate(target, source);
+  }
+}
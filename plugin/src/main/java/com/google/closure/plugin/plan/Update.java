@@ -53,6 +53,14 @@ implements Serializable, StructurallyComparable {
         .build();
   }
 
+  /**
+   * This update with the unchanged items treated as changed, for a consumer
+   * that must process all items.
+   */
+  public Update<T> allAsChanged() {
+    return new Update<>(ImmutableList.<T>of(), allExtant(), defunct);
+  }
+
   @Override
   public int hashCode() {
     final int prime = 31;
@@ -34,7 +34,7 @@ final class CopyProtosToJar extends PlanGraphNode<CopyProtosToJar.SV> {
   @Override
   protected void filterUpdates() throws IOException, MojoExecutionException {
     File f = context.protoIO.mainDescriptorSetFile.get();
-    if (!context.buildContext.isIncremental()
+    if (!context.buildContext.isIncremental() || isDirty()
         || context.buildContext.hasDelta(f)) {
       this.toCopy = Optional.of(f);
     } else {
@@ -5,6 +5,7 @@ import java.io.IOException;
 import org.apache.maven.plugin.MojoExecutionException;
 
 import com.google.common.base.Optional;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.closure.plugin.common.CStyleLexer;
 import com.google.closure.plugin.common.Sources.Source;
@@ -39,16 +40,13 @@ extends BundlingPlanGraphNode<ProtoFinalOptions, ProtoPackageMap> {
           SourceMetadataMapBuilder.updateFromSources(
               oldMap.protoPackages,
               SourceMetadataMapBuilder.REAL_FILE_LOADER,
-              new SourceMetadataMapBuilder.Extractor<Optional<String>>() {
-                @Override
-                public
-                Optional<String> extractMetadata(Source s, byte[] content)
-                throws IOException {
-                  CStyleLexer lexer = new CStyleLexer(
-                      new String(content, "UTF-8"));
-                  return ProtoPackageMap.getPackage(lexer);
-                }
-              },
+              Optional.of(context.statCache),
+              // Lexing is stateless so one extractor serves all workers.
+              // Packages depend only on content so are shared with other
+              // modules that depend on the same protos.
+              Suppliers.ofInstance(context.sessionCache.sharing(
+                  "proto-package", PACKAGE_EXTRACTOR)),
+              context.parallelism,
               protoSources));
     } catch (IOException ex) {
       throw new MojoExecutionException(
@@ -58,6 +56,17 @@ extends BundlingPlanGraphNode<ProtoFinalOptions, ProtoPackageMap> {
     return ImmutableList.of(newProtoPackageMap);
   }
 
+  private static final
+  SourceMetadataMapBuilder.Extractor<Optional<String>> PACKAGE_EXTRACTOR =
+      new SourceMetadataMapBuilder.Extractor<Optional<String>>() {
+        @Override
+        public Optional<String> extractMetadata(Source s, byte[] content)
+        throws IOException {
+          CStyleLexer lexer = new CStyleLexer(new String(content, "UTF-8"));
+          return ProtoPackageMap.getPackage(lexer);
+        }
+      };
+
   @Override
   protected SV getStateVector() {
     return new SV(this);
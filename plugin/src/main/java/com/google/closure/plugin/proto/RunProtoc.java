@@ -29,6 +29,7 @@ import com.google.closure.plugin.common.SourceFileProperty;
 import com.google.closure.plugin.common.TypedFile;
 import com.google.closure.plugin.plan.BundlingPlanGraphNode.OptionsAndBundles;
 import com.google.closure.plugin.plan.CompilePlanGraphNode;
+import com.google.closure.plugin.plan.Hash;
 import com.google.closure.plugin.plan.JoinNodes;
 import com.google.closure.plugin.plan.PlanContext;
 import com.google.closure.plugin.plan.Update;
@@ -50,7 +51,11 @@ extends CompilePlanGraphNode<ProtoFinalOptions, ProtoBundle> {
 
     for (OptionsAndBundles<ProtoFinalOptions, ProtoBundle> c : u.changed) {
       for (ProtoBundle b : c.bundles) {
-        processOne(c.optionsAndInputs.options, b);
+        ProtoFinalOptions options = c.optionsAndInputs.options;
+        if (!restoreFromBuildCache(options, b)) {
+          processOne(options, b);
+          storeInBuildCache(b);
+        }
       }
     }
   }
@@ -184,6 +189,9 @@ extends CompilePlanGraphNode<ProtoFinalOptions, ProtoBundle> {
     }
 
     ImmutableSet.Builder<File> filesForBundleBuilder = ImmutableSet.builder();
+    if (bundle.langSet == LangSet.ALL && bundle.descriptorSetFile.isPresent()) {
+      filesForBundleBuilder.add(bundle.descriptorSetFile.get());
+    }
     if (javaTempDir != null) {
       copyFilesOver(javaTempDir, javaDestDir, filesForBundleBuilder);
     }
@@ -203,6 +211,27 @@ extends CompilePlanGraphNode<ProtoFinalOptions, ProtoBundle> {
     }
   }
 
+  /**
+   * Includes the protoc executable since it is not bundled with the plugin.
+   * It is identified by its content since its path and modification time
+   * differ between machines that share a build cache.
+   */
+  @Override
+  protected String getToolVersion(ProtoFinalOptions options)
+  throws IOException {
+    StringBuilder sb = new StringBuilder(super.getToolVersion(options));
+    try {
+      for (File protoc : context.protoIO.getProtoc(context, options)) {
+        sb.append("\nprotoc ").append(context.statCache.contentHash(
+            protoc.getCanonicalFile(), Hash.Algorithm.SHA512));
+      }
+    } catch (@SuppressWarnings("unused") MojoExecutionException ex) {
+      // Compilation will fail with a better message so nothing will be
+      // stored under this key.
+    }
+    return sb.toString();
+  }
+
   private static String ensureDirExists(File dirPath) throws IOException {
     java.nio.file.Files.createDirectories(dirPath.toPath());
     return dirPath.getPath();
@@ -18,6 +18,13 @@ import com.google.closure.plugin.plan.Update;
 
 final class BuildSoyFileSet
 extends BundlingPlanGraphNode<SoyOptions, SoyBundle> {
+  /**
+   * Outlives the bundles, whose file sets are released and whose suppliers
+   * are replaced when their inputs change, so that the plan graph kept by
+   * the watch goal reuses file sets across builds.
+   */
+  private final SoyFileSetCache fileSetCache = new SoyFileSetCache();
+
   BuildSoyFileSet(PlanContext context) {
     super(context);
   }
@@ -40,7 +47,7 @@ extends BundlingPlanGraphNode<SoyOptions, SoyBundle> {
     }
 
     SoyFileSetSupplier sfsSupplier = new SoyFileSetSupplier(oi);
-    sfsSupplier.init(context);
+    sfsSupplier.init(context, fileSetCache);
 
 
     File outputJar = new File(
@@ -52,6 +59,24 @@ extends BundlingPlanGraphNode<SoyOptions, SoyBundle> {
             sources, sfsSupplier, outputJar, jsOutDir));
   }
 
+  /**
+   * Drops file sets once all backends have compiled them since their parse
+   * trees are not part of the state vector.
+   * The file set cache still refers to them softly.
+   */
+  @Override
+  protected void releaseIntermediates() {
+    Optional<Update<OptionsAndBundles<SoyOptions, SoyBundle>>> opt =
+        getOptionsAndBundles();
+    if (opt.isPresent()) {
+      for (OptionsAndBundles<SoyOptions, SoyBundle> ob : opt.get().all()) {
+        for (SoyBundle b : ob.bundles) {
+          b.sfsSupplier.release();
+        }
+      }
+    }
+  }
+
   @Override
   protected SV getStateVector() {
     return new SV(this);
@@ -70,7 +95,7 @@ extends BundlingPlanGraphNode<SoyOptions, SoyBundle> {
     @Override
     public PlanGraphNode<?> reconstitute(PlanContext c, JoinNodes jn) {
       BuildSoyFileSet node = apply(new BuildSoyFileSet(c));
-      initSfss(node.optionsAndBundles, c);
+      initSfss(node.getOptionsAndBundles(), c);
       return node;
     }
   }
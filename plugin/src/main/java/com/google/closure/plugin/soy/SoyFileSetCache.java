@@ -0,0 +1,48 @@
+package com.google.closure.plugin.soy;
+
+import java.lang.ref.SoftReference;
+import java.util.Map;
+
+import com.google.closure.plugin.plan.Hash;
+import com.google.common.base.Optional;
+import com.google.common.collect.Maps;
+import com.google.template.soy.SoyFileSet;
+
+/**
+ * Keeps the file set last built for each option set so that a later build
+ * in the same process, as under the watch goal, can reuse it when none of
+ * its Soy inputs or proto descriptors changed.
+ * <p>
+ * File sets are softly referenced so that, like other intermediate state,
+ * they can be collected when memory runs short.
+ */
+final class SoyFileSetCache {
+  private final Map<String, Entry> byOptionsId = Maps.newHashMap();
+
+  /**
+   * The file set last built for the option set if it was built from inputs
+   * with the given hash and has not been collected.
+   */
+  synchronized Optional<SoyFileSet> get(String optionsId, Hash inputsHash) {
+    Entry e = byOptionsId.get(optionsId);
+    if (e == null || !e.inputsHash.equals(inputsHash)) {
+      return Optional.absent();
+    }
+    return Optional.fromNullable(e.sfs.get());
+  }
+
+  /** Replaces any file set previously built for the option set. */
+  synchronized void put(String optionsId, Hash inputsHash, SoyFileSet sfs) {
+    byOptionsId.put(optionsId, new Entry(inputsHash, sfs));
+  }
+
+  private static final class Entry {
+    final Hash inputsHash;
+    final SoftReference<SoyFileSet> sfs;
+
+    Entry(Hash inputsHash, SoyFileSet sfs) {
+      this.inputsHash = inputsHash;
+      this.sfs = new SoftReference<>(sfs);
+    }
+  }
+}
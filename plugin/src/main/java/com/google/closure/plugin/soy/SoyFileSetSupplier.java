@@ -3,18 +3,22 @@ package com.google.closure.plugin.soy;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.List;
 
 import org.apache.maven.plugin.MojoExecutionException;
 
 import com.google.closure.plugin.common.SourceFileProperty;
 import com.google.closure.plugin.common.Sources.Source;
+import com.google.closure.plugin.common.StructuralHash;
 import com.google.closure.plugin.common.StructurallyComparable;
+import com.google.closure.plugin.plan.Hash;
 import com.google.closure.plugin.plan.OptionPlanGraphNode.OptionsAndInputs;
 import com.google.closure.plugin.plan.PlanContext;
 import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.io.Files;
 import com.google.protobuf.Descriptors.DescriptorValidationException;
 import com.google.template.soy.SoyFileSet;
@@ -34,6 +38,7 @@ final class SoyFileSetSupplier implements Serializable, StructurallyComparable {
 
   private transient PlanContext context;
   private transient SoyFileSet sfs;
+  private transient SoyFileSetCache cache;
   private final OptionsAndInputs<SoyOptions> optionsAndInputs;
 
   SoyFileSetSupplier(OptionsAndInputs<SoyOptions> optionsAndInputs) {
@@ -49,6 +54,16 @@ final class SoyFileSetSupplier implements Serializable, StructurallyComparable {
     return this;
   }
 
+  /**
+   * @param cache holds file sets built for earlier builds that this may
+   *     reuse if its inputs have not changed since.
+   */
+  @SuppressWarnings("hiding")
+  SoyFileSetSupplier init(PlanContext context, SoyFileSetCache cache) {
+    this.cache = cache;
+    return init(context);
+  }
+
   @SuppressWarnings("hiding")
   synchronized SoyFileSet getSoyFileSet(PlanContext context)
   throws MojoExecutionException{
@@ -61,22 +76,30 @@ final class SoyFileSetSupplier implements Serializable, StructurallyComparable {
     SoyOptions options = optionsAndInputs.options;
     ImmutableList<Source> sources = optionsAndInputs.sources;
 
-    SoyFileSet.Builder sfsBuilder = options.toSoyFileSetBuilder(context.log);
+    // Everything the file set is built from, so that a file set built for
+    // an earlier build can be reused if none of it has changed.
+    ImmutableList.Builder<Hash> inputHashes = ImmutableList.builder();
+    inputHashes.add(StructuralHash.ofOptions(options));
 
+    List<CharSequence> contents = Lists.newArrayList();
+    List<SoyFileKind> kinds = Lists.newArrayList();
     for (Source source : sources) {
       String relPath = source.relativePath.getPath();
       SoyFileKind kind =
           source.root.ps.contains(SourceFileProperty.LOAD_AS_NEEDED)
           ? SoyFileKind.DEP
               : SoyFileKind.SRC;
+      String content;
       try {
-        CharSequence content = Files.toString(
-            source.canonicalPath, Charsets.UTF_8);
-        sfsBuilder.addWithKind(content, kind, relPath);
+        content = Files.toString(source.canonicalPath, Charsets.UTF_8);
       } catch (IOException ex) {
         throw new MojoExecutionException(
             "Failed to read soy source: " + relPath, ex);
       }
+      contents.add(content);
+      kinds.add(kind);
+      inputHashes.add(Hash.hashString(kind + " " + relPath));
+      inputHashes.add(Hash.hashString(content));
     }
 
     // Link the proto descriptors into the Soy type system so that Soy can
@@ -90,12 +113,43 @@ final class SoyFileSetSupplier implements Serializable, StructurallyComparable {
     }
 
     File mainDescriptorSetFile = mainDescriptorSetFileOpt.get();
+    boolean hasDescriptors = mainDescriptorSetFile.exists();
+    if (hasDescriptors) {
+      try {
+        inputHashes.add(context.statCache.contentHash(
+            mainDescriptorSetFile.getCanonicalFile()));
+      } catch (IOException ex) {
+        throw new MojoExecutionException(
+            "Soy couldn't read proto descriptors from "
+            + mainDescriptorSetFile,
+            ex);
+      }
+    }
+
+    Hash inputsHash = Hash.hashAllHashes(inputHashes.build());
+    if (cache != null) {
+      Optional<SoyFileSet> reusable = cache.get(options.getId(), inputsHash);
+      if (reusable.isPresent()) {
+        context.log.debug("Reusing soy file set for " + options.getId());
+        this.sfs = reusable.get();
+        return sfs;
+      }
+    }
+
+    SoyFileSet.Builder sfsBuilder = options.toSoyFileSetBuilder(context.log);
+
+    for (int i = 0, n = sources.size(); i < n; ++i) {
+      sfsBuilder.addWithKind(
+          contents.get(i), kinds.get(i),
+          sources.get(i).relativePath.getPath());
+    }
+
     context.log.debug(
         "soy using proto descriptor file " + mainDescriptorSetFile);
 
     SoyProtoTypeProvider protoTypeProvider = null;
     try {
-      if (mainDescriptorSetFile.exists()) {
+      if (hasDescriptors) {
         protoTypeProvider = new SoyProtoTypeProvider.Builder()
             // TODO: do we need to extract descriptor set files from
             // <extract>ed dependencies and include them here?
@@ -123,9 +177,20 @@ final class SoyFileSetSupplier implements Serializable, StructurallyComparable {
     }
 
     this.sfs = sfsBuilder.build();
+    if (cache != null) {
+      cache.put(options.getId(), inputsHash, sfs);
+    }
     return sfs;
   }
 
+  /**
+   * Drops the file set so that it can be collected.  It is reused from the
+   * cache, if still there, or rebuilt if needed again.
+   */
+  synchronized void release() {
+    this.sfs = null;
+  }
+
   @Override
   public int hashCode() {
     return optionsAndInputs.hashCode();
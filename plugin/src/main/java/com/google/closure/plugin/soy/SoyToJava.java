@@ -1,10 +1,11 @@
 package com.google.closure.plugin.soy;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -21,7 +22,6 @@ import com.google.closure.plugin.plan.PlanGraphNode;
 import com.google.closure.plugin.plan.Update;
 import com.google.common.io.ByteSink;
 import com.google.common.io.ByteStreams;
-import com.google.common.io.FileWriteMode;
 import com.google.common.io.Files;
 import com.google.template.soy.SoyFileSet;
 import com.google.template.soy.SoyToJbcSrcCompiler;
@@ -49,7 +49,10 @@ final class SoyToJava extends CompilePlanGraphNode<SoyOptions, SoyBundle> {
     this.changedFiles.clear();
     for (OptionsAndBundles<SoyOptions, SoyBundle> c : u.changed) {
       for (SoyBundle b : c.bundles) {
-        processOne(b);
+        if (!restoreFromBuildCache(c.optionsAndInputs.options, b)) {
+          processOne(b);
+          storeInBuildCache(b);
+        }
       }
     }
   }
@@ -62,13 +65,16 @@ final class SoyToJava extends CompilePlanGraphNode<SoyOptions, SoyBundle> {
     SoyFileSet sfs = bundle.sfsSupplier.getSoyFileSet(context);
 
     // Compile To Jar
-    final FileWriteMode[] writeModes = new FileWriteMode[0];
-    ByteSink classJarOut = Files.asByteSink(classJarOutFile, writeModes);
-    Optional<ByteSink> srcJarOut = Optional.of(
-        Files.asByteSink(srcJarOutFile, writeModes));
+    // The JARs are compiled in memory so that they and the classes unpacked
+    // from them are only written when they differ from the last build's.
+    InMemoryByteSink classJarOut = new InMemoryByteSink();
+    InMemoryByteSink srcJarOut = new InMemoryByteSink();
     try {
       // TODO: relay errors and warnings via build context.
-      SoyToJbcSrcCompiler.compile(sfs, classJarOut, srcJarOut);
+      SoyToJbcSrcCompiler.compile(
+          sfs, classJarOut, Optional.<ByteSink>of(srcJarOut));
+      writeOutput(classJarOutFile, classJarOut.bytes.toByteArray());
+      writeOutput(srcJarOutFile, srcJarOut.bytes.toByteArray());
     } catch (IOException ex) {
       throw new MojoExecutionException(
           "Failed to write compiled Soy output to a JAR", ex);
@@ -81,7 +87,8 @@ final class SoyToJava extends CompilePlanGraphNode<SoyOptions, SoyBundle> {
     // Unpack JAR into classes directory.
     File projectBuildOutputDirectory = context.projectBuildOutputDirectory;
     try {
-      try (InputStream in = new FileInputStream(classJarOutFile)) {
+      try (InputStream in = new ByteArrayInputStream(
+               classJarOut.bytes.toByteArray())) {
         try (ZipInputStream zipIn = new ZipInputStream(in)) {
           for (ZipEntry entry; (entry = zipIn.getNextEntry()) != null;
               zipIn.closeEntry()) {
@@ -94,11 +101,8 @@ final class SoyToJava extends CompilePlanGraphNode<SoyOptions, SoyBundle> {
             context.log.debug("Unpacking " + name + " from soy generated jar");
             File outputFile = new File(FilenameUtils.concat(
                 projectBuildOutputDirectory.getPath(), name));
-            Files.createParentDirs(outputFile);
             outputsThisBundleBuilder.add(outputFile);
-            try (FileOutputStream dest = new FileOutputStream(outputFile)) {
-              ByteStreams.copy(zipIn, dest);
-            }
+            writeOutput(outputFile, ByteStreams.toByteArray(zipIn));
           }
         }
       }
@@ -111,8 +115,16 @@ final class SoyToJava extends CompilePlanGraphNode<SoyOptions, SoyBundle> {
 
     ImmutableList<File> outputsThisBundle = outputsThisBundleBuilder.build();
     this.bundleToOutputs.put(bundle, outputsThisBundle);
-    // TODO: We could hash before compiling to filter this down.
-    this.changedFiles.addAll(outputsThisBundle);
+  }
+
+  private static final class InMemoryByteSink extends ByteSink {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    @Override
+    public OutputStream openStream() {
+      bytes.reset();
+      return bytes;
+    }
   }
 
   @Override
@@ -7,7 +7,6 @@ import java.util.List;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.maven.plugin.MojoExecutionException;
 
-import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.closure.plugin.common.Sources.Source;
@@ -17,7 +16,6 @@ import com.google.closure.plugin.plan.JoinNodes;
 import com.google.closure.plugin.plan.PlanContext;
 import com.google.closure.plugin.plan.PlanGraphNode;
 import com.google.closure.plugin.plan.Update;
-import com.google.common.io.Files;
 import com.google.template.soy.SoyFileSet;
 import com.google.template.soy.jssrc.SoyJsSrcOptions;
 import com.google.template.soy.msgs.SoyMsgBundle;
@@ -38,7 +36,11 @@ final class SoyToJs extends CompilePlanGraphNode<SoyOptions, SoyBundle> {
     this.changedFiles.clear();
     for (OptionsAndBundles<SoyOptions, SoyBundle> c : u.changed) {
       for (SoyBundle b : c.bundles) {
-        processOne(c.optionsAndInputs.options, b);
+        SoyOptions options = c.optionsAndInputs.options;
+        if (!restoreFromBuildCache(options, b)) {
+          processOne(options, b);
+          storeInBuildCache(b);
+        }
       }
     }
   }
@@ -80,9 +82,8 @@ final class SoyToJs extends CompilePlanGraphNode<SoyOptions, SoyBundle> {
             FilenameUtils.getBaseName(inputRelPath.getName()) + suffix);
         File outputPath = new File(FilenameUtils.concat(
             bundle.jsOutDir.getPath(), outputRelPath.getPath()));
-        Files.createParentDirs(outputPath);
         try {
-          Files.write(compiledJsContent, outputPath, Charsets.UTF_8);
+          writeOutput(outputPath, compiledJsContent);
         } catch (IOException ex) {
           throw new MojoExecutionException(
               "Failed to write soy templates compiled from " + inputRelPath
@@ -95,8 +96,6 @@ final class SoyToJs extends CompilePlanGraphNode<SoyOptions, SoyBundle> {
 
     ImmutableList<File> outputsThisBundle = outputsThisBundleBuilder.build();
     this.bundleToOutputs.put(bundle, outputsThisBundle);
-    // TODO: We could hash before compiling to filter this down.
-    this.changedFiles.addAll(outputsThisBundle);
   }
 
   @Override
@@ -0,0 +1,46 @@
+package com.google.closure.plugin.watch;
+
+import java.io.File;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * A set of files that changed between two builds.
+ */
+public final class ChangeBatch {
+  /** Canonical paths of files that were created or modified. */
+  public final ImmutableSet<File> changed;
+  /** Canonical paths of files that no longer exist. */
+  public final ImmutableSet<File> deleted;
+  /**
+   * True if changes might have been missed, for example because too many
+   * events happened at once or a watched directory was deleted.
+   * An incomplete batch requires a full rescan.
+   */
+  public final boolean incomplete;
+
+  /** */
+  public ChangeBatch(
+      Iterable<? extends File> changed, Iterable<? extends File> deleted,
+      boolean incomplete) {
+    this.changed = ImmutableSet.copyOf(changed);
+    this.deleted = ImmutableSet.copyOf(deleted);
+    this.incomplete = incomplete;
+  }
+
+  /** True if nothing changed. */
+  public boolean isEmpty() {
+    return changed.isEmpty() && deleted.isEmpty() && !incomplete;
+  }
+
+  /** The count of files changed or deleted. */
+  public int size() {
+    return changed.size() + deleted.size();
+  }
+
+  @Override
+  public String toString() {
+    return "{changed=" + changed + ", deleted=" + deleted
+        + (incomplete ? ", incomplete" : "") + "}";
+  }
+}
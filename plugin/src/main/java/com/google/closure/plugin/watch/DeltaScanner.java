@@ -0,0 +1,56 @@
+package com.google.closure.plugin.watch;
+
+import java.io.File;
+
+import org.codehaus.plexus.util.AbstractScanner;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A scanner that matches a known set of relative paths against its includes
+ * and excludes instead of walking the file system.
+ */
+final class DeltaScanner extends AbstractScanner {
+  private static final String[] EMPTY_STRING_ARRAY = new String[0];
+
+  private final File basedir;
+  private final ImmutableList<String> relativePaths;
+  private String[] includedFiles = EMPTY_STRING_ARRAY;
+
+  /**
+   * @param relativePaths paths relative to basedir using the platform's
+   *     file separator.
+   */
+  DeltaScanner(File basedir, Iterable<? extends String> relativePaths) {
+    this.basedir = basedir;
+    this.relativePaths = ImmutableList.copyOf(relativePaths);
+  }
+
+  @Override
+  public void scan() {
+    setupDefaultFilters();
+    setupMatchPatterns();
+    ImmutableList.Builder<String> included = ImmutableList.builder();
+    for (String relativePath : relativePaths) {
+      if (isIncluded(relativePath) && !isExcluded(relativePath)) {
+        included.add(relativePath);
+      }
+    }
+    includedFiles = included.build().toArray(EMPTY_STRING_ARRAY);
+  }
+
+  @Override
+  public String[] getIncludedFiles() {
+    return includedFiles.clone();
+  }
+
+  @Override
+  public String[] getIncludedDirectories() {
+    return EMPTY_STRING_ARRAY;
+  }
+
+  @Override
+  public File getBasedir() {
+    return basedir;
+  }
+}
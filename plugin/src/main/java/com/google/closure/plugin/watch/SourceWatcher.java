@@ -0,0 +1,148 @@
+package com.google.closure.plugin.watch;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Watches directory trees and groups file-system events into batches.
+ * <p>
+ * A batch ends once no events have arrived for a debounce interval so that
+ * an editor saving many files, or a version control checkout, leads to one
+ * rebuild instead of many.
+ * <p>
+ * Hidden {@code .tmp} files, which the build writes before renaming them
+ * over outputs, are ignored.
+ * <p>
+ * Not thread-safe.
+ */
+public final class SourceWatcher implements Closeable {
+  private final WatchService watchService;
+  private final Map<WatchKey, Path> keyToDir = Maps.newHashMap();
+
+  /** */
+  public SourceWatcher() throws IOException {
+    this.watchService = FileSystems.getDefault().newWatchService();
+  }
+
+  /**
+   * Watches root and all directories under it.
+   * Directories created later are watched as they appear.
+   * Does nothing if root is not a directory.
+   */
+  public void watchTree(File root) throws IOException {
+    if (root.isDirectory()) {
+      registerTree(root.getCanonicalFile().toPath(), null);
+    }
+  }
+
+  private void registerTree(Path root, final Set<File> filesFound)
+  throws IOException {
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(
+          Path dir, BasicFileAttributes attrs)
+      throws IOException {
+        WatchKey key = dir.register(
+            watchService,
+            StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY,
+            StandardWatchEventKinds.ENTRY_DELETE);
+        keyToDir.put(key, dir);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        if (filesFound != null) {
+          filesFound.add(file.toFile());
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  /**
+   * Blocks until at least one change happens and then until no change has
+   * happened for debounceMillis.
+   */
+  public ChangeBatch take(long debounceMillis)
+  throws IOException, InterruptedException {
+    Set<File> touched = Sets.newLinkedHashSet();
+    boolean incomplete = false;
+    WatchKey key = watchService.take();
+    while (key != null) {
+      incomplete |= drain(key, touched);
+      key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // A file may have been deleted and recreated within the batch, so
+    // classify by its current state.
+    List<File> changed = Lists.newArrayList();
+    List<File> deleted = Lists.newArrayList();
+    for (File f : touched) {
+      if (f.isFile()) {
+        changed.add(f);
+      } else if (!f.exists()) {
+        deleted.add(f);
+      }
+    }
+    return new ChangeBatch(changed, deleted, incomplete);
+  }
+
+  /** @return true if events might have been lost. */
+  private boolean drain(WatchKey key, Set<File> touched) throws IOException {
+    boolean incomplete = false;
+    Path dir = keyToDir.get(key);
+    for (WatchEvent<?> event : key.pollEvents()) {
+      WatchEvent.Kind<?> kind = event.kind();
+      if (kind == StandardWatchEventKinds.OVERFLOW || dir == null) {
+        incomplete = true;
+        continue;
+      }
+      Path child = dir.resolve((Path) event.context());
+      if (kind == StandardWatchEventKinds.ENTRY_CREATE
+          && Files.isDirectory(child)) {
+        // Files may have been created before the directory was registered.
+        registerTree(child, touched);
+      } else if (!isBuildTempFile(child)) {
+        touched.add(child.toFile());
+      }
+    }
+    if (!key.reset()) {
+      // The directory is no longer accessible, so we do not know which
+      // files under it disappeared.
+      keyToDir.remove(key);
+      incomplete = true;
+    }
+    return incomplete;
+  }
+
+  static boolean isBuildTempFile(Path p) {
+    String name = p.getFileName().toString();
+    return name.startsWith(".") && name.endsWith(".tmp");
+  }
+
+  @Override
+  public void close() throws IOException {
+    watchService.close();
+  }
+}
@@ -0,0 +1,312 @@
+package com.google.closure.plugin.watch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.codehaus.plexus.util.Scanner;
+import org.sonatype.plexus.build.incremental.BuildContext;
+
+import com.google.closure.plugin.plan.StepOutputsListener;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * A build context that reports the files in the current {@link ChangeBatch}
+ * as the delta so that plan graph nodes only rescan what changed.
+ * <p>
+ * Until a batch is {@linkplain #setDelta set}, and after an incomplete one,
+ * everything is delegated so that nodes do a full scan.
+ * <p>
+ * The outputs of each step are part of the delta for the rest of that build
+ * as soon as the step completes, so that outputs like JS generated from Soy
+ * are rescanned by the steps that follow and consume them.
+ * Files that the build {@linkplain #refresh refreshes} are
+ * {@linkplain #withoutBuildWrites left out} of the next batch so that a
+ * build does not trigger another.
+ */
+public final class WatchBuildContext implements StepOutputsListener {
+  private final BuildContext delegate;
+  private final File baseDir;
+  private volatile Optional<ChangeBatch> delta = Optional.absent();
+  /**
+   * Guarded by this.  Canonical files that builds wrote, mapped to their
+   * state just afterwards.
+   */
+  private final Map<File, FileState> written = Maps.newHashMap();
+  /**
+   * Guarded by this.  Canonical files that completed steps of the current
+   * build wrote.
+   */
+  private final Set<File> writtenThisBuild = Sets.newLinkedHashSet();
+
+  /**
+   * @param baseDir the project base directory against which
+   *     {@link #hasDelta(String)} resolves paths.
+   */
+  public WatchBuildContext(BuildContext delegate, File baseDir) {
+    this.delegate = delegate;
+    this.baseDir = baseDir;
+  }
+
+  /**
+   * Sets the changes reported to the next build.
+   *
+   * @param newDelta absent to make the next build a full one.
+   */
+  public void setDelta(Optional<ChangeBatch> newDelta) {
+    synchronized (this) {
+      writtenThisBuild.clear();
+    }
+    this.delta = newDelta;
+  }
+
+  /**
+   * The batch without files that are still as a build left them, since the
+   * build that wrote them already took them into account.
+   */
+  public synchronized ChangeBatch withoutBuildWrites(ChangeBatch batch) {
+    List<File> changed = Lists.newArrayList();
+    for (File f : batch.changed) {
+      if (!isAsWritten(f)) { changed.add(f); }
+    }
+    List<File> deleted = Lists.newArrayList();
+    for (File f : batch.deleted) {
+      if (!isAsWritten(f)) { deleted.add(f); }
+    }
+    return new ChangeBatch(changed, deleted, batch.incomplete);
+  }
+
+  private boolean isAsWritten(File f) {
+    FileState state = written.get(f);
+    return state != null && state.equals(FileState.of(f));
+  }
+
+  /**
+   * The files written by the current build which exist, or which do not.
+   */
+  private synchronized ImmutableList<File> writtenThisBuild(boolean exist) {
+    ImmutableList.Builder<File> b = ImmutableList.builder();
+    for (File f : writtenThisBuild) {
+      if (f.exists() == exist) { b.add(f); }
+    }
+    return b.build();
+  }
+
+  private Optional<ChangeBatch> completeDelta() {
+    Optional<ChangeBatch> d = delta;
+    return d.isPresent() && !d.get().incomplete
+        ? d : Optional.<ChangeBatch>absent();
+  }
+
+  @Override
+  public boolean isIncremental() {
+    return completeDelta().isPresent() || delegate.isIncremental();
+  }
+
+  @Override
+  public boolean hasDelta(String relpath) {
+    return hasDelta(new File(baseDir, relpath));
+  }
+
+  @Override
+  public boolean hasDelta(File file) {
+    Optional<ChangeBatch> d = completeDelta();
+    if (!d.isPresent()) { return delegate.hasDelta(file); }
+    File canonFile;
+    try {
+      canonFile = file.getCanonicalFile();
+    } catch (@SuppressWarnings("unused") IOException ex) {
+      return true;  // conservatively
+    }
+    return !relativePathsUnder(canonFile, d.get().changed).isEmpty()
+        || !relativePathsUnder(canonFile, d.get().deleted).isEmpty()
+        || !relativePathsUnder(canonFile, writtenThisBuild(true)).isEmpty()
+        || !relativePathsUnder(canonFile, writtenThisBuild(false)).isEmpty();
+  }
+
+  @Override
+  public boolean hasDelta(@SuppressWarnings("rawtypes") List relpaths) {
+    for (Object relpath : relpaths) {
+      if (hasDelta((String) relpath)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public Scanner newScanner(File basedir) {
+    return newScanner(basedir, false);
+  }
+
+  @Override
+  public Scanner newScanner(File basedir, boolean ignoreDelta) {
+    Optional<ChangeBatch> d = completeDelta();
+    if (ignoreDelta || !d.isPresent()) {
+      return delegate.newScanner(basedir, ignoreDelta);
+    }
+    return deltaScanner(
+        basedir,
+        ImmutableSet.copyOf(
+            Iterables.concat(d.get().changed, writtenThisBuild(true))));
+  }
+
+  @Override
+  public Scanner newDeleteScanner(File basedir) {
+    Optional<ChangeBatch> d = completeDelta();
+    if (!d.isPresent()) {
+      return delegate.newDeleteScanner(basedir);
+    }
+    return deltaScanner(
+        basedir,
+        ImmutableSet.copyOf(
+            Iterables.concat(d.get().deleted, writtenThisBuild(false))));
+  }
+
+  private static Scanner deltaScanner(File basedir, Iterable<File> files) {
+    File canonBasedir;
+    try {
+      canonBasedir = basedir.getCanonicalFile();
+    } catch (@SuppressWarnings("unused") IOException ex) {
+      canonBasedir = basedir.getAbsoluteFile();
+    }
+    return new DeltaScanner(basedir, relativePathsUnder(canonBasedir, files));
+  }
+
+  /**
+   * The paths relative to dir of those files that are dir or are under dir.
+   */
+  static ImmutableList<String> relativePathsUnder(
+      File dir, Iterable<File> files) {
+    String prefix = dir.getPath();
+    if (!prefix.endsWith(File.separator)) {
+      prefix += File.separator;
+    }
+    ImmutableList.Builder<String> b = ImmutableList.builder();
+    for (File f : files) {
+      String path = f.getPath();
+      if (path.startsWith(prefix)) {
+        b.add(path.substring(prefix.length()));
+      } else if (f.equals(dir)) {
+        b.add("");
+      }
+    }
+    return b.build();
+  }
+
+  @Override
+  public void refresh(File file) {
+    delegate.refresh(file);
+    File canonFile;
+    try {
+      canonFile = file.getCanonicalFile();
+    } catch (@SuppressWarnings("unused") IOException ex) {
+      return;  // At worst, the write causes a redundant rebuild.
+    }
+    synchronized (this) {
+      written.put(canonFile, FileState.of(canonFile));
+    }
+  }
+
+  @Override
+  public void stepOutputsChanged(Iterable<? extends File> changedOutputs) {
+    for (File f : changedOutputs) {
+      File canonFile;
+      try {
+        canonFile = f.getCanonicalFile();
+      } catch (@SuppressWarnings("unused") IOException ex) {
+        canonFile = f.getAbsoluteFile();
+      }
+      synchronized (this) {
+        writtenThisBuild.add(canonFile);
+      }
+    }
+  }
+
+  @Override
+  public OutputStream newFileOutputStream(File file) throws IOException {
+    return delegate.newFileOutputStream(file);
+  }
+
+  @Override
+  public void setValue(String key, Object value) {
+    delegate.setValue(key, value);
+  }
+
+  @Override
+  public Object getValue(String key) {
+    return delegate.getValue(key);
+  }
+
+  @Override
+  @Deprecated
+  public void addWarning(
+      File file, int line, int column, String message, Throwable cause) {
+    delegate.addWarning(file, line, column, message, cause);
+  }
+
+  @Override
+  @Deprecated
+  public void addError(
+      File file, int line, int column, String message, Throwable cause) {
+    delegate.addError(file, line, column, message, cause);
+  }
+
+  @Override
+  public void addMessage(
+      File file, int line, int column, String message, int severity,
+      Throwable cause) {
+    delegate.addMessage(file, line, column, message, severity, cause);
+  }
+
+  @Override
+  public void removeMessages(File file) {
+    delegate.removeMessages(file);
+  }
+
+  @Override
+  public boolean isUptodate(File target, File source) {
+    return delegate.isUptodate(target, source);
+  }
+
+
+  /** Enough of a file's state to tell whether it changed. */
+  private static final class FileState {
+    /** -1 if the file does not exist. */
+    final long length;
+    final long lastModified;
+
+    private FileState(long length, long lastModified) {
+      this.length = length;
+      this.lastModified = lastModified;
+    }
+
+    static FileState of(File f) {
+      return f.isFile()
+          ? new FileState(f.length(), f.lastModified())
+          : new FileState(-1, 0);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof FileState)) { return false; }
+      FileState that = (FileState) o;
+      return this.length == that.length
+          && this.lastModified == that.lastModified;
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) (length ^ (lastModified * 31));
+    }
+  }
+}
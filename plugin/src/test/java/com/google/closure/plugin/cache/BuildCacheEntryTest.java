@@ -0,0 +1,86 @@
+package com.google.closure.plugin.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public final class BuildCacheEntryTest extends TestCase {
+
+  /** An entry with one output at path that maps foo to a. */
+  private static byte[] entryWithPath(String path) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(0x434c4243);  // "CLBC"
+    out.writeInt(3);
+    out.writeInt(1);
+    out.writeUTF(path);
+    out.writeInt(1);
+    out.write('x');
+    out.writeInt(1);
+    out.writeUTF("foo");
+    out.writeUTF("a");
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  @Test
+  public static void testRoundTrip() throws Exception {
+    BuildCacheEntry entry = BuildCacheEntry.read(
+        new ByteArrayInputStream(entryWithPath("js/main.js")));
+    File root = new File("root");
+    assertEquals(
+        ImmutableList.of(new File(new File(root, "js"), "main.js")),
+        entry.getFiles(root));
+    assertEquals(ImmutableMap.of("foo", "a"), entry.mappings);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    entry.write(bytes);
+    assertEquals(
+        new String(entryWithPath("js/main.js"), "ISO-8859-1"),
+        new String(bytes.toByteArray(), "ISO-8859-1"));
+  }
+
+  @Test
+  public static void testUnsafePathsRejected() throws Exception {
+    for (String path : new String[] {
+           "", "/etc/passwd", "../foo.js", "js/../../foo.js", "js/./foo.js",
+           "js//foo.js", "js/", "C:/foo.js", "..\\foo.js",
+         }) {
+      try {
+        BuildCacheEntry.read(new ByteArrayInputStream(entryWithPath(path)));
+        fail(path);
+      } catch (@SuppressWarnings("unused") IOException ex) {
+        // Ok
+      }
+    }
+  }
+
+  @Test
+  public static void testCaptureOutsideRootFails() throws Exception {
+    File tmp = Files.createTempDir();
+    try {
+      File out = new File(tmp, "foo.js");
+      Files.write(new byte[] { 'x' }, out);
+      try {
+        BuildCacheEntry.capture(
+            new File(tmp, "root"), ImmutableList.of(out));
+        fail();
+      } catch (@SuppressWarnings("unused") IOException ex) {
+        // Ok
+      }
+    } finally {
+      assertTrue(new File(tmp, "foo.js").delete());
+      assertTrue(tmp.delete());
+    }
+  }
+}
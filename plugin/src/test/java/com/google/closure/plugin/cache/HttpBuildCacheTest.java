@@ -0,0 +1,100 @@
+package com.google.closure.plugin.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+
+import org.junit.Test;
+
+import com.google.closure.plugin.TestLog;
+import com.google.closure.plugin.plan.Hash;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public class HttpBuildCacheTest extends TestCase {
+
+  private static void deleteTree(File f) throws IOException {
+    File[] children = f.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteTree(child);
+      }
+    }
+    if (f.exists() && !f.delete()) {
+      throw new IOException("Failed to delete " + f);
+    }
+  }
+
+  @Test
+  public static void testRoundTripThroughReferenceServer() throws Exception {
+    File tmp = Files.createTempDir();
+    BuildCacheServer server = new BuildCacheServer(
+        new File(tmp, "server"),
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    server.start();
+    try {
+      File root = new File(tmp, "workspace1");
+      File out = new File(new File(root, "css"), "foo.css");
+      Files.createParentDirs(out);
+      Files.write(".foo { color: red }", out, Charsets.UTF_8);
+      BuildCacheEntry entry = BuildCacheEntry.capture(
+          root, ImmutableList.of(out));
+
+      URL url = new URL(
+          "http://127.0.0.1:" + server.getAddress().getPort() + "/cache/");
+      HttpBuildCache cache = new HttpBuildCache(url, 5000, true);
+      Hash key = Hash.hashString("key");
+      assertFalse(cache.get(key).isPresent());
+      cache.put(key, entry);
+
+      // A second machine with an empty local cache and a workspace in a
+      // different place gets a remote hit.
+      LocalBuildCache local = new LocalBuildCache(new File(tmp, "local"), 1000);
+      TieredBuildCache tiered = new TieredBuildCache(
+          new TestLog(), local, new HttpBuildCache(url, 5000, false));
+      File otherRoot = new File(tmp, "workspace2");
+      File otherOut = new File(new File(otherRoot, "css"), "foo.css");
+      assertEquals(
+          ImmutableList.of(otherOut),
+          tiered.get(key).get().restore(otherRoot));
+      assertEquals(
+          ".foo { color: red }", Files.toString(otherOut, Charsets.UTF_8));
+      // And copies it locally.
+      assertTrue(local.get(key).isPresent());
+      assertEquals(1, tiered.getStats().getHits());
+    } finally {
+      server.stop();
+      deleteTree(tmp);
+    }
+  }
+
+  @Test
+  public static void testSlowRemoteFallsBackToLocal() throws Exception {
+    File tmp = Files.createTempDir();
+    // Accepts connections but never responds.
+    try (ServerSocket unresponsive = new ServerSocket(
+             0, 50, InetAddress.getLoopbackAddress())) {
+      URL url = new URL(
+          "http://127.0.0.1:" + unresponsive.getLocalPort() + "/");
+      HttpBuildCache remote = new HttpBuildCache(url, 200, true);
+      TieredBuildCache tiered = new TieredBuildCache(
+          new TestLog(), new LocalBuildCache(tmp, 1000), remote);
+
+      assertFalse(tiered.get(Hash.hashString("a")).isPresent());
+      // Once it has failed, the remote cache is not consulted again.
+      long t0 = System.nanoTime();
+      assertFalse(tiered.get(Hash.hashString("b")).isPresent());
+      assertTrue(System.nanoTime() - t0 < 100000000L /* 100ms */);
+      assertEquals(2, tiered.getStats().getMisses());
+    } finally {
+      deleteTree(tmp);
+    }
+  }
+}
@@ -0,0 +1,117 @@
+package com.google.closure.plugin.cache;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.google.closure.plugin.plan.Hash;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public class LocalBuildCacheTest extends TestCase {
+
+  private static void deleteTree(File f) throws IOException {
+    File[] children = f.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteTree(child);
+      }
+    }
+    if (f.exists() && !f.delete()) {
+      throw new IOException("Failed to delete " + f);
+    }
+  }
+
+  @Test
+  public static void testStoreAndRestore() throws Exception {
+    File tmp = Files.createTempDir();
+    try {
+      File out = new File(new File(tmp, "out"), "foo.js");
+      Files.createParentDirs(out);
+      Files.write("var x = 1;", out, Charsets.UTF_8);
+
+      LocalBuildCache cache = new LocalBuildCache(
+          new File(tmp, "cache"), 1 << 20);
+      Hash key = Hash.hashString("key");
+      assertFalse(cache.get(key).isPresent());
+      File root = new File(tmp, "out");
+      cache.put(key, BuildCacheEntry.capture(root, ImmutableList.of(out)));
+
+      assertTrue(out.delete());
+      BuildCacheEntry entry = cache.get(key).get();
+      assertEquals(ImmutableList.of(out), entry.getFiles(root));
+      assertEquals(ImmutableList.of(out), entry.restore(root));
+      assertEquals("var x = 1;", Files.toString(out, Charsets.UTF_8));
+      // Restoring again changes nothing.
+      assertEquals(ImmutableList.<File>of(), entry.restore(root));
+
+      assertEquals(1, cache.getStats().getHits());
+      assertEquals(1, cache.getStats().getMisses());
+      assertEquals(1, cache.getStats().getStores());
+    } finally {
+      deleteTree(tmp);
+    }
+  }
+
+  @Test
+  public static void testLeastRecentlyUsedEvicted() throws Exception {
+    File tmp = Files.createTempDir();
+    try {
+      File out = new File(tmp, "big.bin");
+      Files.write(new byte[1000], out);
+      BuildCacheEntry entry = BuildCacheEntry.capture(
+          tmp, ImmutableList.of(out));
+
+      LocalBuildCache cache = new LocalBuildCache(new File(tmp, "cache"), 2500);
+      Hash a = Hash.hashString("a");
+      Hash b = Hash.hashString("b");
+      Hash c = Hash.hashString("c");
+      cache.put(a, entry);
+      cache.put(b, entry);
+      File aFile = new File(new File(tmp, "cache"), a.toHexString() + ".entry");
+      File bFile = new File(new File(tmp, "cache"), b.toHexString() + ".entry");
+      // Make b older than a so that a is the most recently used.
+      assertTrue(bFile.setLastModified(aFile.lastModified() - 10000));
+      cache.put(c, entry);
+
+      assertTrue(cache.get(a).isPresent());
+      assertFalse(cache.get(b).isPresent());
+      assertTrue(cache.get(c).isPresent());
+      assertEquals(1, cache.getStats().getEvictions());
+    } finally {
+      deleteTree(tmp);
+    }
+  }
+
+  @Test
+  public static void testReplacedEntriesNotCountedTwice() throws Exception {
+    File tmp = Files.createTempDir();
+    try {
+      File out = new File(tmp, "big.bin");
+      Files.write(new byte[1000], out);
+      BuildCacheEntry entry = BuildCacheEntry.capture(
+          tmp, ImmutableList.of(out));
+      File dir = new File(tmp, "cache");
+
+      LocalBuildCache cache = new LocalBuildCache(dir, 2500);
+      Hash a = Hash.hashString("a");
+      cache.put(a, entry);
+      cache.put(a, entry);
+      cache.put(a, entry);
+      cache.put(Hash.hashString("b"), entry);
+      assertEquals(0, cache.getStats().getEvictions());
+      assertEquals(2, dir.listFiles().length);
+      // The running total passes the cap.
+      cache.put(Hash.hashString("c"), entry);
+      assertEquals(1, cache.getStats().getEvictions());
+      assertEquals(2, dir.listFiles().length);
+    } finally {
+      deleteTree(tmp);
+    }
+  }
+}
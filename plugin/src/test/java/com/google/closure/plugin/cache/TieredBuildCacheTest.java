@@ -0,0 +1,59 @@
+package com.google.closure.plugin.cache;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.google.closure.plugin.TestLog;
+import com.google.closure.plugin.plan.Hash;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public class TieredBuildCacheTest extends TestCase {
+
+  @Test
+  public static void testRemoteHitReturnedWhenLocalPutFails()
+  throws Exception {
+    File tmp = Files.createTempDir();
+    try {
+      File out = new File(tmp, "foo.js");
+      Files.write(new byte[] { 'x' }, out);
+      final BuildCacheEntry entry = BuildCacheEntry.capture(
+          tmp, ImmutableList.of(out));
+      final BuildCacheStats remoteStats = new BuildCacheStats();
+      BuildCache remote = new BuildCache() {
+        @Override
+        public Optional<BuildCacheEntry> get(Hash key) {
+          remoteStats.recordHit();
+          return Optional.of(entry);
+        }
+
+        @Override
+        public void put(Hash key, BuildCacheEntry e) {
+          throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public BuildCacheStats getStats() {
+          return remoteStats;
+        }
+      };
+      // The local cache directory cannot be created since a file is there.
+      TieredBuildCache tiered = new TieredBuildCache(
+          new TestLog(), new LocalBuildCache(out, 1000), remote);
+
+      assertSame(entry, tiered.get(Hash.hashString("key")).get());
+      assertEquals(1, tiered.getStats().getHits());
+    } finally {
+      for (File f : tmp.listFiles()) {
+        if (!f.delete()) { throw new IOException("Failed to delete " + f); }
+      }
+      assertTrue(tmp.delete());
+    }
+  }
+}
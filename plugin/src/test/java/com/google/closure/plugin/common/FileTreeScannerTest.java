@@ -0,0 +1,181 @@
+package com.google.closure.plugin.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.plexus.util.DirectoryScanner;
+import org.junit.Test;
+
+import com.google.closure.plugin.TestLog;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public final class FileTreeScannerTest extends TestCase {
+
+  private static void touch(File root, String relPath) throws IOException {
+    File f = new File(root, relPath);
+    Files.createDirectories(f.getParentFile().toPath());
+    assertTrue(f.createNewFile());
+  }
+
+  /**
+   * T/a.js
+   * T/a.txt
+   * T/foo/b.js
+   * T/foo/b.js~
+   * T/foo/bar/c.js
+   * T/foo/bar/.git/d.js
+   * T/skip/e.js
+   * T/link &rarr; T/foo
+   * T/loop &rarr; T
+   * T/f.js &rarr; T/a.js
+   * T/dangling.js &rarr; T/missing.js
+   */
+  private static File makeTree() throws IOException {
+    File root = com.google.common.io.Files.createTempDir().getCanonicalFile();
+    touch(root, "a.js");
+    touch(root, "a.txt");
+    touch(root, "foo/b.js");
+    touch(root, "foo/b.js~");
+    touch(root, "foo/bar/c.js");
+    touch(root, "foo/bar/.git/d.js");
+    touch(root, "skip/e.js");
+    Files.createSymbolicLink(
+        new File(root, "link").toPath(), new File(root, "foo").toPath());
+    Files.createSymbolicLink(new File(root, "loop").toPath(), root.toPath());
+    Files.createSymbolicLink(
+        new File(root, "f.js").toPath(), new File(root, "a.js").toPath());
+    Files.createSymbolicLink(
+        new File(root, "dangling.js").toPath(),
+        new File(root, "missing.js").toPath());
+    return root;
+  }
+
+  private static void deleteTree(File f) throws IOException {
+    if (f.isDirectory() && !Files.isSymbolicLink(f.toPath())) {
+      for (File child : f.listFiles()) {
+        deleteTree(child);
+      }
+    }
+    Files.delete(f.toPath());
+  }
+
+  private static Map<String, File> scan(
+      File root, List<String> includes, List<String> excludes)
+  throws IOException {
+    Map<String, File> found = Maps.newTreeMap();
+    for (FileTreeScanner.Found f
+         : new FileTreeScanner(includes, excludes).scan(new TestLog(), root)) {
+      assertNull(found.put(f.relativePath, f.canonicalFile));
+    }
+    return found;
+  }
+
+  private static Map<String, File> plexusScan(
+      File root, List<String> includes, List<String> excludes)
+  throws IOException {
+    DirectoryScanner scanner = new DirectoryScanner();
+    scanner.setBasedir(root);
+    scanner.setIncludes(includes.toArray(new String[0]));
+    scanner.setExcludes(excludes.toArray(new String[0]));
+    scanner.addDefaultExcludes();
+    scanner.setCaseSensitive(true);
+    scanner.setFollowSymlinks(true);
+    scanner.scan();
+    Map<String, File> found = Maps.newTreeMap();
+    for (String relPath : scanner.getIncludedFiles()) {
+      found.put(relPath, new File(root, relPath).getCanonicalFile());
+    }
+    return found;
+  }
+
+  @Test
+  public static void testFindsCanonicalPathsThroughSymlinks()
+  throws IOException {
+    File root = makeTree();
+    try {
+      Map<String, File> found = scan(
+          root, ImmutableList.of("**/*.js"), ImmutableList.of("skip/"));
+      Map<String, File> expected = Maps.newTreeMap();
+      expected.put("a.js", new File(root, "a.js"));
+      expected.put("f.js", new File(root, "a.js"));
+      expected.put("foo/b.js", new File(root, "foo/b.js"));
+      expected.put("foo/bar/c.js", new File(root, "foo/bar/c.js"));
+      expected.put("link/b.js", new File(root, "foo/b.js"));
+      expected.put("link/bar/c.js", new File(root, "foo/bar/c.js"));
+      assertEquals(expected, found);
+    } finally {
+      deleteTree(root);
+    }
+  }
+
+  @Test
+  public static void testMatchesLikePlexus() throws IOException {
+    File root = makeTree();
+    try {
+      ImmutableList<ImmutableList<String>> includeSets = ImmutableList.of(
+          ImmutableList.of("**/*.js"),
+          ImmutableList.of("*.js", "foo/**/*.js"),
+          ImmutableList.of("foo/"),
+          ImmutableList.of("**/bar/**", "?.txt"),
+          ImmutableList.of("f*/*.j?"),
+          ImmutableList.of("%regex[foo/[a-z]+\\.js]"),
+          ImmutableList.<String>of());
+      ImmutableList<ImmutableList<String>> excludeSets = ImmutableList.of(
+          ImmutableList.<String>of(),
+          ImmutableList.of("**/bar/**"),
+          ImmutableList.of("foo/b.js", "a.*"));
+      for (ImmutableList<String> includes : includeSets) {
+        for (ImmutableList<String> excludes : excludeSets) {
+          // Plexus does not detect cycles so does not get a link to loop.
+          ImmutableList<String> plexusExcludes =
+              ImmutableList.<String>builder()
+              .addAll(excludes).add("loop/**").build();
+          assertEquals(
+              includes + " - " + excludes,
+              withoutLoop(plexusScan(root, includes, plexusExcludes)),
+              withoutLoop(scan(root, includes, excludes)));
+        }
+      }
+    } finally {
+      deleteTree(root);
+    }
+  }
+
+  private static Map<String, File> withoutLoop(Map<String, File> found) {
+    Map<String, File> result = Maps.newTreeMap();
+    for (Map.Entry<String, File> e : found.entrySet()) {
+      if (!e.getKey().startsWith("loop/")) {
+        result.put(e.getKey(), e.getValue());
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public static void testPatternStates() {
+    FileTreeScanner.PathPattern p = FileTreeScanner.PathPattern.compile(
+        "foo/**/*.js");
+    long s = p.initialState();
+    assertTrue(p.couldMatchBeneath(s));
+    long other = p.advance(s, "bar");
+    assertFalse(p.couldMatchBeneath(other));
+    long foo = p.advance(s, "foo");
+    assertTrue(p.couldMatchBeneath(foo));
+    assertFalse(p.matchesAllBeneath(foo));
+    assertTrue(p.matches(p.advance(foo, "a.js")));
+    assertTrue(p.matches(p.advance(p.advance(foo, "x"), "a.js")));
+    assertFalse(p.matches(p.advance(foo, "a.txt")));
+
+    FileTreeScanner.PathPattern all = FileTreeScanner.PathPattern.compile(
+        "**/.git/**");
+    long git = all.advance(all.advance(all.initialState(), "a"), ".git");
+    assertTrue(all.matchesAllBeneath(git));
+  }
+}
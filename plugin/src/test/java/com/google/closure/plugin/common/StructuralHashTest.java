@@ -0,0 +1,81 @@
+package com.google.closure.plugin.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.closure.plugin.common.OptionsUtilsTest.TestOptions;
+import com.google.closure.plugin.plan.Hash;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public final class StructuralHashTest extends TestCase {
+
+  private static TestOptions options(String id, String s) {
+    TestOptions o = new TestOptions(id);
+    o.s = s;
+    return o;
+  }
+
+  @Test
+  public static void testFieldsContribute() {
+    Hash a = StructuralHash.of(options("a", "x"));
+    assertEquals(a, StructuralHash.of(options("a", "x")));
+    assertFalse(a.equals(StructuralHash.of(options("b", "x"))));
+    assertFalse(a.equals(StructuralHash.of(options("a", "y"))));
+    assertFalse(a.equals(StructuralHash.of(options("a", null))));
+  }
+
+  @Test
+  public static void testSetOrderDoesNotMatter() {
+    Set<String> ab = Sets.newLinkedHashSet();
+    ab.add("a");
+    ab.add("b");
+    Set<String> ba = Sets.newLinkedHashSet();
+    ba.add("b");
+    ba.add("a");
+    assertEquals(StructuralHash.of(ab), StructuralHash.of(ba));
+    assertFalse(
+        StructuralHash.of(ImmutableList.of("a", "b")).equals(
+            StructuralHash.of(ImmutableList.of("b", "a"))));
+  }
+
+  @Test
+  public static void testOnlyPreparedOptionsAreCached() throws Exception {
+    TestOptions o = options("a", "x");
+    Hash before = o.structuralHash();
+    o.s = "y";
+    Hash after = o.structuralHash();
+    assertFalse(before.equals(after));
+
+    TestOptions prepared = OptionsUtils.prepareOne(new TestOptions("a"));
+    Hash h = prepared.structuralHash();
+    assertSame(h, prepared.structuralHash());
+    assertTrue(Hash.same(prepared, OptionsUtils.prepareOne(
+        new TestOptions("a"))));
+  }
+
+  @Test
+  public static void testDeserializedOptionsArePrepared() throws Exception {
+    TestOptions prepared = OptionsUtils.prepareOne(new TestOptions("a"));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(prepared);
+    }
+    TestOptions copy;
+    try (ObjectInputStream in = new ObjectInputStream(
+             new ByteArrayInputStream(bytes.toByteArray()))) {
+      copy = (TestOptions) in.readObject();
+    }
+    Hash h = copy.structuralHash();
+    assertEquals(prepared.structuralHash(), h);
+    assertSame(h, copy.structuralHash());
+  }
+}
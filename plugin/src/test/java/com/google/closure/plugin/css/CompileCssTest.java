@@ -0,0 +1,142 @@
+package com.google.closure.plugin.css;
+
+import java.io.File;
+
+import org.apache.maven.artifact.Artifact;
+import org.junit.Test;
+import org.sonatype.plexus.build.incremental.DefaultBuildContext;
+
+import com.google.closure.plugin.TestLog;
+import com.google.closure.plugin.cache.BuildCache;
+import com.google.closure.plugin.cache.LocalBuildCache;
+import com.google.closure.plugin.common.Sources.Source;
+import com.google.closure.plugin.common.StableCssSubstitutionMapProvider;
+import com.google.closure.plugin.common.TypedFile;
+import com.google.closure.plugin.plan.FileStatCache;
+import com.google.closure.plugin.plan.PlanContext;
+import com.google.closure.plugin.plan.SessionCache;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public final class CompileCssTest extends TestCase {
+
+  private File tempDir;
+  private LocalBuildCache buildCache;
+
+  @Override
+  protected void setUp() {
+    tempDir = Files.createTempDir();
+    buildCache = new LocalBuildCache(new File(tempDir, "cache"), 1L << 20);
+  }
+
+  @Override
+  protected void tearDown() {
+    deleteTree(tempDir);
+  }
+
+  private static void deleteTree(File f) {
+    if (f.isDirectory()) {
+      for (File child : f.listFiles()) {
+        deleteTree(child);
+      }
+    }
+    assertTrue(f.delete());
+  }
+
+  /**
+   * Compiles main.css, or restores it from the build cache, with a
+   * substitution map that starts out with the given renamings.
+   *
+   * @return the renamings afterwards.
+   */
+  private ImmutableMap<String, String> compile(
+      String name, ImmutableMap<String, String> priorMappings)
+  throws Exception {
+    File renameMap = new File(tempDir, name + "-rename-map.json");
+    Files.write(
+        renameMapJson(priorMappings), renameMap, Charsets.UTF_8);
+    StableCssSubstitutionMapProvider substitutionMapProvider =
+        new StableCssSubstitutionMapProvider(renameMap);
+
+    File outDir = new File(tempDir, "target");
+    PlanContext context = new PlanContext(
+        null, null, new DefaultBuildContext(), new TestLog(),
+        null, null, ImmutableList.<Artifact>of(), outDir, null,
+        new File(outDir, "closure"), substitutionMapProvider,
+        1, 0, 0,
+        Optional.<BuildCache>of(buildCache),
+        FileStatCache.paranoid(), SessionCache.unshared());
+
+    File srcRoot = new File(tempDir, "src");
+    File mainCss = new File(srcRoot, "main.css");
+    Files.createParentDirs(mainCss);
+    Files.write(
+        ".foo { color: red }\n.bar { color: blue }\n",
+        mainCss, Charsets.UTF_8);
+    Source source = new Source(
+        mainCss, new TypedFile(srcRoot), new File("main.css"));
+
+    CssOptions options = new CssOptions();
+    options.output = "main.css";
+    options.sourceMapFile = "main.css.map";
+    CssBundle bundle = new CssBundle(
+        "css", source, ImmutableList.of(source),
+        new CssOptions.Outputs(context, options, source));
+
+    new CompileCss(context).restoreOrProcessOneBundle(options, bundle);
+    assertTrue(bundle.outputs.css.isFile());
+    return ImmutableMap.copyOf(substitutionMapProvider.get().getMappings());
+  }
+
+  private static String renameMapJson(ImmutableMap<String, String> m) {
+    StringBuilder sb = new StringBuilder("{");
+    for (ImmutableMap.Entry<String, String> e : m.entrySet()) {
+      if (sb.length() != 1) { sb.append(','); }
+      sb.append('"').append(e.getKey()).append("\":\"")
+          .append(e.getValue()).append('"');
+    }
+    return sb.append('}').toString();
+  }
+
+  @Test
+  public void testCacheHitReplaysRenamings() throws Exception {
+    ImmutableMap<String, String> compiled = compile(
+        "compiled", ImmutableMap.<String, String>of());
+    assertEquals(
+        compiled.toString(), ImmutableList.of("foo", "bar"),
+        compiled.keySet().asList());
+
+    // A clean build restores the outputs and must rename the same way.
+    ImmutableMap<String, String> restored = compile(
+        "restored", ImmutableMap.<String, String>of());
+    assertEquals(1, buildCache.getStats().getHits());
+    assertEquals(compiled, restored);
+  }
+
+  @Test
+  public void testPriorRenamingsPartOfKey() throws Exception {
+    ImmutableMap<String, String> compiled = compile(
+        "compiled", ImmutableMap.<String, String>of());
+
+    // The name that would have been assigned to foo is taken, so the
+    // cached outputs, which refer to it, must not be reused.
+    String fooName = compiled.get("foo");
+    ImmutableMap<String, String> other = compile(
+        "other", ImmutableMap.of("baz", fooName));
+    assertEquals(0, buildCache.getStats().getHits());
+    assertEquals(fooName, other.get("baz"));
+    assertFalse(fooName.equals(other.get("foo")));
+    assertFalse(
+        Files.toString(
+            new File(new File(new File(tempDir, "target"), "closure"),
+                "css/main.css"),
+            Charsets.UTF_8)
+        .contains("." + fooName + "{color:red}"));
+  }
+}
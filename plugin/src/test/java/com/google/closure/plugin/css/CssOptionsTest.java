@@ -0,0 +1,58 @@
+package com.google.closure.plugin.css;
+
+import java.io.File;
+
+import org.apache.maven.artifact.Artifact;
+import org.junit.Test;
+import org.sonatype.plexus.build.incremental.DefaultBuildContext;
+
+import com.google.closure.plugin.TestLog;
+import com.google.closure.plugin.cache.BuildCache;
+import com.google.closure.plugin.common.Sources.Source;
+import com.google.closure.plugin.common.TypedFile;
+import com.google.closure.plugin.plan.FileStatCache;
+import com.google.closure.plugin.plan.PlanContext;
+import com.google.closure.plugin.plan.SessionCache;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public final class CssOptionsTest extends TestCase {
+
+  private static CssOptions.Outputs outputs(String relPath) {
+    File outDir = new File("/target");
+    PlanContext context = new PlanContext(
+        null, null, new DefaultBuildContext(), new TestLog(),
+        null, null, ImmutableList.<Artifact>of(), outDir, null,
+        new File(outDir, "closure"), null,
+        1, 0, 0, Optional.<BuildCache>absent(),
+        FileStatCache.paranoid(), SessionCache.unshared());
+    File srcRoot = new File("/src/main/css");
+    Source source = new Source(
+        new File(srcRoot, relPath), new TypedFile(srcRoot),
+        new File(relPath));
+    CssOptions options = new CssOptions();
+    options.output = "{reldir}/{basename}.css";
+    options.sourceMapFile = "{reldir}/{basename}.css.map";
+    return new CssOptions.Outputs(context, options, source);
+  }
+
+  @Test
+  public static void testEqualOutputsHashEqually() {
+    // Bundles are keyed by their outputs across builds, so separately
+    // computed but equal outputs must hash alike.
+    CssOptions.Outputs a = outputs("foo/main.css");
+    CssOptions.Outputs b = outputs("foo/main.css");
+    assertNotSame(a, b);
+    assertEquals(a, b);
+    assertEquals(a.hashCode(), b.hashCode());
+    assertTrue(ImmutableSet.of(a).contains(b));
+
+    CssOptions.Outputs c = outputs("foo/other.css");
+    assertFalse(a.equals(c));
+    assertEquals(2, ImmutableSet.of(a, b, c).size());
+  }
+}
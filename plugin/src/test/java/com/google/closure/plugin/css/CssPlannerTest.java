@@ -0,0 +1,42 @@
+package com.google.closure.plugin.css;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import com.google.closure.plugin.common.StructuralHash;
+import com.google.common.collect.ImmutableList;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public final class CssPlannerTest extends TestCase {
+
+  @Test
+  public static void testDefaultsAppliedBeforeHashIsCached()
+  throws Exception {
+    CssPlanner planner = new CssPlanner(null, null)
+        .defaultCssSource(new File("src/main/css"))
+        .defaultCssOutputPathTemplate("css/{reldir}/{basename}.css")
+        .defaultCssSourceMapPathTemplate("css/{reldir}/{basename}.map");
+
+    CssOptions configured = new CssOptions();
+    configured.output = "custom.css";
+
+    ImmutableList<CssOptions> prepared = planner.optionSets(
+        ImmutableList.of(configured));
+    assertFalse(prepared.isEmpty());
+    for (CssOptions o : prepared) {
+      assertEquals("custom.css", o.output);
+      assertEquals("css/{reldir}/{basename}.map", o.sourceMapFile);
+      assertEquals(1, o.source.length);
+      // The cached hash covers the defaults.
+      assertEquals(StructuralHash.of(o), o.structuralHash());
+    }
+
+    for (CssOptions o : planner.optionSets(ImmutableList.<CssOptions>of())) {
+      assertEquals("css/{reldir}/{basename}.css", o.output);
+      assertEquals(StructuralHash.of(o), o.structuralHash());
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package com.google.closure.plugin.js;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.junit.Test;
+import org.sonatype.plexus.build.incremental.DefaultBuildContext;
+
+import com.google.closure.plugin.TestLog;
+import com.google.closure.plugin.cache.BuildCache;
+import com.google.closure.plugin.common.Sources.Source;
+import com.google.closure.plugin.common.TypedFile;
+import com.google.closure.plugin.plan.FileStatCache;
+import com.google.closure.plugin.plan.PlanContext;
+import com.google.closure.plugin.plan.SessionCache;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import com.google.javascript.jscomp.CompilationLevel;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public final class CompileJsTest extends TestCase {
+
+  private File tempDir;
+
+  @Override
+  protected void setUp() {
+    tempDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() {
+    deleteTree(tempDir);
+  }
+
+  private static void deleteTree(File f) {
+    if (f.isDirectory()) {
+      for (File child : f.listFiles()) {
+        deleteTree(child);
+      }
+    }
+    assertTrue(f.delete());
+  }
+
+  private Source source(String relPath, String content) throws IOException {
+    File root = new File(tempDir, "src");
+    File file = new File(root, relPath);
+    Files.createParentDirs(file);
+    Files.write(content, file, Charsets.UTF_8);
+    return new Source(file, new TypedFile(root), new File(relPath));
+  }
+
+  private Modules modules() throws IOException {
+    Source base = source(
+        "base.js",
+        "goog.provide('base');\n"
+        + "/** @param {string} s */\n"
+        + "base.greet = function (s) { window.alert('Hello, ' + s); };\n");
+    Source main = source(
+        "foo/main.js",
+        "goog.provide('main');\n"
+        + "goog.require('base');\n"
+        + "var longLocalName = 'World \\u2028';\n"
+        + "base.greet(longLocalName);\n");
+    Source lazy = source(
+        "lazy.js",
+        "goog.require('base');\n"
+        + "base.greet('Lazy');\n");
+    return new Modules(ImmutableList.of(
+        new Modules.Module(
+            "main", ImmutableList.<String>of(),
+            ImmutableList.of(base, main)),
+        new Modules.Module(
+            "lazy", ImmutableList.of("main"),
+            ImmutableList.of(lazy))));
+  }
+
+  /** Compiles to outDir and maps output files' relative paths to content. */
+  private static Map<String, String> compile(
+      File outDir, JsOptions options, Modules modules, boolean viaCommandLine)
+  throws IOException, MojoExecutionException {
+    PlanContext context = new PlanContext(
+        null, null, new DefaultBuildContext(), new TestLog(),
+        null, null, ImmutableList.<Artifact>of(), null, null, outDir, null,
+        1, 0, 0, Optional.<BuildCache>absent(), FileStatCache.paranoid(),
+        SessionCache.unshared());
+    CompileJs node = new CompileJs(context);
+    node.processOne(options, modules, viaCommandLine);
+
+    Map<String, String> outputs = Maps.newTreeMap();
+    File jsDir = new File(outDir, "js");
+    for (File f : jsDir.listFiles()) {
+      String content = Files.toString(f, Charsets.UTF_8);
+      // Source maps refer to the output file by absolute path.
+      outputs.put(f.getName(), content.replace(outDir.getPath(), "OUT"));
+    }
+    return outputs;
+  }
+
+  private void assertSameOutputs(JsOptions options)
+  throws IOException, MojoExecutionException {
+    Modules modules = modules();
+    Map<String, String> viaCommandLine = compile(
+        new File(tempDir, "cli"), options, modules, true);
+    Map<String, String> direct = compile(
+        new File(tempDir, "api"), options, modules, false);
+    assertTrue(
+        viaCommandLine.toString(),
+        viaCommandLine.keySet().containsAll(ImmutableList.of(
+            "main.js", "main.js" + CompileJs.SOURCE_MAP_SUFFIX,
+            "lazy.js", "lazy.js" + CompileJs.SOURCE_MAP_SUFFIX)));
+    String mainJs = direct.get("main.js");
+    assertTrue(mainJs, mainJs.contains("Hello, "));
+    assertEquals(viaCommandLine, direct);
+  }
+
+  @Test
+  public void testDirectCompilationMatchesCommandLine() throws Exception {
+    assertSameOutputs(new JsOptions());
+  }
+
+  @Test
+  public void testDirectAdvancedCompilationMatchesCommandLine()
+  throws Exception {
+    JsOptions options = new JsOptions();
+    options.compilationLevel = CompilationLevel.ADVANCED_OPTIMIZATIONS;
+    assertSameOutputs(options);
+  }
+
+  @Test
+  public void testExternsReusedAcrossCompilations() throws Exception {
+    JsOptions options = new JsOptions();
+    options.compilationLevel = CompilationLevel.ADVANCED_OPTIMIZATIONS;
+    Modules modules = modules();
+    Map<String, String> first = compile(
+        new File(tempDir, "first"), options, modules, false);
+    CacheStats before = ExternsCache.stats();
+    Map<String, String> second = compile(
+        new File(tempDir, "second"), options, modules, false);
+    CacheStats delta = ExternsCache.stats().minus(before);
+    assertTrue(delta.toString(), delta.hitCount() != 0);
+    assertEquals(delta.toString(), 0, delta.missCount());
+    assertEquals(first, second);
+  }
+}
@@ -1,7 +1,9 @@
 package com.google.closure.plugin.js;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.maven.plugin.MojoExecutionException;
@@ -9,18 +11,51 @@ import org.json.simple.parser.ParseException;
 import org.junit.Test;
 
 import com.google.closure.plugin.TestLog;
-import com.google.closure.plugin.js.JsonStreamOutputHandler.FileContents;
+import com.google.closure.plugin.js.JsonStreamOutputHandler.Output;
 import com.google.common.base.Charsets;
-import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
 
 import junit.framework.TestCase;
 
 @SuppressWarnings("javadoc")
 public final class JsonStreamOutputHandlerTest extends TestCase {
 
+  private File tempDir;
+
+  @Override
+  protected void setUp() {
+    tempDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() {
+    for (File f : tempDir.listFiles()) {
+      assertTrue(f.delete());
+    }
+    assertTrue(tempDir.delete());
+  }
+
+  /** Maps paths, and paths with a source map suffix, to contents. */
+  private static Map<String, String> contents(JsonStreamOutputHandler h)
+  throws IOException {
+    Map<String, String> contents = Maps.newLinkedHashMap();
+    for (Output output : h.getOutputs()) {
+      contents.put(output.path, Files.toString(output.src, Charsets.UTF_8));
+      if (output.sourceMap.isPresent()) {
+        contents.put(
+            output.path + CompileJs.SOURCE_MAP_SUFFIX,
+            Files.toString(output.sourceMap.get(), Charsets.UTF_8));
+      }
+    }
+    return contents;
+  }
+
   @Test
-  public static void testHandling() throws Exception {
-    JsonStreamOutputHandler h = new JsonStreamOutputHandler(new TestLog());
+  public void testHandling() throws Exception {
+    JsonStreamOutputHandler h = new JsonStreamOutputHandler(
+        new TestLog(), tempDir);
 
     final AtomicBoolean hasErrors = new AtomicBoolean();
     @SuppressWarnings("resource")
@@ -51,16 +86,17 @@ public final class JsonStreamOutputHandlerTest extends TestCase {
     assertTrue(h.getFailures().toString(), h.getFailures().isEmpty());
 
     assertEquals(
-        ImmutableList.of(
-            new FileContents("/nosuchfile/foo", "Foo"),
-            new FileContents("/nosuchfile/bar", "Bar")
+        ImmutableMap.of(
+            "/nosuchfile/foo", "Foo",
+            "/nosuchfile/bar", "Bar"
             ),
-        h.getOutputs());
+        contents(h));
   }
 
   @Test
-  public static void testHandlingOfMalformedOutput() throws Exception {
-    JsonStreamOutputHandler h = new JsonStreamOutputHandler(new TestLog());
+  public void testHandlingOfMalformedOutput() throws Exception {
+    JsonStreamOutputHandler h = new JsonStreamOutputHandler(
+        new TestLog(), tempDir);
 
     final AtomicBoolean hasErrors = new AtomicBoolean();
     @SuppressWarnings("resource")
@@ -94,6 +130,69 @@ public final class JsonStreamOutputHandlerTest extends TestCase {
     assertNotNull(ex);
     assertTrue(
         ex.getCause().toString(), ex.getCause() instanceof ParseException);
+    // The temporary file for the first output's src was deleted.
+    assertEquals(0, tempDir.listFiles().length);
+  }
+
+  private static final String ESCAPED_OUTPUT =
+      "[ {\"src\":\"a\\\"b\\\\c\\/\\b\\f\\n\\r\\t\\u2028\\u00e9"
+      + "\\ud83d\\ude00\u00e9\\ud83dx\","
+      + " \"path\" : \"/out/\\u00e9.js\","
+      + "\"source_map\":\"{\\\"version\\\":3}\"},"
+      + "{\"ignored\":\"\",\"path\":\"/out/b.js\",\"src\":\"\"}\n]\n";
+
+  private static final ImmutableMap<String, String> ESCAPED_CONTENTS =
+      ImmutableMap.of(
+          "/out/\u00e9.js",
+          "a\"b\\c/\b\f\n\r\t\u2028\u00e9\ud83d\ude00\u00e9?x",
+          "/out/\u00e9.js" + CompileJs.SOURCE_MAP_SUFFIX,
+          "{\"version\":3}",
+          "/out/b.js",
+          "");
+
+  @Test
+  public void testDecodingAcrossWrites() throws Exception {
+    byte[] bytes = ESCAPED_OUTPUT.getBytes(Charsets.UTF_8);
+    for (int chunkSize : new int[] { 1, 2, 3, 7, bytes.length }) {
+      JsonStreamOutputHandler h = new JsonStreamOutputHandler(
+          new TestLog(), tempDir);
+      try (OutputStream o = h.openStream()) {
+        for (int i = 0; i < bytes.length; i += chunkSize) {
+          o.write(bytes, i, Math.min(chunkSize, bytes.length - i));
+        }
+      }
+      h.waitUntilAllClosed();
+      assertTrue(h.getFailures().toString(), h.getFailures().isEmpty());
+      assertEquals("" + chunkSize, ESCAPED_CONTENTS, contents(h));
+      h.deleteTempFiles();
+      assertEquals(0, tempDir.listFiles().length);
+    }
+  }
+
+  @Test
+  public void testTruncatedOutput() throws Exception {
+    JsonStreamOutputHandler h = new JsonStreamOutputHandler(
+        new TestLog(), tempDir);
+    try (OutputStream o = h.openStream()) {
+      o.write("[{\"src\":\"Foo".getBytes(Charsets.UTF_8));
+    }
+    h.waitUntilAllClosed();
+    assertEquals(1, h.getFailures().size());
+    assertTrue(h.getOutputs().isEmpty());
+    assertEquals(0, tempDir.listFiles().length);
+  }
+
+  @Test
+  public void testOutputWithoutPath() throws Exception {
+    JsonStreamOutputHandler h = new JsonStreamOutputHandler(
+        new TestLog(), tempDir);
+    try (OutputStream o = h.openStream()) {
+      o.write("[{\"src\":\"Foo\"}]".getBytes(Charsets.UTF_8));
+    }
+    h.waitUntilAllClosed();
+    assertEquals(1, h.getFailures().size());
+    assertTrue(h.getOutputs().isEmpty());
+    assertEquals(0, tempDir.listFiles().length);
   }
 
 }
@@ -1,8 +1,11 @@
 package com.google.closure.plugin.js;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.util.Arrays;
 
 import org.apache.maven.plugin.logging.Log;
 import org.json.simple.JSONArray;
@@ -14,6 +17,7 @@ import com.google.closure.plugin.TestLog;
 import com.google.closure.plugin.common.Sources.Source;
 import com.google.closure.plugin.common.TypedFile;
 import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.ByteSource;
@@ -99,6 +103,93 @@ public final class StreamableJsonByteSourceTest extends TestCase {
   }
 
 
+  private static String parseSrc(byte[] json) throws Exception {
+    JSONArray items = (JSONArray) new JSONParser().parse(
+        new String(json, Charsets.UTF_8));
+    assertEquals(1, items.size());
+    return (String) ((JSONObject) items.get(0)).get("src");
+  }
+
+  private static TestableStreamable oneSource(String content) {
+    return new TestableStreamable(
+        new TestLog(),
+        ImmutableList.of(src("a.js")),
+        ImmutableMap.<File, String>of(new File("/a.js"), content));
+  }
+
+  @Test
+  public static void testEscapesControlsAndLineSeparators() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    for (char c = 0; c < 0x20; ++c) {
+      sb.append(c);
+    }
+    sb.append("\u2028 \u2029 \u20ac \u00e9 \"\\/\u007f");
+    String content = sb.toString();
+
+    byte[] json = ByteStreams.toByteArray(oneSource(content).openStream());
+    String jsonString = new String(json, Charsets.UTF_8);
+    for (int i = 0; i < jsonString.length(); ++i) {
+      char c = jsonString.charAt(i);
+      assertTrue(
+          jsonString, c >= 0x20 && c != '\u2028' && c != '\u2029');
+    }
+    assertTrue(jsonString, jsonString.contains(
+        "\\u0000\\u0001\\u0002\\u0003\\u0004\\u0005\\u0006\\u0007"
+        + "\\b\\t\\n\\u000b\\f\\r"));
+    assertTrue(jsonString, jsonString.contains(
+        "\\u2028 \\u2029 \u20ac \u00e9 \\\"\\\\/\u007f"));
+    assertEquals(content, parseSrc(json));
+  }
+
+  @Test
+  public static void testLineSeparatorStraddlingBuffers() throws Exception {
+    // The content buffer is 8192 bytes.
+    for (int nBefore = 8185; nBefore <= 8194; ++nBefore) {
+      String content = Strings.repeat("a", nBefore) + "\u2028\u20ac\u2029";
+      byte[] json = ByteStreams.toByteArray(
+          oneSource(content).openStream());
+      String jsonString = new String(json, Charsets.UTF_8);
+      assertTrue(
+          "" + nBefore,
+          jsonString.endsWith("a\\u2028\u20ac\\u2029\"}]"));
+      assertEquals("" + nBefore, content, parseSrc(json));
+    }
+  }
+
+  @Test
+  public static void testReadSizesAgree() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 3000; ++i) {
+      sb.append("x\u00e9\n\u2028\"\u0001");
+    }
+    TestableStreamable ts = oneSource(sb.toString());
+    byte[] bulk = ts.read();
+    assertEquals(sb.toString(), parseSrc(bulk));
+
+    ByteArrayOutputStream byteAtATime = new ByteArrayOutputStream();
+    try (InputStream in = ts.openStream()) {
+      for (int b; (b = in.read()) >= 0;) {
+        assertTrue(b <= 0xff);
+        byteAtATime.write(b);
+      }
+    }
+    assertTrue(Arrays.equals(bulk, byteAtATime.toByteArray()));
+
+    for (int chunkSize : new int[] { 1, 2, 5, 7, 4096, 100000 }) {
+      ByteArrayOutputStream chunked = new ByteArrayOutputStream();
+      byte[] chunk = new byte[chunkSize];
+      try (InputStream in = ts.openStream()) {
+        for (int n; (n = in.read(chunk, 0, chunkSize)) >= 0;) {
+          assertTrue(n > 0);
+          chunked.write(chunk, 0, n);
+        }
+      }
+      assertTrue(
+          "" + chunkSize, Arrays.equals(bulk, chunked.toByteArray()));
+    }
+  }
+
+
   private static Source src(String relPath) {
     return new Source(
         new File("/" + relPath),
@@ -0,0 +1,187 @@
+package com.google.closure.plugin.plan;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.maven.artifact.Artifact;
+import org.junit.Test;
+import org.sonatype.plexus.build.incremental.DefaultBuildContext;
+
+import com.google.closure.plugin.TestLog;
+import com.google.closure.plugin.cache.BuildCache;
+import com.google.closure.plugin.common.Identifiable;
+import com.google.closure.plugin.common.Sources.Source;
+import com.google.closure.plugin.common.StructurallyComparable;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public final class CompilePlanGraphNodeTest extends TestCase {
+
+  static final class NoOptions
+  implements java.io.Serializable, StructurallyComparable, Identifiable {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public String getId() {
+      return "none";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof NoOptions;
+    }
+
+    @Override
+    public int hashCode() {
+      return 0;
+    }
+  }
+
+  static final class NoBundle implements BundlingPlanGraphNode.Bundle {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public ImmutableCollection<Source> getInputs() {
+      return ImmutableList.of();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof NoBundle;
+    }
+
+    @Override
+    public int hashCode() {
+      return 0;
+    }
+  }
+
+  static final class WritingNode
+  extends CompilePlanGraphNode<NoOptions, NoBundle> {
+    ImmutableList<File> optionFiles = ImmutableList.of();
+
+    WritingNode() {
+      this(null);
+    }
+
+    WritingNode(File outputDir) {
+      super(new PlanContext(
+          null, null, new DefaultBuildContext(), new TestLog(),
+          null, null, ImmutableList.<Artifact>of(), outputDir, null, null,
+          null, 1, 0, 0, Optional.<BuildCache>absent(),
+          FileStatCache.paranoid(), SessionCache.unshared()));
+    }
+
+    @Override
+    protected ImmutableList<File> getOptionFiles(NoOptions options) {
+      return optionFiles;
+    }
+
+    @Override
+    protected void process() {
+      // Tests call the output methods directly.
+    }
+
+    @Override
+    protected CompileStateVector<NoOptions, NoBundle> getStateVector() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private static void deleteTree(File f) throws IOException {
+    File[] children = f.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteTree(child);
+      }
+    }
+    if (f.exists() && !f.delete()) {
+      throw new IOException("Failed to delete " + f);
+    }
+  }
+
+  @Test
+  public static void testOnlyChangedOutputsAreWritten() throws Exception {
+    File tmp = Files.createTempDir();
+    try {
+      File out = new File(new File(tmp, "js"), "foo.js");
+      WritingNode node = new WritingNode();
+
+      assertTrue(node.writeOutput(out, "alert(1)"));
+      assertEquals("alert(1)", Files.toString(out, Charsets.UTF_8));
+      assertEquals(ImmutableList.of(out), node.changedOutputFiles());
+
+      node.changedFiles.clear();
+      long mtime = out.lastModified();
+      assertFalse(node.writeOutput(out, "alert(1)"));
+      assertEquals(ImmutableList.of(), node.changedOutputFiles());
+      assertEquals(mtime, out.lastModified());
+
+      // Same length, different content.
+      assertTrue(node.writeOutput(out, "alert(2)"));
+      assertEquals("alert(2)", Files.toString(out, Charsets.UTF_8));
+      assertEquals(ImmutableList.of(out), node.changedOutputFiles());
+
+      // No temporary files are left behind.
+      assertEquals(1, out.getParentFile().list().length);
+    } finally {
+      deleteTree(tmp);
+    }
+  }
+
+  @Test
+  public static void testMoveOutput() throws Exception {
+    File tmp = Files.createTempDir();
+    try {
+      File out = new File(tmp, "out.css");
+      File written = new File(tmp, "written.tmp");
+      WritingNode node = new WritingNode();
+
+      Files.write("a{}", written, Charsets.UTF_8);
+      assertTrue(node.moveOutput(written, out));
+      assertFalse(written.exists());
+      assertEquals("a{}", Files.toString(out, Charsets.UTF_8));
+
+      node.changedFiles.clear();
+      Files.write("a{}", written, Charsets.UTF_8);
+      assertFalse(node.moveOutput(written, out));
+      assertFalse(written.exists());
+      assertEquals(ImmutableList.of(), node.changedOutputFiles());
+    } finally {
+      deleteTree(tmp);
+    }
+  }
+
+  @Test
+  public static void testBuildCacheKeyHashesOptionFiles() throws Exception {
+    File tmp = Files.createTempDir();
+    try {
+      File flagFile = new File(tmp, "flags.txt");
+      WritingNode node = new WritingNode(tmp);
+      NoOptions options = new NoOptions();
+      NoBundle bundle = new NoBundle();
+
+      Hash withoutFiles = node.buildCacheKey(options, bundle).get();
+
+      node.optionFiles = ImmutableList.of(flagFile);
+      // The compiler should report the missing file.
+      assertFalse(node.buildCacheKey(options, bundle).isPresent());
+
+      Files.write("--foo", flagFile, Charsets.UTF_8);
+      Hash before = node.buildCacheKey(options, bundle).get();
+      assertFalse(withoutFiles.equals(before));
+
+      Files.write("--bar", flagFile, Charsets.UTF_8);
+      Hash after = node.buildCacheKey(options, bundle).get();
+      assertFalse(before.equals(after));
+    } finally {
+      deleteTree(tmp);
+    }
+  }
+}
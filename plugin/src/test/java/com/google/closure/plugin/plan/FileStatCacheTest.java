@@ -0,0 +1,121 @@
+package com.google.closure.plugin.plan;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.io.Files;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public class FileStatCacheTest extends TestCase {
+
+  private static void deleteTree(File f) throws IOException {
+    File[] children = f.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteTree(child);
+      }
+    }
+    if (f.exists() && !f.delete()) {
+      throw new IOException("Failed to delete " + f);
+    }
+  }
+
+  /** Rewrites f without changing its size or modification time. */
+  private static void sneakyWrite(File f, String content) throws IOException {
+    long mtime = f.lastModified();
+    Files.write(content, f, Charsets.UTF_8);
+    assertTrue(f.setLastModified(mtime));
+  }
+
+  @Test
+  public static void testUnchangedStatSkipsRead() throws Exception {
+    File tmp = Files.createTempDir();
+    try {
+      File src = new File(tmp, "foo.js").getCanonicalFile();
+      Files.write("var x = 1;", src, Charsets.UTF_8);
+      assertTrue(src.setLastModified(System.currentTimeMillis() - 60000));
+      Hash original = Hash.hashString("var x = 1;");
+
+      File cacheFile = new File(tmp, "stat-cache.bin");
+      FileStatCache cache = new FileStatCache(
+          Optional.of(cacheFile), false, Hash.Algorithm.SHA512);
+      cache.load();
+      assertEquals(original, cache.contentHash(src));
+      cache.save();
+
+      sneakyWrite(src, "var x = 2;");
+
+      // A fresh cache loaded from disk trusts the stat.
+      FileStatCache reloaded = new FileStatCache(
+          Optional.of(cacheFile), false, Hash.Algorithm.SHA512);
+      reloaded.load();
+      assertEquals(original, reloaded.contentHash(src));
+
+      // Paranoid mode reads the content.
+      FileStatCache paranoid = new FileStatCache(
+          Optional.of(cacheFile), true, Hash.Algorithm.SHA512);
+      paranoid.load();
+      assertEquals(Hash.hashString("var x = 2;"), paranoid.contentHash(src));
+
+      // A change in modification time causes a rehash.
+      assertTrue(src.setLastModified(System.currentTimeMillis() - 30000));
+      assertEquals(Hash.hashString("var x = 2;"), reloaded.contentHash(src));
+    } finally {
+      deleteTree(tmp);
+    }
+  }
+
+  @Test
+  public static void testRecentlyModifiedFilesAreRehashed() throws Exception {
+    File tmp = Files.createTempDir();
+    try {
+      File src = new File(tmp, "foo.js").getCanonicalFile();
+      Files.write("var x = 1;", src, Charsets.UTF_8);
+      FileStatCache cache = new FileStatCache(
+          Optional.<File>absent(), false, Hash.Algorithm.SHA512);
+      cache.contentHash(src);
+      // Modified again within the timestamp granularity.
+      sneakyWrite(src, "var x = 2;");
+      assertEquals(Hash.hashString("var x = 2;"), cache.contentHash(src));
+    } finally {
+      deleteTree(tmp);
+    }
+  }
+
+  @Test
+  public static void testAlgorithmsAreCachedSeparately() throws Exception {
+    File tmp = Files.createTempDir();
+    try {
+      File src = new File(tmp, "foo.js").getCanonicalFile();
+      Files.write("var x = 1;", src, Charsets.UTF_8);
+      assertTrue(src.setLastModified(System.currentTimeMillis() - 60000));
+      byte[] content = "var x = 1;".getBytes(Charsets.UTF_8);
+
+      File cacheFile = new File(tmp, "stat-cache.bin");
+      FileStatCache cache = new FileStatCache(
+          Optional.of(cacheFile), false, Hash.Algorithm.MURMUR3_128);
+      Hash fast = cache.contentHash(src);
+      assertEquals(
+          Hash.hashBytes(Hash.Algorithm.MURMUR3_128, content), fast);
+      Hash sha = cache.contentHash(src, Hash.Algorithm.SHA512);
+      assertEquals(Hash.hashBytes(content), sha);
+      assertFalse(fast.equals(sha));
+      cache.save();
+
+      FileStatCache reloaded = new FileStatCache(
+          Optional.of(cacheFile), false, Hash.Algorithm.MURMUR3_128);
+      reloaded.load();
+      sneakyWrite(src, "var x = 2;");
+      assertEquals(fast, reloaded.contentHash(src));
+      assertEquals(sha, reloaded.contentHash(src, Hash.Algorithm.SHA512));
+    } finally {
+      deleteTree(tmp);
+    }
+  }
+}
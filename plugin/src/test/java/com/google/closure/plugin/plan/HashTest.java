@@ -1,10 +1,21 @@
 package com.google.closure.plugin.plan;
 
+import java.io.File;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.Set;
 
 import org.junit.Test;
 
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.PrimitiveSink;
+import com.google.common.io.Files;
+
 import junit.framework.TestCase;
 
 @SuppressWarnings("javadoc")
@@ -53,4 +64,64 @@ public class HashTest extends TestCase {
     Hash h = new Hash(new byte[] { 33 });
     assertEquals(distinct[0], h);
   }
+
+  @Test
+  public static void testHashCodeUsesFirstFourBytes() {
+    Set<Integer> hashCodes = Sets.newHashSet();
+    for (int i = 0; i < 4; ++i) {
+      byte[] bytes = new byte[8];
+      bytes[i] = 1;
+      hashCodes.add(new Hash(bytes).hashCode());
+    }
+    assertEquals(4, hashCodes.size());
+    // Short hashes do not fail.
+    new Hash(new byte[] { 1 }).hashCode();
+  }
+
+  @Test
+  public static void testHashFileContent() throws Exception {
+    Random rnd = new Random(0);
+    // Sizes on either side of the chunk size, hashed in turn with the same
+    // reused read buffer.
+    for (int size : new int[] { 0, 100, (1 << 16) + 1, (1 << 20) + 12345 }) {
+      byte[] content = new byte[size];
+      rnd.nextBytes(content);
+      File f = File.createTempFile("hash", ".bin");
+      try {
+        Files.write(content, f);
+        assertEquals(
+            Hash.hashBytes(content),
+            Hash.hashFileContent(f, Hash.Algorithm.SHA512));
+        assertEquals(
+            Hash.hashBytes(Hash.Algorithm.MURMUR3_128, content),
+            Hash.hashFileContent(f, Hash.Algorithm.MURMUR3_128));
+      } finally {
+        assertTrue(f.delete());
+      }
+    }
+  }
+
+  @Test
+  public static void testHashObject() throws Exception {
+    Funnel<List<String>> funnel = new Funnel<List<String>>() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      public void funnel(List<String> from, PrimitiveSink into) {
+        for (String s : from) {
+          into.putInt(s.length());
+          into.putString(s, Charsets.UTF_8);
+        }
+      }
+    };
+    assertEquals(
+        Hash.hashObject(ImmutableList.of("a", "bc"), funnel),
+        Hash.hashObject(Lists.newArrayList("a", "bc"), funnel));
+    assertFalse(
+        Hash.hashObject(ImmutableList.of("a", "bc"), funnel).equals(
+            Hash.hashObject(ImmutableList.of("ab", "c"), funnel)));
+    assertEquals(
+        Hash.hashSerializable(ImmutableList.of("a", "bc")),
+        Hash.hashSerializable(ImmutableList.of("a", "bc")));
+  }
 }
@@ -0,0 +1,255 @@
+package com.google.closure.plugin.plan;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.google.closure.plugin.common.SourceFileProperty;
+import com.google.closure.plugin.common.Sources.Source;
+import com.google.closure.plugin.common.TypedFile;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public class PlanGraphFormatTest extends TestCase {
+
+  static final class Name implements PlanGraphFormat.Internable {
+    private static final long serialVersionUID = 1L;
+
+    final String text;
+
+    Name(String text) {
+      this.text = text;
+    }
+
+    @Override
+    public String getInternForm() {
+      return text;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Name && text.equals(((Name) o).text);
+    }
+
+    @Override
+    public int hashCode() {
+      return text.hashCode();
+    }
+  }
+
+  static final class Holder implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final ImmutableList<File> files;
+    final Name name;
+    final Lazy<ImmutableList<File>> lazyFiles;
+
+    Holder(ImmutableList<File> files, Name name, Lazy<ImmutableList<File>> lf) {
+      this.files = files;
+      this.name = name;
+      this.lazyFiles = lf;
+    }
+  }
+
+  /** Like {@link FieldsV2} before it gained and lost fields. */
+  static final class FieldsV1 implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final int kept;
+    final String removed;
+    final File keptFile;
+
+    FieldsV1(int kept, String removed, File keptFile) {
+      this.kept = kept;
+      this.removed = removed;
+      this.keptFile = keptFile;
+    }
+  }
+
+  static final class FieldsV2 implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final String added;
+    final File keptFile;
+    final int kept;
+
+    FieldsV2(String added, File keptFile, int kept) {
+      this.added = added;
+      this.keptFile = keptFile;
+      this.kept = kept;
+    }
+  }
+
+  private static Holder decode(
+      PlanGraphFormat.EncodedValue encoded, PlanGraphFormat.StringTable table)
+  throws Exception {
+    try (ObjectInputStream in = new PlanGraphFormat.DecodingStream(
+             new ByteArrayInputStream(encoded.bytes), table)) {
+      return (Holder) in.readObject();
+    }
+  }
+
+  @Test
+  public static void testRoundTrip() throws Exception {
+    File f = new File("/src/main/js/foo.js");
+    Holder h = new Holder(
+        ImmutableList.of(f, f, new File("/src/main/js/bar.js")),
+        new Name("goog.foo"),
+        Lazy.of(ImmutableList.of(f)));
+
+    PlanGraphFormat.StringTable table = new PlanGraphFormat.StringTable();
+    PlanGraphFormat.Encoder encoder = new PlanGraphFormat.Encoder(
+        table, false);
+    PlanGraphFormat.EncodedValue encoded = encoder.encode(h);
+    // Two paths, a namespace and the descriptors of the six classes
+    // serialized.
+    assertEquals(9, table.size());
+    assertEquals(
+        PlanGraphFormat.encodeClassDescriptor(
+            ObjectStreamClass.lookup(Holder.class)),
+        table.get(0));
+    assertFalse(encoder.shouldCompact());
+
+    Holder decoded = decode(encoded, table);
+    assertEquals(h.files, decoded.files);
+    assertEquals(h.name, decoded.name);
+    assertTrue(decoded.lazyFiles.getEncoded().isPresent());
+    assertEquals(ImmutableList.of(f), decoded.lazyFiles.get());
+    assertFalse(decoded.lazyFiles.getEncoded().isPresent());
+  }
+
+  @Test
+  public static void testDecodesWithWrittenFields() throws Exception {
+    PlanGraphFormat.StringTable table = new PlanGraphFormat.StringTable();
+    PlanGraphFormat.EncodedValue encoded =
+        new PlanGraphFormat.Encoder(table, false).encode(
+            new FieldsV1(42, "gone", new File("/foo.js")));
+
+    // Pretend that FieldsV1 was since changed to look like FieldsV2 without
+    // changing its serial version UID.
+    PlanGraphFormat.StringTable changed = new PlanGraphFormat.StringTable();
+    for (int i = 0, n = table.size(); i < n; ++i) {
+      changed.intern(table.get(i).replace("FieldsV1", "FieldsV2"));
+    }
+    encoded.table = changed;
+
+    FieldsV2 decoded = (FieldsV2) encoded.decode();
+    assertEquals(42, decoded.kept);
+    assertEquals(new File("/foo.js"), decoded.keptFile);
+    assertNull(decoded.added);
+  }
+
+  @Test
+  public static void testSourcesRoundTrip() throws Exception {
+    TypedFile root = new TypedFile(
+        new File("/src/test/js"), SourceFileProperty.TEST_ONLY,
+        SourceFileProperty.LOAD_AS_NEEDED);
+    Source foo = new Source(
+        new File("/src/test/js/foo.js"), root, new File("foo.js"));
+    Source bar = new Source(
+        new File("/real/bar.js"), root, new File("bar.js"));
+    Source baz = new Source(
+        new File("/src/main/js/baz.js"),
+        new TypedFile(new File("/src/main/js")), new File("baz.js"));
+    ImmutableList<Source> sources = ImmutableList.of(foo, bar, baz, foo);
+
+    PlanGraphFormat.StringTable table = new PlanGraphFormat.StringTable();
+    PlanGraphFormat.EncodedValue encoded =
+        new PlanGraphFormat.Encoder(table, false).encode(sources);
+    try (ObjectInputStream in = new PlanGraphFormat.DecodingStream(
+             new ByteArrayInputStream(encoded.bytes), table)) {
+      @SuppressWarnings("unchecked")
+      ImmutableList<Source> decoded = (ImmutableList<Source>) in.readObject();
+      assertEquals(sources, decoded);
+      for (int i = 0; i < sources.size(); ++i) {
+        assertEquals(sources.get(i).root, decoded.get(i).root);
+        assertEquals(
+            sources.get(i).relativePath, decoded.get(i).relativePath);
+      }
+      // Sources with the same root share it.
+      assertSame(decoded.get(0).root, decoded.get(1).root);
+    }
+  }
+
+  @Test
+  public static void testVarIntRoundTrip() throws Exception {
+    int[] values = { 0, 1, 0x7f, 0x80, 0x3fff, 0x4000, Integer.MAX_VALUE };
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      for (int value : values) {
+        PlanGraphFormat.writeVarInt(out, value);
+      }
+    }
+    // 1 + 1 + 1 + 2 + 2 + 3 + 5
+    assertEquals(15, bytes.size());
+    try (DataInputStream in = new DataInputStream(
+             new ByteArrayInputStream(bytes.toByteArray()))) {
+      for (int value : values) {
+        assertEquals(value, PlanGraphFormat.readVarInt(in));
+      }
+    }
+  }
+
+  @Test
+  public static void testUndecodedLazyValuesReused() throws Exception {
+    File f = new File("/src/main/js/foo.js");
+    PlanGraphFormat.StringTable table = new PlanGraphFormat.StringTable();
+    Holder decoded = decode(
+        new PlanGraphFormat.Encoder(table, false).encode(new Holder(
+            ImmutableList.<File>of(), new Name("a"),
+            Lazy.of(ImmutableList.of(f)))),
+        table);
+    Optional<PlanGraphFormat.EncodedValue> lazyBlob =
+        decoded.lazyFiles.getEncoded();
+    assertTrue(lazyBlob.isPresent());
+
+    Holder reread = decode(
+        new PlanGraphFormat.Encoder(table, false).encode(decoded), table);
+    assertTrue(Arrays.equals(
+        lazyBlob.get().bytes, reread.lazyFiles.getEncoded().get().bytes));
+    // Writing did not force decoding.
+    assertTrue(decoded.lazyFiles.getEncoded().isPresent());
+    assertEquals(ImmutableList.of(f), reread.lazyFiles.get());
+  }
+
+  @Test
+  public static void testCompaction() throws Exception {
+    PlanGraphFormat.StringTable table = new PlanGraphFormat.StringTable();
+    for (int i = 0; i < 10; ++i) {
+      table.intern("/stale/" + i);
+    }
+    PlanGraphFormat.Encoder encoder = new PlanGraphFormat.Encoder(
+        table, false);
+    encoder.encode(new File("/live"));
+    assertTrue(encoder.shouldCompact());
+  }
+
+  @Test
+  public static void testHeader() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      PlanGraphFormat.writeHeader(out);
+    }
+    byte[] header = bytes.toByteArray();
+    assertTrue(
+        PlanGraphFormat.readHeader(
+            new DataInputStream(new ByteArrayInputStream(header))));
+
+    // A different schema version is treated as no usable graph.
+    header[7] += 1;
+    assertFalse(
+        PlanGraphFormat.readHeader(
+            new DataInputStream(new ByteArrayInputStream(header))));
+  }
+}
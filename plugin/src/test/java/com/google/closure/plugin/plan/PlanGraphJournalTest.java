@@ -0,0 +1,432 @@
+package com.google.closure.plugin.plan;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.junit.Test;
+import org.sonatype.plexus.build.incremental.DefaultBuildContext;
+
+import com.google.closure.plugin.TestLog;
+import com.google.closure.plugin.cache.BuildCache;
+import com.google.closure.plugin.common.FileExt;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public final class PlanGraphJournalTest extends TestCase {
+
+  private static final Hash A_CONFIG = Hash.hashString("a");
+  private static final Hash B_CONFIG = Hash.hashString("b");
+
+  private static PlanContext makeContext() {
+    return new PlanContext(
+        null, null, new DefaultBuildContext(), new TestLog(),
+        null, null, ImmutableList.<Artifact>of(), null, null, null, null,
+        1, 0, 0, Optional.<BuildCache>absent(), FileStatCache.paranoid(),
+        SessionCache.unshared());
+  }
+
+  /** Counts the times it has run in its state vector. */
+  static final class CountingNode extends PlanGraphNode<CountingNode.SV> {
+    final String name;
+    final boolean fail;
+    int runs;
+
+    CountingNode(PlanContext c, String name, boolean fail, int runs) {
+      super(c);
+      this.name = name;
+      this.fail = fail;
+      this.runs = runs;
+    }
+
+    @Override
+    protected void preExecute(Iterable<? extends PlanGraphNode<?>> preceders) {
+      // Nothing to do
+    }
+
+    @Override
+    protected void filterUpdates() {
+      // Nothing to do
+    }
+
+    @Override
+    protected void process() throws MojoExecutionException {
+      if (fail) {
+        throw new MojoExecutionException("Failed " + name);
+      }
+      ++runs;
+    }
+
+    @Override
+    protected Iterable<? extends File> changedOutputFiles() {
+      return ImmutableList.of();
+    }
+
+    @Override
+    protected SV getStateVector() {
+      return new SV(name, runs);
+    }
+
+    static final class SV implements PlanGraphNode.StateVector {
+      private static final long serialVersionUID = 1L;
+
+      final String name;
+      final int runs;
+
+      SV(String name, int runs) {
+        this.name = name;
+        this.runs = runs;
+      }
+
+      @Override
+      public PlanGraphNode<?> reconstitute(PlanContext c, JoinNodes jn) {
+        return new CountingNode(c, name, false, runs);
+      }
+    }
+  }
+
+  /** Reports whether a file's content changed since it last ran. */
+  static final class ReadNode extends PlanGraphNode<ReadNode.SV> {
+    final File input;
+    String content;
+    Update<String> update;
+
+    ReadNode(PlanContext c, File input, String content) {
+      super(c);
+      this.input = input;
+      this.content = content;
+    }
+
+    @Override
+    protected void preExecute(Iterable<? extends PlanGraphNode<?>> preceders) {
+      // Nothing to do
+    }
+
+    @Override
+    protected void filterUpdates() throws IOException {
+      String now = Files.toString(input, Charsets.UTF_8);
+      ImmutableList<String> none = ImmutableList.of();
+      if (now.equals(content)) {
+        update = new Update<>(ImmutableList.of(now), none, none);
+      } else {
+        update = new Update<>(
+            none, ImmutableList.of(now),
+            content != null ? ImmutableList.of(content) : none);
+      }
+      content = now;
+    }
+
+    @Override
+    protected void process() {
+      // Nothing to do
+    }
+
+    @Override
+    protected Iterable<? extends File> changedOutputFiles() {
+      return ImmutableList.of();
+    }
+
+    @Override
+    protected SV getStateVector() {
+      return new SV(input, content);
+    }
+
+    static final class SV implements PlanGraphNode.StateVector {
+      private static final long serialVersionUID = 1L;
+
+      final File input;
+      final String content;
+
+      SV(File input, String content) {
+        this.input = input;
+        this.content = content;
+      }
+
+      @Override
+      public PlanGraphNode<?> reconstitute(PlanContext c, JoinNodes jn) {
+        return new ReadNode(c, input, content);
+      }
+    }
+  }
+
+  /**
+   * Like a compiler, only processes what its preceder reports as changed,
+   * and fails while a marker file exists.
+   */
+  static final class CompileNode extends PlanGraphNode<CompileNode.SV> {
+    final File failMarker;
+    String compiled;
+    Update<String> update;
+
+    CompileNode(PlanContext c, File failMarker, String compiled) {
+      super(c);
+      this.failMarker = failMarker;
+      this.compiled = compiled;
+    }
+
+    @Override
+    protected void preExecute(Iterable<? extends PlanGraphNode<?>> preceders) {
+      for (PlanGraphNode<?> p : preceders) {
+        if (p instanceof ReadNode) {
+          update = ((ReadNode) p).update;
+        }
+      }
+      if (isDirty()) {
+        update = update.allAsChanged();
+      }
+    }
+
+    @Override
+    protected void filterUpdates() {
+      // Nothing to do
+    }
+
+    @Override
+    protected void process() throws MojoExecutionException {
+      if (failMarker.exists()) {
+        throw new MojoExecutionException("Failed compile");
+      }
+      for (String s : update.changed) {
+        compiled = s;
+      }
+    }
+
+    @Override
+    protected Iterable<? extends File> changedOutputFiles() {
+      return ImmutableList.of();
+    }
+
+    @Override
+    protected SV getStateVector() {
+      return new SV(failMarker, compiled);
+    }
+
+    static final class SV implements PlanGraphNode.StateVector {
+      private static final long serialVersionUID = 1L;
+
+      final File failMarker;
+      final String compiled;
+
+      SV(File failMarker, String compiled) {
+        this.failMarker = failMarker;
+        this.compiled = compiled;
+      }
+
+      @Override
+      public PlanGraphNode<?> reconstitute(PlanContext c, JoinNodes jn) {
+        return new CompileNode(c, failMarker, compiled);
+      }
+    }
+  }
+
+  /**
+   * Builds a pipeline that reads input then compiles it, and stores the
+   * plan graph if the build succeeds.
+   *
+   * @return what has been compiled.
+   */
+  private static String readAndCompile(
+      File file, File input, File failMarker)
+  throws Exception {
+    PlanGraphJournal journal = new PlanGraphJournal(file, new TestLog());
+    PlanGraph g = new PlanGraph(makeContext());
+    journal.load(g);
+    g.setJournal(journal);
+    PlanContext c = g.getContext();
+    if (g.startPlanner("c", Optional.of(A_CONFIG))) {
+      g.getJoinNodes().pipeline()
+          .then(new ReadNode(c, input, null))
+          .then(new CompileNode(c, failMarker, null))
+          .build();
+    }
+    g.execute();
+    journal.compact(g);
+    for (PlanGraphNode<?> node : g.storedLayout().keySet()) {
+      if (node instanceof CompileNode) {
+        return ((CompileNode) node).compiled;
+      }
+    }
+    throw new AssertionError("No compile node");
+  }
+
+  /** Plans a, then b which fails if failB. */
+  private static PlanGraph plan(File file, boolean failB)
+  throws IOException {
+    return plan(new PlanGraphJournal(file, new TestLog()), failB);
+  }
+
+  private static PlanGraph plan(PlanGraphJournal journal, boolean failB)
+  throws IOException {
+    PlanGraph g = new PlanGraph(makeContext());
+    journal.load(g);
+    g.setJournal(journal);
+    PlanContext c = g.getContext();
+    if (g.startPlanner("a", Optional.of(A_CONFIG))) {
+      g.getJoinNodes().pipeline()
+          .then(new CountingNode(c, "a", false, 0))
+          .provide(FileExt.JSON)
+          .build();
+    }
+    if (g.startPlanner("b", Optional.of(B_CONFIG))) {
+      g.getJoinNodes().pipeline()
+          .require(FileExt.JSON)
+          .then(new CountingNode(c, "b", failB, 0))
+          .build();
+    }
+    return g;
+  }
+
+  private static Map<String, Integer> runs(PlanGraph g) {
+    Map<String, Integer> runs = Maps.newTreeMap();
+    for (PlanGraphNode<?> node : g.storedLayout().keySet()) {
+      CountingNode cn = (CountingNode) node;
+      runs.put(cn.name, cn.runs);
+    }
+    return runs;
+  }
+
+  private static Map<String, Integer> runs(int a, int b) {
+    Map<String, Integer> runs = Maps.newTreeMap();
+    runs.put("a", a);
+    runs.put("b", b);
+    return runs;
+  }
+
+  private static void failingBuild(File file) throws Exception {
+    PlanGraph g = plan(file, true);
+    try {
+      g.execute();
+      fail("Expected failure");
+    } catch (MojoExecutionException ex) {
+      assertEquals("Failed b", ex.getMessage());
+    }
+  }
+
+  private static void succeedingBuild(File file) throws Exception {
+    PlanGraphJournal journal = new PlanGraphJournal(file, new TestLog());
+    PlanGraph g = plan(journal, false);
+    g.execute();
+    journal.compact(g);
+  }
+
+  private static File tempDir() {
+    return Files.createTempDir();
+  }
+
+  private static void deleteAll(File dir) {
+    for (File f : dir.listFiles()) {
+      assertTrue(f.delete());
+    }
+    assertTrue(dir.delete());
+  }
+
+  @Test
+  public static void testFailedBuildResumesFromCompletedNodes()
+  throws Exception {
+    File dir = tempDir();
+    try {
+      File file = new File(dir, "plan-graph.bin");
+      failingBuild(file);
+      assertTrue(file.exists());
+      assertTrue(new File(dir, "plan-graph.bin.journal").exists());
+
+      // a's completion survived b's failure.
+      assertEquals(runs(1, 0), runs(plan(file, false)));
+
+      PlanGraph g = plan(file, false);
+      g.execute();
+      assertEquals(runs(2, 1), runs(g));
+    } finally {
+      deleteAll(dir);
+    }
+  }
+
+  @Test
+  public static void testCompactionRemovesJournal() throws Exception {
+    File dir = tempDir();
+    try {
+      File file = new File(dir, "plan-graph.bin");
+      failingBuild(file);
+      succeedingBuild(file);
+      assertFalse(new File(dir, "plan-graph.bin.journal").exists());
+      assertEquals(runs(2, 1), runs(plan(file, false)));
+    } finally {
+      deleteAll(dir);
+    }
+  }
+
+  @Test
+  public static void testTornRecordIsIgnored() throws Exception {
+    File dir = tempDir();
+    try {
+      File file = new File(dir, "plan-graph.bin");
+      File journalFile = new File(dir, "plan-graph.bin.journal");
+      failingBuild(file);
+      // As if a crash happened while appending another record.
+      Files.append(
+          new String(new char[] { 0, 0, 1, 0, 'x' }), journalFile,
+          Charsets.ISO_8859_1);
+      assertEquals(runs(1, 0), runs(plan(file, false)));
+
+      // Records appended after the torn one by a build that was killed
+      // before storing its plan graph are not lost.
+      plan(file, false).execute();
+      assertEquals(runs(2, 1), runs(plan(file, false)));
+    } finally {
+      deleteAll(dir);
+    }
+  }
+
+  @Test
+  public static void testNodesThatDidNotCompleteRebuild() throws Exception {
+    File dir = tempDir();
+    try {
+      File file = new File(dir, "plan-graph.bin");
+      File input = new File(dir, "input.txt");
+      File failMarker = new File(dir, "fail");
+      Files.write("v1", input, Charsets.UTF_8);
+      assertEquals("v1", readAndCompile(file, input, failMarker));
+
+      // The input is read, but compiling fails for an unrelated reason.
+      Files.write("v2", input, Charsets.UTF_8);
+      Files.write("", failMarker, Charsets.UTF_8);
+      try {
+        readAndCompile(file, input, failMarker);
+        fail("Expected failure");
+      } catch (MojoExecutionException ex) {
+        assertEquals("Failed compile", ex.getMessage());
+      }
+      assertTrue(failMarker.delete());
+
+      // The read node, which completed, no longer reports v2 as changed.
+      assertEquals("v2", readAndCompile(file, input, failMarker));
+      assertEquals("v2", readAndCompile(file, input, failMarker));
+    } finally {
+      deleteAll(dir);
+    }
+  }
+
+  @Test
+  public static void testJournalOfReplacedFileIsIgnored() throws Exception {
+    File dir = tempDir();
+    try {
+      File file = new File(dir, "plan-graph.bin");
+      File journalFile = new File(dir, "plan-graph.bin.journal");
+      failingBuild(file);
+      byte[] staleJournal = Files.toByteArray(journalFile);
+      succeedingBuild(file);
+      Files.write(staleJournal, journalFile);
+      assertEquals(runs(2, 1), runs(plan(file, false)));
+    } finally {
+      deleteAll(dir);
+    }
+  }
+}
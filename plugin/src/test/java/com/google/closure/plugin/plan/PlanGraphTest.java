@@ -0,0 +1,436 @@
+package com.google.closure.plugin.plan;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Test;
+import org.sonatype.plexus.build.incremental.DefaultBuildContext;
+
+import com.google.closure.plugin.TestLog;
+import com.google.closure.plugin.common.FileExt;
+import com.google.closure.plugin.cache.BuildCache;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public class PlanGraphTest extends TestCase {
+
+  private static PlanContext makeContext(int parallelism) {
+    return makeContext(parallelism, 0);
+  }
+
+  private static PlanContext makeContext(
+      int parallelism, long memoryBudgetBytes) {
+    return new PlanContext(
+        null, null, new DefaultBuildContext(), new TestLog(),
+        null, null, ImmutableList.<Artifact>of(), null, null, null, null,
+        parallelism, memoryBudgetBytes, 0, Optional.<BuildCache>absent(),
+        FileStatCache.paranoid(), SessionCache.unshared());
+  }
+
+  static final class RecordingNode
+  extends PlanGraphNode<PlanGraphNode.StateVector> {
+    final String name;
+    final List<String> log;
+    final boolean fail;
+    final long sleepMillis;
+    /** Intermediate state that may be spilled. */
+    final Lazy<String> held;
+    int released;
+
+    RecordingNode(
+        PlanContext context, String name, List<String> log, boolean fail) {
+      this(context, name, log, fail, 0);
+    }
+
+    RecordingNode(
+        PlanContext context, String name, List<String> log, boolean fail,
+        long sleepMillis) {
+      super(context);
+      this.name = name;
+      this.log = log;
+      this.fail = fail;
+      this.sleepMillis = sleepMillis;
+      this.held = Lazy.of(name);
+    }
+
+    @Override
+    protected void preExecute(Iterable<? extends PlanGraphNode<?>> preceders) {
+      // Nothing to do
+    }
+
+    @Override
+    protected void filterUpdates() {
+      // Nothing to do
+    }
+
+    @Override
+    protected void process() throws MojoExecutionException {
+      if (sleepMillis != 0) {
+        try {
+          Thread.sleep(sleepMillis);
+        } catch (InterruptedException ex) {
+          throw new MojoExecutionException("Interrupted", ex);
+        }
+      }
+      if (fail) {
+        throw new MojoExecutionException("Failed " + name);
+      }
+      synchronized (log) {
+        log.add(name);
+      }
+    }
+
+    @Override
+    protected Iterable<? extends File> changedOutputFiles() {
+      return ImmutableList.of(new File(name));
+    }
+
+    @Override
+    protected void recordWorkload(NodeProfile profile) {
+      profile.addOutputs(ImmutableList.of(new File(name)));
+    }
+
+    @Override
+    protected void explainUpdates(NodeExplanation explanation) {
+      explanation.addUpdate("names", new Update<>(
+          ImmutableList.<String>of(), ImmutableList.of(name),
+          ImmutableList.<String>of()));
+      explanation.addTrigger(name + " changed");
+    }
+
+    @Override
+    protected void releaseIntermediates() {
+      ++released;
+    }
+
+    @Override
+    protected StateVector getStateVector() {
+      return new NamedStateVector(name, held);
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  /** Receives the names of reconstituted nodes as they are processed. */
+  static final List<String> RECONSTITUTED_LOG = Lists.newArrayList();
+
+  static final class NamedStateVector implements PlanGraphNode.StateVector {
+    private static final long serialVersionUID = 1L;
+
+    final String name;
+    final Lazy<String> held;
+
+    NamedStateVector(String name, Lazy<String> held) {
+      this.name = name;
+      this.held = held;
+    }
+
+    @Override
+    public PlanGraphNode<?> reconstitute(PlanContext c, JoinNodes joinNodes) {
+      return new RecordingNode(c, "stored-" + name, RECONSTITUTED_LOG, false);
+    }
+  }
+
+  private static List<String> runDiamond(
+      int parallelism, boolean failLeft, List<String> log)
+  throws IOException, MojoExecutionException {
+    PlanContext context = makeContext(parallelism);
+    runDiamond(new PlanGraph(context), failLeft, log);
+    return log;
+  }
+
+  private static void runDiamond(
+      PlanGraph g, boolean failLeft, List<String> log)
+  throws IOException, MojoExecutionException {
+    PlanContext context = g.getContext();
+    RecordingNode top = new RecordingNode(context, "top", log, false);
+    RecordingNode left = new RecordingNode(context, "left", log, failLeft);
+    RecordingNode right = new RecordingNode(context, "right", log, false);
+    RecordingNode rightChild = new RecordingNode(
+        context, "rightChild", log, false);
+    RecordingNode bottom = new RecordingNode(context, "bottom", log, false);
+    top.addFollower(left);
+    top.addFollower(right);
+    left.addFollower(bottom);
+    right.addFollower(rightChild);
+    rightChild.addFollower(bottom);
+    g.roots.add(top);
+    g.execute();
+  }
+
+  @Test
+  public static void testSerialAndParallelRunSameNodes() throws Exception {
+    List<String> serial = runDiamond(1, false, Lists.<String>newArrayList());
+    assertEquals(
+        ImmutableList.of("top", "left", "right", "rightChild", "bottom"),
+        serial);
+    for (int i = 0; i < 20; ++i) {
+      List<String> parallel = runDiamond(
+          4, false, Lists.<String>newArrayList());
+      assertEquals(5, parallel.size());
+      assertEquals("top", parallel.get(0));
+      assertEquals("bottom", parallel.get(4));
+      assertTrue(parallel.indexOf("right") < parallel.indexOf("rightChild"));
+    }
+  }
+
+  @Test
+  public static void testBuildContextSerializedForParallelExecution() {
+    assertFalse(
+        makeContext(1).buildContext instanceof SynchronizedBuildContext);
+    assertTrue(
+        makeContext(4).buildContext instanceof SynchronizedBuildContext);
+  }
+
+  @Test
+  public static void testFailureDoesNotStopIndependentBranches()
+  throws Exception {
+    for (int parallelism : new int[] { 2, 4 }) {
+      List<String> log = Lists.newArrayList();
+      try {
+        runDiamond(parallelism, true, log);
+        fail("Expected failure");
+      } catch (MojoExecutionException ex) {
+        assertEquals("Failed left", ex.getMessage());
+      }
+      // The right branch completes, but bottom depends on the failed node.
+      assertEquals(ImmutableList.of("top", "right", "rightChild"), log);
+    }
+  }
+
+  @Test
+  public static void testProfile() throws Exception {
+    PlanGraph g = new PlanGraph(makeContext(1));
+    runDiamond(g, false, Lists.<String>newArrayList());
+    File profileFile = File.createTempFile("profile", ".json");
+    try {
+      g.getProfile().writeJson(profileFile);
+      JSONObject json = (JSONObject) new JSONParser().parse(
+          Files.toString(profileFile, Charsets.UTF_8));
+      assertEquals(Long.valueOf(2), json.get("version"));
+      JSONArray nodes = (JSONArray) json.get("nodes");
+      assertEquals(5, nodes.size());
+      JSONObject top = (JSONObject) nodes.get(0);
+      String nodeName = (String) top.get("node");
+      assertTrue(nodeName, nodeName.startsWith("top@"));
+      assertEquals(Long.valueOf(1), top.get("changedOutputs"));
+      assertEquals(Boolean.TRUE, top.get("completed"));
+    } finally {
+      assertTrue(profileFile.delete());
+    }
+  }
+
+  @Test
+  public static void testFailedNodeTimed() throws Exception {
+    PlanContext context = makeContext(1);
+    PlanGraph g = new PlanGraph(context);
+    RecordingNode slowFailure = new RecordingNode(
+        context, "slowFailure", Lists.<String>newArrayList(), true, 20);
+    g.roots.add(slowFailure);
+    try {
+      g.execute();
+      fail("Expected failure");
+    } catch (MojoExecutionException ex) {
+      assertEquals("Failed slowFailure", ex.getMessage());
+    }
+    NodeProfile profile = g.getProfile().get(slowFailure).get();
+    assertFalse(profile.completed);
+    assertTrue(profile.processNanos >= 20000000L /* 20ms */);
+  }
+
+  @Test
+  public static void testOnlyChangedPlannersAreReplanned() throws Exception {
+    List<String> log = Lists.newArrayList();
+    Hash cssConfig = Hash.hashString("css");
+    Hash jsConfig = Hash.hashString("js");
+
+    PlanGraph g = new PlanGraph(makeContext(1));
+    PlanContext context = g.getContext();
+    assertTrue(g.startPlanner("css", Optional.of(cssConfig)));
+    g.getJoinNodes().pipeline()
+        .then(new RecordingNode(context, "css", log, false))
+        .provide(FileExt.JSON)
+        .build();
+    assertTrue(g.startPlanner("js", Optional.of(jsConfig)));
+    g.getJoinNodes().pipeline()
+        .require(FileExt.JSON)
+        .then(new RecordingNode(context, "js", log, false))
+        .build();
+    g.execute();
+    assertEquals(ImmutableList.of("css", "js"), log);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      g.writeTo(out);
+    }
+
+    // Only the JS configuration changed.
+    log.clear();
+    RECONSTITUTED_LOG.clear();
+    PlanGraph loaded = new PlanGraph(makeContext(1));
+    loaded.readFrom(new DataInputStream(
+        new ByteArrayInputStream(bytes.toByteArray())));
+    assertFalse(loaded.startPlanner("css", Optional.of(cssConfig)));
+    assertTrue(loaded.startPlanner(
+        "js", Optional.of(Hash.hashString("js2"))));
+    loaded.getJoinNodes().pipeline()
+        .require(FileExt.JSON)
+        .then(new RecordingNode(loaded.getContext(), "js2", log, false))
+        .build();
+    loaded.execute();
+    assertEquals(ImmutableList.of("stored-css"), RECONSTITUTED_LOG);
+    // The replanned pipeline still follows the reused one.
+    assertEquals(ImmutableList.of("js2"), log);
+  }
+
+  @Test
+  public static void testLongestRemainingPathGoesFirst() throws Exception {
+    List<String> log = Lists.newArrayList();
+    PlanGraph g = new PlanGraph(makeContext(1));
+    PlanContext context = g.getContext();
+    RecordingNode top = new RecordingNode(context, "top", log, false);
+    RecordingNode left = new RecordingNode(context, "left", log, false);
+    RecordingNode leftChild = new RecordingNode(
+        context, "leftChild", log, false);
+    RecordingNode right = new RecordingNode(context, "right", log, false);
+    RecordingNode slow = new RecordingNode(context, "slow", log, false, 50);
+    top.addFollower(left);
+    top.addFollower(right);
+    left.addFollower(leftChild);
+    right.addFollower(slow);
+    g.roots.add(top);
+
+    // Without timings, nodes run in the order they become ready.
+    g.execute();
+    assertEquals(
+        ImmutableList.of("top", "left", "right", "leftChild", "slow"),
+        log);
+
+    // The slow branch is started first once its cost is known.
+    log.clear();
+    g.execute();
+    assertEquals(
+        ImmutableList.of("top", "right", "slow", "left", "leftChild"),
+        log);
+  }
+
+  @Test
+  public static void testMemoryBudgetReleasesConsumedState()
+  throws Exception {
+    for (int parallelism : new int[] { 1, 4 }) {
+      List<String> log = Lists.newArrayList();
+      PlanGraph g = new PlanGraph(makeContext(parallelism, 1));
+      PlanContext context = g.getContext();
+      RecordingNode top = new RecordingNode(context, "top", log, false);
+      RecordingNode left = new RecordingNode(context, "left", log, false);
+      RecordingNode right = new RecordingNode(context, "right", log, false);
+      top.addFollower(left);
+      top.addFollower(right);
+      g.roots.add(top);
+      g.execute();
+
+      // Even over budget, all nodes run.
+      assertEquals(3, log.size());
+      for (RecordingNode n : ImmutableList.of(top, left, right)) {
+        assertEquals(1, n.released);
+        assertTrue(n.held.getEncoded().isPresent());
+        assertTrue(g.getProfile().get(n).get().peakRetainedBytes() > 0);
+      }
+      // Spilled values are decoded when needed again.
+      assertEquals("top", top.held.get());
+    }
+  }
+
+  @Test
+  public static void testNoMemoryBudgetRetainsState() throws Exception {
+    List<String> log = Lists.newArrayList();
+    PlanGraph g = new PlanGraph(makeContext(1));
+    PlanContext context = g.getContext();
+    RecordingNode top = new RecordingNode(context, "top", log, false);
+    RecordingNode bottom = new RecordingNode(context, "bottom", log, false);
+    top.addFollower(bottom);
+    g.roots.add(top);
+    g.execute();
+    assertEquals(0, top.released);
+    assertFalse(top.held.getEncoded().isPresent());
+    assertEquals(0, g.getProfile().get(top).get().peakRetainedBytes());
+  }
+
+  @Test
+  public static void testExplainDoesNotProcess() throws Exception {
+    List<String> log = Lists.newArrayList();
+    PlanGraph g = new PlanGraph(makeContext(1));
+    PlanContext context = g.getContext();
+    assertTrue(g.startPlanner("css", Optional.of(Hash.hashString("css"))));
+    g.getJoinNodes().pipeline()
+        .then(new RecordingNode(context, "css", log, false))
+        .build();
+    g.execute();
+    log.clear();
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      g.writeTo(out);
+    }
+    PlanGraph loaded = new PlanGraph(makeContext(1));
+    loaded.readFrom(new DataInputStream(
+        new ByteArrayInputStream(bytes.toByteArray())));
+    assertTrue(loaded.startPlanner(
+        "css", Optional.of(Hash.hashString("css2"))));
+    loaded.getJoinNodes().pipeline()
+        .then(new RecordingNode(loaded.getContext(), "css2", log, false))
+        .build();
+    assertTrue(loaded.startPlanner("js", Optional.<Hash>absent()));
+
+    PlanExplanation explanation = loaded.explain();
+    assertEquals(ImmutableList.<String>of(), log);
+    assertTrue(
+        explanation.planners.get("css"),
+        explanation.planners.get("css").startsWith(
+            "replanned: configuration hash changed"));
+    assertEquals(
+        "replanned: no stored plan", explanation.planners.get("js"));
+
+    NodeExplanation css2 = null;
+    for (NodeExplanation n : explanation.nodes) {
+      if (n.nodeName.startsWith("css2@")) {
+        css2 = n;
+      }
+    }
+    assertNotNull(css2);
+    assertTrue(css2.wouldProcess());
+    // Timings are only known for reused nodes and others of their class.
+    assertEquals(-1L, css2.estimatedNanos);
+
+    File reportFile = File.createTempFile("explain", ".json");
+    try {
+      explanation.writeJson(reportFile);
+      JSONObject json = (JSONObject) new JSONParser().parse(
+          Files.toString(reportFile, Charsets.UTF_8));
+      assertEquals(Long.valueOf(1), json.get("version"));
+      JSONArray nodes = (JSONArray) json.get("nodes");
+      assertEquals(explanation.nodes.size(), nodes.size());
+    } finally {
+      assertTrue(reportFile.delete());
+    }
+  }
+}
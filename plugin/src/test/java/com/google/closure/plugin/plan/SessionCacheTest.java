@@ -0,0 +1,110 @@
+package com.google.closure.plugin.plan;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.closure.plugin.common.Sources.Source;
+import com.google.closure.plugin.common.TypedFile;
+import com.google.closure.plugin.plan.SourceMetadataMapBuilder.Extractor;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public final class SessionCacheTest extends TestCase {
+
+  private static final TypedFile ROOT = new TypedFile(new File("/src"));
+
+  private static Source source(String name) {
+    return new Source(new File("/src", name), ROOT, new File(name));
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(Charsets.UTF_8);
+  }
+
+  static final class CountingExtractor implements Extractor<String> {
+    final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public String extractMetadata(Source s, byte[] content) {
+      count.incrementAndGet();
+      return new String(content, Charsets.UTF_8).toUpperCase();
+    }
+  }
+
+  @Test
+  public static void testForSessionSharesBySessionKey() {
+    Object session = new Object();
+    SessionCache a = SessionCache.forSession(session);
+    assertSame(a, SessionCache.forSession(session));
+    assertNotSame(a, SessionCache.forSession(new Object()));
+    assertNotSame(a, SessionCache.unshared());
+  }
+
+  @Test
+  public static void testSharingExtractsContentOnce() throws IOException {
+    SessionCache cache = SessionCache.unshared();
+    CountingExtractor inner = new CountingExtractor();
+    Extractor<String> moduleA = cache.sharing("test", inner);
+    Extractor<String> moduleB = cache.sharing("test", inner);
+
+    assertEquals("FOO", moduleA.extractMetadata(source("a.js"), bytes("foo")));
+    // Same content at a different path in another module.
+    assertEquals("FOO", moduleB.extractMetadata(source("b.js"), bytes("foo")));
+    assertEquals(1, inner.count.get());
+
+    assertEquals("BAR", moduleB.extractMetadata(source("b.js"), bytes("bar")));
+    assertEquals(2, inner.count.get());
+  }
+
+  @Test
+  public static void testKindsAreDistinct() throws IOException {
+    SessionCache cache = SessionCache.unshared();
+    CountingExtractor inner = new CountingExtractor();
+    cache.sharing("ES5", inner).extractMetadata(source("a.js"), bytes("x"));
+    cache.sharing("ES6", inner).extractMetadata(source("a.js"), bytes("x"));
+    assertEquals(2, inner.count.get());
+    assertEquals(
+        Optional.of("X"),
+        cache.getMetadata(
+            SessionCache.contentKey("ES6", bytes("x")), String.class));
+    assertEquals(
+        Optional.absent(),
+        cache.getMetadata(
+            SessionCache.contentKey("ES3", bytes("x")), String.class));
+  }
+
+  @Test
+  public static void testToolFoundOnceButFailuresRetried()
+  throws ExecutionException {
+    SessionCache cache = SessionCache.unshared();
+    final AtomicInteger searches = new AtomicInteger();
+    final File protoc = new File("/bin/protoc");
+    Callable<Optional<File>> finder = new Callable<Optional<File>>() {
+      @Override
+      public Optional<File> call() throws IOException {
+        if (searches.incrementAndGet() == 1) {
+          throw new IOException("offline");
+        }
+        return Optional.of(protoc);
+      }
+    };
+
+    try {
+      cache.tool("protoc", finder);
+      fail("Expected failure");
+    } catch (ExecutionException ex) {
+      assertEquals("offline", ex.getCause().getMessage());
+    }
+    assertEquals(Optional.of(protoc), cache.tool("protoc", finder));
+    assertEquals(Optional.of(protoc), cache.tool("protoc", finder));
+    assertEquals(2, searches.get());
+  }
+}
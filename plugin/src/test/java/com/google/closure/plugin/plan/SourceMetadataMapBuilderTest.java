@@ -0,0 +1,141 @@
+package com.google.closure.plugin.plan;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.closure.plugin.common.Sources.Source;
+import com.google.closure.plugin.common.TypedFile;
+import com.google.closure.plugin.plan.SourceMetadataMapBuilder.Extractor;
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteSource;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public final class SourceMetadataMapBuilderTest extends TestCase {
+
+  private static final TypedFile ROOT = new TypedFile(new File("/src"));
+
+  private static final Function<Source, ByteSource> LOADER =
+      new Function<Source, ByteSource>() {
+        @Override
+        public ByteSource apply(Source s) {
+          return ByteSource.wrap(
+              ("content of " + s.relativePath).getBytes(Charsets.UTF_8));
+        }
+      };
+
+  private static ImmutableList<Source> sources(int n) {
+    List<Source> sources = Lists.newArrayList();
+    // Reverse order to check that the output is sorted.
+    for (int i = n; --i >= 0;) {
+      String name = "f" + i + ".txt";
+      sources.add(new Source(new File("/src", name), ROOT, new File(name)));
+    }
+    return ImmutableList.copyOf(sources);
+  }
+
+  /** Checks that it is not called concurrently. */
+  static final class NonThreadSafeExtractor implements Extractor<String> {
+    private boolean busy;
+
+    @Override
+    public String extractMetadata(Source s, byte[] content)
+    throws IOException {
+      if (busy) { throw new IOException("Concurrent use"); }
+      busy = true;
+      try {
+        return new String(content, Charsets.UTF_8).toUpperCase();
+      } finally {
+        busy = false;
+      }
+    }
+  }
+
+  private static ImmutableMap<Source, Metadata<String>> update(
+      Map<Source, Metadata<String>> previous, int parallelism,
+      final AtomicInteger nExtractors, ImmutableList<Source> sources)
+  throws IOException {
+    return SourceMetadataMapBuilder.updateFromSources(
+        previous, LOADER, Optional.<FileStatCache>absent(),
+        new Supplier<Extractor<String>>() {
+          @Override
+          public Extractor<String> get() {
+            nExtractors.incrementAndGet();
+            return new NonThreadSafeExtractor();
+          }
+        },
+        parallelism, sources);
+  }
+
+  @Test
+  public static void testParallelMatchesSerial() throws Exception {
+    ImmutableList<Source> sources = sources(200);
+    AtomicInteger nSerial = new AtomicInteger();
+    ImmutableMap<Source, Metadata<String>> serial = update(
+        ImmutableMap.<Source, Metadata<String>>of(), 1, nSerial, sources);
+    AtomicInteger nParallel = new AtomicInteger();
+    ImmutableMap<Source, Metadata<String>> parallel = update(
+        ImmutableMap.<Source, Metadata<String>>of(), 4, nParallel, sources);
+
+    assertEquals(
+        ImmutableList.copyOf(serial.entrySet()),
+        ImmutableList.copyOf(parallel.entrySet()));
+    assertEquals("f0.txt", serial.keySet().iterator().next().relativePath
+        .getPath());
+    assertEquals("CONTENT OF F0.TXT", serial.values().iterator().next()
+        .metadata);
+    assertEquals(1, nSerial.get());
+    assertTrue(nParallel.get() >= 1);
+    assertTrue(nParallel.get() <= 4);
+  }
+
+  @Test
+  public static void testUnchangedMetadataIsReused() throws Exception {
+    ImmutableList<Source> sources = sources(10);
+    ImmutableMap<Source, Metadata<String>> first = update(
+        ImmutableMap.<Source, Metadata<String>>of(), 4, new AtomicInteger(),
+        sources);
+    ImmutableMap<Source, Metadata<String>> second = update(
+        first, 4, new AtomicInteger(), sources);
+    for (Source s : sources) {
+      assertSame(first.get(s), second.get(s));
+    }
+  }
+
+  @Test
+  public static void testFailuresPropagate() {
+    try {
+      SourceMetadataMapBuilder.updateFromSources(
+          ImmutableMap.<Source, Metadata<String>>of(), LOADER,
+          Optional.<FileStatCache>absent(),
+          new Supplier<Extractor<String>>() {
+            @Override
+            public Extractor<String> get() {
+              return new Extractor<String>() {
+                @Override
+                public String extractMetadata(Source s, byte[] content)
+                throws IOException {
+                  throw new IOException("bad " + s.relativePath);
+                }
+              };
+            }
+          },
+          4, sources(10));
+      fail("Expected failure");
+    } catch (IOException ex) {
+      assertTrue(ex.getMessage(), ex.getMessage().startsWith("bad "));
+    }
+  }
+}
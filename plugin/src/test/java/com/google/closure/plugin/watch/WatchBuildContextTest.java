@@ -0,0 +1,178 @@
+package com.google.closure.plugin.watch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.codehaus.plexus.util.Scanner;
+import org.junit.Test;
+import org.sonatype.plexus.build.incremental.DefaultBuildContext;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public final class WatchBuildContextTest extends TestCase {
+
+  private static void deleteTree(File f) throws IOException {
+    File[] children = f.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteTree(child);
+      }
+    }
+    if (f.exists() && !f.delete()) {
+      throw new IOException("Failed to delete " + f);
+    }
+  }
+
+  private static ImmutableList<String> scan(Scanner s) {
+    s.setIncludes(new String[] { "**/*.js" });
+    s.setExcludes(new String[] { "**/*_test.js" });
+    s.scan();
+    String[] files = s.getIncludedFiles();
+    Arrays.sort(files);
+    return ImmutableList.copyOf(files);
+  }
+
+  @Test
+  public static void testDelta() throws Exception {
+    File tmp = Files.createTempDir().getCanonicalFile();
+    try {
+      File js = new File(tmp, "js");
+      File foo = new File(new File(js, "a"), "foo.js");
+      File fooTest = new File(new File(js, "a"), "foo_test.js");
+      File bar = new File(js, "bar.js");
+      File css = new File(new File(tmp, "css"), "x.css");
+      for (File f : new File[] { foo, fooTest, bar, css }) {
+        Files.createParentDirs(f);
+        Files.write("", f, Charsets.UTF_8);
+      }
+
+      WatchBuildContext bc = new WatchBuildContext(
+          new DefaultBuildContext(), tmp);
+      // Without a delta, everything is scanned.
+      assertFalse(bc.isIncremental());
+      assertEquals(
+          ImmutableList.of("a" + File.separator + "foo.js", "bar.js"),
+          scan(bc.newScanner(js, false)));
+
+      File gone = new File(js, "gone.js");
+      bc.setDelta(Optional.of(new ChangeBatch(
+          ImmutableList.of(foo, fooTest, css),
+          ImmutableList.of(gone),
+          false)));
+      assertTrue(bc.isIncremental());
+      assertEquals(
+          ImmutableList.of("a" + File.separator + "foo.js"),
+          scan(bc.newScanner(js, false)));
+      assertEquals(
+          ImmutableList.of("gone.js"),
+          scan(bc.newDeleteScanner(js)));
+      assertEquals(
+          ImmutableList.of("a" + File.separator + "foo.js", "bar.js"),
+          scan(bc.newScanner(js, true)));
+      assertTrue(bc.hasDelta(foo));
+      assertTrue(bc.hasDelta(js));
+      assertTrue(bc.hasDelta("css"));
+      assertFalse(bc.hasDelta(bar));
+
+      // An incomplete batch requires a full rescan.
+      bc.setDelta(Optional.of(new ChangeBatch(
+          ImmutableList.of(foo), ImmutableList.<File>of(), true)));
+      assertFalse(bc.isIncremental());
+      assertEquals(
+          ImmutableList.of("a" + File.separator + "foo.js", "bar.js"),
+          scan(bc.newScanner(js, false)));
+    } finally {
+      deleteTree(tmp);
+    }
+  }
+
+  @Test
+  public static void testSourceWatcher() throws Exception {
+    File tmp = Files.createTempDir().getCanonicalFile();
+    try {
+      File existing = new File(tmp, "existing.js");
+      Files.write("", existing, Charsets.UTF_8);
+      try (SourceWatcher watcher = new SourceWatcher()) {
+        watcher.watchTree(tmp);
+
+        File created = new File(new File(tmp, "sub"), "created.js");
+        Files.createParentDirs(created);
+        Files.write("", created, Charsets.UTF_8);
+        assertTrue(existing.delete());
+        // Written by the build and renamed over an output.
+        File temp = new File(tmp, ".created.js-123.tmp");
+        Files.write("", temp, Charsets.UTF_8);
+        assertTrue(temp.delete());
+
+        ChangeBatch batch = watcher.take(200);
+        assertFalse(batch.isEmpty());
+        assertTrue(batch.toString(), batch.changed.contains(created));
+        assertTrue(batch.toString(), batch.deleted.contains(existing));
+        assertEquals(batch.toString(), 2, batch.size());
+      }
+    } finally {
+      deleteTree(tmp);
+    }
+  }
+
+  @Test
+  public static void testBuildWrites() throws Exception {
+    File tmp = Files.createTempDir().getCanonicalFile();
+    try {
+      File src = new File(tmp, "src");
+      File gen = new File(tmp, "gen");
+      File soy = new File(src, "foo.soy");
+      File soyJs = new File(gen, "foo.soy.js");
+      File oldJs = new File(gen, "old.soy.js");
+      for (File f : new File[] { soy, soyJs, oldJs }) {
+        Files.createParentDirs(f);
+        Files.write("", f, Charsets.UTF_8);
+      }
+
+      WatchBuildContext bc = new WatchBuildContext(
+          new DefaultBuildContext(), tmp);
+      ChangeBatch edit = new ChangeBatch(
+          ImmutableList.of(soy), ImmutableList.<File>of(), false);
+      bc.setDelta(Optional.of(edit));
+      assertFalse(bc.hasDelta(gen));
+
+      // A step compiles foo.soy and deletes an output that is now defunct.
+      Files.write("var x;", soyJs, Charsets.UTF_8);
+      assertTrue(oldJs.delete());
+      bc.stepOutputsChanged(ImmutableList.of(soyJs, oldJs));
+
+      // Later steps in the same build see those as changed.
+      assertTrue(bc.hasDelta(gen));
+      assertEquals(
+          ImmutableList.of("foo.soy.js"), scan(bc.newScanner(gen, false)));
+      assertEquals(
+          ImmutableList.of("old.soy.js"), scan(bc.newDeleteScanner(gen)));
+
+      // Once the build refreshes them, the watcher events that they caused
+      // do not trigger a rebuild.
+      bc.refresh(soyJs);
+      bc.refresh(oldJs);
+      ChangeBatch events = new ChangeBatch(
+          ImmutableList.of(soyJs), ImmutableList.of(oldJs), false);
+      assertTrue(bc.withoutBuildWrites(events).isEmpty());
+
+      // Unless something else changes them afterwards.
+      bc.setDelta(Optional.of(events));
+      assertFalse(bc.hasDelta(soy));
+      Files.write("var x, y;", soyJs, Charsets.UTF_8);
+      ChangeBatch edited = bc.withoutBuildWrites(events);
+      assertEquals(ImmutableSet.of(soyJs), edited.changed);
+      assertTrue(edited.deleted.isEmpty());
+    } finally {
+      deleteTree(tmp);
+    }
+  }
+}